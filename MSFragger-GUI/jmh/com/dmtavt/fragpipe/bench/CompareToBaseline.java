@@ -0,0 +1,127 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Usage: <code>CompareToBaseline baseline.json results.json [tolerance]</code>
+ * <br/>
+ * Compares JMH results (written with {@code -rf json}) to a baseline run. A benchmark regressed if
+ * it got slower than the baseline by more than the tolerance (default 0.1, i.e. 10%) and by more
+ * than the error of both measurements. Exits with 1 if anything regressed.
+ */
+public class CompareToBaseline {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CompareToBaseline baseline.json results.json [tolerance]");
+      System.exit(2);
+    }
+    final Path baselinePath = Paths.get(args[0]);
+    if (!Files.exists(baselinePath)) {
+      System.out.println("No baseline at " + baselinePath + ", nothing to compare to. Save one with the jmhBaseline task.");
+      return;
+    }
+    final double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+    final Map<String, Score> baseline = read(baselinePath);
+    final Map<String, Score> results = read(Paths.get(args[1]));
+
+    int regressions = 0;
+    for (Map.Entry<String, Score> e : results.entrySet()) {
+      final Score now = e.getValue();
+      final Score before = baseline.get(e.getKey());
+      if (before == null) {
+        System.out.printf(Locale.ROOT, "  new   %s: %.3f %s%n", e.getKey(), now.score, now.unit);
+        continue;
+      }
+      if (!before.unit.equals(now.unit)) {
+        System.out.printf(Locale.ROOT, "  ????  %s: units differ, %s vs %s%n", e.getKey(), before.unit, now.unit);
+        continue;
+      }
+      // time per operation gets worse when it grows, throughput when it shrinks
+      final double worse = now.higherIsBetter ? before.score - now.score : now.score - before.score;
+      final boolean regressed = worse > tolerance * before.score && worse > before.error + now.error;
+      if (regressed) {
+        ++regressions;
+      }
+      System.out.printf(Locale.ROOT, "  %s %s: %.3f -> %.3f %s (%+.1f%%)%n", regressed ? "WORSE" : "ok   ", e.getKey(),
+          before.score, now.score, now.unit, 100 * (now.score - before.score) / before.score);
+    }
+    for (String missing : baseline.keySet()) {
+      if (!results.containsKey(missing)) {
+        System.out.println("  gone  " + missing);
+      }
+    }
+    if (regressions > 0) {
+      System.out.printf(Locale.ROOT, "%d benchmark(s) regressed by more than %.0f%%%n", regressions, 100 * tolerance);
+      System.exit(1);
+    }
+  }
+
+  private static Map<String, Score> read(Path path) throws IOException {
+    final Map<String, Score> scores = new LinkedHashMap<>();
+    final JsonArray array;
+    try (Reader reader = Files.newBufferedReader(path)) {
+      array = JsonParser.parseReader(reader).getAsJsonArray();
+    }
+    for (JsonElement element : array) {
+      final JsonObject o = element.getAsJsonObject();
+      final StringBuilder key = new StringBuilder(o.get("benchmark").getAsString());
+      final JsonObject params = o.getAsJsonObject("params");
+      if (params != null) {
+        final Map<String, String> sorted = new TreeMap<>();
+        params.entrySet().forEach(p -> sorted.put(p.getKey(), p.getValue().getAsString()));
+        key.append(sorted);
+      }
+      final JsonObject metric = o.getAsJsonObject("primaryMetric");
+      final JsonElement error = metric.get("scoreError");
+      scores.put(key.toString(), new Score(metric.get("score").getAsDouble(),
+          error == null || !error.isJsonPrimitive() || !error.getAsJsonPrimitive().isNumber() || Double.isNaN(error.getAsDouble()) ? 0 : error.getAsDouble(),
+          metric.get("scoreUnit").getAsString(), "thrpt".equals(o.get("mode").getAsString())));
+    }
+    return scores;
+  }
+
+  private static class Score {
+
+    final double score;
+    final double error;
+    final String unit;
+    final boolean higherIsBetter;
+
+    Score(double score, double error, String unit, boolean higherIsBetter) {
+      this.score = score;
+      this.error = error;
+      this.unit = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+}
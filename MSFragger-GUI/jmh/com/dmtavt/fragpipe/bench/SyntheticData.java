@@ -0,0 +1,340 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Generates the inputs of the benchmarks: FASTA files, spectral libraries, DIA-NN reports, PSM
+ * tables, pepXML and Percolator files. The content is random but shaped like the real files, so
+ * that the parsers take the same paths. The same seed always gives the same files.
+ */
+public final class SyntheticData {
+
+  private static final String RESIDUES = "AAACDDEEFGGGHIIKKLLLLMNNPPQQRRSSSSTTTVVVWY";
+  private static final String[] FRAGMENT_TYPES = {"b", "y"};
+  public static final float OXIDATION = 15.9949f;
+  public static final float PHOSPHO = 79.9663f;
+  public static final String PHOSPHO_COLUMN = "STY:79.9663";
+  private static final String[] DIANN_REPORT_COLUMNS = {"File.Name", "Run", "Protein.Group", "Protein.Ids",
+      "Protein.Names", "Genes", "PG.Quantity", "PG.Normalised", "PG.MaxLFQ", "Genes.Quantity", "Genes.Normalised",
+      "Genes.MaxLFQ", "Genes.MaxLFQ.Unique", "Modified.Sequence", "Stripped.Sequence", "Precursor.Id",
+      "Precursor.Charge", "Q.Value", "PEP", "Global.Q.Value", "Protein.Q.Value", "PG.Q.Value", "Global.PG.Q.Value",
+      "GG.Q.Value", "Translated.Q.Value", "Proteotypic", "Precursor.Quantity", "Precursor.Normalised",
+      "Precursor.Translated", "Translated.Quality", "Ms1.Translated", "Quantity.Quality", "RT", "RT.Start", "RT.Stop",
+      "iRT", "Predicted.RT", "Predicted.iRT", "First.Protein.Description", "Lib.Q.Value", "Lib.PG.Q.Value",
+      "Ms1.Profile.Corr", "Ms1.Area", "Evidence", "Spectrum.Similarity", "Averagine", "Mass.Evidence", "CScore",
+      "Decoy.Evidence", "Decoy.CScore", "Fragment.Quant.Raw", "Fragment.Quant.Corrected", "Fragment.Correlations",
+      "Fragment.Info", "MS2.Scan", "IM", "iIM", "Predicted.IM", "Predicted.iIM"};
+
+  private final Random random;
+
+  public SyntheticData(long seed) {
+    random = new Random(seed);
+  }
+
+  public static Path tempDir(String name) throws IOException {
+    return Files.createTempDirectory("fragpipe-jmh-" + name + "-");
+  }
+
+  public static void delete(Path dir) throws IOException {
+    if (dir == null || !Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  /**
+   * @return Distinct tryptic peptides of 7 to 25 residues.
+   */
+  public List<String> peptides(int n) {
+    Set<String> peptides = new LinkedHashSet<>(n * 2);
+    StringBuilder sb = new StringBuilder(32);
+    while (peptides.size() < n) {
+      sb.setLength(0);
+      int length = 7 + random.nextInt(19);
+      for (int i = 0; i < length - 1; ++i) {
+        char aa = RESIDUES.charAt(random.nextInt(RESIDUES.length()));
+        sb.append(aa == 'K' || aa == 'R' ? 'A' : aa);
+      }
+      sb.append(random.nextBoolean() ? 'K' : 'R');
+      peptides.add(sb.toString());
+    }
+    return new ArrayList<>(peptides);
+  }
+
+  public static String protein(int i) {
+    return String.format(Locale.ROOT, "P%05d", i);
+  }
+
+  public static String gene(int i) {
+    return "GENE" + i;
+  }
+
+  /**
+   * @return The protein a peptide belongs to, about 20 peptides per protein.
+   */
+  public static int proteinOf(int peptide) {
+    return peptide / 20;
+  }
+
+  /**
+   * @return Position of the oxidized methionine of every fourth peptide that has one, -1 if none.
+   */
+  public static int oxidizedSite(List<String> peptides, int peptide) {
+    return peptide % 4 == 0 ? peptides.get(peptide).indexOf('M') : -1;
+  }
+
+  private static double mass(String peptide) {
+    return 18.0106 + 110.5 * peptide.length();
+  }
+
+  /**
+   * UniProt style FASTA with reversed decoys, proteins of 100 to 1000 residues.
+   */
+  public void writeFasta(Path path, int proteins, String decoyTag) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      StringBuilder sequence = new StringBuilder(1024);
+      for (int i = 0; i < proteins; ++i) {
+        sequence.setLength(0);
+        int length = 100 + random.nextInt(900);
+        for (int j = 0; j < length; ++j) {
+          sequence.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+        }
+        for (int decoy = 0; decoy < 2; ++decoy) {
+          w.write(">" + (decoy == 0 ? "" : decoyTag) + "sp|" + protein(i) + "|" + gene(i) + "_HUMAN Protein " + i + " OS=Homo sapiens OX=9606 GN=" + gene(i) + "\n");
+          String s = decoy == 0 ? sequence.toString() : sequence.reverse().toString();
+          for (int j = 0; j < s.length(); j += 60) {
+            w.write(s, j, Math.min(60, s.length() - j));
+            w.write('\n');
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * EasyPQP style spectral library with six fragments per precursor.
+   */
+  public void writeLibrary(Path path, List<String> peptides) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      w.write("PrecursorMz\tProductMz\tAnnotation\tProteinId\tGeneName\tPeptideSequence\tModifiedPeptideSequence\tPrecursorCharge\tLibraryIntensity\tNormalizedRetentionTime\tPrecursorIonMobility\tFragmentType\tFragmentCharge\tFragmentSeriesNumber\tFragmentLossType\tAverageExperimentalRetentionTime\n");
+      for (int i = 0; i < peptides.size(); ++i) {
+        String peptide = peptides.get(i);
+        int charge = 2 + random.nextInt(2);
+        double mz = (mass(peptide) + charge * 1.00728) / charge;
+        float rt = random.nextFloat() * 120;
+        String modified = unimodSequence(peptides, i);
+        for (int f = 0; f < 6; ++f) {
+          String type = FRAGMENT_TYPES[f % 2];
+          int number = 1 + random.nextInt(peptide.length() - 1);
+          w.write(String.format(Locale.ROOT, "%f\t%f\t%s%d^1\t%s\t%s\t%s\t%s\t%d\t%.1f\t%f\t\t%s\t1\t%d\t\t%f\n",
+              mz, 110.5 * number + 19, type, number, protein(proteinOf(i)), gene(proteinOf(i)), peptide, modified, charge,
+              10000f * random.nextFloat(), rt, type, number, rt * 60));
+        }
+      }
+    }
+  }
+
+  private static String unimodSequence(List<String> peptides, int i) {
+    String peptide = peptides.get(i);
+    int site = oxidizedSite(peptides, i);
+    return site < 0 ? peptide : peptide.substring(0, site + 1) + "(UniMod:35)" + peptide.substring(site + 1);
+  }
+
+  /**
+   * DIA-NN 1.8 report, with all of its columns in the same order as DIA-NN writes them. Every
+   * precursor is reported in every run.
+   *
+   * @param heavy Report every precursor once light and once with heavy K (UniMod:259) and R
+   * (UniMod:267), as plexDIA does. False for label free data.
+   */
+  public void writeDiannReport(Path path, List<String> peptides, int runs, boolean heavy) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      w.write(String.join("\t", DIANN_REPORT_COLUMNS) + "\n");
+      StringBuilder quant = new StringBuilder(128);
+      StringBuilder info = new StringBuilder(256);
+      StringBuilder correlations = new StringBuilder(64);
+      for (int run = 0; run < runs; ++run) {
+        String runName = String.format(Locale.ROOT, "run%03d", run);
+        for (int i = 0; i < peptides.size(); ++i) {
+          String peptide = peptides.get(i);
+          int protein = proteinOf(i);
+          int charge = 2 + i % 2;
+          for (int channel = 0; channel < (heavy ? 2 : 1); ++channel) {
+            String modified = unimodSequence(peptides, i);
+            if (channel == 1) {
+              char last = modified.charAt(modified.length() - 1);
+              modified = modified + (last == 'K' ? "(UniMod:259)" : "(UniMod:267)");
+            }
+            quant.setLength(0);
+            info.setLength(0);
+            correlations.setLength(0);
+            for (int f = 0; f < 6; ++f) {
+              quant.append(String.format(Locale.ROOT, "%.3f;", 1e5f * random.nextFloat()));
+              info.append(FRAGMENT_TYPES[f % 2]).append(f + 2).append("^1/").append(String.format(Locale.ROOT, "%.4f;", 110.5 * (f + 2) + 19));
+              correlations.append(String.format(Locale.ROOT, "%.5f;", random.nextFloat()));
+            }
+            float intensity = 1e6f * random.nextFloat();
+            float pgQuantity = 1e7f * random.nextFloat();
+            float rt = 120 * random.nextFloat();
+            w.write(String.format(Locale.ROOT, "/data/%s.mzML\t%s\t%s\t%s\t%s_HUMAN\t%s\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%s\t%s\t%s%d\t%d\t",
+                runName, runName, protein(protein), protein(protein), gene(protein), gene(protein),
+                pgQuantity, pgQuantity, pgQuantity, pgQuantity, pgQuantity, pgQuantity, pgQuantity, modified, peptide, modified, charge, charge));
+            w.write(String.format(Locale.ROOT, "%.6f\t%.6f\t%.6f\t%.6f\t%.6f\t%.6f\t%.6f\t%.6f\t1\t%.1f\t%.1f\t%.1f\t%.4f\t%.1f\t%.4f\t",
+                0.01f * random.nextFloat(), 0.01f * random.nextFloat(), 0.01f * random.nextFloat(), 0.01f * random.nextFloat(),
+                0.01f * random.nextFloat(), 0.01f * random.nextFloat(), 0.01f * random.nextFloat(), 0.0f,
+                intensity, intensity, intensity, random.nextFloat(), 0.0f, random.nextFloat()));
+            w.write(String.format(Locale.ROOT, "%.4f\t%.4f\t%.4f\t%.3f\t%.4f\t%.3f\tProtein %s\t%.6f\t%.6f\t%.4f\t%.1f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t",
+                rt, rt - 0.1f, rt + 0.1f, 100 * random.nextFloat(), rt, 100 * random.nextFloat(), protein(protein),
+                0.01f * random.nextFloat(), 0.01f * random.nextFloat(), random.nextFloat(), intensity, 5 * random.nextFloat(),
+                random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat()));
+            w.write(String.format(Locale.ROOT, "%s\t%s\t%s\t%s\t%d\t0\t0\t0\t0\n",
+                quant, quant, correlations, info, 10000 + random.nextInt(90000)));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * FragPipe psm.tsv with one PSM per peptide, every tenth peptide with a localized phosphorylation.
+   */
+  public void writePsm(Path path, List<String> peptides) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      w.write("Spectrum\tSpectrum File\tPeptide\tCharge\tAssigned Modifications\tProtein Start\tProtein End\tProtein\tGene\tMapped Genes\tMapped Proteins\t" + PHOSPHO_COLUMN + "\n");
+      for (int i = 0; i < peptides.size(); ++i) {
+        String peptide = peptides.get(i);
+        int site = oxidizedSite(peptides, i);
+        String mods = site < 0 ? "" : String.format(Locale.ROOT, "%dM(%.4f)", site + 1, OXIDATION);
+        int phosphoSite = i % 10 == 0 ? peptide.indexOf('S') : -1;
+        String localized = phosphoSite < 0 ? "" : peptide.substring(0, phosphoSite + 1) + "(0.9500)" + peptide.substring(phosphoSite + 1);
+        int protein = proteinOf(i);
+        int start = 1 + random.nextInt(500);
+        w.write(String.format(Locale.ROOT, "run000.%05d.%05d.%d\trun000.pep.xml\t%s\t%d\t%s\t%d\t%d\tsp|%s|%s_HUMAN\t%s\t%s\t%s\t%s\n",
+            i + 1, i + 1, 2 + i % 2, peptide, 2 + i % 2, mods, start, start + peptide.length() - 1, protein(protein), gene(protein), gene(protein),
+            i % 7 == 0 ? gene(protein + 1) : "", i % 7 == 0 ? "sp|" + protein(protein + 1) + "|" + gene(protein + 1) + "_HUMAN" : "", localized));
+      }
+    }
+  }
+
+  /**
+   * MSFragger style pepXML of a DDA search reporting the top {@code topN} hits of every spectrum.
+   * Scan numbers are zero padded to five digits, as by MSFragger.
+   */
+  public void writePepxml(Path path, String baseName, List<String> peptides, int spectra, int topN) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      w.write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n");
+      w.write("<msms_pipeline_analysis date=\"2024-01-01T00:00:00\" xmlns=\"http://regis-web.systemsbiology.net/pepXML\" summary_xml=\"" + path + "\">\n");
+      w.write("<msms_run_summary base_name=\"/data/" + baseName + "\" raw_data_type=\"mzML\" raw_data=\"mzML\">\n");
+      w.write("<search_summary base_name=\"/data/" + baseName + "\" precursor_mass_type=\"monoisotopic\" search_engine=\"X! Tandem\" search_engine_version=\"MSFragger\" fragment_mass_type=\"monoisotopic\" search_id=\"1\">\n");
+      w.write("<parameter name=\"output_report_topN\" value=\"" + topN + "\"/>\n");
+      w.write("</search_summary>\n");
+      for (int scan = 1; scan <= spectra; ++scan) {
+        int charge = 2 + scan % 3;
+        String peptide = peptides.get(scan % peptides.size());
+        double mass = mass(peptide);
+        w.write(String.format(Locale.ROOT, "<spectrum_query spectrum=\"%s.%05d.%05d.%d\" spectrumNativeID=\"controllerType=0 controllerNumber=1 scan=%d\" start_scan=\"%d\" end_scan=\"%d\" precursor_neutral_mass=\"%.4f\" assumed_charge=\"%d\" index=\"%d\" retention_time_sec=\"%.3f\">\n",
+            baseName, scan, scan, charge, scan, scan, scan, mass, charge, scan, scan * 0.5));
+        w.write("<search_result>\n");
+        for (int rank = 1; rank <= topN; ++rank) {
+          String hit = rank == 1 ? peptide : peptides.get(random.nextInt(peptides.size()));
+          w.write(String.format(Locale.ROOT, "<search_hit peptide=\"%s\" massdiff=\"%.4f\" calc_neutral_pep_mass=\"%.4f\" peptide_next_aa=\"A\" num_missed_cleavages=\"0\" num_tol_term=\"2\" num_tot_proteins=\"1\" tot_num_ions=\"%d\" hit_rank=\"%d\" num_matched_ions=\"%d\" protein=\"sp|%s|\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n",
+              hit, random.nextFloat() * 0.02f - 0.01f, mass, 2 * hit.length(), rank, random.nextInt(hit.length()), protein(random.nextInt(1000))));
+          w.write(String.format(Locale.ROOT, "<search_score name=\"hyperscore\" value=\"%.3f\"/>\n", 40 * random.nextFloat()));
+          w.write(String.format(Locale.ROOT, "<search_score name=\"expect\" value=\"%.3e\"/>\n", random.nextFloat()));
+          w.write("</search_hit>\n");
+        }
+        w.write("</search_result>\n");
+        w.write("</spectrum_query>\n");
+      }
+      w.write("</msms_run_summary>\n");
+      w.write("</msms_pipeline_analysis>\n");
+    }
+  }
+
+  /**
+   * Percolator input with a row for every hit of {@link #writePepxml}.
+   */
+  public void writePin(Path path, String baseName, int spectra, int topN) throws IOException {
+    try (BufferedWriter w = Files.newBufferedWriter(path)) {
+      w.write("SpecId\tLabel\tScanNr\tExpMass\tretentiontime\trank\tntt\tnmc\thyperscore\tPeptide\tProteins\n");
+      for (int scan = 1; scan <= spectra; ++scan) {
+        for (int rank = 1; rank <= topN; ++rank) {
+          w.write(String.format(Locale.ROOT, "%s.%05d.%05d.%d_%d\t%d\t%d\t%.4f\t%.3f\t%d\t2\t%d\t%.3f\tK.PEPTIDE.A\tP00001\n",
+              baseName, scan, scan, 2 + scan % 3, rank, random.nextInt(10) == 0 ? -1 : 1, scan, 1000 + scan * 0.01, scan * 0.5, rank, random.nextInt(2), 40 * random.nextFloat()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Percolator target and decoy PSM tables for the rows of {@link #writePin}.
+   */
+  public void writePercolatorPsms(Path target, Path decoy, String baseName, int spectra, int topN) throws IOException {
+    try (BufferedWriter wt = Files.newBufferedWriter(target); BufferedWriter wd = Files.newBufferedWriter(decoy)) {
+      String header = "PSMId\tscore\tq-value\tposterior_error_prob\tpeptide\tproteinIds\n";
+      wt.write(header);
+      wd.write(header);
+      for (int scan = 1; scan <= spectra; ++scan) {
+        for (int rank = 1; rank <= topN; ++rank) {
+          BufferedWriter w = random.nextInt(10) == 0 ? wd : wt;
+          w.write(String.format(Locale.ROOT, "%s.%05d.%05d.%d_%d\t%.4f\t%.5f\t%.5e\tK.PEPTIDE.A\tP00001\n",
+              baseName, scan, scan, 2 + scan % 3, rank, 4 * random.nextFloat() - 1, 0.05f * random.nextFloat(), random.nextFloat()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Glycan compositions in the text format of the glycan databases shipped with FragPipe.
+   */
+  public void writeGlycans(Path path, int n) throws IOException {
+    Set<String> glycans = new LinkedHashSet<>();
+    while (glycans.size() < n) {
+      StringBuilder sb = new StringBuilder("HexNAc(").append(1 + random.nextInt(7)).append(")");
+      int hex = random.nextInt(10);
+      if (hex > 0) {
+        sb.append("Hex(").append(hex).append(")");
+      }
+      if (random.nextBoolean()) {
+        sb.append("Fuc(").append(1 + random.nextInt(3)).append(")");
+      }
+      if (random.nextBoolean()) {
+        sb.append("NeuAc(").append(1 + random.nextInt(4)).append(")");
+      }
+      glycans.add(sb.toString());
+    }
+    Files.write(path, glycans);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.diann;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a DIA-NN report to the MSstats input, plain and gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8G")
+public class DiannToMsstatsBenchmark {
+
+  @Param({"10000", "50000"})
+  public int precursors;
+
+  @Param({"20", "100"})
+  public int runs;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  private Path dir;
+  private Path report;
+  private Path psm;
+  private final Map<String, String[]> conditions = new HashMap<>();
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("msstats");
+    SyntheticData data = new SyntheticData(42);
+    List<String> peptides = data.peptides(precursors);
+    psm = dir.resolve("psm.tsv");
+    data.writePsm(psm, peptides);
+    report = dir.resolve("report.tsv");
+    data.writeDiannReport(report, peptides, runs, false);
+    for (int run = 0; run < runs; ++run) {
+      conditions.put(String.format(Locale.ROOT, "run%03d", run), new String[]{run % 2 == 0 ? "a" : "b", String.valueOf(run / 2 + 1)});
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public void convert() throws Exception {
+    new DiannToMsstats(report.toString(), dir.toString(), psm.toString(), 0.01f, 0.01f, 0.01f, 0.01f, conditions, Runtime.getRuntime().availableProcessors(), gzip);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.diann;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Library generation and light/heavy pairing of plexDIA, with an SILAC K/R labelled library and
+ * a report of 20 runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8G")
+public class PlexDiaHelperBenchmark {
+
+  private static final int RUNS = 20;
+
+  @Param({"10000", "50000"})
+  public int precursors;
+
+  private Path dir;
+  private Path library;
+  private Path report;
+  private PlexDiaHelper helper;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("plexdia");
+    SyntheticData data = new SyntheticData(42);
+    List<String> peptides = data.peptides(precursors);
+    library = dir.resolve("library.tsv");
+    data.writeLibrary(library, peptides);
+    report = dir.resolve("report.tsv");
+    data.writeDiannReport(report, peptides, RUNS, true);
+
+    Map<Character, Float> light = new TreeMap<>();
+    light.put('K', 0f);
+    light.put('R', 0f);
+    Map<Character, Float> heavy = new TreeMap<>();
+    heavy.put('K', 8.014199f);
+    heavy.put('R', 10.008269f);
+    helper = new PlexDiaHelper(Runtime.getRuntime().availableProcessors(), light, null, heavy);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public void generateNewLibrary() throws Exception {
+    helper.generateNewLibrary(library, dir.resolve("library_plex.tsv"), false);
+  }
+
+  @Benchmark
+  public void generateNewLibrary2() throws Exception {
+    helper.generateNewLibrary2(library, dir.resolve("library_plex2.tsv"), true, true);
+  }
+
+  /**
+   * Reads the report, pairs the ions of every run and writes the combined label quant tables.
+   */
+  @Benchmark
+  public void pairAndWriteReport() throws Exception {
+    helper.pairAndWriteReport(library, report, dir);
+  }
+}
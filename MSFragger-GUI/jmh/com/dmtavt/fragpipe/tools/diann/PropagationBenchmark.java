@@ -0,0 +1,97 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.diann;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Propagation of protein mappings and localizations from psm.tsv to the DIA-NN reports. The
+ * reports are rewritten in place, so they are restored before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8G")
+public class PropagationBenchmark {
+
+  @Param({"10000", "50000"})
+  public int precursors;
+
+  @Param({"20", "100"})
+  public int runs;
+
+  private Path dir;
+  private Path psm;
+  private Path report;
+  private Path prMatrix;
+  private Propagation propagation;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("propagation");
+    SyntheticData data = new SyntheticData(42);
+    List<String> peptides = data.peptides(precursors);
+    psm = dir.resolve("psm.tsv");
+    data.writePsm(psm, peptides);
+    report = dir.resolve("report.tsv.orig");
+    data.writeDiannReport(report, peptides, runs, false);
+    // the precursor matrix only needs the columns that are read, the rest is passed through
+    prMatrix = dir.resolve("report.pr_matrix.tsv.orig");
+    data.writeDiannReport(prMatrix, peptides, 1, false);
+    List<String> lines = Files.readAllLines(prMatrix);
+    lines.set(0, lines.get(0).replace("File.Name\tRun\tProtein.Group\tProtein.Ids\t", "Protein.Group\tProtein.Ids\tFile.Name\tRun\t"));
+    Files.write(prMatrix, lines);
+    propagation = new Propagation(Runtime.getRuntime().availableProcessors());
+  }
+
+  @Setup(Level.Invocation)
+  public void restoreReports() throws Exception {
+    Files.copy(report, dir.resolve("report.tsv"), StandardCopyOption.REPLACE_EXISTING);
+    Files.copy(prMatrix, dir.resolve("report.pr_matrix.tsv"), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public void propagate() throws Exception {
+    propagation.propagate(psm, dir);
+  }
+}
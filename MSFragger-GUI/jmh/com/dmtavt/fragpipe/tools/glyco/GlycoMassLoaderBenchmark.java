@@ -0,0 +1,89 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.glyco;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import umich.ms.glyco.Glycan;
+import umich.ms.glyco.GlycanParser;
+
+/**
+ * Loading the glycan residue definitions and a glycan database, and enumerating the glycan
+ * combinations for O-glycan searches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GlycoMassLoaderBenchmark {
+
+  /** The largest databases shipped with FragPipe have about 1700 glycans. */
+  @Param({"300", "2000"})
+  public int glycans;
+
+  private Path dir;
+  private Path database;
+  private GlycoMassLoader loader;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("glyco");
+    database = dir.resolve("glycans.glyc");
+    new SyntheticData(42).writeGlycans(database, glycans);
+    loader = new GlycoMassLoader(true);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public GlycoMassLoader loadDefinitions() {
+    return new GlycoMassLoader(true);
+  }
+
+  @Benchmark
+  public List<Glycan> loadDatabase() {
+    return GlycanParser.loadGlycansFromText(database.toString(), GlycanParser.detectDBtype(database.toString()), loader.glycanResidues);
+  }
+
+  /**
+   * Pairs of glycans, as enumerated when combining two O-glycans per peptide.
+   */
+  @Benchmark
+  public List<int[]> combinations() {
+    return GlycoMassLoader.combinationsWithRepetition(glycans, 2);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.percolator;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of the Percolator results of a DDA run back to pepXML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class PercolatorOutputToPepXMLBenchmark {
+
+  private static final String BASE_NAME = "run000";
+  private static final int TOP_N = 5;
+
+  /** Spectra of one run, a long gradient on a fast instrument gives a few hundred thousand. */
+  @Param({"50000", "250000"})
+  public int spectra;
+
+  private Path dir;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("percolator");
+    SyntheticData data = new SyntheticData(42);
+    data.writePepxml(dir.resolve(BASE_NAME + ".pepXML"), BASE_NAME, data.peptides(20000), spectra, TOP_N);
+    data.writePin(dir.resolve(BASE_NAME + ".pin"), BASE_NAME, spectra, TOP_N);
+    data.writePercolatorPsms(dir.resolve(BASE_NAME + "_percolator_target_psms.tsv"), dir.resolve(BASE_NAME + "_percolator_decoy_psms.tsv"), BASE_NAME, spectra, TOP_N);
+    Files.createFile(dir.resolve(BASE_NAME + ".mzML"));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public void percolatorToPepXML() {
+    PercolatorOutputToPepXML.percolatorToPepXML(dir.resolve(BASE_NAME + ".pin"), dir.resolve(BASE_NAME).toString(),
+        dir.resolve(BASE_NAME + "_percolator_target_psms.tsv"), dir.resolve(BASE_NAME + "_percolator_decoy_psms.tsv"),
+        dir.resolve("interact-" + BASE_NAME), "DDA", 0, dir.resolve(BASE_NAME + ".mzML").toString());
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static com.dmtavt.fragpipe.cmd.ToolingUtils.UNIMOD_OBO;
+import static com.dmtavt.fragpipe.cmd.ToolingUtils.getUnimodOboPath;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading unimod.obo, with and without the binary cache, and the lookups done for every PSM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnimodOboReaderBenchmark {
+
+  private static final float[] MASSES = {15.9949f, 57.021464f, 42.010565f, 79.966331f, 0.984016f, 229.162932f, 8.014199f, 123.456f};
+  private static final char[] SITES = {'M', 'C', 'n', 'S', 'N', 'K', 'K', 'A'};
+
+  private Path obo;
+  private Path dir;
+  private Path cache;
+  private UnimodOboReader reader;
+  private String[] peptides;
+  private String[] modifications;
+
+  @Setup
+  public void setUp() throws Exception {
+    obo = getUnimodOboPath(UNIMOD_OBO);
+    dir = SyntheticData.tempDir("unimod");
+    cache = dir.resolve("unimod.bin");
+    UnimodIndex.load(obo, cache);
+    reader = new UnimodOboReader(obo);
+
+    SyntheticData data = new SyntheticData(42);
+    List<String> list = data.peptides(1000);
+    peptides = list.toArray(new String[0]);
+    modifications = new String[peptides.length];
+    for (int i = 0; i < peptides.length; ++i) {
+      int site = peptides[i].indexOf('M');
+      modifications[i] = (i % 3 == 0 ? "N-term(42.0106)" : "") + (site < 0 ? "" : String.format(Locale.ROOT, "%s%dM(15.9949)", i % 3 == 0 ? ", " : "", site + 1));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public UnimodIndex parseObo() throws Exception {
+    return UnimodIndex.parse(obo);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public UnimodIndex loadCache() throws Exception {
+    return UnimodIndex.load(obo, cache);
+  }
+
+  @Benchmark
+  public void convertModifications(Blackhole bh) {
+    for (int i = 0; i < MASSES.length; ++i) {
+      bh.consume(reader.convertModifications(MASSES[i], SITES[i]));
+    }
+  }
+
+  @Benchmark
+  public void convertPrecursor(Blackhole bh) {
+    for (int i = 0; i < peptides.length; ++i) {
+      bh.consume(reader.convertPrecursor(peptides[i], modifications[i], 2));
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.chhh.utils;
+
+import com.dmtavt.fragpipe.bench.SyntheticData;
+import com.github.chhh.utils.FastaUtils.FastaContent;
+import com.github.chhh.utils.FastaUtils.InferFastaPrefixesAndSuffixes;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoy tag detection on a FASTA file, from the parsed headers and from the streaming index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class FastaUtilsBenchmark {
+
+  /** Target proteins, a human proteome with isoforms is about 40000. */
+  @Param({"20000", "200000"})
+  public int proteins;
+
+  private Path dir;
+  private Path fasta;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = SyntheticData.tempDir("fasta");
+    fasta = dir.resolve("proteins.fasta");
+    new SyntheticData(42).writeFasta(fasta, proteins, "rev_");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SyntheticData.delete(dir);
+  }
+
+  @Benchmark
+  public InferFastaPrefixesAndSuffixes readFastaAndInferPrefixes() throws Exception {
+    FastaContent content = FastaUtils.readFasta(fasta);
+    return new InferFastaPrefixesAndSuffixes(content.ordered).invoke();
+  }
+
+  @Benchmark
+  public InferFastaPrefixesAndSuffixes buildIndexAndInferPrefixes() throws Exception {
+    return new InferFastaPrefixesAndSuffixes(FastaIndex.build(fasta)).invoke();
+  }
+}
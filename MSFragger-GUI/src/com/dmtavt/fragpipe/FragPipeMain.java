@@ -40,6 +40,10 @@ public class FragPipeMain {
           Fragpipe.headless = true;
         } else if (args[i].equalsIgnoreCase("--dry-run")) {
           Fragpipe.dryRun = true;
+        } else if (args[i].equalsIgnoreCase("--resume")) {
+          Fragpipe.resume = true;
+        } else if (args[i].equalsIgnoreCase("--force")) {
+          Fragpipe.force = true;
         } else if (args[i].equalsIgnoreCase("--workflow")) {
           Fragpipe.workflowFile = Paths.get(args[++i]);
         } else if (args[i].equalsIgnoreCase("--manifest")) {
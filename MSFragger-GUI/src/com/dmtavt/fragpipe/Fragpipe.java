@@ -144,6 +144,8 @@ public class Fragpipe extends JFrameHeadless {
   public static java.util.concurrent.CountDownLatch loadWorkflowDone = new java.util.concurrent.CountDownLatch(1);
   public static java.util.concurrent.CountDownLatch runDone = new java.util.concurrent.CountDownLatch(1);
   public static boolean dryRun = false;
+  public static boolean resume = false;
+  public static boolean force = false;
   public static int ram = 0;
   static int nThreadsHeadlessOnly = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, maxProcessors)); // Note: this variable is only for headless mode. For the GUI mode, please get the number of threads using TabWorkflow:getThreads().
   public static String workdir = null;
@@ -477,7 +479,7 @@ public class Fragpipe extends JFrameHeadless {
       throw new RuntimeException(ex);
     }
 
-    Bus.post(new MessageRun(dryRun));
+    Bus.post(new MessageRun(dryRun, resume && !force));
 
     try {
       runDone.await();
@@ -997,6 +999,8 @@ public class Fragpipe extends JFrameHeadless {
     sb.append("\t--manifest <string>             # Specify path to manifest file.\n");
     sb.append("\t--workdir <string>              # Specify the result directory.\n");
     sb.append("\t--dry-run                       # (optional) Dry run, not really run FragPipe.\n");
+    sb.append("\t--resume                        # (optional) Skip the steps that finished in a previous run in the same result directory and whose inputs and parameters are unchanged.\n");
+    sb.append("\t--force                         # (optional) Run all the steps, even if --resume is given. This is the default.\n");
     sb.append("\t--ram <integer>                 # (optional) Specify the maximum allowed memory size. The unit is GB. Set it to 0 to let FragPipe decide. Default = 0\n");
     sb.append("\t--threads <integer>             # (optional) Specify the number of threads. Default = core number - 1\n");
     sb.append("\t--config-tools-folder <string>  # (optional) specify the folder containing MSFragger, IonQuant, and dirTracer. If not specified, using the one in the cache.\n");
@@ -51,6 +51,7 @@ public class FragpipeLocations {
   private static final Logger log = LoggerFactory.getLogger(FragpipeLocations.class);
   public static final String FN_CACHE_UI = "fragpipe-ui.cache";
   public static final String FN_CACHE_RUNTIME = "fragpipe-runtime.cache";
+  public static final String FN_CACHE_PYTHON = "fragpipe-python.cache";
 
   private final Path jarPath;
   private final Path cache;
@@ -162,6 +163,7 @@ public class FragpipeLocations {
     paths.add(getPathUiCache(true));
     paths.add(getWorkflowsCache(false));
     paths.add(getWorkflowsCache(true));
+    paths.add(getPathPythonCache());
     return paths;
   }
 
@@ -253,6 +255,13 @@ public class FragpipeLocations {
     return isSystemCache ? CacheUtils.getTempFile(FN_CACHE_UI) : get().cache.resolve(FN_CACHE_UI);
   }
 
+  /**
+   * Versions and installed modules of the Python interpreters FragPipe has checked.
+   */
+  public Path getPathPythonCache() {
+    return get().cache.resolve(FN_CACHE_PYTHON);
+  }
+
   public Path getWorkflowsCache(boolean isSystemCache) {
     return isSystemCache ? CacheUtils.getTempFile(FN_CACHE_UI).resolveSibling("workflows") : get().cache.resolve(FN_CACHE_UI).resolveSibling("workflows");
   }
@@ -20,7 +20,6 @@ package com.dmtavt.fragpipe;
 import static com.dmtavt.fragpipe.FragPipeMain.PHILOSOPHER_VERSION;
 import static com.dmtavt.fragpipe.Fragpipe.philosopherBinPath;
 import static com.dmtavt.fragpipe.messages.MessagePrintToConsole.toConsole;
-import static com.dmtavt.fragpipe.tabs.TabDatabase.databaseSizeLimit;
 import static com.dmtavt.fragpipe.tabs.TabWorkflow.manifestExt;
 import static com.dmtavt.fragpipe.tabs.TabWorkflow.workflowExt;
 import static com.dmtavt.fragpipe.tools.diann.DiannPanel.NEW_VERSION;
@@ -88,7 +87,11 @@ import com.dmtavt.fragpipe.params.ThisAppProps;
 import com.dmtavt.fragpipe.process.ProcessDescription;
 import com.dmtavt.fragpipe.process.ProcessDescription.Builder;
 import com.dmtavt.fragpipe.process.ProcessManager;
+import com.dmtavt.fragpipe.process.RunProfile;
 import com.dmtavt.fragpipe.process.RunnableDescription;
+import com.dmtavt.fragpipe.process.StepCache;
+import com.dmtavt.fragpipe.process.StepResults;
+import com.dmtavt.fragpipe.process.TaskGraph;
 import com.dmtavt.fragpipe.tabs.TabDatabase;
 import com.dmtavt.fragpipe.tabs.TabDownstream;
 import com.dmtavt.fragpipe.tabs.TabMsfragger;
@@ -119,6 +122,8 @@ import com.dmtavt.fragpipe.tools.speclibgen.SpeclibPanel;
 import com.dmtavt.fragpipe.tools.tmtintegrator.QuantLabel;
 import com.dmtavt.fragpipe.tools.tmtintegrator.TmtiPanel;
 import com.dmtavt.fragpipe.tools.umpire.UmpirePanel;
+import com.dmtavt.fragpipe.util.WorkdirIndex;
+import com.github.chhh.utils.FastaIndex;
 import com.github.chhh.utils.MapUtils;
 import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.PathUtils;
@@ -137,8 +142,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -149,7 +158,8 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -208,6 +218,7 @@ public class FragpipeRun {
       throw new IllegalStateException("ProcessManager has not been posted to the bus");
     }
     processManager.setThreads(tabWorkflow.getThreads());
+    processManager.setRamGb(tabWorkflow.getRamGb());
 
     log.debug("Started main FragpipeRun.run() method");
     Thread.setDefaultUncaughtExceptionHandler(Fragpipe::uncaughtExceptionHandler);
@@ -335,10 +346,10 @@ public class FragpipeRun {
         log.debug("Ordered tasks:\n{}", s);
       }
 
-      final List<ProcessBuildersDescriptor> pbDescsBuilderDescs = Seq
-          .seq(new TopologicalOrderIterator<>(dag))
+      final Map<CmdBase, ProcessBuildersDescriptor> pbDescsBuilderDescs = new LinkedHashMap<>();
+      Seq.seq(new TopologicalOrderIterator<>(dag))
           .filter(CmdBase::isRun)
-          .map(CmdBase::getBuilderDescriptor).toList();
+          .forEach(cmd -> pbDescsBuilderDescs.put(cmd, cmd.getBuilderDescriptor()));
 
       // =========================================================================================================
       toConsole(OsUtils.OsInfo() + "\n" + OsUtils.JavaInfo() + "\n" + OsUtils.NetCoreInfo() + "\n", tabRun.console);
@@ -356,8 +367,8 @@ public class FragpipeRun {
 
 
       // Converting process builders descriptors to process builder infos
-      final List<ProcessBuilderInfo> pbis = pbDescsBuilderDescs.stream()
-          .flatMap(pbd -> pbd.pbis.stream().map(pbi ->
+      final Map<CmdBase, List<ProcessBuilderInfo>> cmdPbis = new LinkedHashMap<>();
+      pbDescsBuilderDescs.forEach((cmd, pbd) -> cmdPbis.put(cmd, pbd.pbis.stream().map(pbi ->
           {
             PbiBuilder b = new PbiBuilder();
             b.setPb(pbi.pb);
@@ -366,9 +377,13 @@ public class FragpipeRun {
             b.setFnStdErr(pbi.fnStderr != null ? pbi.fnStderr : pbd.fnStderr);
             b.setParallelGroup(
                 pbi.parallelGroup != null ? pbi.parallelGroup : pbd.getParallelGroup());
+            b.setThreads(pbi.threads);
+            b.setRamGb(pbi.minRamGb, pbi.ramGb);
+            b.setLane(pbi.lane);
             return b.create();
-          }))
-          .collect(Collectors.toList());
+          })
+          .collect(Collectors.toList())));
+      final List<ProcessBuilderInfo> pbis = Seq.seq(cmdPbis.values()).flatMap(List::stream).toList();
 
       toConsole(String.format(Locale.ROOT, "%d commands to execute:", pbis.size()), tabRun.console);
       for (final ProcessBuilderInfo pbi : pbis) {
@@ -399,17 +414,12 @@ public class FragpipeRun {
       toConsole("~~~~~~Sample of " + tabDatabase.getFastaPath() + "~~~~~~~", tabRun.console);
       try {
         Path p = Paths.get(tabDatabase.getFastaPath());
-        if (Files.size(p) < databaseSizeLimit) {
-          List<String> proteinHeaders = Files.lines(p).filter(e -> e.startsWith(">")).sorted().collect(Collectors.toList());
-          int gap = proteinHeaders.size() < 21 ? 1 : (proteinHeaders.size() - 1) / 20;    // make sure gap is always at least 1 to prevent an infinite loop
-          int idx = 0;
-          while (idx < proteinHeaders.size()) {
-            toConsole(proteinHeaders.get(idx).trim(), tabRun.console);
-            idx += gap;
-          }
-        } else {
-          toConsole("The fasta file " + p.toAbsolutePath() + " is very large.\nSkip printing the head samples.", tabRun.console);
+        FastaIndex fastaIndex = FastaIndex.get(p);
+        long gap = fastaIndex.entries() < 21 ? 1 : (fastaIndex.entries() - 1) / 20;    // make sure gap is always at least 1 to prevent an infinite loop
+        for (long idx = 0; idx < fastaIndex.entries(); idx += gap) {
+          toConsole(">" + fastaIndex.header(idx).trim(), tabRun.console);
         }
+        toConsole(String.format("%d entries, %d residues, longest sequence %d", fastaIndex.entries(), fastaIndex.residues(), fastaIndex.maxLength()), tabRun.console);
       } catch (Exception e) {
         toConsole("Cannot get the sample of " + tabDatabase.getFastaPath(), tabRun.console);
         toConsole(ExceptionUtils.getStackTrace(e), tabRun.console);
@@ -457,16 +467,34 @@ public class FragpipeRun {
       // run everything
       long startTime = System.nanoTime();
       final List<RunnableDescription> toRun = new ArrayList<>();
-      for (final ProcessBuilderInfo pbi : pbis) {
-        Runnable runnable = ProcessBuilderInfo.toRunnable(pbi, wd, FragpipeRun::printProcessDescription, tabRun.console, false);
-        ProcessDescription.Builder b = new ProcessDescription.Builder().setName(pbi.name);
-        if (pbi.pb.directory() != null) {
-          b.setWorkDir(pbi.pb.directory().toString());
-        }
-        if (pbi.pb.command() != null && !pbi.pb.command().isEmpty()) {
-          b.setCommand(String.join(" ", pbi.pb.command()));
+      final Map<CmdBase, List<RunnableDescription>> cmdTasks = new HashMap<>();
+      final StepCache stepCache = StepCache.load(wd);
+      StepResults.beginRun(wd);
+      RunProfile.begin(wd);
+      final Map<ProcessBuilderInfo, String> fingerprints = new HashMap<>();
+      final Set<ProcessBuilderInfo> upToDate = ConcurrentHashMap.newKeySet();
+      for (Map.Entry<CmdBase, List<ProcessBuilderInfo>> e : cmdPbis.entrySet()) {
+        final List<RunnableDescription> tasks = new ArrayList<>();
+        for (final ProcessBuilderInfo pbi : e.getValue()) {
+          RunProfile.owner(pbi, e.getKey().getCmdName());
+          fingerprints.put(pbi, stepCache.fingerprint(pbi));
+          Runnable runnable = toCachedRunnable(pbi, wd, tabRun.console, stepCache, fingerprints.get(pbi), upToDate);
+          ProcessDescription.Builder b = new ProcessDescription.Builder().setName(pbi.name);
+          if (pbi.pb.directory() != null) {
+            b.setWorkDir(pbi.pb.directory().toString());
+          }
+          if (pbi.pb.command() != null && !pbi.pb.command().isEmpty()) {
+            b.setCommand(String.join(" ", pbi.pb.command()));
+          }
+          tasks.add(new RunnableDescription(b.create(), runnable, pbi.parallelGroup, pbi));
         }
-        toRun.add(new RunnableDescription(b.create(), runnable, pbi.parallelGroup, pbi));
+        toRun.addAll(tasks);
+        cmdTasks.put(e.getKey(), tasks);
+      }
+      final Graph<RunnableDescription, DefEdge> taskGraph = createTaskGraph(dag, cmdTasks);
+      if (m.isResume) {
+        findUpToDate(taskGraph, stepCache, fingerprints, upToDate);
+        toConsole(Fragpipe.COLOR_RED_DARKEST, String.format("\nResuming: %d of %d processes finished in a previous run and will be skipped.\n", upToDate.size(), fingerprints.size()), true, tabRun.console);
       }
 
       // add finalizer process
@@ -495,24 +523,17 @@ public class FragpipeRun {
 
         if (tabRun.isDeleteTempFiles()) {
           try {
-            Files.walk(wd).filter(p -> {
+            final List<String> tsvSuffixes = lcmsFileGroups.values().stream()
+                .flatMap(g -> g.lcmsFiles.stream())
+                .map(f -> FilenameUtils.getBaseName(f.getPath().getFileName().toString()) + ".tsv")
+                .distinct().collect(Collectors.toList());
+            WorkdirIndex.of(wd).find(fn -> {
               for (Pattern pattern : filesToDelete) {
-                if (pattern.matcher(p.getFileName().toString()).matches()) {
+                if (pattern.matcher(fn).matches()) {
                   return true;
-                } else {
-                  if (p.getFileName().toString().endsWith(".tsv")) {
-                    for (LcmsFileGroup lcmsFileGroup : lcmsFileGroups.values()) {
-                      for (InputLcmsFile inputLcmsFile : lcmsFileGroup.lcmsFiles) {
-                        String baseName = FilenameUtils.getBaseName(inputLcmsFile.getPath().getFileName().toString());
-                        if (p.getFileName().toString().endsWith(baseName + ".tsv")) {
-                          return true;
-                        }
-                      }
-                    }
-                  }
                 }
               }
-              return false;
+              return fn.endsWith(".tsv") && tsvSuffixes.stream().anyMatch(fn::endsWith);
             }).forEach(path -> {
               try {
                 toConsole(Fragpipe.COLOR_TOOL, "Delete ", false, tabRun.console);
@@ -531,54 +552,19 @@ public class FragpipeRun {
         if (tabRun.isSaveSDRF()) {
           QuantLabel label = tmtiPanel.isRun() ? tmtiPanel.getSelectedLabel() : null;
           Path sdrfPath = wd.resolve("sdrf.tsv");
-          Bus.post(new MessageSDRFsave(sdrfPath, true, label, tabRun.console.getText()));
+          Bus.post(new MessageSDRFsave(sdrfPath, true, label, StepResults.read(wd)));
         }
 
         if (tabRun.isWriteSubMzml()) { // write sub workflow and manifest files for the second-pass
           try {
-            Float newFragmentMassTolerance = null;
-            Integer newUseTopNPeaks = null;
-            Float newMinimumRatio = null;
-            Integer newIntensityTransform = null;
-            Integer newRemovePrecursorPeak = null;
-            Integer newMaxFragmentCharge = null;
-            Float newPrecursorTrueTolerance = null;
-
-            final String text = tabRun.console.getText().replaceAll("[^\n]+\u200B" + System.lineSeparator(), "");
-            Matcher matcher = Pattern.compile("New fragment_mass_tolerance = ([\\d.]+) PPM").matcher(text);
-            if (matcher.find()) {
-              newFragmentMassTolerance = Float.parseFloat(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New use_topN_peaks = (\\d+)").matcher(text);
-            if (matcher.find()) {
-              newUseTopNPeaks = Integer.parseInt(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New minimum_ratio = ([\\d.]+)").matcher(text);
-            if (matcher.find()) {
-              newMinimumRatio = Float.parseFloat(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New intensity_transform = (\\d+)").matcher(text);
-            if (matcher.find()) {
-              newIntensityTransform = Integer.parseInt(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New remove_precursor_peak = (\\d+)").matcher(text);
-            if (matcher.find()) {
-              newRemovePrecursorPeak = Integer.parseInt(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New max_fragment_charge = (\\d+)").matcher(text);
-            if (matcher.find()) {
-              newMaxFragmentCharge = Integer.parseInt(matcher.group(1));
-            }
-
-            matcher = Pattern.compile("New precursor_true_tolerance = ([\\d.]+) PPM").matcher(text);
-            if (matcher.find()) {
-              newPrecursorTrueTolerance = Float.parseFloat(matcher.group(1));
-            }
+            final StepResults results = StepResults.read(wd);
+            final Float newFragmentMassTolerance = results.paramFloat(CmdMsfragger.NAME, "fragment_mass_tolerance", "PPM");
+            final Integer newUseTopNPeaks = results.paramInt(CmdMsfragger.NAME, "use_topN_peaks");
+            final Float newMinimumRatio = results.paramFloat(CmdMsfragger.NAME, "minimum_ratio", null);
+            final Integer newIntensityTransform = results.paramInt(CmdMsfragger.NAME, "intensity_transform");
+            final Integer newRemovePrecursorPeak = results.paramInt(CmdMsfragger.NAME, "remove_precursor_peak");
+            final Integer newMaxFragmentCharge = results.paramInt(CmdMsfragger.NAME, "max_fragment_charge");
+            final Float newPrecursorTrueTolerance = results.paramFloat(CmdMsfragger.NAME, "precursor_true_tolerance", "PPM");
 
             Path workflowFilePath = wd.resolve("fragpipe" + workflowExt);
             Path workflowFileSecondPassPath = wd.resolve("fragpipe-second-pass" + workflowExt);
@@ -657,9 +643,11 @@ public class FragpipeRun {
 
         Bus.post(new MessageRunButtonEnabled(true));
       };
-      toRun.add(new RunnableDescription(new Builder().setName("Finalizer Task").create(), finalizerRun));
+      final RunnableDescription finalizerTask = new RunnableDescription(new Builder().setName("Finalizer Task").create(), finalizerRun);
+      toRun.add(finalizerTask);
+      TaskGraph.addLast(taskGraph, finalizerTask);
 
-      Bus.post(new MessageStartProcesses(toRun));
+      Bus.post(new MessageStartProcesses(toRun, taskGraph));
 
       // =========================================================================================================
 
@@ -1048,6 +1036,80 @@ public class FragpipeRun {
     toConsole(Fragpipe.COLOR_CMDLINE, cmd, true, console);
   }
 
+  /**
+   * Converts the graph of commands into a graph of the tasks that need to be executed. Tasks of a
+   * command keep their relative order (see {@link TaskGraph#stages(List)}), while the first tasks
+   * of a command only wait for the last tasks of the nearest commands it depends on that are run.
+   * Commands on independent branches of the graph can thus overlap.
+   */
+  private static Graph<RunnableDescription, DefEdge> createTaskGraph(Graph<CmdBase, DefEdge> dag,
+      Map<CmdBase, List<RunnableDescription>> cmdTasks) {
+    final Graph<RunnableDescription, DefEdge> taskGraph = TaskGraph.create();
+    // for each command, the tasks that need to finish before anything depending on it can start
+    final Map<CmdBase, Collection<RunnableDescription>> exits = new HashMap<>();
+    TopologicalOrderIterator<CmdBase, DefEdge> it = new TopologicalOrderIterator<>(dag);
+    while (it.hasNext()) {
+      final CmdBase cmd = it.next();
+      final Set<RunnableDescription> deps = new LinkedHashSet<>();
+      for (DefEdge e : dag.incomingEdgesOf(cmd)) {
+        deps.addAll(exits.get(dag.getEdgeSource(e)));
+      }
+      final List<RunnableDescription> tasks = cmdTasks.getOrDefault(cmd, Collections.emptyList());
+      exits.put(cmd, TaskGraph.addChain(taskGraph, deps, tasks));
+    }
+    return taskGraph;
+  }
+
+  /**
+   * Runs the process unless it is in {@code upToDate}, and records it in the cache once it exits
+   * successfully.
+   */
+  private static Runnable toCachedRunnable(ProcessBuilderInfo pbi, Path wd, TextConsole console,
+      StepCache stepCache, String fingerprint, Set<ProcessBuilderInfo> upToDate) {
+    final AtomicBoolean success = new AtomicBoolean();
+    final Runnable runnable = ProcessBuilderInfo.toRunnable(pbi, wd, FragpipeRun::printProcessDescription, console, false, exitValue -> {
+      if (exitValue == 0) {
+        if (pbi.pb.directory() != null) {
+          WorkdirIndex.of(wd).markChanged(pbi.pb.directory().toPath());
+        }
+        success.set(true);
+      }
+    });
+    return () -> {
+      if (upToDate.contains(pbi)) {
+        toConsole(Fragpipe.COLOR_TOOL, pbi.name + " [skipped, unchanged since the previous run]", true, console);
+        RunProfile.skipped(pbi);
+        return;
+      }
+      final StepCache.Running running = stepCache.start(pbi);
+      try {
+        runnable.run();
+      } finally {
+        stepCache.finish(running, fingerprint, success.get());
+      }
+    };
+  }
+
+  /**
+   * A process can be skipped if it finished before with the same fingerprint, its outputs are
+   * unchanged and everything it depends on is skipped as well.
+   */
+  private static void findUpToDate(Graph<RunnableDescription, DefEdge> taskGraph, StepCache stepCache,
+      Map<ProcessBuilderInfo, String> fingerprints, Set<ProcessBuilderInfo> upToDate) {
+    final Set<RunnableDescription> skipped = new HashSet<>();
+    TopologicalOrderIterator<RunnableDescription, DefEdge> it = new TopologicalOrderIterator<>(taskGraph);
+    while (it.hasNext()) {
+      final RunnableDescription rd = it.next();
+      if (rd.pbi == null || !fingerprints.containsKey(rd.pbi) || !stepCache.isDone(fingerprints.get(rd.pbi))) {
+        continue;
+      }
+      if (taskGraph.incomingEdgesOf(rd).stream().allMatch(e -> skipped.contains(taskGraph.getEdgeSource(e)))) {
+        skipped.add(rd);
+        upToDate.add(rd.pbi);
+      }
+    }
+  }
+
   private static enum DIRECTION {IN, OUT, BOTH}
 
   private static void addToGraph(Graph<? super CmdBase, DefEdge> graph, CmdBase node, DIRECTION direction,
@@ -1598,7 +1660,7 @@ public class FragpipeRun {
     addConfig.accept(cmdFreequant, () -> {
       cmdFreequant.setRun(cmdFreequant.isRun() && !sharedMapGroupsToProtxml.isEmpty());
       if (cmdFreequant.isRun()) {
-        return cmdFreequant.configure(parent, usePhi, quantPanelLabelfree.getFreequantOptsAsText(), sharedMapGroupsToProtxml, tmtiPanel.isRun(), tabMsf.isOpenSearch());
+        return cmdFreequant.configure(parent, ramGb, threads, usePhi, quantPanelLabelfree.getFreequantOptsAsText(), sharedMapGroupsToProtxml, tmtiPanel.isRun(), tabMsf.isOpenSearch());
       }
       return true;
     });
@@ -1755,7 +1817,7 @@ public class FragpipeRun {
         addConfig.accept(cmdTmtFreequant, () -> {
           cmdTmtFreequant.setRun(cmdTmtFreequant.isRun() && !sharedMapGroupsToProtxml.isEmpty());
           if (cmdTmtFreequant.isRun()) {
-            return cmdTmtFreequant.configure(parent, usePhi, quantPanelLabelfree.getFreequantOptsAsText(), sharedMapGroupsToProtxml, tmtiPanel.isRun(), tabMsf.isOpenSearch());
+            return cmdTmtFreequant.configure(parent, ramGb, threads, usePhi, quantPanelLabelfree.getFreequantOptsAsText(), sharedMapGroupsToProtxml, tmtiPanel.isRun(), tabMsf.isOpenSearch());
           }
           return true;
         });
@@ -1763,7 +1825,7 @@ public class FragpipeRun {
         addConfig.accept(cmdTmtLabelQuant, () -> {
           cmdTmtLabelQuant.setRun(cmdTmtLabelQuant.isRun() && !sharedMapGroupsToProtxml.isEmpty());
           if (cmdTmtLabelQuant.isRun()) {
-            return cmdTmtLabelQuant.configure(parent, isDryRun, usePhi, quantLevel, tolerance, minprob, purity, minIntensityPercant, label, annotations, sharedMapGroupsToProtxml);
+            return cmdTmtLabelQuant.configure(parent, isDryRun, ramGb, threads, usePhi, quantLevel, tolerance, minprob, purity, minIntensityPercant, label, annotations, sharedMapGroupsToProtxml);
           }
           return true;
         });
@@ -1926,7 +1988,7 @@ public class FragpipeRun {
     final CmdDiann cmdDiann = new CmdDiann(diannPanel.isRun(), wd);
     addConfig.accept(cmdDiann,  () -> {
       if (cmdDiann.isRun()) {
-        return cmdDiann.configure(parent, sharedLcmsFileGroupsAll.values(), threads, diannPanel.getDiannQuantificationStrategy(isNew), diannPanel.usePredict(), diannPanel.unrelatedRuns(), diannPanel.getDiannQvalue(), diannPanel.useRunSpecificProteinQvalue(), diannPanel.getLibraryPath(), diannPanel.getCmdOpts(), isDryRun, diannPanel.isRunPlex(), diannPanel.generateMsstats(), diannPanel.getLight(), diannPanel.getMedium(), diannPanel.getHeavy(), jarPath, moveSpeclibForSkyline);
+        return cmdDiann.configure(parent, sharedLcmsFileGroupsAll.values(), threads, diannPanel.getDiannQuantificationStrategy(isNew), diannPanel.usePredict(), diannPanel.unrelatedRuns(), diannPanel.getDiannQvalue(), diannPanel.useRunSpecificProteinQvalue(), diannPanel.getLibraryPath(), diannPanel.getCmdOpts(), isDryRun, diannPanel.isRunPlex(), diannPanel.generateMsstats(), diannPanel.getLight(), diannPanel.getMedium(), diannPanel.getHeavy(), jarPath, moveSpeclibForSkyline, diannPanel.isArrowReport());
       }
       return true;
     });
@@ -2019,6 +2081,12 @@ public class FragpipeRun {
     addToGraph(graphOrder, cmdSkyline, DIRECTION.IN, cmdDiann, cmdSpecLibGen, cmdPhilosopherReport);
     addToGraph(graphOrder, cmdWriteSubMzml, DIRECTION.IN, cmdPhilosopherReport);
 
+    // tasks are started as soon as their dependencies are done, so the commands reading psm.tsv
+    // must also wait for the ones that rewrite it in place
+    for (CmdBase reader : new CmdBase[]{cmdOPair, cmdSpecLibGen, cmdWriteSubMzml}) {
+      addToGraph(graphOrder, reader, DIRECTION.IN, cmdPtmshepherd, cmdIonquant, cmdTmtIonquant, cmdTmtIonquantIsobaric);
+    }
+
     // compose graph of required dependencies
     final Graph<CmdBase, DefEdge> graphDeps = new DirectedAcyclicGraph<>(DefEdge.class);
     addToGraph(graphDeps, cmdPhilosopherFilter, DIRECTION.OUT, cmdPhilosopherDbAnnotate);
@@ -2073,6 +2141,7 @@ public class FragpipeRun {
 
     CmdBase firstPhiDependentCmd = null;
     CmdBase lastPhiDependentCmd = null;
+    List<CmdBase> phiDependentCmds = new ArrayList<>();
     for (TopologicalOrderIterator<CmdBase, DefEdge> it = new TopologicalOrderIterator<>(
         graphOrder); it.hasNext(); ) {
       CmdBase cmd = it.next();
@@ -2081,8 +2150,13 @@ public class FragpipeRun {
           firstPhiDependentCmd = cmd;
         }
         lastPhiDependentCmd = cmd;
+        phiDependentCmds.add(cmd);
       }
     }
+    // commands using Phi share the workspace, they must not run concurrently
+    for (int i = 1; i < phiDependentCmds.size(); i++) {
+      addToGraph(graphOrder, phiDependentCmds.get(i), DIRECTION.IN, phiDependentCmds.get(i - 1));
+    }
 
     if (usePhi != null && usePhi.isUsed()) {
       for (Path pathPhiIsRunIn : usePhi.getWorkDirs()) {
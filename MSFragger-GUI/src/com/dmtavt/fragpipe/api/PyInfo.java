@@ -17,6 +17,7 @@
 
 package com.dmtavt.fragpipe.api;
 
+import com.dmtavt.fragpipe.FragpipeLocations;
 import com.dmtavt.fragpipe.exceptions.UnexpectedException;
 import com.dmtavt.fragpipe.exceptions.ValidationException;
 import com.github.chhh.utils.Installed;
@@ -30,10 +31,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -43,16 +49,52 @@ import java.util.StringJoiner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.jooq.lambda.Seq;
 import org.slf4j.LoggerFactory;
 
 public class PyInfo {
   private static final org.slf4j.Logger log = LoggerFactory.getLogger(PyInfo.class);
+  /** Starts the lines printed by the probe script, imported modules may print as well. */
+  private static final String PROBE_MARK = "FRAGPIPE-PROBE";
+  private static final String PROBE_PATH = "PATH";
+  /**
+   * Prints the directories modules are imported from, then imports the modules named in the
+   * arguments, one line per module. Python 2 compatible.
+   */
+  private static final String PROBE_SCRIPT = String.join("\n",
+      "import importlib, sys",
+      "for d in sys.path:",
+      "    if d:",
+      "        print('" + PROBE_MARK + "\\t' + d + '\\t" + PROBE_PATH + "')",
+      "sys.stdout.flush()",
+      "for name in sys.argv[1:]:",
+      "    try:",
+      "        m = importlib.import_module(name)",
+      "    except ImportError as e:",
+      "        status = 'NO' if type(e).__name__ == 'ModuleNotFoundError' else 'INSTALLED_WITH_IMPORTERROR'",
+      "        print('" + PROBE_MARK + "\\t' + name + '\\t' + status)",
+      "    except Exception:",
+      "        print('" + PROBE_MARK + "\\t' + name + '\\tUNKNOWN')",
+      "    else:",
+      "        print('" + PROBE_MARK + "\\t' + name + '\\tYES\\t' + str(getattr(m, '__version__', '')))",
+      "    sys.stdout.flush()");
+  private static final String FIELD_VERSION = "python";
+  private static final String FIELD_MODULE = "module:";
+  /** Directory on the python path with its modification time, it changes when a module is added, upgraded or removed. */
+  private static final String FIELD_PATH = "path:";
+  private static final Object cacheLock = new Object();
+
   private String command;
   private String version;
   private DefaultArtifactVersion fullVersion;
   private Map<PythonModule, Installed> modules = new HashMap<>();
+  private final Map<PythonModule, String> moduleVersions = new HashMap<>();
+  /** Directories on the python path by their modification time when the modules were probed. */
+  private final Map<String, String> pathDirs = new HashMap<>();
+  /** Identifies the interpreter in the cache file, null if it is not cached. */
+  private String cacheKey;
 
   @Override
   public String toString() {
@@ -76,7 +118,9 @@ public class PyInfo {
   /** @param command The command to start python interpreter. */
   private void trySetPythonCommand(String command) throws ValidationException, UnexpectedException {
     this.command = command;
-    this.version = tryGetVersion(command);
+    this.cacheKey = cacheKey(command);
+    final Map<String, String> cached = readCache(cacheKey);
+    this.version = cached.containsKey(FIELD_VERSION) ? cached.get(FIELD_VERSION) : tryGetVersion(command);
 
     Matcher m = Pattern.compile("python\\s+([0-9.]+)", Pattern.CASE_INSENSITIVE).matcher(this.version);
     if (m.find()) {
@@ -84,6 +128,160 @@ public class PyInfo {
     } else {
       throw new ValidationException("Could not detect python version.");
     }
+
+    final boolean modulesUpToDate = isPathUnchanged(cached);
+    for (Map.Entry<String, String> e : cached.entrySet()) {
+      if (modulesUpToDate && e.getKey().startsWith(FIELD_PATH)) {
+        pathDirs.put(e.getKey().substring(FIELD_PATH.length()), e.getValue());
+      }
+      final String[] names = e.getKey().split(":");
+      if (modulesUpToDate && names.length == 3 && e.getKey().startsWith(FIELD_MODULE)) {
+        final PythonModule module = new PythonModule(names[1], names[2]);
+        modules.put(module, Installed.YES);
+        moduleVersions.put(module, e.getValue());
+      }
+    }
+    if (!cached.containsKey(FIELD_VERSION)) {
+      writeCache();
+    }
+  }
+
+  /**
+   * The interpreter file with its size and modification time, so that a cached result is not
+   * used for a reinstalled or upgraded interpreter. Null if the file can't be found.
+   */
+  private static String cacheKey(String command) {
+    final List<Path> candidates = new ArrayList<>();
+    try {
+      final Path p = Paths.get(command);
+      if (p.getParent() != null) {
+        candidates.add(p);
+      } else {
+        final String pathVar = System.getenv("PATH");
+        if (pathVar != null) {
+          for (String dir : pathVar.split(File.pathSeparator)) {
+            if (StringUtils.isNotBlank(dir)) {
+              candidates.add(Paths.get(dir.trim()).resolve(p));
+            }
+          }
+        }
+      }
+    } catch (Exception e) {
+      return null;
+    }
+    for (Path candidate : candidates) {
+      for (Path file : OsUtils.isWindows() ? Arrays.asList(candidate, Paths.get(candidate + ".exe")) : Collections.singletonList(candidate)) {
+        try {
+          // not the real path, virtual environments link to the same interpreter
+          final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+          if (attrs.isRegularFile()) {
+            final String key = file.toAbsolutePath().normalize() + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+            return key.indexOf('\t') < 0 && key.indexOf('\n') < 0 ? key : null;
+          }
+        } catch (Exception ignored) {
+          // not there
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return False if the cached modules can't be trusted: a directory on the python path was
+   * changed since they were probed, or the cache does not say which directories to look at.
+   */
+  private static boolean isPathUnchanged(Map<String, String> cached) {
+    boolean any = false;
+    for (Map.Entry<String, String> e : cached.entrySet()) {
+      if (e.getKey().startsWith(FIELD_PATH)) {
+        any = true;
+        if (!e.getValue().equals(modified(e.getKey().substring(FIELD_PATH.length())))) {
+          log.debug("Python path changed, checking modules again: {}", e.getKey());
+          return false;
+        }
+      }
+    }
+    return any;
+  }
+
+  private static String modified(String dir) {
+    try {
+      return Long.toString(Files.getLastModifiedTime(Paths.get(dir)).toMillis());
+    } catch (Exception e) {
+      return "-";
+    }
+  }
+
+  private static Path cacheFile() {
+    try {
+      return FragpipeLocations.get().getPathPythonCache();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Map<String, String> readCache(String key) {
+    final Map<String, String> fields = new HashMap<>();
+    final Path file = cacheFile();
+    if (key == null || file == null) {
+      return fields;
+    }
+    synchronized (cacheLock) {
+      if (!Files.exists(file)) {
+        return fields;
+      }
+      try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+        lines.map(line -> line.split("\t", 3))
+            .filter(parts -> parts.length == 3 && parts[0].equals(key))
+            .forEach(parts -> fields.put(parts[1], parts[2]));
+      } catch (Exception e) {
+        log.debug("Could not read python cache {}: {}", file, e.toString());
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Stores the version and the installed modules. Modules that are missing or fail to import are
+   * not stored, they are checked again next time in case they were installed in the meantime.
+   */
+  private synchronized void writeCache() {
+    final Path file = cacheFile();
+    if (cacheKey == null || file == null) {
+      return;
+    }
+    final List<String> fields = new ArrayList<>();
+    fields.add(cacheKey + "\t" + FIELD_VERSION + "\t" + version);
+    for (Map.Entry<String, String> e : pathDirs.entrySet()) {
+      if (e.getKey().indexOf('\t') < 0 && e.getKey().indexOf('\n') < 0) {
+        fields.add(cacheKey + "\t" + FIELD_PATH + e.getKey() + "\t" + e.getValue());
+      }
+    }
+    for (Map.Entry<PythonModule, Installed> e : modules.entrySet()) {
+      final PythonModule module = e.getKey();
+      if (e.getValue() == Installed.YES && !module.installName.contains(":") && !module.someImportName.contains(":")) {
+        fields.add(cacheKey + "\t" + FIELD_MODULE + module.installName + ":" + module.someImportName + "\t" + moduleVersions.getOrDefault(module, ""));
+      }
+    }
+    synchronized (cacheLock) {
+      try {
+        final List<String> lines = new ArrayList<>();
+        if (Files.exists(file)) {
+          for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.startsWith(cacheKey + "\t")) {
+              lines.add(line);
+            }
+          }
+        }
+        lines.addAll(fields);
+        Files.createDirectories(file.getParent());
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      } catch (Exception e) {
+        log.debug("Could not write python cache {}: {}", file, e.toString());
+      }
+    }
   }
 
   public String getCommand() {
@@ -102,6 +300,14 @@ public class PyInfo {
     return Collections.unmodifiableMap(modules);
   }
 
+  /**
+   * @return The {@code __version__} of an installed module, empty if it has none. Null if the
+   * module is not known to be installed.
+   */
+  public synchronized String getModuleVersion(PythonModule module) {
+    return moduleVersions.get(module);
+  }
+
   private static String tryGetVersion(String cmd) throws UnexpectedException, ValidationException {
     ProcessBuilder pb = new ProcessBuilder(cmd, "--version");
     pb.redirectErrorStream(true);
@@ -331,65 +537,109 @@ public class PyInfo {
    *      {@code packages = [...]} array.
    * @return UNKNOWN if some errors occur while trying to start the interpreter.
    */
-  public Installed checkModuleInstalled(PythonModule module) {
-    Installed cached = modules.get(module);
-    if (cached != null)
-      return cached;
+  public synchronized Installed checkModuleInstalled(PythonModule module) {
+    checkModulesInstalled(Collections.singletonList(module));
+    return modules.get(module);
+  }
+
+  /**
+   * Checks all the modules not checked yet with a single interpreter launch.
+   */
+  public synchronized void checkModulesInstalled(Collection<PythonModule> toCheck) {
+    final List<PythonModule> unchecked = toCheck.stream().filter(m -> !modules.containsKey(m))
+        .distinct().collect(Collectors.toList());
+    if (unchecked.isEmpty())
+      return;
 
     if (command == null)
-      throw new IllegalStateException("Call to checkModuleInstalled() before setPythonCommand()");
-
-    Installed installed = Installed.UNKNOWN;
-    ProcessBuilder pb = new ProcessBuilder(command,
-        "-c", String.format(
-        "try:\n" +
-            "    import %s\n" +
-            "except ModuleNotFoundError:\n" +
-            "    print('ModuleNotFoundError')\n" +
-            "except ImportError:\n" +
-            "    print('Installed with ImportError')\n" +
-            "else:\n" +
-            "    print('Installed and imported with no error')",
-        module.someImportName));
+      throw new IllegalStateException("Call to checkModulesInstalled() before setPythonCommand()");
+
+    final List<String> importNames = unchecked.stream().map(m -> m.someImportName).distinct().collect(Collectors.toList());
+    final Map<String, String[]> results = probe(importNames);
+    final List<String> missing = importNames.stream().filter(name -> !results.containsKey(name)).collect(Collectors.toList());
+    if (importNames.size() > 1 && !missing.isEmpty()) {
+      // an import crashed or exited the interpreter, the modules after it were never looked at
+      log.debug("Python module check stopped early, checking one at a time: {}", missing);
+      for (String name : missing) {
+        results.putAll(probe(Collections.singletonList(name)));
+      }
+    }
+
+    boolean anyInstalled = false;
+    for (PythonModule module : unchecked) {
+      final String[] result = results.get(module.someImportName);
+      Installed installed = Installed.UNKNOWN;
+      if (result != null) {
+        try {
+          installed = Installed.valueOf(result[0]);
+        } catch (IllegalArgumentException ignored) {
+          // stays unknown
+        }
+      }
+      modules.put(module, installed);
+      if (installed == Installed.YES) {
+        moduleVersions.put(module, result.length > 1 ? result[1].trim() : "");
+        anyInstalled = true;
+      }
+      log.debug("Python module {}: {} {}", module.installName, installed, moduleVersions.getOrDefault(module, ""));
+    }
+    if (anyInstalled) {
+      writeCache();
+    }
+  }
+
+  /**
+   * Runs the probe script in one interpreter launch. Remembers the directories on the python path.
+   *
+   * @return Probe result by import name: the status and the version, if installed. Modules that
+   * were not reached have no result.
+   */
+  private Map<String, String[]> probe(List<String> importNames) {
+    final List<String> cmd = new ArrayList<>(Arrays.asList(command, "-c", PROBE_SCRIPT));
+    cmd.addAll(importNames);
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.redirectError(ProcessBuilder.Redirect.DISCARD);
     modifyEnvironmentVariablesForPythonSubprocesses(pb);
+    final String names = String.join(", ", importNames);
+    final Map<String, String[]> results = new HashMap<>();
     Process pr = null;
     try {
       pr = pb.start();
     } catch (IOException ex) {
-      log.error("Could not start python " + module.installName + " check process", ex);
+      log.error("Could not start python check process for " + names, ex);
     }
     if (pr != null) {
       try (BufferedReader in = new BufferedReader(new InputStreamReader(pr.getInputStream()))) {
         String line;
         while ((line = in.readLine()) != null) {
-          if ("Installed and imported with no error".equals(line))
-            installed = Installed.YES;
-          else if ("ModuleNotFoundError".equals(line))
-            installed = Installed.NO;
-          else if ("Installed with ImportError".equals(line))
-            installed = Installed.INSTALLED_WITH_IMPORTERROR;
+          final String[] parts = line.split("\t", 4);
+          if (parts.length == 3 && PROBE_MARK.equals(parts[0]) && PROBE_PATH.equals(parts[2])) {
+            pathDirs.put(parts[1], modified(parts[1]));
+          } else if (parts.length >= 3 && PROBE_MARK.equals(parts[0])) {
+            results.put(parts[1], Arrays.copyOfRange(parts, 2, parts.length));
+          }
         }
       } catch (IOException ex) {
-        log.error("Could not read python " + module.installName + " check output", ex);
+        log.error("Could not read python check output for " + names, ex);
       }
       try {
         pr.waitFor();
       } catch (InterruptedException ex) {
-        log.error("Error while waiting for python " + module.installName + " check process to finish", ex);
+        log.error("Error while waiting for python check process for " + names + " to finish", ex);
       }
     }
-
-    modules.put(module, installed);
-    return installed;
+    return results;
   }
 
   public List<PythonModule> modulesOfStatus(Installed installedStatus, List<PythonModule> modules) {
+    checkModulesInstalled(modules);
     return modules.stream()
         .filter(pm -> installedStatus.equals(checkModuleInstalled(pm)))
         .collect(Collectors.toList());
   }
 
   public Map<Installed, List<PythonModule>> modulesByStatus(List<PythonModule> modules) {
+    checkModulesInstalled(modules);
     return modules.stream()
         .collect(Collectors.groupingBy(this::checkModuleInstalled));
   }
@@ -104,7 +104,7 @@ public class SimpleTableModel<T> extends AbstractTableModel {
         int originalSize = data.size();
         boolean hasChanged = data.addAll(c);
         if (hasChanged)
-            fireTableRowsInserted(originalSize, c.size()-1);
+            fireTableRowsInserted(originalSize, data.size()-1);
         return hasChanged;
     }
     
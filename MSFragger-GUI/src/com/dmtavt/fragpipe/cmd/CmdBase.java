@@ -22,6 +22,7 @@ import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.StringUtils;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +38,8 @@ import org.slf4j.LoggerFactory;
 
 public abstract class CmdBase {
   private static final Logger log = LoggerFactory.getLogger(CmdBase.class);
+  /** Philosopher barely keeps more than a couple of threads busy per experiment. */
+  private static final int PHILOSOPHER_THREADS_PER_GROUP = 2;
 
   protected boolean isRun;
   protected String title = null;
@@ -112,6 +115,42 @@ public abstract class CmdBase {
     return OsUtils.asSingleArgument(classpath);
   }
 
+  /**
+   * Java heap (GB) for a tool that holds about {@code factor} times the size of its input files in
+   * memory, at least 1 GB. Zero if the size of an input can't be told, e.g. for a Bruker .d folder.
+   */
+  public static int estimateHeapGb(double factor, Path... files) {
+    long bytes = 0;
+    for (Path f : files) {
+      if (!Files.isRegularFile(f)) {
+        return 0;
+      }
+      try {
+        bytes += Files.size(f);
+      } catch (Exception e) {
+        return 0;
+      }
+    }
+    return Math.max(1, (int) Math.ceil(bytes * factor / (1L << 30)));
+  }
+
+  /**
+   * Process of one experiment of a Philosopher command, to be run side by side with the other
+   * experiments. The thread and RAM budget is split between the experiments that can run at the
+   * same time, and the Go runtime is limited to the share of one.
+   *
+   * @param numGroups Number of experiments the command processes.
+   */
+  protected PbiBuilder philosopherGroupPbi(ProcessBuilder pb, int numGroups, int ramGb, int threads) {
+    final int concurrentGroups = Math.max(1, Math.min(numGroups, threads / PHILOSOPHER_THREADS_PER_GROUP));
+    final int threadsPerGroup = Math.max(1, threads / concurrentGroups);
+    final int ramGbPerGroup = Math.max(1, ramGb / concurrentGroups);
+    pb.environment().put("GOMEMLIMIT", ramGbPerGroup + "GiB");
+    pb.environment().put("GOGC", "200");
+    pb.environment().put("GOMAXPROCS", String.valueOf(threadsPerGroup));
+    return new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).setThreads(threadsPerGroup).setRamGb(ramGbPerGroup);
+  }
+
   public static List<String> getNotSupportedExts(Map<LcmsFileGroup, Path> mapGroupsToProtxml, List<String> supportedExts) {
     List<String> supportedLoCase = supportedExts.stream().map(String::toLowerCase)
         .collect(Collectors.toList());
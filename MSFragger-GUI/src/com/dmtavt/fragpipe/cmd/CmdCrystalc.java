@@ -56,6 +56,10 @@ public class CmdCrystalc extends CmdBase {
   private static final String THERMO_RAW_EXT = "RAW";
   private static final String BRUKER_RAW_EXT = "d";
   public static final List<String> SUPPORTED_FORMATS = Arrays.asList("mzML", "mzXML");
+  /** Crystal-C is mostly single threaded, so files get a few threads each and run side by side. */
+  private static final int THREADS_PER_RUN = 2;
+  /** Heap needed per byte of the LC-MS file, the spectra are kept in memory while a file is processed. */
+  private static final double HEAP_PER_INPUT_SIZE = 2;
 
   public CmdCrystalc(boolean isRun, Path workDir) {
     super(isRun, workDir);
@@ -166,7 +170,12 @@ public class CmdCrystalc extends CmdBase {
     final String ccParamsFileSuffix = ".params";
 
     // multiple raw file extensions or multiple lcms file locaitons
-    // issue a separate command for each pepxml file
+    // issue a separate command for each pepxml file, they run side by side
+    final long numRuns = pepxmlFiles.values().stream().mapToLong(List::size).sum();
+    final int threads = ccParams.getThread() > 0 ? ccParams.getThread() : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    final int concurrentRuns = (int) Math.max(1, Math.min(numRuns, threads / THREADS_PER_RUN));
+    final int threadsPerRun = Math.max(1, threads / concurrentRuns);
+
     List<Path> filesToDelete = new ArrayList<>();
     int index = -1;
     for (Map.Entry<InputLcmsFile, List<Path>> kv : pepxmlFiles.entrySet()) {
@@ -188,6 +197,7 @@ public class CmdCrystalc extends CmdBase {
           ccp.setRawFileExt(ext);
           ccp.setOutputLocation(outDir.toString());
           ccp.setFasta(fastaPath);
+          ccp.setThread(threadsPerRun);
           if (!isDryRun) {
             Files.deleteIfExists(ccParamsPath);
             ccp.save(Files.newOutputStream(ccParamsPath, StandardOpenOption.CREATE));
@@ -201,12 +211,16 @@ public class CmdCrystalc extends CmdBase {
           return false;
         }
 
+        // the heap is sized by the LC-MS file, the pepXML does not exist yet
+        final int heapGb = estimateHeapGb(HEAP_PER_INPUT_SIZE, lcms.getPath());
+        final int maxHeapGb = heapGb == 0 ? ramGb : Math.max(1, Math.min(ramGb, 2 * heapGb));
+
         List<String> cmd = new ArrayList<>();
         cmd.add(Fragpipe.getBinJava());
         if (extLibsThermo != null) {
           cmd.add(createJavaDParamString("libs.thermo.dir", extLibsThermo.toString()));
         }
-        cmd.add("-Xmx" + ramGb + "G");
+        cmd.add("-Xmx" + maxHeapGb + "G");
         cmd.add("-cp");
         cmd.add(constructClasspathString(classpathJars));
         cmd.add(JAR_CRYSTALC_MAIN_CLASS);
@@ -214,13 +228,14 @@ public class CmdCrystalc extends CmdBase {
         cmd.add(pepxml.toString());
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(outDir.toFile());
-        pbis.add(PbiBuilder.from(pb));
+        pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).setThreads(threadsPerRun)
+            .setRamGb(heapGb == 0 ? maxHeapGb : Math.min(heapGb, maxHeapGb), maxHeapGb).create());
       }
     }
 
     // delete temp files
     List<ProcessBuilder> pbsDeleteTemp = ToolingUtils.pbsDeleteFiles(jarFragpipe, filesToDelete);
-    LinkedList<ProcessBuilderInfo> pbisPostParallel = pbsDeleteTemp.stream().map(pb -> new PbiBuilder().setPb(pb).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).setName(getCmdName() + ": Delete temp").create()).collect(Collectors.toCollection(LinkedList::new));
+    LinkedList<ProcessBuilderInfo> pbisPostParallel = pbsDeleteTemp.stream().map(pb -> new PbiBuilder().setPb(pb).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).setThreads(1).setName(getCmdName() + ": Delete temp").create()).collect(Collectors.toCollection(LinkedList::new));
     pbis.addAll(pbisPostParallel);
 
     isConfigured = true;
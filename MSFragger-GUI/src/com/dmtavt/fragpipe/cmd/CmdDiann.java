@@ -31,10 +31,12 @@ import com.dmtavt.fragpipe.api.Bus;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.dmtavt.fragpipe.messages.NoteConfigDiann;
+import com.dmtavt.fragpipe.tabs.TabWorkflow;
 import com.dmtavt.fragpipe.tools.diann.Diann;
 import com.dmtavt.fragpipe.tools.diann.DiannToMsstats;
 import com.dmtavt.fragpipe.tools.diann.Propagation;
 import com.dmtavt.fragpipe.tools.diann.PlexDiaHelper;
+import com.dmtavt.fragpipe.util.TsvToArrow;
 import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.StringUtils;
 import com.github.chhh.utils.SwingUtils;
@@ -62,6 +64,8 @@ public class CmdDiann extends CmdBase {
   private static final List<String> SUPPORTED_FORMATS_WIN = Arrays.asList("mzML", "d", "dia", "wiff", "raw");
   private static final List<String> SUPPORTED_FORMATS_LINUX = Arrays.asList("mzML", "d", "dia");
   private static final Pattern labelPattern = Pattern.compile("([A-Znc*]+)([\\d.+-]+)");
+  // Arrow reads and writes its buffers through java.nio internals
+  private static final String ARROW_ADD_OPENS = "--add-opens=java.base/java.nio=ALL-UNNAMED";
 
   private final String diannPath;
   private final String LD_PRELOAD_str;
@@ -82,10 +86,14 @@ public class CmdDiann extends CmdBase {
     return NAME;
   }
 
-  public boolean configure(Component comp, Collection<LcmsFileGroup> lcmsFileGroups, int nThreads, Set<String> quantificationStrategy, boolean usePredict, boolean unrelatedRuns, float qvalue, boolean useRunSpecificProteinQvalue, String libraryPath, String additionalCmdOpts, boolean isDryRun, boolean isRunPlex, boolean generateMsstats, String lightString, String mediumString, String heavyString, Path jarFragpipe, boolean isRunSkyline) {
+  public boolean configure(Component comp, Collection<LcmsFileGroup> lcmsFileGroups, int nThreads, Set<String> quantificationStrategy, boolean usePredict, boolean unrelatedRuns, float qvalue, boolean useRunSpecificProteinQvalue, String libraryPath, String additionalCmdOpts, boolean isDryRun, boolean isRunPlex, boolean generateMsstats, String lightString, String mediumString, String heavyString, Path jarFragpipe, boolean isRunSkyline, boolean isArrowReport) {
 
     initPreConfig();
 
+    // the helpers below hold whole libraries and reports in memory and work on nThreads threads
+    final TabWorkflow tabWorkflow = Fragpipe.getStickyStrict(TabWorkflow.class);
+    final int ramGb = tabWorkflow.getRamGb() > 0 ? tabWorkflow.getRamGb() : OsUtils.getDefaultXmx();
+
     if (libraryPath != null && !libraryPath.trim().isEmpty()) {
       System.out.println("There are external spectral library. Will not generate the MSstats file.");
       generateMsstats = false;
@@ -128,6 +136,7 @@ public class CmdDiann extends CmdBase {
         final Path groupWd = group.outputDir(wd);
         List<String> cmd = new ArrayList<>();
         cmd.add(Fragpipe.getBinJava());
+        cmd.add("-Xmx" + ramGb + "G");
         cmd.add("-cp");
         cmd.add(classpath);
         cmd.add(PlexDiaHelper.class.getCanonicalName());
@@ -146,12 +155,12 @@ public class CmdDiann extends CmdBase {
           cmd.add(heavyString);
         }
         cmd.add("--library");
-        cmd.add("library.tsv");
+        cmd.add(groupWd.resolve("library.tsv").toAbsolutePath().toString());
         cmd.add("--out");
-        cmd.add("library_2.tsv");
+        cmd.add(groupWd.resolve("library_2.tsv").toAbsolutePath().toString());
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(groupWd.toFile());
-        pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Prepare plex library").create());
+        pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Prepare plex library").setThreads(nThreads).setRamGb(ramGb).create());
       }
     }
 
@@ -337,6 +346,44 @@ public class CmdDiann extends CmdBase {
       }
     }
 
+    if (isArrowReport) {
+      // DIA-NN writes report.tsv, the steps below read and edit an Arrow copy of it.
+      Path root = FragpipeLocations.get().getDirFragpipeRoot();
+      Path libsDir = root.resolve("lib");
+      if (Files.isDirectory(jarFragpipe)) {
+        libsDir = jarFragpipe.getParent().getParent().getParent().getParent().resolve("build/install/fragpipe/lib");
+        log.debug("Dev message: Looks like FragPipe was run from IDE, changing libs directory to: {}", libsDir);
+      }
+
+      List<String> toJoin = new ArrayList<>();
+      try {
+        toJoin.addAll(Files.walk(libsDir).filter(p -> p.getFileName().toString().endsWith(".jar")).filter(p -> {
+          String t = p.getFileName().toString();
+          return t.startsWith("fragpipe-") || isArrowJar(t);
+        }).map(p -> p.toAbsolutePath().normalize().toString()).collect(Collectors.toList()));
+      } catch (IOException ex) {
+        ex.printStackTrace();
+        return false;
+      }
+
+      toJoin.add(jarFragpipe.toAbsolutePath().normalize().toString());
+      final String classpath = OsUtils.asSingleArgument(String.join(System.getProperties().getProperty("path.separator"), toJoin));
+
+      List<String> cmd = new ArrayList<>();
+      cmd.add(Fragpipe.getBinJava());
+      cmd.add("-Xmx" + ramGb + "G");
+      cmd.add(ARROW_ADD_OPENS);
+      cmd.add("-cp");
+      cmd.add(classpath);
+      cmd.add(TsvToArrow.class.getCanonicalName());
+      cmd.add(wd.resolve("diann-output").resolve("report.tsv").toAbsolutePath().toString());
+      cmd.add(wd.resolve("diann-output").resolve("report.arrow").toAbsolutePath().toString());
+      cmd.add(String.valueOf(nThreads));
+      ProcessBuilder pb = new ProcessBuilder(cmd);
+      pb.directory(wd.resolve("diann-output").toFile());
+      pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Convert report to Arrow").setThreads(nThreads).setRamGb(ramGb).create());
+    }
+
     {
       Path root = FragpipeLocations.get().getDirFragpipeRoot();
       Path libsDir = root.resolve("lib");
@@ -355,7 +402,7 @@ public class CmdDiann extends CmdBase {
       try {
         toJoin.addAll(Files.walk(libsDir).filter(p -> p.getFileName().toString().endsWith(".jar")).filter(p -> {
           String t = p.getFileName().toString();
-          return t.startsWith("fragpipe-");
+          return t.startsWith("fragpipe-") || (isArrowReport && isArrowJar(t));
         }).map(p -> p.toAbsolutePath().normalize().toString()).collect(Collectors.toList()));
       } catch (Exception ex) {
         ex.printStackTrace();
@@ -367,13 +414,21 @@ public class CmdDiann extends CmdBase {
 
       List<String> cmd = new ArrayList<>();
       cmd.add(Fragpipe.getBinJava());
+      cmd.add("-Xmx" + ramGb + "G");
+      if (isArrowReport) {
+        cmd.add(ARROW_ADD_OPENS);
+      }
       cmd.add("-cp");
       cmd.add(classpath);
       cmd.add(Propagation.class.getCanonicalName());
       cmd.add(wd.toAbsolutePath().toString());
+      cmd.add(String.valueOf(nThreads));
+      if (isArrowReport) {
+        cmd.add("arrow");
+      }
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(wd.resolve("diann-output").toFile());
-      pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Propagate information").create());
+      pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Propagate information").setThreads(nThreads).setRamGb(ramGb).create());
     }
 
     if (generateMsstats) {
@@ -390,7 +445,7 @@ public class CmdDiann extends CmdBase {
             filter(p -> p.getFileName().toString().endsWith(".jar")).
             filter(p -> {
               String t = p.getFileName().toString();
-              return t.startsWith("fragpipe-") || t.startsWith("commons-io");
+              return t.startsWith("fragpipe-") || t.startsWith("commons-io") || (isArrowReport && isArrowJar(t));
             }).
             map(p -> p.toAbsolutePath().normalize().toString()).collect(Collectors.toList())
         );
@@ -404,11 +459,15 @@ public class CmdDiann extends CmdBase {
 
       List<String> cmd = new ArrayList<>();
       cmd.add(Fragpipe.getBinJava());
+      cmd.add("-Xmx" + ramGb + "G");
+      if (isArrowReport) {
+        cmd.add(ARROW_ADD_OPENS);
+      }
       cmd.add("-cp");
       cmd.add(classpath);
       cmd.add(DiannToMsstats.class.getCanonicalName());
-      cmd.add("report.tsv");
-      cmd.add("./");
+      cmd.add(wd.resolve("diann-output").resolve(isArrowReport ? "report.arrow" : "report.tsv").toAbsolutePath().toString());
+      cmd.add(wd.resolve("diann-output").toAbsolutePath().toString());
       cmd.add(wd.resolve("psm.tsv").toAbsolutePath().toString());
       cmd.add(String.valueOf(qvalue));
       if (useRunSpecificProteinQvalue) {
@@ -419,9 +478,11 @@ public class CmdDiann extends CmdBase {
       cmd.add(String.valueOf(qvalue));
       cmd.add(String.valueOf(qvalue));
       cmd.add(wd.resolve("fragpipe-files" + manifestExt).toAbsolutePath().toString());
+      cmd.add(String.valueOf(nThreads));
+      cmd.add(isArrowReport ? DiannToMsstats.FORMAT_ARROW : DiannToMsstats.FORMAT_CSV);
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(wd.resolve("diann-output").toFile());
-      pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Convert DIA-NN output to MSstats.csv").create());
+      pbis.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Convert DIA-NN output to MSstats.csv").setThreads(nThreads).setRamGb(ramGb).create());
     }
 
 //    if (isRunPlex) {
@@ -498,6 +559,13 @@ public class CmdDiann extends CmdBase {
     return true;
   }
 
+  /**
+   * Jars of the Arrow library and the libraries it needs, for the helpers reading report.arrow.
+   */
+  private static boolean isArrowJar(String name) {
+    return name.startsWith("arrow-") || name.startsWith("flatbuffers-") || name.startsWith("jackson-") || name.startsWith("commons-codec") || name.startsWith("slf4j-api");
+  }
+
   private static List<String> getPlexDiannFlags(String lightString, String mediumString, String heavyString) throws Exception {
     List<String> cmds = new ArrayList<>(6);
 
@@ -80,7 +80,7 @@ public class CmdFreequant extends CmdBase {
     return true;
   }
 
-  public boolean configure(Component comp, UsageTrigger usePhilosopher, String textReportLabelfree, Map<LcmsFileGroup, Path> mapGroupsToProtxml, boolean isTMT, boolean isOpenSearch) {
+  public boolean configure(Component comp, int ramGb, int threads, UsageTrigger usePhilosopher, String textReportLabelfree, Map<LcmsFileGroup, Path> mapGroupsToProtxml, boolean isTMT, boolean isOpenSearch) {
 
     initPreConfig();
 
@@ -126,7 +126,7 @@ public class CmdFreequant extends CmdBase {
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(groupWd.toFile());
 
-      pbis.add(PbiBuilder.from(pb));
+      pbis.add(philosopherGroupPbi(pb, mapGroupsToProtxml.size(), ramGb, threads).create());
     }
 
     isConfigured = true;
@@ -59,7 +59,7 @@ public class CmdLabelquant extends CmdBase {
     return NAME;
   }
 
-  public boolean configure(Component comp, boolean isDryRun, UsageTrigger phi, String quantLevel, int tolerance, double minprob, double purity, double minIntensityPercent, QuantLabel label, Map<LcmsFileGroup, Path> annotations, Map<LcmsFileGroup, Path> mapGroupsToProtxml) {
+  public boolean configure(Component comp, boolean isDryRun, int ramGb, int threads, UsageTrigger phi, String quantLevel, int tolerance, double minprob, double purity, double minIntensityPercent, QuantLabel label, Map<LcmsFileGroup, Path> annotations, Map<LcmsFileGroup, Path> mapGroupsToProtxml) {
     initPreConfig();
 
     if (!checkCompatibleFormats(comp, mapGroupsToProtxml)) {
@@ -151,7 +151,7 @@ public class CmdLabelquant extends CmdBase {
       // labelQuant needs to be executed in the dir where mzml files are (and the annotation file)
       pb.directory(groupWd.toFile());
 
-      pbis.add(PbiBuilder.from(pb));
+      pbis.add(philosopherGroupPbi(pb, annotations.size(), ramGb, threads).create());
     }
 
     if (!isDryRun) {
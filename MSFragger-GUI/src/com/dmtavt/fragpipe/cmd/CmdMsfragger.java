@@ -21,15 +21,14 @@ import static com.github.chhh.utils.PathUtils.testFilePath;
 
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
-import com.dmtavt.fragpipe.api.PyInfo;
-import com.dmtavt.fragpipe.exceptions.NoStickyException;
-import com.dmtavt.fragpipe.messages.NoteConfigPython;
 import com.dmtavt.fragpipe.tools.dbsplit.DbSplit2;
 import com.dmtavt.fragpipe.tools.enums.FraggerOutputType;
 import com.dmtavt.fragpipe.tools.enums.MassTolUnits;
 import com.dmtavt.fragpipe.tools.enums.PrecursorMassTolUnits;
+import com.dmtavt.fragpipe.tools.fragger.DbSplitSearch;
 import com.dmtavt.fragpipe.tools.fragger.Mod;
 import com.dmtavt.fragpipe.tools.fragger.MsfraggerParams;
+import com.github.chhh.utils.FileOps;
 import com.github.chhh.utils.OsUtils;
 import com.github.chhh.utils.StringUtils;
 import com.github.chhh.utils.SwingUtils;
@@ -327,7 +326,7 @@ public class CmdMsfragger extends CmdBase {
 
       if (!DbSplit2.get().isInitialized()) {
         if (Fragpipe.headless) {
-          log.error("MSFragger: database splitting in more than 1 chunk. However not all preconditions for enabling slicing were met, check that Python is installed and meets minimum version requirements.");
+          log.error("MSFragger: database splitting in more than 1 chunk. However not all preconditions for enabling slicing were met, check that MSFragger is configured and meets the minimum version requirement.");
         } else {
           JOptionPane.showMessageDialog(comp,
               "MSFragger: database splitting in more than 1 chunk.\n"
@@ -453,7 +452,7 @@ public class CmdMsfragger extends CmdBase {
     }
 
     // 32k symbols splitting for regular command.
-    // But for slicing it's all up to the python script.
+    // But for slicing it's all up to DbSplitSearch.
     // final int commandLenLimit = isSlicing ? Integer.MAX_VALUE : 32000;
     final int commandLenLimit = 32000; // Make is a little bit smaller than 1 << 15 to make sure that it won't crash.
 
@@ -487,22 +486,18 @@ public class CmdMsfragger extends CmdBase {
     if (!isSlicing) {
       slicingCmd = null;
     } else {
-      try {
-        NoteConfigPython configPython = Fragpipe.getSticky(NoteConfigPython.class);
-        slicingCmd = Arrays.asList(
-            configPython.pi.getCommand(),
-            DbSplit2.get().getScriptDbslicingPath().toAbsolutePath().normalize().toString(),
-            Integer.toString(numSlices),
-            OsUtils.asSingleArgument(String.join(" ", javaCmd))
-        );
-      } catch (NoStickyException e) {
-        if (Fragpipe.headless) {
-          log.error("DbSplit was enabled, but Python was not configured.");
-        } else {
-          JOptionPane.showMessageDialog(comp, "DbSplit was enabled, but Python was not configured.", "Error", JOptionPane.ERROR_MESSAGE);
-        }
-        return false;
-      }
+      // the orchestrator's heap comes out of the memory limit, the slices get the rest
+      slicingCmd = Arrays.asList(
+          Fragpipe.getBinJava(),
+          "-Dfile.encoding=UTF-8",
+          "-Xmx" + DbSplitSearch.HEAP_GB + "G",
+          "-cp",
+          OsUtils.asSingleArgument(jarFragpipe.toAbsolutePath().normalize().toString()),
+          DbSplitSearch.class.getCanonicalName(),
+          Integer.toString(numSlices),
+          Integer.toString(Math.max(1, ramGb - DbSplitSearch.HEAP_GB)),
+          Fragpipe.getBinJava()
+      );
     }
 
     Map<String, List<InputLcmsFile>> t = new TreeMap<>();
@@ -569,13 +564,6 @@ public class CmdMsfragger extends CmdBase {
         }
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
-
-        if (isSlicing) {
-          PyInfo.modifyEnvironmentVariablesForPythonSubprocesses(pb);
-          pb.environment().put("PYTHONIOENCODING", "utf-8");
-          pb.environment().put("PYTHONUNBUFFERED", "true");
-        }
-
         pb.directory(wd.toFile());
 
         pbis.add(PbiBuilder.from(pb));
@@ -583,6 +571,7 @@ public class CmdMsfragger extends CmdBase {
 
         // move the pepxml files if the output directory is not the same as where
         // the lcms files were
+        List<FileOps.Entry> moves = new ArrayList<>();
         for (InputLcmsFile f : addedLcmsFiles) {
           if (fraggerOutputType.valueInParamsFile().contains("pepXML")) {
             List<Path> pepxmlWhereItShouldBeList = mapLcmsToPepxml.get(f);
@@ -592,10 +581,7 @@ public class CmdMsfragger extends CmdBase {
               String pepxmlFn = pepxmlWhereItShouldBe.getFileName().toString();
               Path pepxmlAsCreatedByFragger = f.getPath().getParent().resolve(pepxmlFn);
               if (!pepxmlAsCreatedByFragger.equals(pepxmlWhereItShouldBe)) {
-                List<ProcessBuilder> pbsMove = ToolingUtils
-                    .pbsMoveFiles(jarFragpipe, pepxmlWhereItShouldBe.getParent(), true,
-                        Collections.singletonList(pepxmlAsCreatedByFragger));
-                pbis.addAll(PbiBuilder.from(pbsMove, NAME + " move pepxml"));
+                moves.add(new FileOps.Entry(FileOps.Op.MOVE, pepxmlAsCreatedByFragger, pepxmlWhereItShouldBe));
               }
             }
           }
@@ -606,10 +592,7 @@ public class CmdMsfragger extends CmdBase {
               String tsvFn = tsvWhereItShouldBe.getFileName().toString();
               Path tsvAsCreatedByFragger = f.getPath().getParent().resolve(tsvFn);
               if (!tsvAsCreatedByFragger.equals(tsvWhereItShouldBe)) {
-                List<ProcessBuilder> pbsMove = ToolingUtils
-                    .pbsMoveFiles(jarFragpipe, tsvWhereItShouldBe.getParent(), true,
-                        Collections.singletonList(tsvAsCreatedByFragger));
-                pbis.addAll(PbiBuilder.from(pbsMove, NAME + " move tsv"));
+                moves.add(new FileOps.Entry(FileOps.Op.MOVE, tsvAsCreatedByFragger, tsvWhereItShouldBe));
               }
             }
           }
@@ -620,14 +603,12 @@ public class CmdMsfragger extends CmdBase {
               String pinFn = pinWhereItShouldBe.getFileName().toString();
               Path pinAsCreatedByFragger = f.getPath().getParent().resolve(pinFn);
               if (!pinAsCreatedByFragger.equals(pinWhereItShouldBe)) {
-                List<ProcessBuilder> pbsMove = ToolingUtils
-                    .pbsMoveFiles(jarFragpipe, pinWhereItShouldBe.getParent(), true,
-                        Collections.singletonList(pinAsCreatedByFragger));
-                pbis.addAll(PbiBuilder.from(pbsMove, NAME + " move pin"));
+                moves.add(new FileOps.Entry(FileOps.Op.MOVE, pinAsCreatedByFragger, pinWhereItShouldBe));
               }
             }
           }
         }
+        pbis.addAll(PbiBuilder.from(ToolingUtils.pbsFileOps(jarFragpipe, true, moves), NAME + " move output files"));
       }
     }
 
@@ -26,6 +26,7 @@ import com.dmtavt.fragpipe.tabs.TabMsfragger;
 import com.dmtavt.fragpipe.tools.pepproph.PeptideProphetParams;
 import com.dmtavt.fragpipe.tools.philosopher.PhilosopherProps;
 import com.dmtavt.fragpipe.util.RewritePepxml;
+import com.dmtavt.fragpipe.util.WorkdirIndex;
 import com.github.chhh.utils.FileDelete;
 import com.github.chhh.utils.StringUtils;
 import com.github.chhh.utils.UsageTrigger;
@@ -117,8 +118,9 @@ public class CmdPeptideProphet extends CmdBase {
 
   public static Set<Path> findOldFilesForDeletion(Path wd) {
     Set<Path> pepxmlsToDelete = new HashSet<>();
-    try {
-      pepxmlsToDelete = Files.walk(wd).filter(p -> p.getFileName().toString().startsWith("interact-") && p.getFileName().toString().endsWith(".pep.xml")).collect(Collectors.toSet());
+    // a one-time listing, the watched index of the run is only needed once it starts
+    try (WorkdirIndex index = WorkdirIndex.scan(wd)) {
+      pepxmlsToDelete = new HashSet<>(index.find(fn -> fn.startsWith("interact-") && fn.endsWith(".pep.xml")));
     } catch (Exception ex) {
       ex.printStackTrace();
     }
@@ -213,7 +215,7 @@ public class CmdPeptideProphet extends CmdBase {
     if (!combine) {
       LinkedList<ProcessBuilderInfo> pbisPreParallel = new LinkedList<>();
       LinkedList<ProcessBuilderInfo> pbisParallel = new LinkedList<>();
-      LinkedList<ProcessBuilderInfo> pbisPostParallel = new LinkedList<>();
+      List<Path> tempsToDelete = new ArrayList<>();
 
       int idx = 0;
       int batchNum = Math.min(32, threads);
@@ -282,17 +284,19 @@ public class CmdPeptideProphet extends CmdBase {
 
           // delete temp dir
           workspacesToBeCleaned.add(temp);
-          List<ProcessBuilder> pbsDeleteTemp = ToolingUtils
-              .pbsDeleteFiles(jarFragpipe, Collections.singletonList(temp));
-          pbisPostParallel.addAll(pbsDeleteTemp.stream()
-              .map(pb -> new PbiBuilder()
-                  .setPb(pb)
-                  .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL)
-                  .setName(getCmdName() + ": Delete temp").create())
-              .collect(Collectors.toList()));
+          tempsToDelete.add(temp);
         }
         ++idx;
       }
+      // temp dirs are all deleted in one step
+      List<ProcessBuilder> pbsDeleteTemp = ToolingUtils.pbsDeleteFiles(jarFragpipe, tempsToDelete);
+      List<ProcessBuilderInfo> pbisPostParallel = pbsDeleteTemp.stream()
+          .map(pb -> new PbiBuilder()
+              .setPb(pb)
+              .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL)
+              .setThreads(1)
+              .setName(getCmdName() + ": Delete temp").create())
+          .collect(Collectors.toList());
       pbis.addAll(pbisPreParallel);
       pbis.addAll(pbisParallel);
       pbis.addAll(pbisPostParallel);
@@ -350,7 +354,7 @@ public class CmdPeptideProphet extends CmdBase {
       ProcessBuilder pbRewrite = pbRewritePepxml(jarFragpipe, kv.getKey(), lcmsPaths, hasCalibratedMzml);
       pbRewrite.directory(kv.getValue().get(0).outputDir(wd).toFile());
       pbis.add(new PbiBuilder().setName("Rewrite pepxml")
-          .setPb(pbRewrite).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
+          .setPb(pbRewrite).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).setThreads(1).create());
     }
 
     // update global cleanup
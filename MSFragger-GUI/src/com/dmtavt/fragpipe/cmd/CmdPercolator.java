@@ -54,6 +54,17 @@ public class CmdPercolator extends CmdBase {
   private static final Logger log = LoggerFactory.getLogger(CmdPercolator.class);
 
   public static final String NAME = "Percolator";
+  /**
+   * Percolator gains little from more threads than this, with more threads available several
+   * files are processed at the same time, splitting the threads between them.
+   */
+  private static final int THREADS_PER_RUN = 8;
+  /**
+   * Percolator keeps all PSMs of the pin file in memory, as numbers, taking a few times the size of
+   * the file. Before the search has written the pin, the size of the LC-MS file stands in for it.
+   */
+  private static final double RAM_PER_PIN_SIZE = 3;
+  private static final double RAM_PER_LCMS_SIZE = 1;
 
   public CmdPercolator(boolean isRun, Path workDir) {
     super(isRun, workDir);
@@ -122,9 +133,20 @@ public class CmdPercolator extends CmdBase {
 
     LinkedList<ProcessBuilderInfo> pbisParallel = new LinkedList<>();
     LinkedList<ProcessBuilderInfo> pbisPostParallel = new LinkedList<>();
+    List<Path> tempsToDelete = new ArrayList<>();
 
     MSBoosterPanel msboosterPanel = Fragpipe.getStickyStrict(MSBoosterPanel.class);
 
+    final long numRuns = pepxmlFiles.values().stream().flatMap(List::stream)
+        .map(path -> remove_rank_suffix(FilenameUtils.removeExtension(path.getFileName().toString())))
+        .distinct().count();
+    final TabWorkflow tabWorkflow = Fragpipe.getStickyStrict(TabWorkflow.class);
+    final int threads = tabWorkflow.getThreads();
+    final int concurrentRuns = (int) Math.max(1, Math.min(numRuns, threads / THREADS_PER_RUN));
+    final int threadsPerRun = Math.max(1, threads / concurrentRuns);
+    final int ramGb = tabWorkflow.getRamGb() > 0 ? tabWorkflow.getRamGb() : OsUtils.getDefaultXmx();
+    final int ramGbPerRun = Math.max(1, ramGb / concurrentRuns);
+
     final Set<String> basenames = new HashSet<>();
     for (Entry<InputLcmsFile, List<Path>> e : pepxmlFiles.entrySet()) {
       InputLcmsFile inputLcmsFile = e.getKey();
@@ -148,9 +170,8 @@ public class CmdPercolator extends CmdBase {
         }
 
         addFreeCommandLineParams(percolatorParams, cmdPp);
-        TabWorkflow tabWorkflow = Fragpipe.getStickyStrict(TabWorkflow.class);
         cmdPp.add("--num-threads");
-        cmdPp.add("" + tabWorkflow.getThreads());
+        cmdPp.add("" + threadsPerRun);
 
         boolean onlyPsms = false;
         for(String cmd : cmdPp) {
@@ -210,9 +231,17 @@ public class CmdPercolator extends CmdBase {
 
         ProcessBuilder pbPp = new ProcessBuilder(cmdPp);
         setupEnv(pepxmlDir, pbPp);
+        int ramGbPp = estimateHeapGb(RAM_PER_PIN_SIZE, pepxmlDir.resolve(strippedBaseName + ".pin"));
+        if (ramGbPp == 0) {
+          ramGbPp = estimateHeapGb(RAM_PER_LCMS_SIZE, e.getKey().getPath());
+        }
+        final int ramGbRun = ramGbPp == 0 ? ramGbPerRun : Math.min(ramGbPp, ramGb);
         pbisParallel.add(new PbiBuilder()
             .setPb(pbPp)
-            .setParallelGroup(basename).create());
+            .setParallelGroup(getCmdName())
+            .setThreads(threadsPerRun)
+            .setRamGb(ramGbRun)
+            .setLane(basename).create());
 
         String lcmsPath = e.getKey().getPath().toAbsolutePath().toString();
         if (hasCalibratedMzml) {
@@ -222,27 +251,34 @@ public class CmdPercolator extends CmdBase {
         }
 
         // convert the percolator output tsv to PeptideProphet's pep.xml format
-        ProcessBuilder pbRewrite = pbConvertToPepxml(jarFragpipe, "interact-" + basename, strippedBaseName, basename, e.getKey().getDataType().contentEquals("DDA"), minProb, lcmsPath);
+        // DIA ranks are in separate pepXML files, converted concurrently by as many threads as declared
+        final boolean isDDA = e.getKey().getDataType().contentEquals("DDA");
+        final long nRanks = e.getValue().stream()
+            .filter(path -> basename.equals(remove_rank_suffix(FilenameUtils.removeExtension(path.getFileName().toString()))))
+            .count();
+        final int threadsConvert = isDDA ? 1 : (int) Math.max(1, Math.min(nRanks, threadsPerRun));
+        // the conversion holds the same pin file and the Percolator results in memory
+        ProcessBuilder pbRewrite = pbConvertToPepxml(jarFragpipe, pepxmlPath.getParent(), "interact-" + basename, strippedBaseName, basename, isDDA, minProb, lcmsPath, threadsConvert, ramGbRun);
         pbRewrite.directory(pepxmlPath.getParent().toFile());
-        pbisPostParallel.add(new PbiBuilder().setName("Percolator: Convert to pepxml").setPb(pbRewrite).setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
+        pbisPostParallel.add(new PbiBuilder().setName("Percolator: Convert to pepxml").setPb(pbRewrite).setParallelGroup(getCmdName() + ": Convert to pepxml").setThreads(threadsConvert).setRamGb(ramGbRun).setLane(basename).create());
 
         // delete intermediate files
         PercolatorPanel percolatorPanel = Fragpipe.getStickyStrict(PercolatorPanel.class);
         if (!percolatorPanel.isKeepTsvFiles()) {
-          final List<Path> temp = new ArrayList<>();
-          temp.add(pepxmlDir.resolve(strippedBaseName + "_percolator_target_psms.tsv"));
-          temp.add(pepxmlDir.resolve(strippedBaseName + "_percolator_decoy_psms.tsv"));
-          List<ProcessBuilder> pbsDeleteTemp = ToolingUtils
-                  .pbsDeleteFiles(jarFragpipe, temp);
-          pbisPostParallel.addAll(pbsDeleteTemp.stream()
-                  .map(pb -> new PbiBuilder()
-                          .setPb(pb)
-                          .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL)
-                          .setName(getCmdName() + ": Delete temp").create())
-                  .collect(Collectors.toList()));
+          tempsToDelete.add(pepxmlDir.resolve(strippedBaseName + "_percolator_target_psms.tsv"));
+          tempsToDelete.add(pepxmlDir.resolve(strippedBaseName + "_percolator_decoy_psms.tsv"));
         }
       }
     }
+    // intermediate files of all inputs are deleted in one step, after all of them were converted
+    List<ProcessBuilder> pbsDeleteTemp = ToolingUtils.pbsDeleteFiles(jarFragpipe, tempsToDelete);
+    pbisPostParallel.addAll(pbsDeleteTemp.stream()
+            .map(pb -> new PbiBuilder()
+                    .setPb(pb)
+                    .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL)
+                    .setThreads(1)
+                    .setName(getCmdName() + ": Delete temp").create())
+            .collect(Collectors.toList()));
     pbis.addAll(pbisParallel);
     pbis.addAll(pbisPostParallel);
 
@@ -271,12 +307,13 @@ public class CmdPercolator extends CmdBase {
     return b;
   }
 
-  private static ProcessBuilder pbConvertToPepxml(Path jarFragpipe, String outBaseName, String stripedBasename, String basename, boolean isDDA, double minProb, String lcmsPath) {
+  private static ProcessBuilder pbConvertToPepxml(Path jarFragpipe, Path dir, String outBaseName, String stripedBasename, String basename, boolean isDDA, double minProb, String lcmsPath, int threads, int heapGb) {
     if (jarFragpipe == null) {
       throw new IllegalArgumentException("jar can't be null");
     }
     final List<String> cmd = new ArrayList<>();
     cmd.add(Fragpipe.getBinJava());
+    cmd.add("-Xmx" + heapGb + "G");
     cmd.add("-cp");
     Path root = FragpipeLocations.get().getDirFragpipeRoot();
     String libsDir = root.resolve("lib") + "/*";
@@ -286,14 +323,15 @@ public class CmdPercolator extends CmdBase {
     }
     cmd.add(libsDir);
     cmd.add(PercolatorOutputToPepXML.class.getCanonicalName());
-    cmd.add(stripedBasename + ".pin");
-    cmd.add(basename);
-    cmd.add(stripedBasename + "_percolator_target_psms.tsv");
-    cmd.add(stripedBasename + "_percolator_decoy_psms.tsv");
-    cmd.add(outBaseName);
+    cmd.add(dir.resolve(stripedBasename + ".pin").toString());
+    cmd.add(dir.resolve(basename).toString());
+    cmd.add(dir.resolve(stripedBasename + "_percolator_target_psms.tsv").toString());
+    cmd.add(dir.resolve(stripedBasename + "_percolator_decoy_psms.tsv").toString());
+    cmd.add(dir.resolve(outBaseName).toString());
     cmd.add(isDDA ? "DDA" : "DIA");
     cmd.add(minProb + "");
     cmd.add(lcmsPath);
+    cmd.add(String.valueOf(threads));
     return new ProcessBuilder(cmd);
   }
 
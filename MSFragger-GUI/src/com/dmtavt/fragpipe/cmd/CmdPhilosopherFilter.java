@@ -108,11 +108,15 @@ public class CmdPhilosopherFilter extends CmdBase {
       }
 
       ProcessBuilder pb = new ProcessBuilder(cmd);
-      pb.environment().put("GOMEMLIMIT", ramGb + "GiB");
-      pb.environment().put("GOGC", "200");
-      pb.environment().put("GOMAXPROCS", String.valueOf(threads));
       pb.directory(groupWd.toFile());
-      pbis.add(PbiBuilder.from(pb));
+      if (group.name.contentEquals(firstInputLcmsFile.getGroup())) {
+        // the other experiments read the database and protein inference from this workspace,
+        // so it is filtered alone, first, and only read afterwards
+        pbis.add(0, philosopherGroupPbi(pb, 1, ramGb, threads)
+            .setParallelGroup(ProcessBuilderInfo.GROUP_SEQUENTIAL).create());
+      } else {
+        pbis.add(philosopherGroupPbi(pb, mapGroupsToProtxml.size() - 1, ramGb, threads).create());
+      }
     }
 
     isConfigured = true;
@@ -61,11 +61,8 @@ public class CmdPhilosopherReport extends CmdBase {
         cmd.add("--removecontam");
       }
       ProcessBuilder pb = new ProcessBuilder(cmd);
-      pb.environment().put("GOMEMLIMIT", ramGb + "GiB");
-      pb.environment().put("GOGC", "200");
-      pb.environment().put("GOMAXPROCS", String.valueOf(threads));
       pb.directory(groupWd.toFile());
-      pbis.add(PbiBuilder.from(pb));
+      pbis.add(philosopherGroupPbi(pb, groupWds.size(), ramGb, threads).create());
     }
 
     isConfigured = true;
@@ -24,6 +24,7 @@ import com.dmtavt.fragpipe.exceptions.FileWritingException;
 import com.dmtavt.fragpipe.tools.umpire.UmpirePanel;
 import com.dmtavt.fragpipe.tools.umpire.UmpireParams;
 import com.dmtavt.fragpipe.tools.umpire.UmpireSeGarbageFiles;
+import com.github.chhh.utils.FileOps;
 import com.github.chhh.utils.PropertiesUtils;
 import com.github.chhh.utils.StringUtils;
 import java.awt.Component;
@@ -32,7 +33,9 @@ import java.io.FileOutputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.JOptionPane;
@@ -46,6 +49,10 @@ public class CmdUmpireSe extends CmdBase {
   public static final String[] JAR_DEPS = {ToolingUtils.BATMASS_IO_JAR};
   public static final String JAR_DIA_UMPIRE_SE_MAIN_CLASS = "dia_umpire_se.DIA_Umpire_SE";
   private static final EXTENSION OUTPUT_EXT = EXTENSION.mzML;
+  /** Files get a few threads each and run side by side, Umpire SE does not scale well beyond that. */
+  private static final int THREADS_PER_RUN = 4;
+  /** Heap needed per byte of input, an estimate of what Umpire SE keeps in memory for one file. */
+  private static final double HEAP_PER_INPUT_SIZE = 4;
   public enum EXTENSION {mzXML, mzML}
 
   public CmdUmpireSe(boolean isRun, Path workDir) {
@@ -57,13 +64,17 @@ public class CmdUmpireSe extends CmdBase {
     return NAME;
   }
 
+  private static boolean isPassedThrough(InputLcmsFile f) {
+    return f.getDataType().contentEquals("DDA") || f.getDataType().contentEquals("DIA-Quant") || f.getDataType().contentEquals("DDA+");
+  }
+
   public List<InputLcmsFile> outputs(List<InputLcmsFile> inputs, boolean generateQ1, boolean generateQ2, boolean generateQ3) {
     if (!isRun)
       return new ArrayList<>(inputs);
 
     List<InputLcmsFile> out = new ArrayList<>();
     for (InputLcmsFile f: inputs) {
-      if (f.getDataType().contentEquals("DDA") || f.getDataType().contentEquals("DIA-Quant") || f.getDataType().contentEquals("DDA+")) {
+      if (isPassedThrough(f)) {
         out.add(f);
       } else {
         final String inputFn = f.getPath().getFileName().toString();
@@ -90,8 +101,23 @@ public class CmdUmpireSe extends CmdBase {
       return false;
     }
 
-    // write umpire params file
+    // files are processed side by side, each with a share of the threads
     final UmpireParams collectedUmpireParams = umpirePanel.collect();
+    final long numRuns = lcmsFiles.stream().filter(f -> !isPassedThrough(f)).count();
+    int threads;
+    try {
+      threads = Integer.parseInt(collectedUmpireParams.getProps().getProperty(UmpireParams.PROP_Thread, "").trim());
+    } catch (NumberFormatException e) {
+      threads = 0;
+    }
+    if (threads <= 0) {
+      threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+    final int concurrentRuns = (int) Math.max(1, Math.min(numRuns, threads / THREADS_PER_RUN));
+    final int threadsPerRun = Math.max(1, threads / concurrentRuns);
+    collectedUmpireParams.getProps().setProperty(UmpireParams.PROP_Thread, String.valueOf(threadsPerRun));
+
+    // write umpire params file
     final String umpireParamsFileName =
         UmpireParams.FILE_BASE_NAME + "." + UmpireParams.FILE_BASE_EXT;
     final Path umpireParamsFilePath = wd.resolve(umpireParamsFileName);
@@ -115,19 +141,24 @@ public class CmdUmpireSe extends CmdBase {
             createJavaDParamString("libs.thermo.dir", extLibsThermo.toString());
     final List<Path> classpathJars = FragpipeLocations.checkToolsMissing(Seq.of(UmpireParams.JAR_UMPIRESE_NAME).concat(JAR_DEPS));
 
+    final List<ProcessBuilderInfo> pbisCleanup = new ArrayList<>();
+    final Set<Path> sharedLogs = new LinkedHashSet<>();
     for (InputLcmsFile f : lcmsFiles) {
-      if (f.getDataType().contentEquals("DDA") || f.getDataType().contentEquals("DIA-Quant") || f.getDataType().contentEquals("DDA+")) {
+      if (isPassedThrough(f)) {
         continue;
       }
 
       Path inputDir = f.getPath().getParent();
       Path destDir = f.outputDir(wd);
+      final String lane = StringUtils.upToLastDot(f.getPath().getFileName().toString());
 
       // Umpire-SE
       //java -Dbatmass.io.libs.thermo.dir=ext/thermo/ -cp batmass-io-1.23.0.jar:DIA_Umpire_SE.jar dia_umpire_se.DIA_Umpire_SE  (.raw|.mzML|.mzXML) DIA-U_params
+      final int heapGb = estimateHeapGb(HEAP_PER_INPUT_SIZE, f.getPath());
+      final int maxHeapGb = heapGb == 0 ? ramGb : Math.max(1, Math.min(ramGb, 2 * heapGb));
       List<String> cmd = new ArrayList<>();
       cmd.add(Fragpipe.getBinJava());
-      cmd.add("-Xmx" + ramGb + "G");
+      cmd.add("-Xmx" + maxHeapGb + "G");
       if (javaDParmsStringLibsThermoDir != null)
         cmd.add(javaDParmsStringLibsThermoDir);
 
@@ -139,26 +170,45 @@ public class CmdUmpireSe extends CmdBase {
       cmd.add(umpireParamsFilePath.toString());
 
       ProcessBuilder pbUmpireSe = new ProcessBuilder(cmd);
-      pbis.add(PbiBuilder.from(pbUmpireSe));
+      pbis.add(new PbiBuilder().setPb(pbUmpireSe).setParallelGroup(getCmdName()).setThreads(threadsPerRun)
+          .setRamGb(heapGb == 0 ? maxHeapGb : Math.min(heapGb, maxHeapGb), maxHeapGb).setLane(lane).create());
 
       // check if the working dir is the dir where the mzXML file was
-      // if it is, then don't do anything, if it is not, then copy
-      // UmpireSE outputs to the working directory
-      // and also create symlinks to the original files
-
-
+      // if it is, then only delete garbage files, if it is not, then move
+      // UmpireSE outputs to the working directory and delete garbage files
+      // in one go, right after this file is done
+      final Set<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(destDir.resolve(f.getPath().getFileName()), false, false).stream()
+          .map(Path::getFileName).collect(Collectors.toSet());
+      final List<FileOps.Entry> entries = new ArrayList<>();
       if (!inputDir.equals(destDir)) {
         // destination dir is different from mzXML file location
-        // need to move output and cleanup
-        List<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(f.getPath(), true, true);
-        List<ProcessBuilder> pbsMove = ToolingUtils.pbsMoveFiles(jarFragpipe, destDir, true, garbage);
-        pbis.addAll(PbiBuilder.from(pbsMove));
+        for (Path p : UmpireSeGarbageFiles.getGarbageFiles(f.getPath(), true, true)) {
+          if (garbage.contains(p.getFileName())) {
+            entries.add(new FileOps.Entry(FileOps.Op.DELETE, p, null));
+            entries.add(new FileOps.Entry(FileOps.Op.DELETE, destDir.resolve(p.getFileName()), null));
+          } else if (UmpireSeGarbageFiles.logFile.contains(p.getFileName().toString())) {
+            // the log is shared by all files in the directory, which may still be running
+            entries.add(new FileOps.Entry(FileOps.Op.COPY, p, destDir.resolve(p.getFileName())));
+            sharedLogs.add(p);
+          } else {
+            entries.add(new FileOps.Entry(FileOps.Op.MOVE, p, destDir.resolve(p.getFileName())));
+          }
+        }
+      } else {
+        for (Path p : garbage) {
+          entries.add(new FileOps.Entry(FileOps.Op.DELETE, destDir.resolve(p), null));
+        }
+      }
+      for (ProcessBuilder pb : ToolingUtils.pbsFileOps(jarFragpipe, true, entries)) {
+        pbisCleanup.add(new PbiBuilder().setPb(pb).setName(getCmdName() + ": Clean up").setParallelGroup(getCmdName() + ": Clean up").setLane(lane).create());
       }
+    }
+    pbis.addAll(pbisCleanup);
 
-      // delete garbage files
-      final List<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(destDir.resolve(f.getPath().getFileName()), false, false);
-      final List<ProcessBuilder> pbsDeleteFiles = ToolingUtils.pbsDeleteFiles(jarFragpipe, garbage);
-      pbis.addAll(PbiBuilder.from(pbsDeleteFiles));
+    // the shared logs have been copied to all output directories
+    if (!sharedLogs.isEmpty()) {
+      List<FileOps.Entry> entries = sharedLogs.stream().map(p -> new FileOps.Entry(FileOps.Op.DELETE, p, null)).collect(Collectors.toList());
+      pbis.addAll(PbiBuilder.from(ToolingUtils.pbsFileOps(jarFragpipe, true, entries), getCmdName() + ": Clean up"));
     }
 
     isConfigured = true;
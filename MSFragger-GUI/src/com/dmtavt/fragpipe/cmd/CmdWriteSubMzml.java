@@ -43,6 +43,8 @@ public class CmdWriteSubMzml extends CmdBase {
   private static final Logger log = LoggerFactory.getLogger(CmdWriteSubMzml.class);
   public static final String NAME = "WriteSubMzml";
   private static final String[] JAR_DEPS = {ToolingUtils.BATMASS_IO_JAR};
+  /** Heap needed per byte of input, the calibrated spectra of the whole run are read from the mzBIN file at once. */
+  private static final double HEAP_PER_INPUT_SIZE = 3;
 
   public CmdWriteSubMzml(boolean isRun, Path workDir) {
     super(isRun, workDir);
@@ -98,13 +100,14 @@ public class CmdWriteSubMzml extends CmdBase {
     Path extLibsBruker = CmdMsfragger.searchExtLibsBruker(Collections.singletonList(binMSFragger.getParent()));
     Path extLibsThermo = CmdMsfragger.searchExtLibsThermo(Collections.singletonList(binMSFragger.getParent()));
 
-    int idx = 0;
-    int batchNum = Math.min(2, nThreads);
     for (Map.Entry<String, LcmsFileGroup> e : lcmsFileGroups.entrySet()) {
       for (InputLcmsFile inputLcmsFile : e.getValue().lcmsFiles) {
+        // small files don't need the full RAM, so files run side by side as far as the RAM budget allows
+        final int maxHeapGb = Math.max(1, ramGb);
+        final int heapGb = estimateHeapGb(HEAP_PER_INPUT_SIZE, inputLcmsFile.getPath());
         List<String> cmd = new ArrayList<>();
         cmd.add(Fragpipe.getBinJava());
-        cmd.add("-Xmx" + ramGb + "G");
+        cmd.add("-Xmx" + maxHeapGb + "G");
         if (extLibsBruker == null) {
           if (inputLcmsFile.getPath().toString().toLowerCase().endsWith(".d")) {
             SwingUtils.showErrorDialog(comp, "Could not find the Bruker library for " + inputLcmsFile.getPath().toAbsolutePath() + ". Please make sure that there are ext folder along with the MSFragger jar file.", "Error");
@@ -131,8 +134,7 @@ public class CmdWriteSubMzml extends CmdBase {
         cmd.add("1");
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(wd.resolve(e.getKey()).toFile());
-        pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName() + (idx / batchNum)).create());
-        ++idx;
+        pbis.add(new PbiBuilder().setPb(pb).setParallelGroup(getCmdName()).setThreads(1).setRamGb(heapGb > 0 ? Math.min(heapGb, maxHeapGb) : maxHeapGb, maxHeapGb).create());
       }
     }
 
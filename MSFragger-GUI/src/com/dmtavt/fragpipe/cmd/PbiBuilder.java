@@ -27,6 +27,10 @@ public class PbiBuilder {
   private String fnStdOut;
   private String fnStdErr;
   private String parallelGroup;
+  private int threads;
+  private int minRamGb;
+  private int ramGb;
+  private String lane;
 
   public PbiBuilder setPb(ProcessBuilder pb) {
     this.pb = pb;
@@ -53,8 +57,41 @@ public class PbiBuilder {
     return this;
   }
 
+  /**
+   * Number of CPU threads the process is going to use, taken into account by the scheduler.
+   */
+  public PbiBuilder setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Amount of RAM (GB) the process is going to use, taken into account by the scheduler.
+   */
+  public PbiBuilder setRamGb(int ramGb) {
+    this.ramGb = ramGb;
+    return this;
+  }
+
+  /**
+   * Range of Java heap (GB) the process can run with, see {@link ProcessBuilderInfo#minRamGb}.
+   */
+  public PbiBuilder setRamGb(int minRamGb, int maxRamGb) {
+    this.minRamGb = minRamGb;
+    this.ramGb = maxRamGb;
+    return this;
+  }
+
+  /**
+   * Processes working on the same input share a lane, see {@link ProcessBuilderInfo#lane}.
+   */
+  public PbiBuilder setLane(String lane) {
+    this.lane = lane;
+    return this;
+  }
+
   public ProcessBuilderInfo create() {
-    return new ProcessBuilderInfo(pb, name, fnStdOut, fnStdErr, parallelGroup);
+    return new ProcessBuilderInfo(pb, name, fnStdOut, fnStdErr, parallelGroup, threads, minRamGb, ramGb, lane);
   }
 
   public static List<ProcessBuilderInfo> from(List<ProcessBuilder> pbs) {
@@ -24,14 +24,25 @@ import com.dmtavt.fragpipe.api.Bus;
 import com.dmtavt.fragpipe.messages.MessageKillAll;
 import com.dmtavt.fragpipe.messages.MessageKillAll.REASON;
 import com.dmtavt.fragpipe.messages.MessageSaveLog;
+import com.dmtavt.fragpipe.process.InProcessTask;
 import com.dmtavt.fragpipe.process.ProcessResult;
+import com.dmtavt.fragpipe.process.RunProfile;
+import com.dmtavt.fragpipe.process.StepResults;
 import com.github.chhh.utils.swing.TextConsole;
 import java.awt.Color;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,21 +54,83 @@ public class ProcessBuilderInfo {
   public final String fnStdout;
   public final String fnStderr;
   public final String parallelGroup;
+  /** Number of CPU threads the process is expected to use. Zero if not declared. */
+  public final int threads;
+  /** Amount of RAM (GB) the process is expected to use. Zero if not declared. */
+  public final int ramGb;
+  /**
+   * Smallest Java heap (GB) the process can work with. If set, the scheduler may start the process
+   * with a heap between this and {@link #ramGb} so that it fits beside the ones already running,
+   * replacing the {@code -Xmx} option of the command. Zero if the heap can't be reduced.
+   */
+  public final int minRamGb;
+  /** Not null if this is one of FragPipe's helpers that can be run without starting a new JVM. */
+  public final InProcessTask inProcess;
+  /**
+   * Processes working on the same input (e.g. one file) share a lane. Within a parallel group a
+   * process only waits for the previous stage's processes of its own lane. Null if not set.
+   */
+  public final String lane;
   public static final String GROUP_SEQUENTIAL = "SEQUENTIAL EXECUTION";
+  /** Harmless warnings some tools print on stderr for every file, removed from the console. */
+  private static final Map<String, Pattern> STDERR_FILTERS = new HashMap<>();
+  static {
+    STDERR_FILTERS.put("peptideprophet", Pattern.compile("WARNING: (?:CANNOT correct|cannot open) data file[^\\r\\n]+[\\r\\n]+"));
+    STDERR_FILTERS.put("ptmprophet", Pattern.compile("\"chmod [0-9]{3} [^\\r\\n]+\" failed: Operation not permitted[\\r\\n]*"));
+  }
 
   public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
       String fnStderr, String parallelGroup) {
+    this(pb, name, fnStdout, fnStderr, parallelGroup, 0, 0);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
+      String fnStderr, String parallelGroup, int threads, int ramGb) {
+    this(pb, name, fnStdout, fnStderr, parallelGroup, threads, ramGb, null);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
+      String fnStderr, String parallelGroup, int threads, int ramGb, String lane) {
+    this(pb, name, fnStdout, fnStderr, parallelGroup, threads, 0, ramGb, lane);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdout,
+      String fnStderr, String parallelGroup, int threads, int minRamGb, int ramGb, String lane) {
     this.pb = pb;
     this.name = name;
     this.fnStdout = fnStdout;
     this.fnStderr = fnStderr;
     this.parallelGroup = parallelGroup;
+    this.threads = threads;
+    this.ramGb = ramGb;
+    this.minRamGb = Math.min(minRamGb, ramGb);
+    this.lane = lane;
+    this.inProcess = InProcessTask.of(pb);
+  }
+
+  /**
+   * Processes sharing a parallel group other than {@link #GROUP_SEQUENTIAL} may run side by side.
+   */
+  public static boolean isParallelGroup(String parallelGroup) {
+    return parallelGroup != null && !parallelGroup.equals(GROUP_SEQUENTIAL);
   }
 
   public static Runnable toRunnable(final ProcessBuilderInfo pbi, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, boolean isDownstream) {
+    return toRunnable(pbi, wdPath, pbiPrinter, console, isDownstream, null);
+  }
+
+  /**
+   * @param onExit Called with the exit code once the process has finished, can be null. Not called
+   *     if the process could not be started or was interrupted.
+   */
+  public static Runnable toRunnable(final ProcessBuilderInfo pbi, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, boolean isDownstream, IntConsumer onExit) {
+    if (pbi.inProcess != null) {
+      return () -> runInProcess(pbi, wdPath, pbiPrinter, console, onExit);
+    }
     return () -> {
       final ProcessResult pr = new ProcessResult(pbi);
       Process started = null;
+      StepResults.OutputScanner results = null;
       try {
         log.debug("Starting: {}", pbi.name);
         if (pbiPrinter != null) {
@@ -65,6 +138,8 @@ public class ProcessBuilderInfo {
         }
         started = pr.start();
         log.debug("Started: {}", pbi.name);
+        RunProfile.started(pbi, started);
+        results = StepResults.start(wdPath, pbi.name);
       } catch (IOException e) {
         log.error("Error while starting process: " + pbi.name + ", stopping", e);
         Bus.post(new MessageKillAll(REASON.CANT_START_PROCESS, console));
@@ -82,65 +157,41 @@ public class ProcessBuilderInfo {
           toConsole(Fragpipe.COLOR_BLACK, "Please wait. " + pbi.name + " is running. It can take a long time.", true, console);
         }
 
-        StringBuilder sbBuffer = new StringBuilder();
-        while (true) {
-          Thread.sleep(200L);
-          final byte[] pollErr = pr.pollStdErr();
-          if (pollErr != null && pollErr.length > 0) {
-            if (pbi.name.equalsIgnoreCase("peptideprophet")) {
-              String errStr = (new String(pollErr, StandardCharsets.UTF_8)).replaceAll("WARNING: CANNOT correct data file[^\r\n]+[\r\n]+", "").replaceAll("WARNING: cannot open data file[^\r\n]+[\r\n]+", "");
-              sbBuffer.append(errStr);
-            } else if (pbi.name.equalsIgnoreCase("ptmprophet")) {
-              String errStr = (new String(pollErr, StandardCharsets.UTF_8)).replaceAll("\"chmod [0-9]{3} [^\\r\\n]+\" failed: Operation not permitted[\\r\\n]*", "");
-              sbBuffer.append(errStr);
-            } else if (pbi.name.equalsIgnoreCase("writesubmzml")) {
-              sbBuffer.append(new String(pollErr, StandardCharsets.UTF_8));
-            } else {
-              String errStr = pr.appendErr(pollErr);
-              toConsole(null, errStr, false, console);
-            }
-          }
-
-          final byte[] pollOut = pr.pollStdOut();
-          if (pollOut != null && pollOut.length > 0) {
-            if (pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet") || pbi.name.equalsIgnoreCase("writesubmzml")) {
-              sbBuffer.append(new String(pollOut, StandardCharsets.UTF_8));
-            } else {
-              String outStr = pr.appendOut(pollOut);
-              toConsole(null, outStr, false, console);
-            }
+        final StepResults.OutputScanner stepResults = results;
+        final Pattern errFilter = STDERR_FILTERS.get(pbi.name.toLowerCase(Locale.ROOT));
+        // filtered output is passed on a line at a time, so that the filters see whole lines
+        final LineForwarder errLines = errFilter == null ? null : new LineForwarder(line -> {
+          final String errStr = errFilter.matcher(new String(line, StandardCharsets.UTF_8)).replaceAll("");
+          if (!errStr.isEmpty()) {
+            toConsole(null, pr.appendErr(errStr.getBytes(StandardCharsets.UTF_8)), false, console);
           }
-
-          if (started.isAlive()) {
-            continue;
-          }
-
-          if (pbi.name.equalsIgnoreCase("peptideprophet") || pbi.name.equalsIgnoreCase("ptmprophet") || pbi.name.equalsIgnoreCase("writesubmzml")) {
-            pr.appendOut(sbBuffer.toString().getBytes(StandardCharsets.UTF_8));
-            toConsole(null, sbBuffer.toString(), false, console);
+        });
+        pr.pumpOutput(pollOut -> {
+          String outStr = pr.appendOut(pollOut);
+          stepResults.accept(outStr);
+          toConsole(null, outStr, false, console);
+        }, pollErr -> {
+          if (errLines != null) {
+            errLines.write(pollErr);
+          } else {
+            String errStr = pr.appendErr(pollErr);
+            toConsole(null, errStr, false, console);
           }
+        });
 
-          try {
-            log.debug("Checking exit value: {}", pbi.name);
-            final int exitValue = started.exitValue();
-            log.debug("Exit value '{}': {}", exitValue, pbi.name);
-            Color c = exitValue == 0 ? Fragpipe.COLOR_GREEN_DARKER : Fragpipe.COLOR_RED;
-            String msg = String.format(Locale.ROOT, "Process '%s' finished, exit code: %d\n", pbi.name, exitValue);
-            toConsole(c, msg, false, console);
-            if (exitValue != 0) {
-              log.debug("Exit value not zero, killing all processes");
-              toConsole(Fragpipe.COLOR_RED, "Process returned non-zero exit code, stopping", true, console);
-              Bus.post(new MessageKillAll(REASON.NON_ZERO_RETURN_FROM_PROCESS, console));
-              Bus.post(MessageSaveLog.saveInDir(wdPath));
-              break;
-            }
-          } catch (IllegalThreadStateException ex) {
-            log.warn("Checking for exit value when subprocess was not alive threw exception.");
-          }
-          break;
+        // no polling, the thread just sleeps until the process is done and its output is drained
+        final int exitValue = started.onExit().get().exitValue();
+        pr.awaitOutput();
+        if (errLines != null) {
+          errLines.close();
         }
+        stepResults.finish();
+
+        reportExit(pbi, exitValue, wdPath, console, onExit);
       } catch (IOException e) {
         log.error("Error while starting process " + pbi.name, e);
+      } catch (ExecutionException e) {
+        log.error("Error while waiting for process " + pbi.name, e);
       } catch (InterruptedException e) {
         // graceful stop request
         String msg = "Processing interrupted, stopping " + pbi.name;
@@ -168,10 +219,130 @@ public class ProcessBuilderInfo {
         } catch (Exception e) {
           log.error("Error closing redirected std/err streams from external process", e);
         }
+        RunProfile.exited(pbi, null); // no-op if the exit was reported
         if (Fragpipe.headless && overallExitCode != 0) {
           System.exit(overallExitCode);
         }
       }
     };
   }
+
+  /**
+   * Runs one of FragPipe's helpers in this JVM. Output goes to the console and the log line by line
+   * while the helper runs, same as for an external process. Stopping the run interrupts the thread,
+   * which the helpers treat like being killed.
+   */
+  private static void runInProcess(final ProcessBuilderInfo pbi, final Path wdPath, BiConsumer<ProcessBuilderInfo, TextConsole> pbiPrinter, TextConsole console, IntConsumer onExit) {
+    if (Thread.currentThread().isInterrupted()) {
+      toConsole(Fragpipe.COLOR_RED_DARKEST, "Processing interrupted, stopping " + pbi.name, true, console);
+      return;
+    }
+    log.debug("Running in-process: {} [{}]", pbi.name, pbi.inProcess.mainClass);
+    if (pbiPrinter != null) {
+      pbiPrinter.accept(pbi, console);
+    }
+
+    int exitValue = 1;
+    RunProfile.startedInProcess(pbi);
+    try (ProcessResult pr = new ProcessResult(pbi)) {
+      pr.openRedirects();
+      final StepResults.OutputScanner stepResults = StepResults.start(wdPath, pbi.name);
+      try (PrintStream psOut = new PrintStream(new LineForwarder(line -> {
+            final String outStr = pr.appendOut(line);
+            stepResults.accept(outStr);
+            toConsole(null, outStr, false, console);
+          }), true, StandardCharsets.UTF_8);
+          PrintStream psErr = new PrintStream(new LineForwarder(line ->
+              toConsole(null, pr.appendErr(line), false, console)), true, StandardCharsets.UTF_8)) {
+        exitValue = pbi.inProcess.run(psOut, psErr);
+      }
+      stepResults.finish();
+      reportExit(pbi, exitValue, wdPath, console, onExit);
+    } catch (InterruptedException e) {
+      // graceful stop request, same as for an external process that gets killed
+      String msg = "Processing interrupted, stopping " + pbi.name;
+      log.debug(msg, e);
+      toConsole(Fragpipe.COLOR_RED_DARKEST, msg, true, console);
+      RunProfile.exited(pbi, null);
+      exitValue = 1;
+    } catch (Exception e) {
+      log.error("Error while running " + pbi.name, e);
+      RunProfile.exited(pbi, null);
+      Bus.post(new MessageKillAll(REASON.CANT_START_PROCESS, console));
+    }
+
+    if (Fragpipe.headless && exitValue != 0) {
+      System.exit(exitValue);
+    }
+  }
+
+  private static void reportExit(ProcessBuilderInfo pbi, int exitValue, Path wdPath, TextConsole console, IntConsumer onExit) {
+    log.debug("Exit value '{}': {}", exitValue, pbi.name);
+    RunProfile.exited(pbi, exitValue);
+    StepResults.exit(wdPath, pbi.name, exitValue);
+    Color c = exitValue == 0 ? Fragpipe.COLOR_GREEN_DARKER : Fragpipe.COLOR_RED;
+    String msg = String.format(Locale.ROOT, "Process '%s' finished, exit code: %d\n", pbi.name, exitValue);
+    toConsole(c, msg, false, console);
+    if (exitValue != 0) {
+      log.debug("Exit value not zero, killing all processes");
+      toConsole(Fragpipe.COLOR_RED, "Process returned non-zero exit code, stopping", true, console);
+      Bus.post(new MessageKillAll(REASON.NON_ZERO_RETURN_FROM_PROCESS, console));
+      Bus.post(MessageSaveLog.saveInDir(wdPath));
+    }
+    if (onExit != null) {
+      onExit.accept(exitValue);
+    }
+  }
+
+  private interface LineSink {
+    void accept(byte[] line) throws IOException;
+  }
+
+  /**
+   * Hands complete lines of a helper's output over as soon as they are written. Whatever is left
+   * without a line break is handed over on close.
+   */
+  private static class LineForwarder extends OutputStream {
+    private final LineSink sink;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    LineForwarder(LineSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      line.write(b);
+      if (b == '\n') {
+        emit();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int from = off;
+      for (int i = off; i < off + len; i++) {
+        if (b[i] == '\n') {
+          line.write(b, from, i + 1 - from);
+          emit();
+          from = i + 1;
+        }
+      }
+      line.write(b, from, off + len - from);
+    }
+
+    @Override
+    public void close() throws IOException {
+      emit();
+    }
+
+    private void emit() throws IOException {
+      if (line.size() > 0) {
+        final byte[] bytes = line.toByteArray();
+        line.reset();
+        sink.accept(bytes);
+      }
+    }
+  }
+
 }
@@ -26,9 +26,7 @@ import com.dmtavt.fragpipe.api.Bus;
 import com.dmtavt.fragpipe.api.InputLcmsFile;
 import com.dmtavt.fragpipe.api.LcmsFileGroup;
 import com.dmtavt.fragpipe.tabs.TabWorkflow;
-import com.github.chhh.utils.FileCopy;
-import com.github.chhh.utils.FileDelete;
-import com.github.chhh.utils.FileMove;
+import com.github.chhh.utils.FileOps;
 import com.github.chhh.utils.JarUtils;
 import java.awt.Component;
 import java.awt.Image;
@@ -84,6 +82,9 @@ public class ToolingUtils {
 
   private enum Op {COPY, MOVE, DELETE, RENAME}
 
+  /** Keep well below the command line length limit on Windows. */
+  private static final int MAX_FILE_OPS_CMD_LENGTH = 24000;
+
   /**
    * @param jarFragpipe Use {@link JarUtils#getCurrentJarUri()} to get that from the current Jar.
    */
@@ -115,50 +116,74 @@ public class ToolingUtils {
    */
   private static List<ProcessBuilder> pbsCopyMoveDeleteRenameFiles(Path jarFragpipe, Op operation, Path dest,
                                                                    boolean ignoreMissingFiles, List<Path> files) {
-    if (jarFragpipe == null) {
-      throw new IllegalArgumentException("jar can't be null");
-    }
-
-    List<ProcessBuilder> pbs = new LinkedList<>();
+    List<FileOps.Entry> entries = new ArrayList<>();
     for (Path file : files) {
       if (Objects.equals(file.getParent(), (dest))) {
         continue;
       }
-      List<String> cmd = new ArrayList<>();
-      cmd.add(Fragpipe.getBinJava());
-      cmd.add("-cp");
-      final String commons_io_jar_path = org.apache.commons.io.FileUtils.class.getProtectionDomain().getCodeSource().getLocation().getPath();
-      cmd.add(jarFragpipe.toAbsolutePath() +
-              (operation == Op.MOVE ?
-                      File.pathSeparator + commons_io_jar_path :
-                      ""));
+      Path from = file.toAbsolutePath().normalize();
       switch (operation) {
         case COPY:
-          cmd.add(FileCopy.class.getCanonicalName());
+          entries.add(new FileOps.Entry(FileOps.Op.COPY, from, dest.resolve(file.getFileName())));
           break;
         case MOVE:
+          entries.add(new FileOps.Entry(FileOps.Op.MOVE, from, dest.resolve(file.getFileName())));
+          break;
         case RENAME:
-          cmd.add(FileMove.class.getCanonicalName());
+          entries.add(new FileOps.Entry(FileOps.Op.MOVE, from, dest));
           break;
         case DELETE:
-          cmd.add(FileDelete.class.getCanonicalName());
+          entries.add(new FileOps.Entry(FileOps.Op.DELETE, from, null));
           break;
         default:
           throw new IllegalStateException("Unknown enum value: " + operation.toString());
       }
-      if (ignoreMissingFiles) {
-        cmd.add(FileMove.NO_ERR);
+    }
+    return pbsFileOps(jarFragpipe, ignoreMissingFiles, entries);
+  }
+
+  /**
+   * Batches file operations into as few {@link FileOps} invocations as the command line length
+   * allows. The operations must not depend on each other, they are executed concurrently.
+   *
+   * @param jarFragpipe Use {@link JarUtils#getCurrentJarUri()} to get that from the current Jar.
+   * @param ignoreMissingFiles Skip entries whose origin doesn't exist instead of failing.
+   */
+  public static List<ProcessBuilder> pbsFileOps(Path jarFragpipe, boolean ignoreMissingFiles, List<FileOps.Entry> entries) {
+    if (jarFragpipe == null) {
+      throw new IllegalArgumentException("jar can't be null");
+    }
+
+    List<String> base = new ArrayList<>();
+    base.add(Fragpipe.getBinJava());
+    base.add("-cp");
+    final String commons_io_jar_path = org.apache.commons.io.FileUtils.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+    base.add(jarFragpipe.toAbsolutePath() + File.pathSeparator + commons_io_jar_path);
+    base.add(FileOps.class.getCanonicalName());
+    if (ignoreMissingFiles) {
+      base.add(FileOps.NO_ERR);
+    }
+    final int baseLength = base.stream().mapToInt(s -> s.length() + 1).sum();
+
+    List<ProcessBuilder> pbs = new LinkedList<>();
+    List<String> cmd = null;
+    int length = 0;
+    for (FileOps.Entry entry : entries) {
+      List<String> args = entry.toArgs();
+      int argsLength = args.stream().mapToInt(s -> s.length() + 1).sum();
+      if (cmd != null && length + argsLength > MAX_FILE_OPS_CMD_LENGTH) {
+        pbs.add(new ProcessBuilder(cmd));
+        cmd = null;
       }
-      cmd.add(file.toAbsolutePath().normalize().toString());
-      if (dest != null) {
-        if (operation != Op.RENAME) {
-          cmd.add(dest.resolve(file.getFileName()).toString());
-        } else {
-          cmd.add(dest.toString());
-        }
+      if (cmd == null) {
+        cmd = new ArrayList<>(base);
+        length = baseLength;
       }
-      ProcessBuilder pb = new ProcessBuilder(cmd);
-      pbs.add(pb);
+      cmd.addAll(args);
+      length += argsLength;
+    }
+    if (cmd != null) {
+      pbs.add(new ProcessBuilder(cmd));
     }
     return pbs;
   }
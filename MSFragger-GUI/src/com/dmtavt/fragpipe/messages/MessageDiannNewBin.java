@@ -18,10 +18,15 @@
 package com.dmtavt.fragpipe.messages;
 
 import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageDiannNewBin {
 
+  private static final AtomicLong SEQ = new AtomicLong();
+
   public String path;
+  /** Tells which of the messages was posted last, the checks of older ones are outdated. */
+  public final long seq = SEQ.incrementAndGet();
 
   public MessageDiannNewBin(String path) {
     this.path = path;
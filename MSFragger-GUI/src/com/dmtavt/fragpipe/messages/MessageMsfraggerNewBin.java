@@ -18,9 +18,14 @@
 package com.dmtavt.fragpipe.messages;
 
 import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageMsfraggerNewBin {
+  private static final AtomicLong SEQ = new AtomicLong();
+
   public final String binPath;
+  /** Tells which of the messages was posted last, the checks of older ones are outdated. */
+  public final long seq = SEQ.incrementAndGet();
 
   public MessageMsfraggerNewBin(String binPath) {
     this.binPath = binPath;
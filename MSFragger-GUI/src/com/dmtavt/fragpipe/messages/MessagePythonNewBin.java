@@ -17,9 +17,15 @@
 
 package com.dmtavt.fragpipe.messages;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class MessagePythonNewBin {
 
+  private static final AtomicLong SEQ = new AtomicLong();
+
   public final String command;
+  /** Tells which of the messages was posted last, the checks of older ones are outdated. */
+  public final long seq = SEQ.incrementAndGet();
 
   public MessagePythonNewBin(String command) {
     this.command = command;
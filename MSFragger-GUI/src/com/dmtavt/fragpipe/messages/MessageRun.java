@@ -22,8 +22,15 @@ package com.dmtavt.fragpipe.messages;
  */
 public class MessageRun {
   public final boolean isDryRun;
+  /** Skip the processes that already finished in a previous run with the same inputs. */
+  public final boolean isResume;
 
   public MessageRun(boolean isDryRun) {
+    this(isDryRun, false);
+  }
+
+  public MessageRun(boolean isDryRun, boolean isResume) {
     this.isDryRun = isDryRun;
+    this.isResume = isResume;
   }
 }
@@ -17,6 +17,7 @@
 
 package com.dmtavt.fragpipe.messages;
 
+import com.dmtavt.fragpipe.process.StepResults;
 import com.dmtavt.fragpipe.tools.tmtintegrator.QuantLabel;
 import com.dmtavt.fragpipe.util.SDRFtable;
 
@@ -26,18 +27,19 @@ public class MessageSDRFsave {
     public final Path path;
     public final boolean quiet;
     public final QuantLabel label;
-    public String logText;
+    public final StepResults results;
 
     public MessageSDRFsave() {
         path = null;
         quiet = false;
         label = null;
+        results = null;
     }
 
-    public MessageSDRFsave(Path path, boolean quiet, QuantLabel label, String logText) {
+    public MessageSDRFsave(Path path, boolean quiet, QuantLabel label, StepResults results) {
         this.path = path;
         this.quiet = quiet;
         this.label = label;
-        this.logText = logText;
+        this.results = results;
     }
 }
@@ -17,13 +17,25 @@
 
 package com.dmtavt.fragpipe.messages;
 
+import com.dmtavt.fragpipe.internal.DefEdge;
 import java.util.List;
 import com.dmtavt.fragpipe.process.RunnableDescription;
+import org.jgrapht.Graph;
 
 public class MessageStartProcesses {
   public final List<RunnableDescription> runDescs;
+  /**
+   * Dependencies between runnables, consumed by the process manager while running. If null,
+   * runnables are executed in the order listed.
+   */
+  public final Graph<RunnableDescription, DefEdge> taskGraph;
 
   public MessageStartProcesses(List<RunnableDescription> pbi) {
+    this(pbi, null);
+  }
+
+  public MessageStartProcesses(List<RunnableDescription> pbi, Graph<RunnableDescription, DefEdge> taskGraph) {
     this.runDescs = pbi;
+    this.taskGraph = taskGraph;
   }
 }
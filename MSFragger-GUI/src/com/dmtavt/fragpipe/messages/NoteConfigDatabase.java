@@ -26,13 +26,20 @@ public class NoteConfigDatabase implements INoteConfig {
   public final int decoysCnt;
   public final boolean isBigDatabase;
   public final boolean isValid;
+  /** False if decoysCnt is only a lower bound. */
+  public final boolean isDecoysCntExact;
 
   public NoteConfigDatabase(Path path, int numEntries, int decoysCnt, boolean isBigDatabase, boolean isValid) {
+    this(path, numEntries, decoysCnt, isBigDatabase, isValid, true);
+  }
+
+  public NoteConfigDatabase(Path path, int numEntries, int decoysCnt, boolean isBigDatabase, boolean isValid, boolean isDecoysCntExact) {
     this.path = path;
     this.numEntries = numEntries;
     this.decoysCnt = decoysCnt;
     this.isBigDatabase = isBigDatabase;
     this.isValid = isValid;
+    this.isDecoysCntExact = isDecoysCntExact;
   }
 
   public NoteConfigDatabase() {
@@ -41,6 +48,7 @@ public class NoteConfigDatabase implements INoteConfig {
     decoysCnt = -1;
     isBigDatabase = false;
     this.isValid = false;
+    isDecoysCntExact = true;
   }
 
   @Override
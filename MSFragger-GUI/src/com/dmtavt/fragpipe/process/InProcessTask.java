@@ -0,0 +1,126 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.util.AppendToFile;
+import com.dmtavt.fragpipe.util.RewritePepxml;
+import com.github.chhh.utils.FileCopy;
+import com.github.chhh.utils.FileDelete;
+import com.github.chhh.utils.FileMove;
+import com.github.chhh.utils.FileOps;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of FragPipe's own helper programs run inside the FragPipe JVM, instead of starting a new
+ * JVM just to e.g. move a single file. The process builder it was made from is still what gets
+ * printed for the user and what would be run if the helper was not run in-process.
+ * <p>
+ * Only light helpers qualify. Helpers that read whole reports or start thread pools of their own
+ * (Percolator output conversion, the DIA-NN report helpers) are forked with a declared heap and
+ * thread count, so that the scheduler accounts for them and they can't exhaust FragPipe's heap.
+ */
+public class InProcessTask {
+
+  /**
+   * Equivalent of a helper's {@code main()} that writes to the given streams and returns the exit
+   * code instead of calling {@link System#exit(int)}.
+   */
+  public interface Main {
+    int run(String[] args, PrintStream out, PrintStream err) throws Exception;
+  }
+
+  private static final Map<String, Main> MAINS;
+  static {
+    Map<String, Main> m = new HashMap<>();
+    m.put(FileCopy.class.getCanonicalName(), FileCopy::run);
+    m.put(FileMove.class.getCanonicalName(), FileMove::run);
+    m.put(FileDelete.class.getCanonicalName(), FileDelete::run);
+    m.put(FileOps.class.getCanonicalName(), FileOps::run);
+    m.put(AppendToFile.class.getCanonicalName(), AppendToFile::run);
+    m.put(RewritePepxml.class.getCanonicalName(), RewritePepxml::run);
+    MAINS = Collections.unmodifiableMap(m);
+  }
+
+  public final String mainClass;
+  private final String[] args;
+  private final Main main;
+
+  private InProcessTask(String mainClass, String[] args, Main main) {
+    this.mainClass = mainClass;
+    this.args = args;
+    this.main = main;
+  }
+
+  /**
+   * Recognizes plain {@code java -cp <classpath> <main-class> args...} invocations of the helpers
+   * that can be run in-process. Anything passing options to the JVM (e.g. heap size for the memory
+   * hungry steps) is left to run in its own process.
+   *
+   * @return Null if the command needs to be run as a separate process.
+   */
+  public static InProcessTask of(ProcessBuilder pb) {
+    if (pb == null) {
+      return null;
+    }
+    final List<String> cmd = pb.command();
+    if (cmd.size() < 4 || !"-cp".equals(cmd.get(1))) {
+      return null;
+    }
+    final Main main = MAINS.get(cmd.get(3));
+    if (main == null) {
+      return null;
+    }
+    return new InProcessTask(cmd.get(3), cmd.subList(4, cmd.size()).toArray(new String[0]), main);
+  }
+
+  /**
+   * Helpers call this between units of work, the in-process equivalent of the process being
+   * killed when the user stops the run.
+   */
+  public static void checkInterrupted() throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  /**
+   * @return Exit code, non-zero if the helper failed or threw.
+   * @throws InterruptedException If the run was stopped while the helper was working. Whatever
+   * the helper threw because of the interruption (e.g. {@link java.nio.channels.ClosedByInterruptException}
+   * from file IO) is reported this way too.
+   */
+  public int run(PrintStream out, PrintStream err) throws InterruptedException {
+    try {
+      final int exitCode = main.run(args.clone(), out, err);
+      checkInterrupted();
+      return exitCode;
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException();
+      }
+      e.printStackTrace(err);
+      return 1;
+    }
+  }
+}
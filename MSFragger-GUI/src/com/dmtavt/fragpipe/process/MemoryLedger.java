@@ -0,0 +1,122 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the sum of the RAM given to running processes within the budget. A process declares the
+ * most it would use and, if its Java heap can be reduced, the least it can work with. When the
+ * most doesn't fit, the process gets what is left, as long as that is not below the least.
+ * Otherwise it has to wait. Not thread safe, {@link ProcessManager} calls it under its lock.
+ */
+class MemoryLedger {
+
+  private static final Pattern XMX = Pattern.compile("-Xmx\\d+[kKmMgGtT]?");
+  /** Charged for a Java process that declared no RAM and has no {@code -Xmx} option. */
+  static final int DEFAULT_HEAP_GB = 1;
+
+  private int budgetGb;
+  private int usedGb = 0;
+
+  /**
+   * @param budgetGb Zero to not account for RAM.
+   */
+  MemoryLedger(int budgetGb) {
+    this.budgetGb = Math.max(0, budgetGb);
+  }
+
+  void setBudget(int budgetGb) {
+    this.budgetGb = Math.max(0, budgetGb);
+  }
+
+  void reset() {
+    usedGb = 0;
+  }
+
+  int used() {
+    return usedGb;
+  }
+
+  /**
+   * @param minGb Least the process can work with, zero if it needs {@code maxGb}.
+   * @param maxGb Most the process would use.
+   * @param isAlone Nothing else is running, the process gets what it asks for, up to the budget.
+   * @return RAM given to the process, -1 if it has to wait.
+   */
+  int reserve(int minGb, int maxGb, boolean isAlone) {
+    int gb = Math.min(maxGb, budgetGb);
+    final int free = budgetGb - usedGb;
+    if (!isAlone && gb > free) {
+      if (minGb <= 0 || minGb > free) {
+        return -1;
+      }
+      gb = free;
+    }
+    usedGb += gb;
+    return gb;
+  }
+
+  void release(int gb) {
+    usedGb -= gb;
+  }
+
+  /**
+   * RAM of a Java process that did not declare any: its {@code -Xmx} option rounded up to whole GB,
+   * or {@link #DEFAULT_HEAP_GB} without one.
+   *
+   * @return Zero if the command does not start a JVM.
+   */
+  static int heapGb(List<String> cmd) {
+    if (cmd.isEmpty() || !isJava(cmd.get(0))) {
+      return 0;
+    }
+    for (String arg : cmd) {
+      if (XMX.matcher(arg).matches()) {
+        final char unit = Character.toLowerCase(arg.charAt(arg.length() - 1));
+        final String digits = Character.isDigit(unit) ? arg.substring(4) : arg.substring(4, arg.length() - 1);
+        final int shift = unit == 't' ? -10 : unit == 'g' ? 0 : unit == 'm' ? 10 : unit == 'k' ? 20 : 30;
+        final long n = Long.parseLong(digits);
+        return (int) Math.max(1, shift < 0 ? n << -shift : (n + (1L << shift) - 1) >> shift);
+      }
+    }
+    return DEFAULT_HEAP_GB;
+  }
+
+  private static boolean isJava(String bin) {
+    final String name = bin.substring(Math.max(bin.lastIndexOf('/'), bin.lastIndexOf('\\')) + 1).toLowerCase();
+    return name.equals("java") || name.equals("java.exe") || name.equals("javaw.exe");
+  }
+
+  /**
+   * Sets the maximum heap of a Java command, replacing its first {@code -Xmx} option.
+   *
+   * @return False if the command has no {@code -Xmx} option.
+   */
+  static boolean setHeap(ProcessBuilder pb, int gb) {
+    final List<String> cmd = pb.command();
+    for (int i = 0; i < cmd.size(); ++i) {
+      if (XMX.matcher(cmd.get(i)).matches()) {
+        cmd.set(i, "-Xmx" + gb + "G");
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -24,6 +24,7 @@ import static org.apache.commons.text.StringEscapeUtils.escapeJava;
 import com.dmtavt.fragpipe.Fragpipe;
 import com.dmtavt.fragpipe.api.Bus;
 import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.dmtavt.fragpipe.internal.DefEdge;
 import com.dmtavt.fragpipe.messages.MessageDeletePaths;
 import com.dmtavt.fragpipe.messages.MessageKillAll;
 import com.dmtavt.fragpipe.messages.MessageRunButtonEnabled;
@@ -39,6 +40,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -52,6 +54,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
+import org.jgrapht.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,11 +63,17 @@ public class ProcessManager {
 
   private static final ProcessManager instance = new ProcessManager();
   private int nThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, maxProcessors));
+  private final MemoryLedger memory = new MemoryLedger(0); // budget of zero means RAM is not accounted for
   private final Object lock = new Object();
-  private final ConcurrentLinkedQueue<List<RunnableDescription>> taskGroups = new ConcurrentLinkedQueue<>();
   private final ConcurrentLinkedQueue<CompletableFuture<?>> started = new ConcurrentLinkedQueue<>();
 
-  private volatile CompletableFuture<Void> cf = CompletableFuture.completedFuture(null);
+  // scheduling state, guarded by lock
+  private Graph<RunnableDescription, DefEdge> taskGraph = TaskGraph.create();
+  private final LinkedList<RunnableDescription> pending = new LinkedList<>();
+  private final List<RunnableDescription> running = new ArrayList<>();
+  private int usedThreads = 0;
+  private long generation = 0;
+
   private ExecutorService execSingle;
   private ExecutorService execMulti;
 
@@ -95,6 +104,15 @@ public class ProcessManager {
     }
   }
 
+  /**
+   * @param ramGb RAM budget for concurrently running processes. Zero to not account for RAM.
+   */
+  public void setRamGb(int ramGb) {
+    synchronized (lock) {
+      memory.setBudget(ramGb);
+    }
+  }
+
   private ExecutorService newSingleExecutor() {
     return Executors.newFixedThreadPool(1);
   }
@@ -105,11 +123,14 @@ public class ProcessManager {
 
   private void init0() {
     synchronized (lock) {
-      taskGroups.clear();
+      ++generation; // completions of anything started before this point are ignored
+      taskGraph = TaskGraph.create();
+      pending.clear();
+      running.clear();
+      usedThreads = 0;
+      memory.reset();
       started.forEach(cf -> cf.cancel(true));
       started.clear();
-      cf.cancel(true);
-      cf = CompletableFuture.completedFuture(null);
 
       try {
         if (execSingle != null) {
@@ -191,35 +212,20 @@ public class ProcessManager {
       }
       stop();
 
-      Iterator<RunnableDescription> it = m.runDescs.iterator();
-      final List<RunnableDescription> group = new ArrayList<>();
-      while (it.hasNext()) {
-        RunnableDescription next = it.next();
-
-        // are we starting a new group?
-        if (!group.isEmpty()) {
-          RunnableDescription last = group.get(group.size() - 1);
-          if (last.parallelGroup.equals(next.parallelGroup)) {
-            group.add(next);
-            continue;
-          } else {
-            processGroup(group);
-          }
-        }
-        // next is either a null/sequential group element or a new group element
-        group.add(next);
-        if (next.parallelGroup == null || next.parallelGroup.equals(ProcessBuilderInfo.GROUP_SEQUENTIAL)) {
-          processGroup(group);
-        }
-      }
-
-      if (taskGroups.isEmpty()) {
-        log.error("No runnable groups found");
+      final Graph<RunnableDescription, DefEdge> graph = m.taskGraph != null ? m.taskGraph : TaskGraph.chain(m.runDescs);
+      if (!graph.vertexSet().containsAll(m.runDescs) || graph.vertexSet().size() != m.runDescs.size()) {
+        log.error("Task graph does not match the list of runnables to be started");
         return;
       }
-      submit();
+      taskGraph = graph;
+      pending.addAll(m.runDescs);
+      for (List<RunnableDescription> stage : TaskGraph.stages(m.runDescs)) {
+        logStage(stage);
+      }
+
+      schedule();
       if (Fragpipe.printCommandsInDetail)
-        printCommands(taskGroups);
+        printCommands(TaskGraph.stages(m.runDescs));
 
     } // END: sync
 
@@ -229,7 +235,7 @@ public class ProcessManager {
    * this is for output of detailed information on commands
    * @param taskGroups
    */
-  private void printCommands(final ConcurrentLinkedQueue<List<RunnableDescription>> taskGroups) {
+  private void printCommands(final List<List<RunnableDescription>> taskGroups) {
     @SuppressWarnings("unchecked") final List<RunnableDescription>[] tg = taskGroups.toArray(new List[0]);
     final java.io.PrintStream out = System.out;
     for (List<RunnableDescription> a : tg) {
@@ -261,48 +267,136 @@ public class ProcessManager {
     stop();
   }
 
-//  private CompletableFuture<Void> submit() {
-  private void submit() {
+  /**
+   * Starts all pending tasks whose dependencies have finished, as long as they fit into the
+   * thread and RAM budgets. Tasks are considered in the order they were submitted and a task
+   * that does not fit holds back the ones after it, so that large steps are not starved by a
+   * stream of small ones. A task is always started if nothing else is running. A Java task that
+   * declared the least heap it can work with may be started with less than it asked for, see
+   * {@link MemoryLedger}.
+   */
+  private void schedule() {
+    final boolean done;
     synchronized (lock) {
-      List<RunnableDescription> rds = taskGroups.poll();
-      if (rds == null) {
-        log.debug("No more groups to process, stopping");
-        stop();
-        if (Fragpipe.headless)
-          Fragpipe.runDone.countDown();
-        return;
+      done = pending.isEmpty() && running.isEmpty();
+      if (!done) {
+        startReady();
       }
+    }
+    if (done) {
+      log.debug("No more tasks to process, stopping");
+      // writes the profile files, not while holding the lock
+      RunProfile.end();
+      stop();
+      if (Fragpipe.headless)
+        Fragpipe.runDone.countDown();
+    }
+  }
 
-      if (rds.size() == 1) {
-        RunnableDescription rd = rds.get(0);
-        log.debug("Submitting for serial execution: [{}] {}", rd.description.name,
-            rd.description.command);
-        cf = CompletableFuture.runAsync(rd.runnable, execSingle)
-            .thenRunAsync(this::submit, execSingle);
-
-      } else {
-        String groupName = rds.stream().map(rd -> rd.parallelGroup).distinct()
-            .collect(Collectors.joining(", "));
-        String cmds = rds.stream().map(rd -> rd.description.command)
-            .collect(Collectors.joining("\n\t"));
-        log.debug("Submitting for parallel execution: [{}] {} commands:\n\t{}", groupName,
-            rds.size(), cmds);
-        List<CompletableFuture<Void>> cfs = new ArrayList<>();
-        for (RunnableDescription rd : rds) {
-          CompletableFuture<Void> f = CompletableFuture.runAsync(rd.runnable, execMulti);
-          cfs.add(f);
-        }
-        final CompletableFuture<Void> f = CompletableFuture
-            .allOf(cfs.toArray(new CompletableFuture[0]));
-        cf = f.thenRunAsync(this::submit, execSingle);
+  /** Guarded by lock, see {@link #schedule()}. */
+  private void startReady() {
+    for (Iterator<RunnableDescription> it = pending.iterator(); it.hasNext(); ) {
+      final RunnableDescription rd = it.next();
+      if (taskGraph.inDegreeOf(rd) > 0) {
+        continue; // dependencies have not finished yet
+      }
+      if (rd.pbi != null) {
+        RunProfile.ready(rd.pbi);
+      }
+      final int threads = threadsFor(rd);
+      if (!running.isEmpty() && usedThreads + threads > nThreads) {
+        break;
+      }
+      final int ram = memory.reserve(minRamFor(rd), ramFor(rd), running.isEmpty());
+      if (ram < 0) {
+        break;
+      }
+      it.remove();
+      start(rd, threads, ram);
+    }
+  }
+
+  private void start(final RunnableDescription rd, final int threads, final int ram) {
+    if (rd.pbi != null && rd.pbi.minRamGb > 0 && ram > 0 && ram != rd.pbi.ramGb
+        && MemoryLedger.setHeap(rd.pbi.pb, ram)) {
+      log.debug("Heap of [{}] set to {}G, {}G requested", rd.description.name, ram, rd.pbi.ramGb);
+    }
+    log.debug("Submitting for execution (threads: {}, RAM: {}G, running: {}): [{}] {}", threads, ram,
+        running.size(), rd.description.name, rd.pbi == null ? rd.description.command : String.join(" ", rd.pbi.pb.command()));
+    if (rd.pbi != null) {
+      RunProfile.scheduled(rd.pbi, threads, ram);
+    }
+    running.add(rd);
+    usedThreads += threads;
+    final long gen = generation;
+    final CompletableFuture<Void> f = CompletableFuture.runAsync(rd.runnable, execMulti);
+    started.add(f);
+    f.whenCompleteAsync((v, ex) -> finished(gen, rd, threads, ram, f, ex), execSingle);
+  }
+
+  private void finished(long gen, RunnableDescription rd, int threads, int ram, CompletableFuture<Void> f, Throwable ex) {
+    synchronized (lock) {
+      if (gen != generation) {
+        return; // everything was stopped in the meantime
+      }
+      if (ex != null) {
+        log.error("Task failed, not starting anything else: [" + rd.description.name + "]", ex);
+        pending.clear();
       }
+      started.remove(f);
+      running.remove(rd);
+      usedThreads -= threads;
+      memory.release(ram);
+      taskGraph.removeVertex(rd);
+    }
+    schedule();
+  }
+
+  /**
+   * Undeclared requirements: a task in a parallel group or run in-process takes a single thread,
+   * otherwise the task takes the whole budget, which is how these were executed before scheduling
+   * by budget.
+   */
+  private int threadsFor(RunnableDescription rd) {
+    final ProcessBuilderInfo pbi = rd.pbi;
+    int threads;
+    if (pbi != null && (pbi.threads > 0 || pbi.ramGb > 0)) {
+      threads = Math.max(1, pbi.threads);
+    } else if (pbi != null && pbi.inProcess != null) {
+      threads = 1;
+    } else {
+      threads = ProcessBuilderInfo.isParallelGroup(rd.parallelGroup) ? 1 : nThreads;
     }
+    return Math.min(threads, nThreads);
   }
 
-  private void processGroup(List<RunnableDescription> group) {
-    final List<RunnableDescription> copy = new ArrayList<>(group);
+  /**
+   * Undeclared RAM: a task run in-process takes none. A process that declared its threads or is in
+   * a parallel group is charged its Java heap (see {@link MemoryLedger#heapGb(List)}), none if it
+   * is not Java. Otherwise the task takes the whole budget.
+   */
+  private int ramFor(RunnableDescription rd) {
+    final ProcessBuilderInfo pbi = rd.pbi;
+    int ram;
+    if (pbi != null && pbi.ramGb > 0) {
+      ram = pbi.ramGb;
+    } else if (pbi != null && pbi.inProcess != null) {
+      ram = 0;
+    } else if (pbi != null && (pbi.threads > 0 || ProcessBuilderInfo.isParallelGroup(rd.parallelGroup))) {
+      ram = MemoryLedger.heapGb(pbi.pb.command());
+    } else {
+      ram = ProcessBuilderInfo.isParallelGroup(rd.parallelGroup) ? 0 : Integer.MAX_VALUE;
+    }
+    return ram;
+  }
+
+  private static int minRamFor(RunnableDescription rd) {
+    return rd.pbi == null ? 0 : rd.pbi.minRamGb;
+  }
+
+  private static void logStage(List<RunnableDescription> group) {
     if (group.size() == 1) {
-      RunnableDescription rd = copy.get(0);
+      RunnableDescription rd = group.get(0);
       log.debug("Scheduling for serial execution: [{}] {}", rd.description.name, rd.description.command);
     } else {
       // group of several processes to be run in parallel
@@ -313,19 +407,21 @@ public class ProcessManager {
       log.debug("Scheduling for parallel execution: [{}] {} commands:\n\t{}", groupName,
           group.size(), cmds);
     }
-
-    taskGroups.add(copy);
-    group.clear();
   }
 
   @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
   public void on(MessageKillAll m) {
-    long notStarted = taskGroups.stream().mapToInt(List::size).sum();
+    long notStarted;
+    synchronized (lock) {
+      notStarted = pending.size();
+    }
     String msg = String.format("\n~~~~~~~~~~~~~~~~~~~~\nCancelling %d remaining tasks", notStarted);
     toConsole(Fragpipe.COLOR_RED_DARKEST, msg, true, m.console);
 
     try {
       stop();
+      // writing the profile files takes a while for long runs, not on the EDT
+      new Thread(RunProfile::end, "Run profile").start();
       deleteTempFiles(); // try deleting old temp files
     } finally {
       // after attempting to stop all previous tasks, re-enable run button
@@ -25,11 +25,22 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ProcessResult implements AutoCloseable {
 
+  private static final Logger log = LoggerFactory.getLogger(ProcessResult.class);
+  private static final int PUMP_BUF_SIZE = 8192;
+  /** How much of the output is kept in memory, the full output goes to the console and log files. */
+  private static final int OUTPUT_TAIL_SIZE = 1 << 16;
+
   private final ProcessBuilderInfo pbi;
+  private final List<Thread> pumps = new ArrayList<>();
 
   private boolean started;
   private StringBuilder output = new StringBuilder();
@@ -45,22 +56,29 @@ public class ProcessResult implements AutoCloseable {
   }
 
   public Process start() throws IOException {
+    openRedirects();
+    proc = pbi.pb.start();
+    stdOut = proc.getInputStream();
+    stdErr = proc.getErrorStream();
+    started = true;
+    return proc;
+  }
+
+  /**
+   * Opens the files stdout and stderr are redirected to. Only needed on its own when there is no
+   * external process, {@link #start()} does this already.
+   */
+  public void openRedirects() throws IOException {
     stdOutRedirect = redirectToFile(pbi.pb, pbi.fnStdout);
     if (pbi.fnStderr != null && pbi.fnStderr.equals(pbi.fnStdout)) {
       stdErrRedirect = stdOutRedirect;
     } else {
       stdErrRedirect = redirectToFile(pbi.pb, pbi.fnStderr);
     }
-
-    proc = pbi.pb.start();
-    stdOut = proc.getInputStream();
-    stdErr = proc.getErrorStream();
-    started = true;
-    return proc;
   }
 
   @Override
-  public void close() throws Exception {
+  public synchronized void close() throws IOException {
     if (stdOutRedirect != null) {
       stdOutRedirect.close();
     }
@@ -81,6 +99,69 @@ public class ProcessResult implements AutoCloseable {
     return poll(stdErr);
   }
 
+  /**
+   * Receives chunks of output read from the process.
+   */
+  public interface OutputListener {
+    void onOutput(byte[] bytes) throws IOException;
+  }
+
+  /**
+   * Starts a thread for each of stdout and stderr of the started process that does blocking reads
+   * and passes whatever it gets to the listener. Output that arrives in bursts is delivered in
+   * larger chunks. Use {@link #awaitOutput()} to wait until both streams are exhausted.
+   */
+  public void pumpOutput(OutputListener onStdOut, OutputListener onStdErr) {
+    if (!started) {
+      throw new IllegalStateException("Process has not been started");
+    }
+    pumps.add(pump(stdOut, "stdout", onStdOut));
+    pumps.add(pump(stdErr, "stderr", onStdErr));
+  }
+
+  /**
+   * Waits for the output pumps to read everything the process has written. Streams end once the
+   * process has exited (or was destroyed).
+   */
+  public void awaitOutput() throws InterruptedException {
+    for (Thread pump : pumps) {
+      pump.join();
+    }
+  }
+
+  private Thread pump(InputStream is, String streamName, OutputListener listener) {
+    Thread t = new Thread(() -> {
+      final byte[] buf = new byte[PUMP_BUF_SIZE];
+      try {
+        int read;
+        while ((read = is.read(buf)) != -1) {
+          // pick up whatever else is already there, so that a burst ends up in one update
+          while (read < buf.length && is.available() > 0) {
+            final int more = is.read(buf, read, buf.length - read);
+            if (more == -1) {
+              break;
+            }
+            read += more;
+          }
+          if (read > 0) {
+            try {
+              listener.onOutput(Arrays.copyOf(buf, read));
+            } catch (IOException e) {
+              // keep draining the stream, otherwise the process blocks on a full pipe
+              log.error("Error handling " + streamName + " of process " + pbi.name, e);
+            }
+          }
+        }
+      } catch (IOException e) {
+        // the stream is closed when the process gets destroyed, that's not an error
+        log.debug("Stopped reading {} of process {}: {}", streamName, pbi.name, e.getMessage());
+      }
+    }, "Output pump " + streamName + ": " + pbi.name);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
   private static byte[] poll(InputStream is) throws IOException {
     if (is == null) {
       return null;
@@ -122,6 +203,9 @@ public class ProcessResult implements AutoCloseable {
     return started;
   }
 
+  /**
+   * @return The last {@value #OUTPUT_TAIL_SIZE} or more characters of the output, for error reporting.
+   */
   public StringBuilder getOutput() {
     return output;
   }
@@ -146,12 +230,15 @@ public class ProcessResult implements AutoCloseable {
    * @return String representation of whatever has been appended, not the whole string after
    * appending!
    */
-  private String append(byte[] bytes, BufferedOutputStream bos) throws IOException {
+  private synchronized String append(byte[] bytes, BufferedOutputStream bos) throws IOException {
     if (bytes == null || bytes.length == 0) {
       return null;
     }
     String s = new String(bytes, UTF_8);
     output.append(s);
+    if (output.length() > 2 * OUTPUT_TAIL_SIZE) {
+      output.delete(0, output.length() - OUTPUT_TAIL_SIZE);
+    }
     if (bos != null) {
       bos.write(bytes);
       bos.flush();
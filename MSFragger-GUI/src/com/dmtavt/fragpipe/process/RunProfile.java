@@ -0,0 +1,523 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.github.chhh.utils.OsUtils;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resource usage of the processes of a run. While a process runs, it and its child processes are
+ * sampled once a second for CPU time, resident memory and bytes read and written (memory and I/O
+ * only on Linux, from {@code /proc}). Each process is attributed to the tool that created it and
+ * to the file it works on, when that is known. The time a process waited for threads or RAM after
+ * its dependencies finished is recorded as well.
+ * <p>
+ * When the run ends, the profile is written to the work directory as {@value #FN_JSON} and
+ * {@value #FN_CSV}, and as a timeline in Chrome trace format, {@value #FN_TRACE}, which can be
+ * opened in {@code chrome://tracing} or Perfetto.
+ * <p>
+ * Processes shorter than the sampling interval may show little or no CPU and memory use. Helpers
+ * run in this JVM are charged the CPU time of the whole JVM while they ran; when they overlapped
+ * with other in-process helpers the time is shared between them and they are marked as such.
+ */
+public class RunProfile {
+
+  private static final Logger log = LoggerFactory.getLogger(RunProfile.class);
+  public static final String FN_JSON = "fragpipe-profile.json";
+  public static final String FN_CSV = "fragpipe-profile.csv";
+  public static final String FN_TRACE = "fragpipe-timeline.json";
+  private static final long SAMPLE_INTERVAL_MS = 1000;
+  private static final Path PROC = Paths.get("/proc");
+  private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+  private static final Gson gsonTrace = new Gson();
+
+  private static volatile RunProfile current;
+
+  private final Path wd;
+  private final Instant started = Instant.now();
+  private final long t0 = System.nanoTime();
+  private final ScheduledExecutorService sampler;
+  /** Steps in the order they were created, guarded by this. */
+  private final Map<ProcessBuilderInfo, Step> steps = new IdentityHashMap<>();
+  private final List<Step> order = new ArrayList<>();
+
+  /** One process of the run. Times are milliseconds since the start of the run, -1 if unknown. */
+  static class Step {
+    String name;
+    String tool;
+    String file;
+    String parallelGroup;
+    int threads;
+    int ramGb;
+    String status = "not started";
+    Integer exitCode;
+    long readyMs = -1;
+    long startMs = -1;
+    long endMs = -1;
+    double queueWaitSec;
+    double wallSec;
+    double cpuSec;
+    double avgCores;
+    double peakRssMb = -1;
+    double readMb = -1;
+    double writeMb = -1;
+    boolean inProcess;
+    /** In-process and ran alongside another in-process helper, its CPU time includes theirs. */
+    boolean cpuShared;
+
+    transient ProcessHandle handle;
+    transient long processCpuStart;
+    /** Latest readings per process of the tree, processes that exited keep their last one. */
+    transient final Map<Long, long[]> perPid = new HashMap<>();
+    /** Time, resident memory of the tree and its CPU time so far, for the timeline. */
+    transient final List<long[]> samples = new ArrayList<>();
+  }
+
+  private RunProfile(Path wd) {
+    this.wd = wd;
+    this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "Run profile sampler");
+      t.setDaemon(true);
+      return t;
+    });
+    sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts profiling a run. A run still being profiled is ended first.
+   */
+  public static void begin(Path wd) {
+    end();
+    current = new RunProfile(wd);
+  }
+
+  /**
+   * Ends the current run, if any, and writes its profile. Safe to call more than once.
+   */
+  public static void end() {
+    final RunProfile p;
+    synchronized (RunProfile.class) {
+      p = current;
+      current = null;
+    }
+    if (p != null) {
+      p.sampler.shutdownNow();
+      p.write();
+    }
+  }
+
+  /**
+   * @param tool The tool the process belongs to, as shown in the UI.
+   */
+  public static void owner(ProcessBuilderInfo pbi, String tool) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        p.step(pbi).tool = tool;
+      }
+    }
+  }
+
+  /** All dependencies of the process have finished, it waits for threads and RAM from now on. */
+  public static void ready(ProcessBuilderInfo pbi) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        final Step s = p.step(pbi);
+        if (s.readyMs < 0) {
+          s.readyMs = p.now();
+        }
+      }
+    }
+  }
+
+  /** The scheduler gave the process threads and RAM (GB, zero if not accounted for). */
+  public static void scheduled(ProcessBuilderInfo pbi, int threads, int ramGb) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        final Step s = p.step(pbi);
+        s.threads = threads;
+        s.ramGb = ramGb == Integer.MAX_VALUE ? 0 : ramGb;
+        if (s.readyMs >= 0) {
+          s.queueWaitSec = (p.now() - s.readyMs) / 1e3;
+        }
+      }
+    }
+  }
+
+  /** An external process was started. */
+  public static void started(ProcessBuilderInfo pbi, Process process) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        final Step s = p.step(pbi);
+        s.status = "running";
+        s.startMs = p.now();
+        s.handle = process.toHandle();
+      }
+    }
+  }
+
+  /** A helper is run in this JVM, on the calling thread. */
+  public static void startedInProcess(ProcessBuilderInfo pbi) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        final Step s = p.step(pbi);
+        for (Step other : p.order) {
+          if (other.inProcess && other.startMs >= 0 && other.endMs < 0) {
+            other.cpuShared = true;
+            s.cpuShared = true;
+          }
+        }
+        s.status = "running";
+        s.inProcess = true;
+        s.startMs = p.now();
+        s.processCpuStart = processCpu();
+      }
+    }
+  }
+
+  /** The process is up to date from a previous run and was not started. */
+  public static void skipped(ProcessBuilderInfo pbi) {
+    final RunProfile p = current;
+    if (p != null) {
+      synchronized (p) {
+        p.step(pbi).status = "skipped";
+      }
+    }
+  }
+
+  /**
+   * The process is done. Only the first call for a process counts.
+   *
+   * @param exitCode Null if the process was interrupted or its exit code is not known.
+   */
+  public static void exited(ProcessBuilderInfo pbi, Integer exitCode) {
+    final RunProfile p = current;
+    if (p == null) {
+      return;
+    }
+    synchronized (p) {
+      final Step s = p.steps.get(pbi);
+      if (s == null || s.startMs < 0 || s.endMs >= 0) {
+        return;
+      }
+      if (s.handle != null) {
+        p.sample(s);
+      } else if (s.inProcess) {
+        s.cpuSec = (processCpu() - s.processCpuStart) / 1e9;
+      }
+      s.handle = null;
+      s.endMs = p.now();
+      s.exitCode = exitCode;
+      s.status = exitCode == null ? "interrupted" : exitCode == 0 ? "done" : "failed";
+      s.wallSec = (s.endMs - s.startMs) / 1e3;
+      s.avgCores = s.wallSec > 0 ? s.cpuSec / s.wallSec : 0;
+    }
+  }
+
+  private Step step(ProcessBuilderInfo pbi) {
+    return steps.computeIfAbsent(pbi, k -> {
+      final Step s = new Step();
+      s.name = pbi.name;
+      s.tool = pbi.name;
+      s.file = fileOf(pbi);
+      s.parallelGroup = pbi.parallelGroup;
+      order.add(s);
+      return s;
+    });
+  }
+
+  /**
+   * The lane of the process if it has one, otherwise the last argument if it names an existing
+   * file, which is where most tools take their input.
+   */
+  private static String fileOf(ProcessBuilderInfo pbi) {
+    if (pbi.lane != null) {
+      return pbi.lane;
+    }
+    final List<String> cmd = pbi.pb.command();
+    if (cmd.size() < 2) {
+      return null;
+    }
+    try {
+      Path p = Paths.get(cmd.get(cmd.size() - 1));
+      if (!p.isAbsolute() && pbi.pb.directory() != null) {
+        p = pbi.pb.directory().toPath().resolve(p);
+      }
+      return Files.exists(p) ? p.getFileName().toString() : null;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private long now() {
+    return (System.nanoTime() - t0) / 1_000_000;
+  }
+
+  /** CPU time of this JVM, all threads, in nanoseconds. In-process helpers may use worker pools. */
+  private static long processCpu() {
+    final OperatingSystemMXBean mx = ManagementFactory.getOperatingSystemMXBean();
+    return mx instanceof com.sun.management.OperatingSystemMXBean
+        ? ((com.sun.management.OperatingSystemMXBean) mx).getProcessCpuTime() : 0;
+  }
+
+  private synchronized void sample() {
+    try {
+      for (Step s : order) {
+        if (s.handle != null) {
+          sample(s);
+        }
+      }
+    } catch (Exception e) {
+      log.debug("Error sampling processes: {}", e.toString());
+    }
+  }
+
+  /** Readings per process: CPU nanoseconds, resident bytes, peak resident bytes, bytes read, bytes written. */
+  private void sample(Step s) {
+    final List<ProcessHandle> tree;
+    try (Stream<ProcessHandle> descendants = s.handle.descendants()) {
+      tree = Stream.concat(Stream.of(s.handle), descendants).collect(Collectors.toList());
+    }
+    long rss = 0;
+    boolean anyMem = false;
+    for (ProcessHandle h : tree) {
+      final long[] r = s.perPid.computeIfAbsent(h.pid(), pid -> new long[]{0, -1, -1, -1, -1});
+      h.info().totalCpuDuration().ifPresent(d -> r[0] = Math.max(r[0], d.toNanos()));
+      if (OsUtils.isUnix() && h.isAlive()) {
+        readProc(h.pid(), r);
+      }
+      if (h.isAlive() && r[1] >= 0) {
+        rss += r[1];
+        anyMem = true;
+      }
+    }
+
+    long cpu = 0;
+    long peak = anyMem ? rss : -1;
+    long read = -1;
+    long written = -1;
+    for (long[] r : s.perPid.values()) {
+      cpu += r[0];
+      peak = Math.max(peak, r[2]);
+      if (r[3] >= 0) {
+        read = Math.max(read, 0) + r[3];
+        written = Math.max(written, 0) + r[4];
+      }
+    }
+    s.cpuSec = cpu / 1e9;
+    if (peak >= 0) {
+      s.peakRssMb = Math.max(s.peakRssMb, peak / 1048576.0);
+    }
+    if (read >= 0) {
+      s.readMb = read / 1048576.0;
+      s.writeMb = written / 1048576.0;
+    }
+    s.samples.add(new long[]{now(), anyMem ? rss : -1, cpu});
+  }
+
+  private static void readProc(long pid, long[] r) {
+    final Path dir = PROC.resolve(Long.toString(pid));
+    try {
+      for (String line : Files.readAllLines(dir.resolve("status"), UTF_8)) {
+        if (line.startsWith("VmRSS:")) {
+          r[1] = kb(line);
+        } else if (line.startsWith("VmHWM:")) {
+          r[2] = Math.max(r[2], kb(line));
+        }
+      }
+    } catch (Exception e) {
+      // gone or not Linux
+    }
+    try {
+      for (String line : Files.readAllLines(dir.resolve("io"), UTF_8)) {
+        if (line.startsWith("rchar:")) {
+          r[3] = Long.parseLong(line.substring(6).trim());
+        } else if (line.startsWith("wchar:")) {
+          r[4] = Long.parseLong(line.substring(6).trim());
+        }
+      }
+    } catch (Exception e) {
+      // gone or not permitted
+    }
+  }
+
+  private static long kb(String line) {
+    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+  }
+
+  private synchronized void write() {
+    for (Step s : order) {
+      if (s.startMs >= 0 && s.endMs < 0) {
+        s.status = "interrupted";
+        s.endMs = now();
+        s.wallSec = (s.endMs - s.startMs) / 1e3;
+      }
+    }
+    try {
+      final Map<String, Object> json = new LinkedHashMap<>();
+      json.put("workdir", wd.toString());
+      json.put("started", started.toString());
+      json.put("wallSec", now() / 1e3);
+      json.put("processors", Runtime.getRuntime().availableProcessors());
+      json.put("steps", order);
+      writeAtomically(wd.resolve(FN_JSON), gson.toJson(json));
+      writeAtomically(wd.resolve(FN_CSV), csv());
+      writeAtomically(wd.resolve(FN_TRACE), gsonTrace.toJson(trace()));
+      log.debug("Run profile written to {}", wd.resolve(FN_JSON));
+    } catch (Exception e) {
+      log.warn("Could not write the run profile to " + wd, e);
+    }
+  }
+
+  private String csv() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("name,tool,file,parallel_group,status,exit_code,threads,ram_gb,start_sec,end_sec,queue_wait_sec,wall_sec,cpu_sec,avg_cores,peak_rss_mb,read_mb,write_mb,in_process,cpu_shared\n");
+    for (Step s : order) {
+      sb.append(String.join(",", csvField(s.name), csvField(s.tool), csvField(s.file), csvField(s.parallelGroup), s.status,
+          s.exitCode == null ? "" : s.exitCode.toString(), Integer.toString(s.threads), Integer.toString(s.ramGb),
+          s.startMs < 0 ? "" : num(s.startMs / 1e3), s.endMs < 0 ? "" : num(s.endMs / 1e3), num(s.queueWaitSec),
+          num(s.wallSec), num(s.cpuSec), num(s.avgCores), s.peakRssMb < 0 ? "" : num(s.peakRssMb),
+          s.readMb < 0 ? "" : num(s.readMb), s.writeMb < 0 ? "" : num(s.writeMb), Boolean.toString(s.inProcess),
+          Boolean.toString(s.cpuShared)));
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String csvField(String s) {
+    if (s == null) {
+      return "";
+    }
+    return s.contains(",") || s.contains("\"") || s.contains("\n") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+  }
+
+  private static String num(double d) {
+    return String.format(Locale.ROOT, "%.3f", d);
+  }
+
+  /**
+   * Chrome trace events: a span per process, on rows such that spans on one row don't overlap, and
+   * counters for the memory and cores used by each process.
+   */
+  private Map<String, Object> trace() {
+    final List<Map<String, Object>> events = new ArrayList<>();
+    final List<Long> rowEnds = new ArrayList<>();
+    final List<Step> ran = order.stream().filter(s -> s.startMs >= 0)
+        .sorted(Comparator.comparingLong(s -> s.startMs)).collect(Collectors.toList());
+    for (Step s : ran) {
+      int row = 0;
+      while (row < rowEnds.size() && rowEnds.get(row) > s.startMs) {
+        ++row;
+      }
+      if (row == rowEnds.size()) {
+        rowEnds.add(s.endMs);
+        events.add(event("thread_name", "M", 0, row, mapOf("name", "Slot " + (row + 1))));
+      } else {
+        rowEnds.set(row, s.endMs);
+      }
+      final Map<String, Object> args = new LinkedHashMap<>();
+      args.put("tool", s.tool);
+      args.put("file", s.file);
+      args.put("status", s.status);
+      args.put("threads", s.threads);
+      args.put("queueWaitSec", s.queueWaitSec);
+      args.put("cpuSec", s.cpuSec);
+      args.put("peakRssMb", s.peakRssMb);
+      final Map<String, Object> span = event(s.name, "X", s.startMs, row, args);
+      span.put("cat", s.tool);
+      span.put("dur", (s.endMs - s.startMs) * 1000);
+      events.add(span);
+
+      long[] prev = null;
+      for (long[] sample : s.samples) {
+        final Map<String, Object> counter = new LinkedHashMap<>();
+        if (sample[1] >= 0) {
+          counter.put("rssMb", sample[1] / 1048576.0);
+        }
+        if (prev != null && sample[0] > prev[0]) {
+          counter.put("cores", (sample[2] - prev[2]) / 1e6 / (sample[0] - prev[0]));
+        }
+        if (!counter.isEmpty()) {
+          events.add(event(s.name + (s.file == null ? "" : " " + s.file), "C", sample[0], row, counter));
+        }
+        prev = sample;
+      }
+    }
+    final Map<String, Object> trace = new LinkedHashMap<>();
+    trace.put("traceEvents", events);
+    trace.put("displayTimeUnit", "ms");
+    return trace;
+  }
+
+  private static Map<String, Object> event(String name, String ph, long ms, int row, Map<String, Object> args) {
+    final Map<String, Object> e = new LinkedHashMap<>();
+    e.put("name", name);
+    e.put("ph", ph);
+    e.put("ts", ms * 1000);
+    e.put("pid", 1);
+    e.put("tid", row);
+    e.put("args", args);
+    return e;
+  }
+
+  private static Map<String, Object> mapOf(String k, Object v) {
+    final Map<String, Object> m = new LinkedHashMap<>();
+    m.put(k, v);
+    return m;
+  }
+
+  private static void writeAtomically(Path file, String content) throws IOException {
+    final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter w = Files.newBufferedWriter(tmp, UTF_8)) {
+      w.write(content);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
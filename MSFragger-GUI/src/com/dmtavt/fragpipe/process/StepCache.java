@@ -0,0 +1,402 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.dmtavt.fragpipe.util.WorkdirIndex;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which processes of a run finished successfully, so that a resumed run can skip them.
+ * <p>
+ * A process is identified by a fingerprint of its command line, working directory, the environment
+ * variables FragPipe set for it and the state of every existing file its arguments point to (tool
+ * binaries and jars included). Files produced by earlier processes are left out of the
+ * fingerprint, they are covered by the outputs check instead: the files a process created or
+ * changed in the work directory are recorded, and the process only counts as done while those
+ * files are still as it left them.
+ * <p>
+ * While processes run at the same time it is not known which of them wrote a file. A process with
+ * a lane then only gets the changed files with the lane in their name, one without a lane, or
+ * with no such file, is not recorded and runs again on resume.
+ * <p>
+ * Records are appended to the cache file in batches, whenever no process is running or enough of
+ * them are waiting. The file is rewritten without the outdated records when it is loaded.
+ */
+public class StepCache {
+
+  private static final Logger log = LoggerFactory.getLogger(StepCache.class);
+  public static final String FN = "fragpipe-steps.cache";
+  /** Files up to this size are fingerprinted by their content, larger ones by size and time. */
+  private static final long HASH_LIMIT = 16 << 20;
+  /** Records waiting to be written that trigger a write even while processes are running. */
+  private static final int FLUSH_LINES = 256;
+
+  private final Path wd;
+  private final Path file;
+  /** Fingerprint to the outputs of the process, relative to the work directory. */
+  private final Map<String, List<String>> steps = new HashMap<>();
+  /** Outputs of processes to their state when the process that last touched them finished. */
+  private final Map<String, String> files = new HashMap<>();
+  /** Processes started and not finished yet. */
+  private final List<Running> running = new ArrayList<>();
+  /** Records not written to the cache file yet. */
+  private final List<String> pending = new ArrayList<>();
+
+  private StepCache(Path wd) {
+    this.wd = wd.toAbsolutePath().normalize();
+    this.file = this.wd.resolve(FN);
+  }
+
+  /**
+   * A process from {@link #start(ProcessBuilderInfo)} until {@link #finish(Running, String, boolean)}.
+   */
+  public static final class Running {
+
+    private final String lane;
+    private Map<String, String> before;
+    /** Another process ran during some of the time this one did. */
+    private boolean overlapped;
+
+    private Running(String lane) {
+      this.lane = lane;
+    }
+  }
+
+  /**
+   * Loads the cache of the work directory. A missing or unreadable cache file gives an empty cache.
+   */
+  public static StepCache load(Path wd) {
+    final StepCache cache = new StepCache(wd);
+    if (!Files.exists(cache.file)) {
+      return cache;
+    }
+    try (Stream<String> lines = Files.lines(cache.file, StandardCharsets.UTF_8)) {
+      lines.forEach(line -> {
+        final String[] parts = line.split("\t", -1);
+        if (parts[0].equals("S") && parts.length >= 2) {
+          final List<String> outputs = new ArrayList<>();
+          for (int i = 2; i < parts.length; ++i) {
+            outputs.add(parts[i]);
+          }
+          cache.steps.put(parts[1], outputs);
+        } else if (parts[0].equals("F") && parts.length == 3) {
+          cache.files.put(parts[1], parts[2]);
+        } else if (parts[0].equals("D") && parts.length == 2) {
+          cache.forget(parts[1]);
+        }
+      });
+    } catch (Exception e) {
+      log.warn("Could not read " + cache.file + ", all processes will be run", e);
+      cache.steps.clear();
+      cache.files.clear();
+    }
+    cache.compact();
+    return cache;
+  }
+
+  public boolean isEmpty() {
+    return steps.isEmpty();
+  }
+
+  /**
+   * Fingerprint of the process as it would be run now.
+   */
+  public String fingerprint(ProcessBuilderInfo pbi) {
+    final ProcessBuilder pb = pbi.pb;
+    final Path dir = pb.directory() == null ? wd : pb.directory().toPath().toAbsolutePath();
+    final StringBuilder sb = new StringBuilder();
+    sb.append(pbi.name).append('\0').append(dir).append('\0');
+    for (String arg : pb.command()) {
+      sb.append(arg).append('\0');
+    }
+    final Map<String, String> env = new TreeMap<>(pb.environment());
+    env.entrySet().removeIf(e -> Objects.equals(System.getenv(e.getKey()), e.getValue()));
+    env.forEach((k, v) -> sb.append(k).append('=').append(v).append('\0'));
+
+    for (String arg : pb.command()) {
+      final int eq = arg.indexOf('=');
+      appendFileStates(sb, dir, arg);
+      if (eq >= 0) {
+        appendFileStates(sb, dir, arg.substring(eq + 1));
+      }
+    }
+    return hex(sha256(sb.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private void appendFileStates(StringBuilder sb, Path dir, String arg) {
+    for (String s : arg.split(File.pathSeparator)) {
+      if (s.isEmpty() || s.startsWith("-")) {
+        continue;
+      }
+      final Path p;
+      try {
+        p = dir.resolve(s).normalize();
+      } catch (InvalidPathException e) {
+        continue;
+      }
+      if (!Files.isRegularFile(p) || files.containsKey(relative(p))) {
+        continue;
+      }
+      try {
+        final long size = Files.size(p);
+        sb.append(p).append('\0');
+        if (size <= HASH_LIMIT) {
+          sb.append(hex(sha256(p))).append('\0');
+        } else {
+          sb.append(state(p)).append('\0');
+        }
+      } catch (IOException e) {
+        sb.append(p).append("\0?\0");
+      }
+    }
+  }
+
+  /**
+   * True if the process finished successfully before and its outputs have not changed since.
+   */
+  public synchronized boolean isDone(String fingerprint) {
+    final List<String> outputs = steps.get(fingerprint);
+    if (outputs == null) {
+      return false;
+    }
+    for (String output : outputs) {
+      final Path p = wd.resolve(output);
+      try {
+        if (!Files.isRegularFile(p) || !state(p).equals(files.get(output))) {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called before the process starts. Takes the state of the files in the work directory, to find
+   * out later what the process changed.
+   */
+  public Running start(ProcessBuilderInfo pbi) {
+    final Running r = new Running(pbi.lane);
+    synchronized (this) {
+      for (Running other : running) {
+        other.overlapped = true;
+        r.overlapped = true;
+      }
+      running.add(r);
+    }
+    r.before = snapshot();
+    return r;
+  }
+
+  /**
+   * Called once the process has ended. If it finished successfully, files created or changed since
+   * it started become its outputs. Files deleted meanwhile no longer count as outputs of earlier
+   * processes.
+   */
+  public void finish(Running r, String fingerprint, boolean success) {
+    final Map<String, String> after = success && r.before != null ? snapshot() : null;
+    synchronized (this) {
+      running.remove(r);
+      if (after != null) {
+        record(fingerprint, r, after);
+      }
+      if (running.isEmpty() || pending.size() >= FLUSH_LINES) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Appends the records not written yet to the cache file.
+   */
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      for (String line : pending) {
+        w.write(line);
+        w.write("\n");
+      }
+    } catch (IOException e) {
+      log.warn("Could not write " + file, e);
+    }
+    pending.clear();
+  }
+
+  private void record(String fingerprint, Running r, Map<String, String> after) {
+    for (String deleted : r.before.keySet()) {
+      if (!after.containsKey(deleted) && forget(deleted)) {
+        pending.add("D\t" + deleted);
+      }
+    }
+    if (r.overlapped && r.lane == null) {
+      log.debug("Not caching {}, other processes ran at the same time", fingerprint);
+      return;
+    }
+    final List<String> outputs = new ArrayList<>();
+    for (Map.Entry<String, String> e : after.entrySet()) {
+      if (e.getValue().equals(r.before.get(e.getKey()))) {
+        continue;
+      }
+      if (r.overlapped && !fileName(e.getKey()).contains(r.lane)) {
+        continue; // written by another process
+      }
+      if (e.getKey().indexOf('\t') >= 0 || e.getKey().indexOf('\n') >= 0) {
+        log.debug("Not caching {}, output file name can not be stored: {}", fingerprint, e.getKey());
+        return;
+      }
+      outputs.add(e.getKey());
+    }
+    if (r.overlapped && outputs.isEmpty()) {
+      log.debug("Not caching {}, no changed file has its lane {} in the name", fingerprint, r.lane);
+      return;
+    }
+    for (String output : outputs) {
+      files.put(output, after.get(output));
+      pending.add("F\t" + output + "\t" + after.get(output));
+    }
+    steps.put(fingerprint, outputs);
+    pending.add(stepLine(fingerprint, outputs));
+  }
+
+  /** @return True if the file was an output of a process. */
+  private boolean forget(String output) {
+    if (files.remove(output) == null) {
+      return false;
+    }
+    steps.values().forEach(l -> l.remove(output));
+    return true;
+  }
+
+  /**
+   * State of the files in the work directory. Null if the directory could not be listed.
+   */
+  private Map<String, String> snapshot() {
+    final Map<String, String> snapshot;
+    try {
+      snapshot = WorkdirIndex.of(wd).snapshot();
+    } catch (Exception e) {
+      log.warn("Could not list the files in " + wd, e);
+      return null;
+    }
+    snapshot.keySet().removeIf(rel -> rel.startsWith(FN) || rel.equals(StepResults.FN));
+    return snapshot;
+  }
+
+  /**
+   * Rewrites the cache file with only the current records.
+   */
+  private void compact() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    final Path tmp = file.resolveSibling(FN + ".tmp");
+    try {
+      try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, List<String>> e : steps.entrySet()) {
+          w.write(stepLine(e.getKey(), e.getValue()));
+          w.write("\n");
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+          w.write("F\t" + e.getKey() + "\t" + e.getValue() + "\n");
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Could not write " + file, e);
+    }
+  }
+
+  private static String stepLine(String fingerprint, List<String> outputs) {
+    final StringBuilder sb = new StringBuilder("S\t").append(fingerprint);
+    for (String output : outputs) {
+      sb.append('\t').append(output);
+    }
+    return sb.toString();
+  }
+
+  private static String fileName(String relative) {
+    final int slash = Math.max(relative.lastIndexOf('/'), relative.lastIndexOf('\\'));
+    return relative.substring(slash + 1);
+  }
+
+  private String relative(Path p) {
+    p = p.toAbsolutePath().normalize();
+    return p.startsWith(wd) ? wd.relativize(p).toString() : null;
+  }
+
+  private static String state(Path p) throws IOException {
+    return WorkdirIndex.state(Files.readAttributes(p, BasicFileAttributes.class));
+  }
+
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] sha256(byte[] bytes) {
+    return digest().digest(bytes);
+  }
+
+  private static byte[] sha256(Path p) throws IOException {
+    final MessageDigest md = digest();
+    final byte[] buf = new byte[1 << 16];
+    try (InputStream is = Files.newInputStream(p)) {
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        md.update(buf, 0, n);
+      }
+    }
+    return md.digest();
+  }
+
+  private static String hex(byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
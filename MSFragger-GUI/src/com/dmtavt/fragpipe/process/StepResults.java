@@ -0,0 +1,283 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.dmtavt.fragpipe.cmd.CmdMsfragger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Machine readable results of the processes of a run, kept as JSON lines in the work directory.
+ * Steps report the parameters they settled on and their exit codes here, so later steps don't need
+ * to look for them in the console text.
+ * <p>
+ * Results survive between runs: a step that was skipped because it was up to date keeps what it
+ * reported the last time it ran, a step that runs again replaces its old results.
+ */
+public class StepResults {
+
+  private static final Logger log = LoggerFactory.getLogger(StepResults.class);
+  public static final String FN = "fragpipe-step-results.jsonl";
+  private static final Gson gson = new Gson();
+  private static final Object lock = new Object();
+
+  /** Output lines of a step that report a parameter: name, value and optional unit. */
+  private static final Map<String, Pattern> PARAM_LINES = Collections.singletonMap(
+      CmdMsfragger.NAME, Pattern.compile("New (\\w+) = ([\\d.]+)(?: (\\w+))?"));
+
+  private static final String EVENT_RUN = "run";
+  private static final String EVENT_START = "start";
+  private static final String EVENT_PARAM = "param";
+  private static final String EVENT_EXIT = "exit";
+
+  /** Step name to the parameters it reported, the first report of a parameter wins. */
+  private final Map<String, Map<String, Record>> params = new HashMap<>();
+  private final Map<String, Integer> exitCodes = new HashMap<>();
+
+  public static class Record {
+    public final String event;
+    public final String step;
+    public final String key;
+    public final String value;
+    public final String unit;
+
+    Record(String event, String step, String key, String value, String unit) {
+      this.event = event;
+      this.step = step;
+      this.key = key;
+      this.value = value;
+      this.unit = unit;
+    }
+  }
+
+  /**
+   * Marks the start of a run. Steps that start after this replace their earlier results.
+   */
+  public static void beginRun(Path wd) {
+    append(wd, new Record(EVENT_RUN, null, null, null, null));
+  }
+
+  /**
+   * Call when a step starts.
+   *
+   * @return Receives the output of the step, picks up the lines that report parameters.
+   */
+  public static OutputScanner start(Path wd, String step) {
+    append(wd, new Record(EVENT_START, step, null, null, null));
+    return new OutputScanner(wd, step, PARAM_LINES.get(step));
+  }
+
+  public static void exit(Path wd, String step, int exitCode) {
+    append(wd, new Record(EVENT_EXIT, step, null, Integer.toString(exitCode), null));
+  }
+
+  private static void append(Path wd, Record r) {
+    if (wd == null) {
+      return;
+    }
+    synchronized (lock) {
+      try {
+        Files.write(wd.resolve(FN), (gson.toJson(r) + "\n").getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      } catch (IOException e) {
+        log.warn("Could not write step results to " + wd.resolve(FN), e);
+      }
+    }
+  }
+
+  /**
+   * Reads the results of the latest run, plus the ones of steps that did not run again since.
+   * A missing or unreadable file gives no results.
+   */
+  public static StepResults read(Path wd) {
+    final StepResults results = new StepResults();
+    final Path file = wd.resolve(FN);
+    if (!Files.exists(file)) {
+      return results;
+    }
+    final List<String> lines;
+    synchronized (lock) {
+      try {
+        lines = Files.readAllLines(file, UTF_8);
+      } catch (IOException e) {
+        log.warn("Could not read " + file, e);
+        return results;
+      }
+    }
+    final Set<String> startedInRun = new HashSet<>();
+    for (String line : lines) {
+      final Record r;
+      try {
+        r = gson.fromJson(line, Record.class);
+      } catch (JsonParseException e) {
+        log.debug("Skipping malformed line in {}: {}", file, line);
+        continue;
+      }
+      if (r == null || r.event == null) {
+        continue;
+      }
+      switch (r.event) {
+        case EVENT_RUN:
+          startedInRun.clear();
+          break;
+        case EVENT_START:
+          if (startedInRun.add(r.step)) {
+            results.params.remove(r.step);
+            results.exitCodes.remove(r.step);
+          }
+          break;
+        case EVENT_PARAM:
+          results.params.computeIfAbsent(r.step, k -> new LinkedHashMap<>()).putIfAbsent(r.key, r);
+          break;
+        case EVENT_EXIT:
+          try {
+            results.exitCodes.merge(r.step, Integer.parseInt(r.value), (a, b) -> a != 0 ? a : b);
+          } catch (NumberFormatException ignored) {
+            // not written by us
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return The reported parameter, null if the step did not report it.
+   */
+  public Record param(String step, String key) {
+    final Map<String, Record> m = params.get(step);
+    return m == null ? null : m.get(key);
+  }
+
+  /**
+   * @param unit Required unit of the value, null if the value has no unit.
+   * @return Null if not reported, reported with a different unit or not a number.
+   */
+  public Float paramFloat(String step, String key, String unit) {
+    final Record r = param(step, key);
+    if (r == null || (unit == null ? r.unit != null : !unit.equals(r.unit))) {
+      return null;
+    }
+    try {
+      return Float.parseFloat(r.value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return Null if not reported, reported with a unit or not an integer.
+   */
+  public Integer paramInt(String step, String key) {
+    final Record r = param(step, key);
+    if (r == null || r.unit != null) {
+      return null;
+    }
+    try {
+      return Integer.parseInt(r.value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return Exit code of the step, the first non-zero one if it ran more than once. Null if it did
+   * not finish.
+   */
+  public Integer exitCode(String step) {
+    return exitCodes.get(step);
+  }
+
+  /**
+   * Splits the output of a step into lines and records the parameters reported in them. Output may
+   * come in arbitrary pieces.
+   */
+  public static class OutputScanner {
+
+    private static final int MAX_LINE = 1 << 16;
+
+    private final Path wd;
+    private final String step;
+    private final Pattern pattern;
+    private final StringBuilder partial = new StringBuilder();
+
+    private OutputScanner(Path wd, String step, Pattern pattern) {
+      this.wd = wd;
+      this.step = step;
+      this.pattern = pattern;
+    }
+
+    public synchronized void accept(String s) {
+      if (pattern == null || s == null) {
+        return;
+      }
+      int from = 0;
+      for (int i = 0; i < s.length(); ++i) {
+        final char c = s.charAt(i);
+        if (c == '\n' || c == '\r') {
+          partial.append(s, from, i);
+          line(partial);
+          partial.setLength(0);
+          from = i + 1;
+        }
+      }
+      partial.append(s, from, s.length());
+      if (partial.length() > MAX_LINE) {
+        partial.setLength(0); // not something we are looking for
+      }
+    }
+
+    /**
+     * Handles the last line if the output did not end with a newline.
+     */
+    public synchronized void finish() {
+      if (partial.length() > 0) {
+        line(partial);
+        partial.setLength(0);
+      }
+    }
+
+    private void line(CharSequence line) {
+      if (line.length() == 0) {
+        return;
+      }
+      final Matcher m = pattern.matcher(line);
+      if (m.find()) {
+        append(wd, new Record(EVENT_PARAM, step, m.group(1), m.group(2), m.group(3)));
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.dmtavt.fragpipe.internal.DefEdge;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DirectedAcyclicGraph;
+
+/**
+ * Dependency graph of {@link RunnableDescription}s as executed by {@link ProcessManager}. An edge
+ * from A to B means that B can only start after A has finished.
+ */
+public class TaskGraph {
+
+  private TaskGraph() {
+  }
+
+  public static Graph<RunnableDescription, DefEdge> create() {
+    return new DirectedAcyclicGraph<>(DefEdge.class);
+  }
+
+  /**
+   * Splits runnables into stages. Consecutive runnables sharing a parallel group form one stage,
+   * runnables without a group or in {@link ProcessBuilderInfo#GROUP_SEQUENTIAL} are a stage each.
+   */
+  public static List<List<RunnableDescription>> stages(List<RunnableDescription> rds) {
+    final List<List<RunnableDescription>> stages = new ArrayList<>();
+    List<RunnableDescription> stage = null;
+    for (RunnableDescription rd : rds) {
+      if (stage != null && ProcessBuilderInfo.isParallelGroup(rd.parallelGroup)
+          && rd.parallelGroup.equals(stage.get(0).parallelGroup)) {
+        stage.add(rd);
+      } else {
+        stage = new ArrayList<>();
+        stage.add(rd);
+        stages.add(stage);
+      }
+    }
+    return stages;
+  }
+
+  /**
+   * Adds runnables to the graph as a chain of {@link #stages(List)}. Every runnable of a stage
+   * depends on all runnables of the previous stage, the first stage depends on {@code after}.
+   * A runnable with a {@link ProcessBuilderInfo#lane} only depends on the runnables of the previous
+   * stage in the same lane, if there are any. Runnables nothing depended on yet are carried over
+   * to the next runnable without a lane, so nothing is left behind.
+   *
+   * @return Runnables nothing depends on yet, or {@code after} if there was nothing to add.
+   */
+  public static Collection<RunnableDescription> addChain(Graph<RunnableDescription, DefEdge> graph,
+      Collection<RunnableDescription> after, List<RunnableDescription> rds) {
+    final Set<RunnableDescription> open = new LinkedHashSet<>(after);
+    List<RunnableDescription> prev = Collections.emptyList();
+    for (List<RunnableDescription> stage : stages(rds)) {
+      final Set<RunnableDescription> used = new HashSet<>();
+      for (RunnableDescription rd : stage) {
+        graph.addVertex(rd);
+        Collection<RunnableDescription> deps = open;
+        final String lane = lane(rd);
+        if (lane != null) {
+          final List<RunnableDescription> sameLane = prev.stream()
+              .filter(p -> lane.equals(lane(p))).collect(Collectors.toList());
+          if (!sameLane.isEmpty()) {
+            deps = sameLane;
+          }
+        }
+        for (RunnableDescription dep : deps) {
+          graph.addEdge(dep, rd);
+        }
+        used.addAll(deps);
+      }
+      open.removeAll(used);
+      open.addAll(stage);
+      prev = stage;
+    }
+    return new ArrayList<>(open);
+  }
+
+  private static String lane(RunnableDescription rd) {
+    return rd.pbi == null ? null : rd.pbi.lane;
+  }
+
+  /**
+   * Adds a runnable that will only start after everything already in the graph is done.
+   */
+  public static void addLast(Graph<RunnableDescription, DefEdge> graph, RunnableDescription rd) {
+    final List<RunnableDescription> sinks = graph.vertexSet().stream()
+        .filter(v -> graph.outDegreeOf(v) == 0).collect(Collectors.toList());
+    graph.addVertex(rd);
+    for (RunnableDescription sink : sinks) {
+      graph.addEdge(sink, rd);
+    }
+  }
+
+  /**
+   * The graph that runs the stages one after another, in the order listed.
+   */
+  public static Graph<RunnableDescription, DefEdge> chain(List<RunnableDescription> rds) {
+    final Graph<RunnableDescription, DefEdge> graph = create();
+    addChain(graph, Collections.emptyList(), rds);
+    return graph;
+  }
+}
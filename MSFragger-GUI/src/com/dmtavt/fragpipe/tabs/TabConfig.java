@@ -106,6 +106,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -176,6 +177,13 @@ public class TabConfig extends JPanelWithEnablement {
   private static final Pattern ionquantRegex = Pattern.compile("ionquant-(.*)\\.jar", Pattern.CASE_INSENSITIVE);
   private static final Pattern diatracerRegex = Pattern.compile("diatracer-(.*)\\.jar", Pattern.CASE_INSENSITIVE);
 
+  // newest message seen by the tool checks, which run off the EDT and side by side, see startCheck()
+  private final AtomicLong msfraggerChecks = new AtomicLong();
+  private final AtomicLong ionquantChecks = new AtomicLong();
+  private final AtomicLong diatracerChecks = new AtomicLong();
+  private final AtomicLong diannChecks = new AtomicLong();
+  private final AtomicLong pythonChecks = new AtomicLong();
+
   private final TextConsole console;
 
   public TabConfig(TextConsole console) {
@@ -558,10 +566,11 @@ public class TabConfig extends JPanelWithEnablement {
     return fc;
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessageDiannNewBin m) {
+    final long check = startCheck(diannChecks, m.seq);
     if (StringUtils.isBlank(m.path) || !Files.exists(Paths.get(m.path.replaceAll("\"", "")))) {
-      Bus.postSticky(new NoteConfigDiann());
+      postIfLatest(diannChecks, check, new NoteConfigDiann());
       return;
     }
 
@@ -571,10 +580,10 @@ public class TabConfig extends JPanelWithEnablement {
 
     try {
       Diann.Version v = Diann.validate(m.path);
-      Bus.postSticky(new NoteConfigDiann(m.path, v.version, null, true));
+      postIfLatest(diannChecks, check, new NoteConfigDiann(m.path, v.version, null, true));
     } catch (Exception e) {
       e.printStackTrace();
-      Bus.postSticky(new NoteConfigDiann());
+      postIfLatest(diannChecks, check, new NoteConfigDiann());
     }
   }
 
@@ -597,20 +606,21 @@ public class TabConfig extends JPanelWithEnablement {
     }
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessageMsfraggerNewBin m) {
+    final long check = startCheck(msfraggerChecks, m.seq);
     if (StringUtils.isBlank(m.binPath) || !Files.exists(Paths.get(m.binPath))) {
-      Bus.postSticky(new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("MSFragger path " + m.binPath + " does not exist.")));
+      postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("MSFragger path " + m.binPath + " does not exist.")));
       return;
     }
 
     if (!validateJarContents(Paths.get(m.binPath), "MSFragger.class", msfraggerRegex)) {
-      Bus.postSticky(new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("Not a MSFragger jar.")));
+      postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("Not a MSFragger jar.")));
       return;
     }
 
     if (m.binPath.contains(" ")) {
-      Bus.postSticky(new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
+      postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, "N/A", false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
       return;
     }
 
@@ -619,32 +629,33 @@ public class TabConfig extends JPanelWithEnablement {
       v = Msfragger.getVersion(Paths.get(m.binPath));
       if (v.isVersionParsed) {
         if (v.version.compareTo(msfraggerMinVersion) >= 0) {
-          Bus.postSticky(new NoteConfigMsfragger(m.binPath, v.version.toString()));
+          postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, v.version.toString()));
         } else {
-          Bus.postSticky(new NoteConfigMsfragger(m.binPath, v.version.toString(), true, null));
+          postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, v.version.toString(), true, null));
         }
       } else {
-        Bus.postSticky(new NoteConfigMsfragger(m.binPath, "N/A", null));
+        postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, "N/A", null));
       }
     } catch (Exception e) {
-      Bus.postSticky(new NoteConfigMsfragger(m.binPath, "N/A", e));
+      postIfLatest(msfraggerChecks, check, new NoteConfigMsfragger(m.binPath, "N/A", e));
     }
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessageIonQuantNewBin m) {
+    final long check = startCheck(ionquantChecks, m.seq);
     if (StringUtils.isBlank(m.binPath) || !Files.exists(Paths.get(m.binPath))) {
-      Bus.postSticky(new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("IonQuant path " + m.binPath + " does not exist.")));
+      postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("IonQuant path " + m.binPath + " does not exist.")));
       return;
     }
 
     if (!validateJarContents(Paths.get(m.binPath), "IonQuant.class", ionquantRegex)) {
-      Bus.postSticky(new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("Not an IonQuant jar.")));
+      postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("Not an IonQuant jar.")));
       return;
     }
 
     if (m.binPath.contains(" ")) {
-      Bus.postSticky(new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
+      postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
       return;
     }
 
@@ -653,32 +664,33 @@ public class TabConfig extends JPanelWithEnablement {
       v = IonQuant.getVersion(Paths.get(m.binPath));
       if (v.isVersionParsed) {
         if (v.version.compareTo(ionquantMinVersion) >= 0) {
-          Bus.postSticky(new NoteConfigIonQuant(m.binPath, v.version.toString(), false, true, null));
+          postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, v.version.toString(), false, true, null));
         } else {
-          Bus.postSticky(new NoteConfigIonQuant(m.binPath, v.version.toString(), true, false, null));
+          postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, v.version.toString(), true, false, null));
         }
       } else {
-        Bus.postSticky(new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("Could not parse the version.")));
+        postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, "N/A", false, false, new ValidationException("Could not parse the version.")));
       }
     } catch (Exception e) {
-      Bus.postSticky(new NoteConfigIonQuant(m.binPath, "N/A", false, false, e));
+      postIfLatest(ionquantChecks, check, new NoteConfigIonQuant(m.binPath, "N/A", false, false, e));
     }
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessageDiaTracerNewBin m) {
+    final long check = startCheck(diatracerChecks, m.seq);
     if (StringUtils.isBlank(m.binPath) || !Files.exists(Paths.get(m.binPath))) {
-      Bus.postSticky(new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("diaTracer path " + m.binPath + " does not exist.")));
+      postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("diaTracer path " + m.binPath + " does not exist.")));
       return;
     }
 
     if (!validateJarContents(Paths.get(m.binPath), "diaTracerMainClass.class", diatracerRegex)) {
-      Bus.postSticky(new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("Not an diaTracer jar.")));
+      postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("Not an diaTracer jar.")));
       return;
     }
 
     if (m.binPath.contains(" ")) {
-      Bus.postSticky(new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
+      postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("There are spaces in the path: \"" + m.binPath + "\"")));
       return;
     }
 
@@ -687,15 +699,32 @@ public class TabConfig extends JPanelWithEnablement {
       v = DiaTracer.getVersion(Paths.get(m.binPath));
       if (v.isVersionParsed) {
         if (v.version.compareTo(diatracerMinVersion) >= 0) {
-          Bus.postSticky(new NoteConfigDiaTracer(m.binPath, v.version.toString(), false, true, null));
+          postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, v.version.toString(), false, true, null));
         } else {
-          Bus.postSticky(new NoteConfigDiaTracer(m.binPath, v.version.toString(), true, false, null));
+          postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, v.version.toString(), true, false, null));
         }
       } else {
-        Bus.postSticky(new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("Could not parse the version.")));
+        postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, "N/A", false, false, new ValidationException("Could not parse the version.")));
       }
     } catch (Exception e) {
-      Bus.postSticky(new NoteConfigDiaTracer(m.binPath, "N/A", false, false, e));
+      postIfLatest(diatracerChecks, check, new NoteConfigDiaTracer(m.binPath, "N/A", false, false, e));
+    }
+  }
+
+  /**
+   * Checks run on their own threads and may start in any order, so each one is numbered when its
+   * message is created. Only the check of the newest message seen so far posts its result.
+   */
+  private static long startCheck(AtomicLong checks, long seq) {
+    checks.accumulateAndGet(seq, Math::max);
+    return seq;
+  }
+
+  private static void postIfLatest(AtomicLong checks, long check, Object note) {
+    if (checks.get() == check) {
+      Bus.postSticky(note);
+    } else {
+      log.debug("Dropping outdated {}", note);
     }
   }
 
@@ -826,7 +855,7 @@ public class TabConfig extends JPanelWithEnablement {
     Fragpipe.loadWorkflowDone.countDown();
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessageFindSystemPython m) {
     try {
       PyInfo pi = PyInfo.findSystemPython(pythonMinVersion);
@@ -841,8 +870,9 @@ public class TabConfig extends JPanelWithEnablement {
     }
   }
 
-  @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+  @Subscribe(threadMode = ThreadMode.ASYNC)
   public void on(MessagePythonNewBin m) {
+    final long check = startCheck(pythonChecks, m.seq);
     PyInfo pi;
     try {
       // first check if the path is absolute, then it must exist
@@ -858,13 +888,13 @@ public class TabConfig extends JPanelWithEnablement {
         if (Fragpipe.headless) {
           log.debug("headless mode: not checking python version on call from TabConfig");
         } else {
-          Bus.postSticky(new NoteConfigPython(pi, new ValidationException("Python version " + pythonMinVersion + "+ required"), pi.getCommand(), pi.getVersion()));
+          postIfLatest(pythonChecks, check, new NoteConfigPython(pi, new ValidationException("Python version " + pythonMinVersion + "+ required"), pi.getCommand(), pi.getVersion()));
         }
       } else {
-        Bus.postSticky(new NoteConfigPython(pi));
+        postIfLatest(pythonChecks, check, new NoteConfigPython(pi));
       }
     } catch (ValidationException | UnexpectedException e) {
-      Bus.postSticky(new NoteConfigPython(null, e, m.command, "N/A"));
+      postIfLatest(pythonChecks, check, new NoteConfigPython(null, e, m.command, "N/A"));
     }
   }
 
@@ -1058,7 +1088,7 @@ public class TabConfig extends JPanelWithEnablement {
   private JPanel createPanelPython() {
     JPanel p = newMigPanel();
     p.setBorder(new TitledBorder("Python"));
-    final String tip = "Python " + pythonMinVersion + "+ is required for Spectral Library generation and Database Splitting";
+    final String tip = "Python " + pythonMinVersion + "+ is required for Spectral Library generation";
     final String ghost = "Select Python " + pythonMinVersion + "+ binary";
     uiTextBinPython = UiUtils.uiTextBuilder().ghost(ghost).create();
     SwingUtils.addOnFocusLostAndContentChanged(uiTextBinPython, (s, s2) -> {
@@ -1157,13 +1187,8 @@ public class TabConfig extends JPanelWithEnablement {
 
     StringBuilder tip = new StringBuilder()
         .append("Used for searching very large databases by splitting into smaller chunks.<br/>")
-        .append("Requires <b>Python " + pythonMinVersion + "+</b> with packages <b>Numpy, Pandas</b>.\n")
-        .append("Ways to get everything set up:").append("<ul>")
-        .append("<li>Install Python " + pythonMinVersion + "+ if you don't yet have it.</li>")
-        .append(
-            "<li>Install required python modules using <i>pip</i>, the python package manager, with command:</li>")
-        .append("<ul>").append("<li>pip install numpy pandas</li>").append("</ul>")
-        .append("</ul>");
+        .append("Chunks that fit into the memory limit together are searched at the same time.<br/>")
+        .append("Requires <b>MSFragger</b> to be configured.");
     String tipHtml = SwingUtils.makeHtml(tip.toString());
     p.setToolTipText(tipHtml);
 
@@ -1171,7 +1196,7 @@ public class TabConfig extends JPanelWithEnablement {
     epDbsplitText = new HtmlStyledJEditorPane(textDbsplitEnabled(false));
     epDbsplitText.setToolTipText(tipHtml);
     epDbsplitText.setPreferredSize(dim);
-    epDbsplitErr = new HtmlStyledJEditorPane("Requires Python " + pythonMinVersion + "+ with modules Numpy and Pandas.");
+    epDbsplitErr = new HtmlStyledJEditorPane("Requires MSFragger to be configured.");
     epDbsplitErr.setPreferredSize(dim);
 
     mu.add(p, epDbsplitText).growX().pushX().wrap();
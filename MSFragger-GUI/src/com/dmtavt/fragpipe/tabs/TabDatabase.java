@@ -29,6 +29,7 @@ import com.dmtavt.fragpipe.messages.MessageDecoyTag;
 import com.dmtavt.fragpipe.messages.MessageUiRevalidate;
 import com.dmtavt.fragpipe.messages.NoteConfigDatabase;
 import com.dmtavt.fragpipe.params.ThisAppProps;
+import com.github.chhh.utils.FastaIndex;
 import com.github.chhh.utils.FastaUtils;
 import com.github.chhh.utils.FastaUtils.FastaContent;
 import com.github.chhh.utils.FastaUtils.FastaDecoyPrefixSearchResult;
@@ -50,6 +51,8 @@ import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -59,6 +62,7 @@ import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import net.miginfocom.layout.LC;
 import net.miginfocom.swing.MigLayout;
@@ -77,6 +81,7 @@ public class TabDatabase extends JPanelWithEnablement {
   private static final String TIP_DB_UPDATE = "tip.db.update";
   public static final Pattern disallowedFastaPattern = Pattern.compile("[^A-Za-z0-9_:\\\\/.+-]");
 
+  private final Set<Path> indexing = new HashSet<>();
   private UiText uiTextDbPath;
   private UiText uiTextDecoyTag;
   private JEditorPane epDbInfo;
@@ -248,14 +253,19 @@ public class TabDatabase extends JPanelWithEnablement {
         throw new Exception("Invalid fasta file: " + path);
       }
 
-      if (Files.size(p) < databaseSizeLimit) {
-        FastaContent fasta = FastaUtils.readFasta(p);
-        final String tag = getDecoyTag();
-        int decoysCnt = (int)FastaUtils.getDecoysCnt(fasta.ordered.get(0), tag);
-        int protsTotal = FastaUtils.getProtsTotal(fasta.ordered.get(0));
-        Bus.postSticky(new NoteConfigDatabase(p, protsTotal, decoysCnt, false, true));
+      final String tag = getDecoyTag();
+      final boolean isBig = Files.size(p) >= databaseSizeLimit;
+      FastaIndex index = FastaIndex.cached(p);
+      if (index == null && !isBig) {
+        index = FastaIndex.get(p);
+      }
+      if (index != null && (!isBig || !index.needsScan(tag))) {
+        int protsTotal = (int) Math.min(Integer.MAX_VALUE, index.entries());
+        int decoysCnt = (int) Math.min(Integer.MAX_VALUE, index.decoys(tag));
+        Bus.postSticky(new NoteConfigDatabase(p, protsTotal, decoysCnt, false, true, index.isExact(tag)));
       } else {
         Bus.postSticky(new NoteConfigDatabase(p, Integer.MAX_VALUE, Integer.MAX_VALUE, true, true));
+        indexInBackground(p, tag);
       }
     } catch (AccessDeniedException e) {
       log.warn("No access to FASTA file path: {}", path);
@@ -265,14 +275,51 @@ public class TabDatabase extends JPanelWithEnablement {
     }
   }
 
+  /**
+   * Big files are indexed, and decoy tags that need reading the file are counted, off the UI
+   * thread. The counts are shown once done.
+   */
+  private void indexInBackground(Path p, String tag) {
+    synchronized (indexing) {
+      if (!indexing.add(p)) {
+        return;
+      }
+    }
+    Thread t = new Thread(() -> {
+      try {
+        FastaIndex.get(p).decoys(tag);
+      } catch (Exception e) {
+        log.warn("Could not index FASTA file {}: {}", p, e.toString());
+        SwingUtilities.invokeLater(() -> {
+          if (p.equals(PathUtils.existing(getFastaPath()))) {
+            epDbInfo.setText("Could not read the FASTA file, target and decoy counts are not available: " + e.getMessage());
+          }
+        });
+        return;
+      } finally {
+        synchronized (indexing) {
+          indexing.remove(p);
+        }
+      }
+      SwingUtilities.invokeLater(() -> {
+        if (p.equals(PathUtils.existing(getFastaPath()))) {
+          validateFasta(p.toString());
+        }
+      });
+    }, "FASTA indexing");
+    t.setDaemon(true);
+    t.start();
+  }
+
   @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
   public void on(NoteConfigDatabase m) {
     if (m.isValid) {
       uiTextDbPath.setText(m.path.toString());
       if (m.isBigDatabase) {
-        epDbInfo.setText("The file is very big. Do not check the target and decoy counts. Please make sure that the decoy tag is correct and the percentage is 50%.");
+        epDbInfo.setText("The file is very big. Target and decoy counts are not available yet. Please make sure that the decoy tag is correct and the percentage is 50%.");
       } else {
-        epDbInfo.setText(String.format("File contains <b>%d entries (%d decoys: %.1f%%)", m.numEntries, m.decoysCnt, ((double)m.decoysCnt)/m.numEntries * 100.0));
+        epDbInfo.setText(String.format("File contains <b>%d entries (%s%d decoys: %.1f%%)", m.numEntries, m.isDecoysCntExact ? "" : "at least ", m.decoysCnt, ((double)m.decoysCnt)/m.numEntries * 100.0)
+            + (m.isDecoysCntExact ? "" : "</b><br/>The file is too big to count every header prefix, the decoy count is approximate."));
       }
     } else {
       epDbInfo.setText("");
@@ -287,8 +334,21 @@ public class TabDatabase extends JPanelWithEnablement {
       return;
     }
 
+    FastaIndex index = null;
+    try {
+      if (Files.size(path) >= databaseSizeLimit) {
+        index = FastaIndex.cached(path);
+        if (index == null) {
+          SwingUtils.showInfoDialog(this, "The FASTA file is still being indexed, please try again in a moment.", "FASTA file indexing");
+          return;
+        }
+      }
+    } catch (IOException ex) {
+      SwingUtils.showErrorDialogWithStacktrace(ex, this);
+      return;
+    }
     FastaDecoyPrefixSearchResult fastaDecoyPrefixSearchResult = new FastaDecoyPrefixSearchResult(
-        path, this)
+        path, index, this)
         .invoke();
     if (fastaDecoyPrefixSearchResult.isError()) {
       return;
@@ -156,6 +156,9 @@ public class TabDownstream extends JPanelWithEnablement {
         b.setFnStdOut(pbi.fnStdout != null ? pbi.fnStdout : pbd.fnStdout);
         b.setFnStdErr(pbi.fnStderr != null ? pbi.fnStderr : pbd.fnStderr);
         b.setParallelGroup(pbi.parallelGroup != null ? pbi.parallelGroup : pbd.getParallelGroup());
+        b.setThreads(pbi.threads);
+        b.setRamGb(pbi.minRamGb, pbi.ramGb);
+        b.setLane(pbi.lane);
         return b.create();
       })).collect(Collectors.toList());
 
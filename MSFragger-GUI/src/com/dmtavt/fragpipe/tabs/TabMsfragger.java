@@ -40,6 +40,7 @@ import com.dmtavt.fragpipe.api.FragpipeCacheUtils;
 import com.dmtavt.fragpipe.api.ModsTable;
 import com.dmtavt.fragpipe.api.ModsTableModel;
 import com.dmtavt.fragpipe.api.SearchTypeProp;
+import com.dmtavt.fragpipe.cmd.CmdMsfragger;
 import com.dmtavt.fragpipe.messages.MessageMsfraggerParamsUpdate;
 import com.dmtavt.fragpipe.messages.MessagePrecursorSelectionMode;
 import com.dmtavt.fragpipe.messages.MessageSearchType;
@@ -48,6 +49,7 @@ import com.dmtavt.fragpipe.messages.NoteConfigDbsplit;
 import com.dmtavt.fragpipe.messages.NoteConfigMsfragger;
 import com.dmtavt.fragpipe.params.Props.Prop;
 import com.dmtavt.fragpipe.params.ThisAppProps;
+import com.dmtavt.fragpipe.process.StepResults;
 import com.dmtavt.fragpipe.tools.enums.CleavageType;
 import com.dmtavt.fragpipe.tools.enums.FraggerOutputType;
 import com.dmtavt.fragpipe.tools.enums.FraggerPrecursorMassMode;
@@ -2391,21 +2393,27 @@ public class TabMsfragger extends JPanelBase {
     }
   }
 
-  public String getProdTolString(String logText){
+  /**
+   * @param results Results of the run, null if there was no run.
+   */
+  public String getProdTolString(StepResults results){
     String unit = "";
     double tolerance = -1;
     boolean useTolFromLog = false;
 
-    // if param optimization was enabled, read the optimized fragment tolerance from log
+    // if param optimization was enabled, use the optimized fragment tolerance MSFragger reported
     Object calibration = uiComboMassCalibrate.getSelectedItem();
-    if (calibration != null) {
+    if (calibration != null && results != null) {
       if (calibration.equals("Mass calibration, parameter optimization")) {
-        Pattern newFragTolPattern = Pattern.compile("New fragment_mass_tolerance = ([0-9\\.]+) ([\\w]+)");
-        Matcher matcher = newFragTolPattern.matcher(logText);
-        if (matcher.find()) {
-          tolerance = Double.parseDouble(matcher.group(1));
-          unit = matcher.group(2);
-          useTolFromLog = true;
+        StepResults.Record newFragTol = results.param(CmdMsfragger.NAME, "fragment_mass_tolerance");
+        if (newFragTol != null && newFragTol.unit != null) {
+          try {
+            tolerance = Double.parseDouble(newFragTol.value);
+            unit = newFragTol.unit;
+            useTolFromLog = true;
+          } catch (NumberFormatException ignored) {
+            // use the tolerance from the parameters
+          }
         }
       }
     }
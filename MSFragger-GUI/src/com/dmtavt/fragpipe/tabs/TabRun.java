@@ -49,6 +49,7 @@ import com.github.chhh.utils.swing.MigUtils;
 import com.github.chhh.utils.swing.TextConsole;
 import com.github.chhh.utils.swing.UiCheck;
 import com.github.chhh.utils.swing.UiSpinnerDouble;
+import com.github.chhh.utils.swing.UiSpinnerInt;
 import com.github.chhh.utils.swing.UiText;
 import com.github.chhh.utils.swing.UiUtils;
 import java.awt.Color;
@@ -118,6 +119,7 @@ public class TabRun extends JPanelWithEnablement {
   private JPanel pTop;
   private JPanel pConsole;
   private UiCheck uiCheckWordWrap;
+  private UiSpinnerInt uiSpinnerConsoleLines;
   private Process pdvProcess = null;
   private TabDownstream tabDownstream;
   private UiCheck uiCheckSaveSDRF;
@@ -328,6 +330,11 @@ public class TabRun extends JPanelWithEnablement {
 
     console.setScrollableTracksViewportWidth(true);
 
+    uiSpinnerConsoleLines = UiUtils.spinnerInt(TextConsole.DEFAULT_MAX_LINES, 1000, 10_000_000, 1000).setCols(7).create();
+    uiSpinnerConsoleLines.addChangeListener(e -> console.setMaxLines((Integer) uiSpinnerConsoleLines.getValue()));
+    FormEntry feConsoleLines = mu.feb(uiSpinnerConsoleLines).name(TAB_PREFIX + "console_max_lines").label("Console lines").tooltip(
+        "How many of the last lines the console shows. Older lines are still in the saved log.").create();
+
     JLabel imageLabel = new JLabel();
     try {
       BufferedImage image = ImageIO.read(Objects.requireNonNull(getClass().getResource("/com/dmtavt/fragpipe/icons/SeaGullMass.png")));
@@ -361,10 +368,12 @@ public class TabRun extends JPanelWithEnablement {
     mu.add(p, uiCheckDryRun);
     mu.add(p, uiCheckSaveSDRF);
 
-    mu.add(p, btnExport).split(3);
+    mu.add(p, btnExport).split(6);
     mu.add(p, btnReportErrors);
     mu.add(p, btnClearConsole);
-    mu.add(p, uiCheckWordWrap).wrap();
+    mu.add(p, uiCheckWordWrap);
+    mu.add(p, feConsoleLines.label());
+    mu.add(p, feConsoleLines.comp).wrap();
 
     mu.add(p, imageLabel).split(2);
     mu.add(p, btnOpenPdv);
@@ -502,9 +511,9 @@ public class TabRun extends JPanelWithEnablement {
     }
   }
 
-  private static void saveLogToFileCreateNew(final String text, final Path path) throws FileAlreadyExistsException {
+  private static void saveLogToFileCreateNew(final TextConsole console, final Path path) throws FileAlreadyExistsException {
     try (BufferedWriter bufferedWriter = Files.newBufferedWriter(path, StandardOpenOption.CREATE_NEW)) {
-      bufferedWriter.write(text);
+      console.writeLog(bufferedWriter);
     } catch (FileAlreadyExistsException e) {
       throw e;
     } catch (IOException e) {
@@ -514,11 +523,10 @@ public class TabRun extends JPanelWithEnablement {
   }
 
   public static void saveLogToFile(final TextConsole console, final Path path) {
-    final String text = console.getText().replaceAll("[^\n]+\u200B" + System.lineSeparator(), "");
     Path pathNew = path;
     for (int i = 1; ; ++i) {
       try {
-        saveLogToFileCreateNew(text, pathNew);
+        saveLogToFileCreateNew(console, pathNew);
       } catch (FileAlreadyExistsException e) {
         pathNew = Paths.get(path.toString() + "_" + i);
         continue;
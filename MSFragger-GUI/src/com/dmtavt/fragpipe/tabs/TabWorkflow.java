@@ -62,6 +62,7 @@ import com.dmtavt.fragpipe.params.ThisAppProps;
 import com.dmtavt.fragpipe.tools.diatracer.DiaTracerPanel;
 import com.dmtavt.fragpipe.tools.tmtintegrator.QuantLabel;
 import com.dmtavt.fragpipe.tools.umpire.UmpirePanel;
+import com.dmtavt.fragpipe.util.LcmsDiscovery;
 import com.dmtavt.fragpipe.util.SDRFtable;
 import com.github.chhh.utils.FileDrop;
 import com.github.chhh.utils.JarUtils;
@@ -92,6 +93,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -718,7 +720,6 @@ public class TabWorkflow extends JPanelWithEnablement {
   @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
   public void on(MessageLcmsAddFolder m) {
     logObjectType(m);
-    List<Path> accepted = new ArrayList<>();
     List<Path> inputPaths;
 
     if (!m.dirs.isEmpty()) {
@@ -747,24 +748,33 @@ public class TabWorkflow extends JPanelWithEnablement {
     }
     Fragpipe.propsVarSet(ThisAppProps.LAST_RECURSIVE_FOLDER_ADDED, inputPaths.get(0).toString());
 
-    for (Path p : inputPaths) {
-      final Predicate<File> pred = CmdMsfragger.getSupportedFilePredicate(Fragpipe.getExtBinSearchPaths());
-      PathUtils.traverseDirectoriesAcceptingFiles(p.toFile(), pred, accepted, false);
-    }
+    final Predicate<File> pred = CmdMsfragger.getSupportedFilePredicate(Fragpipe.getExtBinSearchPaths());
+    addLcmsInBackground(inputPaths, pred, inputPaths.get(0), true);
+  }
 
-    List<Path> lessGenerated = Seq.seq(accepted)
-        .filter(p -> {
-          final String fnLo = p.getFileName().toString().toLowerCase();
-          if (fnLo.endsWith("_calibrated.mzml") || fnLo.endsWith("_uncalibrated.mzml") || fnLo.endsWith("_calibrated.mgf") || fnLo.endsWith("_uncalibrated.mgf")) {
-            return false;
-          } else {
-            return true;
-          }
-        }).toList();
+  /**
+   * Searches the folders off the EDT, the files found are added in one go.
+   *
+   * @param skipGenerated Leave out the (un)calibrated files written by MSFragger next to the inputs.
+   */
+  private static void addLcmsInBackground(List<Path> inputPaths, Predicate<File> pred, Path recursiveAdditionRoot, boolean skipGenerated) {
+    new Thread(() -> {
+      List<Path> accepted = LcmsDiscovery.find(inputPaths, p -> pred.test(p.toFile()));
+
+      List<Path> lessGenerated = !skipGenerated ? accepted : Seq.seq(accepted)
+          .filter(p -> {
+            final String fnLo = p.getFileName().toString().toLowerCase();
+            if (fnLo.endsWith("_calibrated.mzml") || fnLo.endsWith("_uncalibrated.mzml") || fnLo.endsWith("_calibrated.mgf") || fnLo.endsWith("_uncalibrated.mgf")) {
+              return false;
+            } else {
+              return true;
+            }
+          }).toList();
 
-    if (!accepted.isEmpty()) {
-      Bus.post(new MessageLcmsFilesAdded(lessGenerated, inputPaths.get(0)));
-    }
+      if (!accepted.isEmpty()) {
+        Bus.post(recursiveAdditionRoot == null ? new MessageLcmsFilesAdded(lessGenerated) : new MessageLcmsFilesAdded(lessGenerated, recursiveAdditionRoot));
+      }
+    }, "LC-MS files search").start();
   }
 
   @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
@@ -1196,13 +1206,7 @@ public class TabWorkflow extends JPanelWithEnablement {
     return new FileDrop(this, true, files -> {
       Predicate<File> pred = CmdMsfragger
           .getSupportedFilePredicate(Fragpipe.getExtBinSearchPaths());
-      List<Path> accepted = new ArrayList<>(files.length);
-      for (File f : files) {
-        PathUtils.traverseDirectoriesAcceptingFiles(f, pred, accepted, false);
-      }
-      if (!accepted.isEmpty()) {
-        Bus.post(new MessageLcmsFilesAdded(accepted));
-      }
+      addLcmsInBackground(Seq.of(files).map(File::toPath).toList(), pred, null, false);
     });
   }
 
@@ -1236,51 +1240,79 @@ public class TabWorkflow extends JPanelWithEnablement {
     FileUtils.write(path.toFile(), manifest, StandardCharsets.UTF_8, false);
   }
 
-  private void manifestLoad(Path manifestPath) throws IOException {
-    ArrayList<InputLcmsFile> inTable = tableModelRawFiles.dataCopy();
-    List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+  /** A manifest as read from disk, before it is merged into the files table. */
+  private static class Manifest {
+    final List<InputLcmsFile> loaded;
+    final List<String> badLines;
+    final Set<Path> notExist;
+
+    Manifest(List<InputLcmsFile> loaded, List<String> badLines, Set<Path> notExist) {
+      this.loaded = loaded;
+      this.badLines = badLines;
+      this.notExist = notExist;
+    }
+  }
+
+  /**
+   * Reads the manifest line by line and checks which of the files exist. Does not touch the UI,
+   * can be called off the EDT.
+   */
+  private static Manifest manifestRead(Path manifestPath) throws IOException {
     ConcurrentLinkedDeque<String> badLines = new ConcurrentLinkedDeque<>();
-    List<InputLcmsFile> loaded = lines.stream()
-        .filter(StringUtils::isNotBlank)
-        .filter(line -> !line.startsWith("//") && !line.startsWith("#"))
-        .map(line -> {
-          String[] split = line.trim().split("\t");
-          Path p = null;
-          String exp = null;
-          Integer replicate = null;
-          String dataType = null;
-          try {
-            if (split.length >= 1) {
-              p = Paths.get(split[0]);
-            }
-            if (split.length >= 2) {
-              exp = (split[1] == null || split[1].trim().isEmpty()) ? null : split[1].trim();
-            }
-            if (split.length >= 3) {
-              replicate = (split[2] == null || split[2].trim().isEmpty()) ? null : Integer.parseInt(split[2]);
-            }
-            if (split.length >= 4) {
-              dataType = (split[3] == null || split[3].trim().isEmpty()) ? null : split[3].trim();
+    List<InputLcmsFile> loaded;
+    try (Stream<String> lines = Files.lines(manifestPath, StandardCharsets.UTF_8)) {
+      loaded = lines
+          .filter(StringUtils::isNotBlank)
+          .filter(line -> !line.startsWith("//") && !line.startsWith("#"))
+          .map(line -> {
+            String[] split = line.trim().split("\t");
+            Path p = null;
+            String exp = null;
+            Integer replicate = null;
+            String dataType = null;
+            try {
+              if (split.length >= 1) {
+                p = Paths.get(split[0]);
+              }
+              if (split.length >= 2) {
+                exp = (split[1] == null || split[1].trim().isEmpty()) ? null : split[1].trim();
+              }
+              if (split.length >= 3) {
+                replicate = (split[2] == null || split[2].trim().isEmpty()) ? null : Integer.parseInt(split[2]);
+              }
+              if (split.length >= 4) {
+                dataType = (split[3] == null || split[3].trim().isEmpty()) ? null : split[3].trim();
+              }
+            } catch (Exception e) {
+              badLines.add(line);
+              return null;
             }
-          } catch (Exception e) {
-            badLines.add(line);
-            return null;
-          }
-          return new InputLcmsFile(p, exp, replicate, dataType);
-        }).filter(Objects::nonNull)
-        .collect(Collectors.toList());
+            return new InputLcmsFile(p, exp, replicate, dataType);
+          }).filter(Objects::nonNull)
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    Set<Path> notExist = LcmsDiscovery.missing(loaded.stream().map(InputLcmsFile::getPath).collect(Collectors.toList()));
+    return new Manifest(loaded, new ArrayList<>(badLines), notExist);
+  }
+
+  private void manifestApply(Manifest manifest) {
+    ArrayList<InputLcmsFile> inTable = tableModelRawFiles.dataCopy();
+    List<InputLcmsFile> loaded = manifest.loaded;
+    Set<Path> notExist = manifest.notExist;
 
-    if (!badLines.isEmpty()) {
+    if (!manifest.badLines.isEmpty()) {
       SwingUtils.showWarningDialog(this,
           "Manifest file contained some badly formatted lines\n\n" +
-          Seq.seq(badLines).toString("\n"), "Malformed manifest");
+          Seq.seq(manifest.badLines).toString("\n"), "Malformed manifest");
     }
 
-    List<Path> notExist = loaded.stream().map(InputLcmsFile::getPath).filter(p -> !Files.exists(p))
+    List<Path> notExistList = loaded.stream().map(InputLcmsFile::getPath).filter(notExist::contains)
         .collect(Collectors.toList());
     Set<Path> inTablePaths = inTable.stream().map(InputLcmsFile::getPath).collect(Collectors.toSet());
     if (inTable.isEmpty()) {
-      showSkippedFiles(notExist);
+      showSkippedFiles(notExistList);
       tableModelRawFiles.dataAddAll(Seq.seq(loaded).filter(f -> !notExist.contains(f.getPath())).toList());
     } else {
       Set<Path> addedPaths = loaded.stream().map(f -> f.getPath().getFileName()).collect(Collectors.toSet());
@@ -1293,27 +1325,29 @@ public class TabWorkflow extends JPanelWithEnablement {
         int choice = SwingUtils.showChoiceDialog(this, "Action choice", message, choices, 0);
         if (choice == 0) {
           tableModelRawFiles.dataClear();
-          showSkippedFiles(notExist);
+          showSkippedFiles(notExistList);
           tableModelRawFiles.dataAddAll(Seq.seq(loaded).filter(f -> !notExist.contains(f.getPath())).toList());
         } else if (choice == 1) {
-          showSkippedFiles(notExist);
+          showSkippedFiles(notExistList);
           tableModelRawFiles.dataAddAll(Seq.seq(loaded)
               .filter(f -> !notExist.contains(f.getPath()))
               .filter(f -> !inTablePaths.contains(f.getPath()))
               .toList());
         } else {
           tableModelRawFiles.dataClear();
+          Map<Path, InputLcmsFile> byFileName = new HashMap<>();
+          for (InputLcmsFile f : loaded) {
+            byFileName.putIfAbsent(f.getPath().getFileName(), f);
+          }
           List<InputLcmsFile> updated = new ArrayList<>();
           for (InputLcmsFile existing : inTable) {
-            InputLcmsFile toCopyFrom = loaded.stream()
-                .filter(f -> f.getPath().getFileName().equals(existing.getPath().getFileName()))
-                .findFirst().orElse(existing);
+            InputLcmsFile toCopyFrom = byFileName.getOrDefault(existing.getPath().getFileName(), existing);
             updated.add(new InputLcmsFile(existing.getPath(), toCopyFrom.getExperiment(), toCopyFrom.getReplicate(), toCopyFrom.getDataType()));
           }
           tableModelRawFiles.dataAddAll(updated);
         }
       } else {
-        showSkippedFiles(notExist);
+        showSkippedFiles(notExistList);
         tableModelRawFiles.dataAddAll(Seq.seq(loaded)
             .filter(f -> !notExist.contains(f.getPath()))
             .filter(f -> !inTablePaths.contains(f.getPath()))
@@ -1374,13 +1408,29 @@ public class TabWorkflow extends JPanelWithEnablement {
       final File f = Fragpipe.headless ? Fragpipe.manifestFile.toFile() : fc.getSelectedFile();
       if (f == null)
         return;
-      try {
-        Fragpipe.propsVarSet(ThisAppProps.CONFIG_SAVE_LOCATION, f.getParent());
-        manifestLoad(f.toPath());
-      } catch (IOException e) {
-        SwingUtils.showErrorDialogWithStacktrace(e, this);
-      }
-      Fragpipe.loadManifestDone.countDown();
+      Fragpipe.propsVarSet(ThisAppProps.CONFIG_SAVE_LOCATION, f.getParent());
+      // large manifests on network drives take a while to check, only merging them needs the EDT
+      new Thread(() -> {
+        boolean applying = false;
+        try {
+          Manifest manifest = manifestRead(f.toPath());
+          SwingUtilities.invokeLater(() -> {
+            try {
+              manifestApply(manifest);
+            } finally {
+              Fragpipe.loadManifestDone.countDown();
+            }
+          });
+          applying = true;
+        } catch (Exception e) {
+          SwingUtilities.invokeLater(() -> SwingUtils.showErrorDialogWithStacktrace(e, this));
+        } finally {
+          // a headless run waits for this
+          if (!applying) {
+            Fragpipe.loadManifestDone.countDown();
+          }
+        }
+      }, "Manifest load").start();
     }
   }
 
@@ -1392,7 +1442,7 @@ public class TabWorkflow extends JPanelWithEnablement {
       Fragpipe.propsVarSet(ThisAppProps.CONFIG_SAVE_LOCATION, path.getParent().toString());
       TabMsfragger tabMsfragger = getStickyStrict(TabMsfragger.class);
       try {
-        sdrfSave(path, m.label, tabMsfragger.getSDRFenzymes(), tabMsfragger.getSDRFmods(), tabMsfragger.getPrecTolString(), tabMsfragger.getProdTolString(m.logText));
+        sdrfSave(path, m.label, tabMsfragger.getSDRFenzymes(), tabMsfragger.getSDRFmods(), tabMsfragger.getPrecTolString(), tabMsfragger.getProdTolString(m.results));
       } catch (IOException e) {
         SwingUtils.showErrorDialogWithStacktrace(e, this);
       }
@@ -81,6 +81,7 @@ public class DiannPanel extends JPanelBase {
   private UiCheck uiCheckUseRunSpecificProteinQvalue;
   private UiCheck uiCheckUnrelatedRuns;
   private UiCheck uiCheckGenerateMsstats;
+  private UiCombo uiComboReportFormat;
   private UiText uiTextLight;
   private UiText uiTextMedium;
   private UiText uiTextHeavy;
@@ -193,6 +194,9 @@ public class DiannPanel extends JPanelBase {
     uiCheckGenerateMsstats = UiUtils.createUiCheck("Generate MSstats input", true);
     FormEntry feGenerateMsstats = new FormEntry("generate-msstats", "Generate MSstats input", uiCheckGenerateMsstats, "Convert the DIA-NN output to MSstats format.");
 
+    uiComboReportFormat = UiUtils.createUiCombo(Arrays.asList("TSV", "Arrow"));
+    FormEntry feReportFormat = new FormEntry("report-format", "Report format", uiComboReportFormat, "Format of the report that FragPipe edits and converts to MSstats input.\nArrow: report.tsv is converted to report.arrow, which gets the propagated localization and protein columns, and msstats.arrow and msstats_ptm.arrow are written instead of the csv files.\nThe Arrow files are read column by column, which is much faster for large reports.");
+
     uiCheckUnrelatedRuns = UiUtils.createUiCheck("Unrelated runs", false);
     FormEntry feUnrelatedRuns = new FormEntry("unrelated-runs", "Unrelated runs", uiCheckUnrelatedRuns, "Different runs will be treated as unrelated, i.e. mass accuracy (when automatic) will be determined separately, as well as the retention time scan window.");
 
@@ -227,6 +231,8 @@ public class DiannPanel extends JPanelBase {
     mu.add(panelBasic, feUnrelatedRuns.comp).wrap();
     mu.add(panelBasic, feUsePredictedSpectra.comp).wrap();
     mu.add(panelBasic, feGenerateMsstats.comp).wrap();
+    mu.add(panelBasic, feReportFormat.label(), mu.ccL());
+    mu.add(panelBasic, feReportFormat.comp).wrap();
     mu.add(panelBasic, feLibrary.label(), mu.ccL());
     mu.add(panelBasic, feLibrary.comp).pushX().growX();
     mu.add(panelBasic, jButtonLibrary).wrap();
@@ -331,6 +337,10 @@ public class DiannPanel extends JPanelBase {
     return SwingUtils.isEnabledAndChecked(uiCheckGenerateMsstats);
   }
 
+  public boolean isArrowReport() {
+    return "Arrow".equals(uiComboReportFormat.getSelectedItem());
+  }
+
   public String getLibraryPath() {
     return uiTextLibrary.getNonGhostText().trim();
   }
@@ -17,63 +17,120 @@
 
 package com.dmtavt.fragpipe.tools.diann;
 
+import com.dmtavt.fragpipe.util.ArrowTableWriter;
+import com.dmtavt.fragpipe.util.ArrowTableWriter.Block;
+import com.dmtavt.fragpipe.util.TableReader;
+import com.dmtavt.fragpipe.util.TableRow;
+import com.dmtavt.fragpipe.util.TsvReader;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
 import org.apache.commons.io.FilenameUtils;
 
 
 public class DiannToMsstats {
 
-  private static final Pattern pattern = Pattern.compile("([\\w-]+)\\^(\\d+)\\/([\\d.]+)");
   private static final Pattern pattern2 = Pattern.compile("([ncA-Z]+):([\\d.-]+)");
+  private static final String HEADER = "ProteinName,PeptideSequence,Protein.Start,Protein.End,PrecursorCharge,FragmentIon,ProductCharge,IsotopeLabelType,Condition,BioReplicate,Run,Intensity";
+  public static final String FORMAT_CSV = "csv";
+  public static final String FORMAT_GZIP = "gzip";
+  public static final String FORMAT_ARROW = "arrow";
 
   public static void main(String[] args) {
+    int exitCode;
+    try {
+      exitCode = run(args, System.out, System.err);
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      exitCode = 1;
+    }
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) throws Exception {
     long startTime = System.nanoTime();
 
-    try {
-      String manifestPath = args[7].trim();
-      Map<String, String[]> runConditionBioreplicateMap = new HashMap<>();
+    String manifestPath = args[7].trim();
+    Map<String, String[]> runConditionBioreplicateMap = new HashMap<>();
+    try (BufferedReader bufferedReader = new BufferedReader(new FileReader(manifestPath))) {
       String line;
-      BufferedReader bufferedReader = new BufferedReader(new FileReader(manifestPath));
       while ((line = bufferedReader.readLine()) != null) {
         line = line.trim();
         String[] split = line.split("\t");
         runConditionBioreplicateMap.put(FilenameUtils.getBaseName(split[0]), new String[]{split[1], split[2]});
       }
-      bufferedReader.close();
-
-      new DiannToMsstats(args[0], args[1], args[2], Float.parseFloat(args[3]), Float.parseFloat(args[4]), Float.parseFloat(args[5]), Float.parseFloat(args[6]), runConditionBioreplicateMap);
-    } catch (Exception ex) {
-      ex.printStackTrace();
-      System.exit(1);
     }
 
-    System.out.printf("Done in %.2f seconds.\n", (System.nanoTime() - startTime) * 1e-9);
+    int nThreads = args.length > 8 ? Integer.parseInt(args[8].trim()) : Runtime.getRuntime().availableProcessors();
+    String format = args.length > 9 ? args[9].trim().toLowerCase() : FORMAT_CSV;
+
+    new DiannToMsstats(args[0], args[1], args[2], Float.parseFloat(args[3]), Float.parseFloat(args[4]), Float.parseFloat(args[5]), Float.parseFloat(args[6]), runConditionBioreplicateMap, nThreads, format);
+
+    out.printf("Done in %.2f seconds.\n", (System.nanoTime() - startTime) * 1e-9);
+    return 0;
   }
 
   public DiannToMsstats(String diannPath, String workdir, String psmPath, float globalProteinFdrT, float runProteinFdrT, float globalPrecursorFdrT, float runPrecursorFdrT, Map<String, String[]> runConditionBioreplicateMap) throws Exception {
-    Map<String, int[]> peptideStartEntryMap = new HashMap<>();
+    this(diannPath, workdir, psmPath, globalProteinFdrT, runProteinFdrT, globalPrecursorFdrT, runPrecursorFdrT, runConditionBioreplicateMap, Runtime.getRuntime().availableProcessors(), FORMAT_CSV);
+  }
 
-    String line;
+  /**
+   * @param gzip Write msstats.csv.gz and msstats_ptm.csv.gz instead.
+   */
+  public DiannToMsstats(String diannPath, String workdir, String psmPath, float globalProteinFdrT, float runProteinFdrT, float globalPrecursorFdrT, float runPrecursorFdrT, Map<String, String[]> runConditionBioreplicateMap, int nThreads, boolean gzip) throws Exception {
+    this(diannPath, workdir, psmPath, globalProteinFdrT, runProteinFdrT, globalPrecursorFdrT, runPrecursorFdrT, runConditionBioreplicateMap, nThreads, gzip ? FORMAT_GZIP : FORMAT_CSV);
+  }
 
-    int peptideColumn = -1;
-    int startColumn = -1;
-    int endColumn = -1;
-    BufferedReader bufferedReader = new BufferedReader(new FileReader(psmPath));
-    while ((line = bufferedReader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
-      if (line.startsWith("Spectrum\tSpectrum File\t")) {
-        String[] header = line.split("\t");
+  /**
+   * Writes msstats.csv and msstats_ptm.csv in one pass over the DIA-NN report, which can be a tsv
+   * or an Arrow file (ending with .arrow). Only the columns that are needed are read.
+   *
+   * @param format {@link #FORMAT_CSV}, {@link #FORMAT_GZIP} for msstats.csv.gz and
+   * msstats_ptm.csv.gz, or {@link #FORMAT_ARROW} for msstats.arrow and msstats_ptm.arrow.
+   */
+  public DiannToMsstats(String diannPath, String workdir, String psmPath, float globalProteinFdrT, float runProteinFdrT, float globalPrecursorFdrT, float runPrecursorFdrT, Map<String, String[]> runConditionBioreplicateMap, int nThreads, String format) throws Exception {
+    if (!format.equals(FORMAT_CSV) && !format.equals(FORMAT_GZIP) && !format.equals(FORMAT_ARROW)) {
+      throw new IllegalArgumentException("Unknown output format: " + format);
+    }
+    Map<String, int[]> peptideStartEntryMap = readPsm(psmPath);
+    write(workdir, diannPath, globalProteinFdrT, runProteinFdrT, globalPrecursorFdrT, runPrecursorFdrT, runConditionBioreplicateMap, peptideStartEntryMap, nThreads, format);
+  }
+
+  private static Map<String, int[]> readPsm(String psmPath) throws Exception {
+    Map<String, int[]> peptideStartEntryMap = new HashMap<>();
+    try (TsvReader reader = new TsvReader(Paths.get(psmPath))) {
+      String[] header = reader.header();
+      int peptideColumn = -1;
+      int startColumn = -1;
+      int endColumn = -1;
+      if (header[0].equals("Spectrum") && header.length > 1 && header[1].equals("Spectrum File")) {
         for (int i = 0; i < header.length; ++i) {
           if (header[i].trim().equalsIgnoreCase("Peptide")) {
             peptideColumn = i;
@@ -83,31 +140,27 @@ public class DiannToMsstats {
             endColumn = i;
           }
         }
-      } else {
-        if (peptideColumn == -1 || startColumn == -1 || endColumn == -1) {
-          throw new RuntimeException("Could not find all the required columns in the PSM file: " + psmPath);
-        }
+      }
+      if (peptideColumn == -1 || startColumn == -1 || endColumn == -1) {
+        throw new RuntimeException("Could not find all the required columns in the PSM file: " + psmPath);
+      }
 
-        String[] split = line.split("\t");
-        String peptide = split[peptideColumn].trim();
-        int start = Integer.parseInt(split[startColumn]);
-        int end = Integer.parseInt(split[endColumn]);
+      final int peptideIdx = peptideColumn;
+      final int startIdx = startColumn;
+      final int endIdx = endColumn;
+      reader.select(peptideIdx, startIdx, endIdx);
+      reader.forEach(row -> {
+        String peptide = row.getString(peptideIdx).trim();
         if (!peptideStartEntryMap.containsKey(peptide)) {
-          peptideStartEntryMap.put(peptide, new int[]{start, end});
+          peptideStartEntryMap.put(peptide, new int[]{row.getInt(startIdx), row.getInt(endIdx)});
         }
-      }
+      });
     }
-    bufferedReader.close();
 
-    write(workdir, diannPath, globalProteinFdrT, runProteinFdrT, globalPrecursorFdrT, runPrecursorFdrT, runConditionBioreplicateMap, peptideStartEntryMap, false);
-    write(workdir, diannPath, globalProteinFdrT, runProteinFdrT, globalPrecursorFdrT, runPrecursorFdrT, runConditionBioreplicateMap, peptideStartEntryMap, true);
+    return peptideStartEntryMap;
   }
 
-  private void write(String workdir, String diannPath, float globalProteinFdrT, float runProteinFdrT, float globalPrecursorFdrT, float runPrecursorFdrT, Map<String, String[]> runConditionBioreplicateMap, Map<String, int[]> peptideStartEntryMap, boolean isMSstatsPTM) throws Exception {
-    String line;
-    BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(workdir + "/msstats" + (isMSstatsPTM ? "_ptm" : "") + ".csv"));
-    bufferedWriter.write("ProteinName,PeptideSequence,Protein.Start,Protein.End,PrecursorCharge,FragmentIon,ProductCharge,IsotopeLabelType,Condition,BioReplicate,Run,Intensity");
-
+  private void write(String workdir, String diannPath, float globalProteinFdrT, float runProteinFdrT, float globalPrecursorFdrT, float runPrecursorFdrT, Map<String, String[]> runConditionBioreplicateMap, Map<String, int[]> peptideStartEntryMap, int nThreads, String format) throws Exception {
     int runColumn = -1;
     int proteinGroupColumn = -1;
     int strippedSequenceColumn = -1;
@@ -121,11 +174,9 @@ public class DiannToMsstats {
     int fragmentInfoColumn = -1;
     Map<String, Integer> modificationColumnIdxMap = new TreeMap<>();
 
-    BufferedReader bufferedReader = new BufferedReader(new FileReader(diannPath));
-    while ((line = bufferedReader.readLine()) != null) {
-      line = line.trim();
-      if (line.startsWith("File.Name\t")) {
-        String[] header = line.split("\t");
+    try (TableReader<? extends TableRow> reader = TableReader.open(Paths.get(diannPath))) {
+      String[] header = reader.header();
+      if (header[0].equals("File.Name")) {
         for (int i = 0; i < header.length; ++i) {
           if (header[i].trim().equalsIgnoreCase("run")) {
             runColumn = i;
@@ -149,97 +200,332 @@ public class DiannToMsstats {
             fragmentQuantRawColumn = i;
           } else if (header[i].trim().equalsIgnoreCase("fragment.info")) {
             fragmentInfoColumn = i;
-          } else if (isMSstatsPTM) {
+          } else {
             Matcher matcher = pattern2.matcher(header[i].trim());
             if (matcher.matches()) {
               modificationColumnIdxMap.put(header[i].trim(), i);
             }
           }
         }
+      }
 
-        if (!modificationColumnIdxMap.isEmpty()) {
-          for (Map.Entry<String, Integer> entry : modificationColumnIdxMap.entrySet()) {
-            bufferedWriter.write("," + entry.getKey());
-          }
-        }
+      if (runColumn == -1 ||
+          proteinGroupColumn == -1 ||
+          strippedSequenceColumn == -1 ||
+          modifiedSequenceColumn == -1 ||
+          precursorChargeColumn == -1 ||
+          qValueColumn == -1 ||
+          globalQValueColumn == -1 ||
+          pgQValueColumn == -1 ||
+          globalPgQValueColumn == -1 ||
+          fragmentQuantRawColumn == -1 ||
+          fragmentInfoColumn == -1) {
+        throw new RuntimeException("Could not find all the required columns in the DIA-NN output file: " + diannPath);
+      }
+
+      final int[] columns = {runColumn, proteinGroupColumn, strippedSequenceColumn, modifiedSequenceColumn, precursorChargeColumn, qValueColumn, globalQValueColumn, pgQValueColumn, globalPgQValueColumn, fragmentQuantRawColumn, fragmentInfoColumn};
+      final int[] modificationColumns = modificationColumnIdxMap.values().stream().mapToInt(Integer::intValue).toArray();
+      final float[] thresholds = {runPrecursorFdrT, globalPrecursorFdrT, runProteinFdrT, globalProteinFdrT};
+      reader.select(IntStream.concat(Arrays.stream(columns), Arrays.stream(modificationColumns)).toArray());
+      if (format.equals(FORMAT_ARROW)) {
+        writeArrow(reader, workdir, columns, modificationColumns, modificationColumnIdxMap.keySet().toArray(new String[0]), thresholds, runConditionBioreplicateMap, peptideStartEntryMap, nThreads);
+      } else {
+        writeCsv(reader, workdir, format.equals(FORMAT_GZIP), columns, modificationColumns, modificationColumnIdxMap.keySet().toArray(new String[0]), thresholds, runConditionBioreplicateMap, peptideStartEntryMap, nThreads);
+      }
+    }
+  }
+
+  private static void writeCsv(TableReader<? extends TableRow> reader, String workdir, boolean gzip, int[] columns, int[] modificationColumns, String[] modifications, float[] thresholds, Map<String, String[]> runConditionBioreplicateMap, Map<String, int[]> peptideStartEntryMap, int nThreads) throws Exception {
+    try (Writer writer = newWriter(Paths.get(workdir, "msstats.csv"), gzip);
+        Writer ptmWriter = newWriter(Paths.get(workdir, "msstats_ptm.csv"), gzip)) {
+      writer.write(HEADER);
+      writer.write("\n");
+      ptmWriter.write(HEADER);
+      for (String modification : modifications) {
+        ptmWriter.write("," + modification);
+      }
+      ptmWriter.write("\n");
+
+      // Blocks of rows are converted in parallel and written in the original order. The buffers are reused.
+      final Queue<CsvOutput> free = new ConcurrentLinkedQueue<>();
+      final char[] chars = new char[8192];
+      reader.scanOrdered(nThreads, () -> {
+        CsvOutput output = free.poll();
+        return output == null ? new CsvOutput() : output;
+      }, (output, row) -> convertRow(row, columns, modificationColumns, thresholds, runConditionBioreplicateMap, peptideStartEntryMap, output), output -> {
+        write(output.msstats, writer, chars);
+        write(output.msstatsPtm, ptmWriter, chars);
+        output.msstats.setLength(0);
+        output.msstatsPtm.setLength(0);
+        free.add(output);
+      });
+    }
+  }
 
-        bufferedWriter.write("\n");
+  /**
+   * Same as {@link #writeCsv}, but writes msstats.arrow and msstats_ptm.arrow. Start, end and charges
+   * are integers and the intensity is a double, "NA" modification values are null.
+   */
+  private static void writeArrow(TableReader<? extends TableRow> reader, String workdir, int[] columns, int[] modificationColumns, String[] modifications, float[] thresholds, Map<String, String[]> runConditionBioreplicateMap, Map<String, int[]> peptideStartEntryMap, int nThreads) throws Exception {
+    List<Field> fields = new ArrayList<>();
+    for (String name : HEADER.split(",")) {
+      if (name.equals("Protein.Start") || name.equals("Protein.End") || name.equals("PrecursorCharge") || name.equals("ProductCharge")) {
+        fields.add(ArrowTableWriter.int32(name));
+      } else if (name.equals("Intensity")) {
+        fields.add(ArrowTableWriter.float64(name));
       } else {
-        if (runColumn == -1 ||
-            proteinGroupColumn == -1 ||
-            strippedSequenceColumn == -1 ||
-            modifiedSequenceColumn == -1 ||
-            precursorChargeColumn == -1 ||
-            qValueColumn == -1 ||
-            globalQValueColumn == -1 ||
-            pgQValueColumn == -1 ||
-            globalPgQValueColumn == -1 ||
-            fragmentQuantRawColumn == -1 ||
-            fragmentInfoColumn == -1) {
-          throw new RuntimeException("Could not find all the required columns in the DIA-NN output file: " + diannPath);
+        fields.add(ArrowTableWriter.utf8(name));
+      }
+    }
+    List<Field> ptmFields = new ArrayList<>(fields);
+    for (String modification : modifications) {
+      ptmFields.add(ArrowTableWriter.utf8(modification));
+    }
+
+    try (ArrowTableWriter writer = new ArrowTableWriter(Paths.get(workdir, "msstats.arrow"), new Schema(fields));
+        ArrowTableWriter ptmWriter = new ArrowTableWriter(Paths.get(workdir, "msstats_ptm.arrow"), new Schema(ptmFields))) {
+      // Blocks of rows are converted in parallel and written in the original order.
+      reader.scanOrdered(nThreads, () -> new ArrowOutput(writer.newBlock(), ptmWriter.newBlock(), modificationColumns.length),
+          (output, row) -> convertRow(row, columns, modificationColumns, thresholds, runConditionBioreplicateMap, peptideStartEntryMap, output), output -> {
+        writer.write(output.msstats);
+        ptmWriter.write(output.msstatsPtm);
+      });
+    }
+  }
+
+  private static void convertRow(TableRow row, int[] columns, int[] modificationColumns, float[] thresholds, Map<String, String[]> runConditionBioreplicateMap, Map<String, int[]> peptideStartEntryMap, Output output) {
+    if (!(row.getFloat(columns[5]) < thresholds[0] &&
+        row.getFloat(columns[6]) < thresholds[1] &&
+        row.getFloat(columns[7]) < thresholds[2] &&
+        row.getFloat(columns[8]) < thresholds[3])) {
+      return;
+    }
+
+    String run = row.getString(columns[0]).trim();
+    String fragmentInfo = row.getString(columns[10]).trim();
+    String[] fragmentInfoSplit = fragmentInfo.split(";");
+    String fragmentIntensity = row.getString(columns[9]).trim();
+    String[] fragmentIntensitySplit = fragmentIntensity.split(";");
+
+    if (fragmentInfoSplit.length != fragmentIntensitySplit.length) {
+      throw new RuntimeException("There are different number of fragment quant and fragment info: " + fragmentInfo + " vs " + fragmentIntensity);
+    }
+
+    String strippedSequence = row.getString(columns[2]).trim();
+    int[] startEnd = peptideStartEntryMap.get(strippedSequence);
+    if (startEnd == null) {
+      throw new RuntimeException("Could not find the peptide in the PSM file: " + strippedSequence);
+    }
+
+    output.precursor(row, columns, modificationColumns, startEnd);
+
+    String[] conditionBioreplicate = null;
+    for (int i = 0; i < fragmentInfoSplit.length; ++i) {
+      if (Math.abs(Float.parseFloat(fragmentIntensitySplit[i])) < 0.0001f) {
+        continue;
+      }
+      if (conditionBioreplicate == null) {
+        conditionBioreplicate = runConditionBioreplicateMap.get(run);
+        if (conditionBioreplicate == null) {
+          throw new RuntimeException("Could not find run " + run + " in the manifest.");
         }
+      }
 
-        String[] row = line.split("\t");
-        if (Float.parseFloat(row[qValueColumn]) < runPrecursorFdrT &&
-            Float.parseFloat(row[globalQValueColumn]) < globalPrecursorFdrT &&
-            Float.parseFloat(row[pgQValueColumn]) < runProteinFdrT &&
-            Float.parseFloat(row[globalPgQValueColumn]) < globalProteinFdrT) {
-          String run = row[runColumn].trim();
-          String[] conditionBioreplicate = runConditionBioreplicateMap.get(run);
-          String fragmentInfo = row[fragmentInfoColumn].trim();
-          String[] fragmentInfoSplit = fragmentInfo.split(";");
-          String fragmentIntensity = row[fragmentQuantRawColumn].trim();
-          String[] fragmentIntensitySplit = fragmentIntensity.split(";");
-
-          if (fragmentInfoSplit.length != fragmentIntensitySplit.length) {
-            throw new RuntimeException("There are different number of fragment quant and fragment info: " + fragmentInfo + " vs " + fragmentIntensity);
-          }
+      if (!output.fragment(fragmentInfoSplit[i].trim(), "L", conditionBioreplicate, run, fragmentIntensitySplit[i])) { // todo: support plexDIA
+        throw new RuntimeException("Could not parse fragment info: " + fragmentInfoSplit[i]);
+      }
+    }
+  }
+
+  /**
+   * Parses a DIA-NN fragment annotation like {@code y7-unknown^1/645.3689575} and appends the ion
+   * name without "-unknown" and its charge, separated by a comma.
+   *
+   * @return False if the annotation is not in the expected format.
+   */
+  static boolean appendFragment(String s, StringBuilder sb) {
+    int caret = s.indexOf('^');
+    int slash = caret < 0 ? -1 : s.indexOf('/', caret + 1);
+    if (caret <= 0 || slash < 0 || slash == caret + 1 || slash == s.length() - 1) {
+      return false;
+    }
+    for (int i = 0; i < caret; ++i) {
+      char c = s.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-')) {
+        return false;
+      }
+    }
+    for (int i = caret + 1; i < slash; ++i) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    for (int i = slash + 1; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if ((c < '0' || c > '9') && c != '.') {
+        return false;
+      }
+    }
 
-          int[] startEnd = peptideStartEntryMap.get(row[strippedSequenceColumn].trim());
+    int unknown = s.lastIndexOf("-unknown", caret);
+    if (unknown < 0) {
+      sb.append(s, 0, caret);
+    } else {
+      sb.append(s.substring(0, caret).replace("-unknown", ""));
+    }
+    sb.append(',').append(s, caret + 1, slash);
+    return true;
+  }
 
-          if (startEnd == null) {
-            throw new RuntimeException("Could not find the peptide in the PSM file: " + row[strippedSequenceColumn].trim());
-          }
+  private static Writer newWriter(Path path, boolean gzip) throws IOException {
+    if (gzip) {
+      return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(Paths.get(path + ".gz")), 1 << 16), StandardCharsets.UTF_8), 1 << 16);
+    }
+    return Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+  }
 
-          for (int i = 0; i < fragmentInfoSplit.length; ++i) {
-            if (Math.abs(Float.parseFloat(fragmentIntensitySplit[i])) < 0.0001f) {
-              continue;
-            }
-            Matcher matcher = pattern.matcher(fragmentInfoSplit[i].trim());
-            if (matcher.matches()) {
-              bufferedWriter.write(row[proteinGroupColumn].trim() + "," +
-                  row[modifiedSequenceColumn].trim() + "," +
-                  startEnd[0] + "," +
-                  startEnd[1] + "," +
-                  row[precursorChargeColumn].trim() + "," +
-                  matcher.group(1).replace("-unknown", "") + "," +
-                  matcher.group(2) + ",L," + // todo: support plexDIA
-                  conditionBioreplicate[0] + "," +
-                  conditionBioreplicate[1] + "," +
-                  run + "," +
-                  fragmentIntensitySplit[i]);
-
-              if (!modificationColumnIdxMap.isEmpty()) {
-                for (Map.Entry<String, Integer> entry : modificationColumnIdxMap.entrySet()) {
-                  int idx = entry.getValue();
-                  bufferedWriter.write(",");
-                  if (idx < row.length && row[idx] != null && !row[idx].trim().isEmpty()) {
-                    bufferedWriter.write(row[entry.getValue()].trim());
-                  } else {
-                    bufferedWriter.write("NA");
-                  }
-                }
-              }
-
-              bufferedWriter.write("\n");
-            } else {
-              throw new RuntimeException("Could not parse fragment info: " + fragmentInfoSplit[i]);
-            }
-          }
+  private static void write(StringBuilder sb, Writer writer, char[] chars) throws IOException {
+    for (int i = 0; i < sb.length(); i += chars.length) {
+      int n = Math.min(chars.length, sb.length() - i);
+      sb.getChars(i, i + n, chars, 0);
+      writer.write(chars, 0, n);
+    }
+  }
+
+  /**
+   * Converted lines of a block of rows.
+   */
+  private abstract static class Output {
+
+    /**
+     * Starts the lines of the precursor in the row.
+     */
+    abstract void precursor(TableRow row, int[] columns, int[] modificationColumns, int[] startEnd);
+
+    /**
+     * Adds a line for a fragment of the current precursor.
+     *
+     * @return False if the fragment annotation is not in the expected format.
+     */
+    abstract boolean fragment(String fragmentInfo, String isotopeLabelType, String[] conditionBioreplicate, String run, String intensity);
+  }
+
+  /**
+   * Lines of msstats.csv and msstats_ptm.csv, and scratch buffers for converting them.
+   */
+  private static final class CsvOutput extends Output {
+
+    final StringBuilder msstats = new StringBuilder(1 << 20);
+    final StringBuilder msstatsPtm = new StringBuilder(1 << 20);
+    final StringBuilder line = new StringBuilder(256);
+    final StringBuilder modifications = new StringBuilder(64);
+    int prefixLength;
+
+    @Override
+    void precursor(TableRow row, int[] columns, int[] modificationColumns, int[] startEnd) {
+      line.setLength(0);
+      line.append(row.getString(columns[1]).trim()).append(',')
+          .append(row.getString(columns[3]).trim()).append(',')
+          .append(startEnd[0]).append(',')
+          .append(startEnd[1]).append(',')
+          .append(row.getString(columns[4]).trim()).append(',');
+      prefixLength = line.length();
+
+      modifications.setLength(0);
+      for (int idx : modificationColumns) {
+        modifications.append(',');
+        if (row.isBlank(idx)) {
+          modifications.append("NA");
+        } else {
+          modifications.append(row.getString(idx).trim());
         }
       }
     }
-    bufferedReader.close();
-    bufferedWriter.close();
+
+    @Override
+    boolean fragment(String fragmentInfo, String isotopeLabelType, String[] conditionBioreplicate, String run, String intensity) {
+      line.setLength(prefixLength);
+      if (!appendFragment(fragmentInfo, line)) {
+        return false;
+      }
+      line.append(',').append(isotopeLabelType).append(',')
+          .append(conditionBioreplicate[0]).append(',')
+          .append(conditionBioreplicate[1]).append(',')
+          .append(run).append(',')
+          .append(intensity);
+
+      msstats.append(line).append('\n');
+      msstatsPtm.append(line).append(modifications).append('\n');
+      return true;
+    }
+  }
+
+  /**
+   * Rows of msstats.arrow and msstats_ptm.arrow, in the column order of {@link #HEADER}.
+   */
+  private static final class ArrowOutput extends Output {
+
+    final Block msstats;
+    final Block msstatsPtm;
+    private final StringBuilder fragment = new StringBuilder(32);
+    private final String[] modifications;
+    private String proteinName;
+    private String peptideSequence;
+    private int[] startEnd;
+    private int precursorCharge;
+
+    ArrowOutput(Block msstats, Block msstatsPtm, int modificationCount) {
+      this.msstats = msstats;
+      this.msstatsPtm = msstatsPtm;
+      this.modifications = new String[modificationCount];
+    }
+
+    @Override
+    void precursor(TableRow row, int[] columns, int[] modificationColumns, int[] startEnd) {
+      proteinName = row.getString(columns[1]).trim();
+      peptideSequence = row.getString(columns[3]).trim();
+      this.startEnd = startEnd;
+      precursorCharge = row.getInt(columns[4]);
+      for (int i = 0; i < modificationColumns.length; ++i) {
+        modifications[i] = row.isBlank(modificationColumns[i]) ? null : row.getString(modificationColumns[i]).trim();
+      }
+    }
+
+    @Override
+    boolean fragment(String fragmentInfo, String isotopeLabelType, String[] conditionBioreplicate, String run, String intensity) {
+      fragment.setLength(0);
+      if (!appendFragment(fragmentInfo, fragment)) {
+        return false;
+      }
+      int comma = fragment.lastIndexOf(",");
+      String ion = fragment.substring(0, comma);
+      int productCharge = Integer.parseInt(fragment.substring(comma + 1));
+      double value = Double.parseDouble(intensity);
+
+      add(msstats, ion, productCharge, isotopeLabelType, conditionBioreplicate, run, value);
+      int r = add(msstatsPtm, ion, productCharge, isotopeLabelType, conditionBioreplicate, run, value);
+      for (int i = 0; i < modifications.length; ++i) {
+        msstatsPtm.setString(12 + i, r, modifications[i]);
+      }
+      return true;
+    }
+
+    private int add(Block block, String ion, int productCharge, String isotopeLabelType, String[] conditionBioreplicate, String run, double intensity) {
+      int r = block.addRow();
+      block.setString(0, r, proteinName);
+      block.setString(1, r, peptideSequence);
+      block.setInt(2, r, startEnd[0]);
+      block.setInt(3, r, startEnd[1]);
+      block.setInt(4, r, precursorCharge);
+      block.setString(5, r, ion);
+      block.setInt(6, r, productCharge);
+      block.setString(7, r, isotopeLabelType);
+      block.setString(8, r, conditionBioreplicate[0]);
+      block.setString(9, r, conditionBioreplicate[1]);
+      block.setString(10, r, run);
+      block.setDouble(11, r, intensity);
+      return r;
+    }
   }
 }
@@ -25,7 +25,8 @@ import static com.dmtavt.fragpipe.util.Utils.removeClosedModifications;
 import static com.dmtavt.fragpipe.util.Utils.threshold;
 
 import com.dmtavt.fragpipe.FragpipeLocations;
-import com.dmtavt.fragpipe.util.UnimodOboReader;
+import com.dmtavt.fragpipe.util.TsvReader;
+import com.dmtavt.fragpipe.util.UnimodIndex;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
@@ -33,12 +34,13 @@ import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.google.common.collect.TreeBasedTable;
 import com.google.common.primitives.Floats;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -53,7 +55,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -64,17 +65,34 @@ public class PlexDiaHelper {
   private static final Pattern aaPattern = Pattern.compile("([A-Zn])(\\((UniMod:\\d+)\\))?([\\(\\[]([\\d+.-]+)[\\]\\)])?"); // EasyPQP does not support C-term mods?
   private static final Pattern labelPattern = Pattern.compile("([A-Znc*]+)([\\d.+-]+)");
   static final Pattern tabPattern = Pattern.compile("\\t");
+  private static final String[] LIBRARY_COLUMNS = {"PrecursorMz", "ModifiedPeptideSequence", "PrecursorCharge", "NormalizedRetentionTime", "PrecursorIonMobility", "ProductMz", "LibraryIntensity", "FragmentType", "FragmentCharge", "FragmentSeriesNumber", "FragmentLossType", "ProteinId", "GeneName", "AverageExperimentalRetentionTime"};
 
   private final int nThreads;
   private final Map<Character, Float> lightAaMassMap;
   private final Map<Character, Float> mediumAaMassMap;
   private final Map<Character, Float> heavyAaMassMap;
   private final Map<String, Float> unimodMassMap;
-  private final Table<Float, Character, Integer> massSiteUnimodTable;
+  private final UnimodIndex unimodIndex;
 
   float[] theoModMasses;
 
   public static void main(String[] args) {
+    int exitCode;
+    try {
+      exitCode = run(args, System.out, System.err);
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      exitCode = 1;
+    }
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) throws Exception {
     long start = System.nanoTime();
 
     int nThreads = Runtime.getRuntime().availableProcessors();
@@ -119,29 +137,25 @@ public class PlexDiaHelper {
     }
 
     if (lightAaMassMap == null && mediumAaMassMap == null && heavyAaMassMap == null) {
-      System.err.println("There are no light, medium, or heavy labels.");
-      System.exit(1);
+      err.println("There are no light, medium, or heavy labels.");
+      return 1;
     }
 
     if (libraryPath == null) {
-      System.err.println("There is no library path.");
-      System.exit(1);
+      err.println("There is no library path.");
+      return 1;
     }
 
-    try {
-      PlexDiaHelper plexDiaHelper = new PlexDiaHelper(nThreads, lightAaMassMap, mediumAaMassMap, heavyAaMassMap);
+    PlexDiaHelper plexDiaHelper = new PlexDiaHelper(nThreads, lightAaMassMap, mediumAaMassMap, heavyAaMassMap);
 
-      if (outputLibraryPath != null) {
-        plexDiaHelper.generateNewLibrary2(libraryPath, outputLibraryPath, true, true);
-      } else if (diannReportPath != null && outputDirectory != null) {
-        plexDiaHelper.pairAndWriteReport(libraryPath, diannReportPath, outputDirectory);
-      }
-    } catch (Exception ex) {
-      ex.printStackTrace();
-      System.exit(1);
+    if (outputLibraryPath != null) {
+      plexDiaHelper.generateNewLibrary2(libraryPath, outputLibraryPath, true, true);
+    } else if (diannReportPath != null && outputDirectory != null) {
+      plexDiaHelper.pairAndWriteReport(libraryPath, diannReportPath, outputDirectory);
     }
 
-    System.out.printf("Done in %.1f s.%n", (System.nanoTime() - start) * 1e-9f);
+    out.printf("Done in %.1f s.%n", (System.nanoTime() - start) * 1e-9f);
+    return 0;
   }
 
   private static Map<Character, Float> parseLabel(String inputStr) {
@@ -177,26 +191,12 @@ public class PlexDiaHelper {
     this.heavyAaMassMap = heavyAaMassMap;
 
     Path unimodPath = getUnimodOboPath(UNIMOD_OBO);
-    UnimodOboReader unimodOboReader = new UnimodOboReader(unimodPath);
-    unimodMassMap = unimodOboReader.unimodMassMap;
-    massSiteUnimodTable = unimodOboReader.massSiteUnimodTable;
+    unimodIndex = UnimodIndex.get(unimodPath);
+    unimodMassMap = unimodIndex.massMap();
   }
 
   void generateNewLibrary(Path libraryPath, Path outputPath, boolean replaceLabelMods) throws Exception {
-    BufferedReader reader = Files.newBufferedReader(libraryPath);
-
-    ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    List<String[]> library = forkJoinPool.submit(() ->
-        reader.lines()
-            .parallel()
-            .filter(l -> !l.isEmpty())
-            .map(l -> tabPattern.split(l, -1)) // -1 to keep trailing empty strings
-            .collect(Collectors.toList())
-    ).get();
-    forkJoinPool.shutdown();
-
-    reader.close();
-
+    List<String[]> library = readLibrary(libraryPath);
     Map<String, Integer> columnNameToIndex = getColumnIndexMap(libraryPath, "PrecursorMz", library.get(0));
 
     int columnIdx = columnNameToIndex.get("ModifiedPeptideSequence");
@@ -247,20 +247,7 @@ public class PlexDiaHelper {
   }
 
   void generateNewLibrary2(Path libraryPath, Path outputPath, boolean removeUnlabeledTransitions, boolean replaceLabelMods) throws Exception {
-    BufferedReader reader = Files.newBufferedReader(libraryPath);
-
-    ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    List<String[]> library = forkJoinPool.submit(() ->
-        reader.lines()
-            .parallel()
-            .filter(l -> !l.isEmpty())
-            .map(l -> tabPattern.split(l, -1)) // -1 to keep trailing empty strings
-            .collect(Collectors.toList())
-    ).get();
-    forkJoinPool.shutdown();
-
-    reader.close();
-
+    List<String[]> library = readLibrary(libraryPath);
     Map<String, Integer> columnNameToIndex = getColumnIndexMap(libraryPath, "PrecursorMz", library.get(0));
 
     int columnIdx = columnNameToIndex.get("ModifiedPeptideSequence");
@@ -311,18 +298,7 @@ public class PlexDiaHelper {
   }
 
   void pairAndWriteReport(Path libraryPath, Path diannReportPath, Path outputDirectory) throws Exception {
-    BufferedReader reader = Files.newBufferedReader(libraryPath);
-    ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    List<String[]> library = forkJoinPool.submit(() ->
-        reader.lines()
-            .parallel()
-            .filter(l -> !l.isEmpty())
-            .map(l -> tabPattern.split(l, -1)) // -1 to keep trailing empty strings
-            .collect(Collectors.toList())
-    ).get();
-    forkJoinPool.shutdown();
-    reader.close();
-
+    List<String[]> library = readLibrary(libraryPath);
     Map<String, Integer> columnNameToIndex = getColumnIndexMap(libraryPath, "PrecursorMz", library.get(0));
 
     int columnIdx = columnNameToIndex.get("ModifiedPeptideSequence");
@@ -417,16 +393,12 @@ public class PlexDiaHelper {
     }
 
     Table<String, String, IonPair> ionRunPairTable = TreeBasedTable.create();
-    for (Future<Table<String, String, IonPair>> future : futureList) {
-      ionRunPairTable.putAll(Tables.transpose(future.get()));
-    }
-
-    executorService.shutdown();
-    if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-      executorService.shutdownNow();
-      if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-        throw new InterruptedException("Thread pool did not terminate normally.");
+    try {
+      for (Future<Table<String, String, IonPair>> future : futureList) {
+        ionRunPairTable.putAll(Tables.transpose(future.get()));
       }
+    } finally {
+      executorService.shutdownNow();
     }
 
     return ionRunPairTable;
@@ -485,25 +457,47 @@ public class PlexDiaHelper {
     return columnNameToIndex;
   }
 
+  /**
+   * Reads the library columns used by {@link #collectTransitions(List, Map)}, the first row is the
+   * header.
+   */
+  private List<String[]> readLibrary(Path libraryPath) throws Exception {
+    try (TsvReader reader = new TsvReader(libraryPath)) {
+      getColumnIndexMap(libraryPath, "PrecursorMz", reader.header());
+      int[] columns = reader.columns(LIBRARY_COLUMNS);
+      reader.select(columns);
+      List<String[]> library = new ArrayList<>();
+      library.add(LIBRARY_COLUMNS.clone());
+      for (List<String[]> rows : reader.scan(nThreads, ArrayList<String[]>::new, (rows, row) -> rows.add(row.getStrings(columns)))) {
+        library.addAll(rows);
+      }
+      return library;
+    }
+  }
+
   private Set<Float> collectAllMods(Set<String> modifiedPeptides) throws Exception {
     ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    Set<String> mods =  forkJoinPool.submit(() ->
-        modifiedPeptides.stream().parallel().flatMap(s -> {
-          Set<String> ttt = new HashSet<>();
-          if (!s.startsWith("n")) {
-            s = "n" + s;
-          }
-          Matcher aaMatcher = aaPattern.matcher(s);
-          while (aaMatcher.find()) {
-            if (aaMatcher.group(2) != null || aaMatcher.group(4) != null) {
-              ttt.add(aaMatcher.group());
+    final Set<String> mods;
+    try {
+      mods = forkJoinPool.submit(() ->
+          modifiedPeptides.stream().parallel().flatMap(s -> {
+            Set<String> ttt = new HashSet<>();
+            if (!s.startsWith("n")) {
+              s = "n" + s;
             }
-          }
-          return ttt.stream();
-        })
-        .collect(Collectors.toSet())
-    ).get();
-    forkJoinPool.shutdown();
+            Matcher aaMatcher = aaPattern.matcher(s);
+            while (aaMatcher.find()) {
+              if (aaMatcher.group(2) != null || aaMatcher.group(4) != null) {
+                ttt.add(aaMatcher.group());
+              }
+            }
+            return ttt.stream();
+          })
+          .collect(Collectors.toSet())
+      ).get();
+    } finally {
+      forkJoinPool.shutdownNow();
+    }
 
     Set<Float> modMasses = new HashSet<>();
     for (String mod : mods) {
@@ -570,18 +564,22 @@ public class PlexDiaHelper {
     int averageExperimentalRetentionTimeIdx = columnNameToIndex.get("AverageExperimentalRetentionTime");
 
     ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    Map<String, List<String[]>> transitionFragmentMap = forkJoinPool.submit(() ->
-        library.stream()
-            .skip(1)
-            .parallel()
-            .collect(Collectors.groupingBy(p ->
-                p[precursorMzIdx] + "-" +
-                correctModifiedPeptide(p[modifiedPeptideSequenceIdx]) + "-" +
-                p[precursorChargeIdx] + "-" +
-                p[normalizedRetentionTimeIdx] + "-" +
-                p[precursorIonMobilityIdx]))
-    ).get();
-    forkJoinPool.shutdown();
+    final Map<String, List<String[]>> transitionFragmentMap;
+    try {
+      transitionFragmentMap = forkJoinPool.submit(() ->
+          library.stream()
+              .skip(1)
+              .parallel()
+              .collect(Collectors.groupingBy(p ->
+                  p[precursorMzIdx] + "-" +
+                  correctModifiedPeptide(p[modifiedPeptideSequenceIdx]) + "-" +
+                  p[precursorChargeIdx] + "-" +
+                  p[normalizedRetentionTimeIdx] + "-" +
+                  p[precursorIonMobilityIdx]))
+      ).get();
+    } finally {
+      forkJoinPool.shutdownNow();
+    }
 
     List[] ttArray = transitionFragmentMap.values().toArray(new List[0]);
     ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
@@ -632,16 +630,12 @@ public class PlexDiaHelper {
     }
 
     Multimap<String, Transition> transitions = HashMultimap.create();
-    for (Future<Multimap<String, Transition>> future : futures) {
-      transitions.putAll(future.get());
-    }
-
-    executorService.shutdown();
-    if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-      executorService.shutdownNow();
-      if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-        throw new InterruptedException("Thread pool did not terminate normally.");
+    try {
+      for (Future<Multimap<String, Transition>> future : futures) {
+        transitions.putAll(future.get());
       }
+    } finally {
+      executorService.shutdownNow();
     }
 
     return transitions;
@@ -821,68 +815,45 @@ public class PlexDiaHelper {
   }
 
   private Map<String, String[]> readDiannReport(Path path, Table<String, String, IonEntry> diannTable) throws Exception {
-    BufferedReader reader = Files.newBufferedReader(path);
-    ForkJoinPool forkJoinPool = new ForkJoinPool(nThreads);
-    List<String[]> diann = forkJoinPool.submit(() ->
-        reader.lines()
-            .parallel()
-            .filter(l -> !l.isEmpty())
-            .map(l -> tabPattern.split(l, -1)) // -1 to keep trailing empty strings
-            .collect(Collectors.toList())
-    ).get();
-    forkJoinPool.shutdown();
-    reader.close();
-
-    Map<String, Integer> columnNameToIndex = getColumnIndexMap(path, "File.Name", diann.get(0));
-
-    int runIdx = columnNameToIndex.get("Run");
-    int modifiedSequenceIdx = columnNameToIndex.get("Modified.Sequence");
-    int strippedSequenceIdx = columnNameToIndex.get("Stripped.Sequence");
-    int precursorChargeIdx = columnNameToIndex.get("Precursor.Charge");
-    int rtIdx = columnNameToIndex.get("RT");
-    int precursorNormalisedIdx = columnNameToIndex.get("Precursor.Normalised");
-    int proteinGroupIdx = columnNameToIndex.get("Protein.Group");
-    int proteinIdsIdx = columnNameToIndex.get("Protein.Ids");
-    int proteinNamesIdx = columnNameToIndex.get("Protein.Names");
-    int genesIdx = columnNameToIndex.get("Genes");
-
-    forkJoinPool = new ForkJoinPool(nThreads);
-    List<IonEntry> ionEntryList = forkJoinPool.submit(() ->
-        diann.parallelStream()
-            .skip(1)
-            .map(l -> new IonEntry(
-                l[runIdx],
-                new Peptide(l[modifiedSequenceIdx]),
-                Byte.parseByte(l[precursorChargeIdx]),
-                Float.parseFloat(l[rtIdx]),
-                Float.parseFloat(l[precursorNormalisedIdx])
-            ))
-            .collect(Collectors.toList())
-    ).get();
-    forkJoinPool.shutdown();
-
-    for (IonEntry ionEntry : ionEntryList) {
-      IonEntry tt = diannTable.get(ionEntry.run, ionEntry.ion);
-      if (tt == null || tt.intensity < ionEntry.intensity) {
-        diannTable.put(ionEntry.run, ionEntry.ion, ionEntry);
-      }
+    List<Map.Entry<List<IonEntry>, Map<String, String[]>>> chunks;
+    try (TsvReader reader = new TsvReader(path)) {
+      getColumnIndexMap(path, "File.Name", reader.header());
+      int[] columns = reader.columns("Run", "Modified.Sequence", "Precursor.Charge", "RT", "Precursor.Normalised", "Stripped.Sequence", "Protein.Group", "Protein.Ids", "Protein.Names", "Genes");
+      reader.select(columns);
+      int runIdx = columns[0];
+      int modifiedSequenceIdx = columns[1];
+      int precursorChargeIdx = columns[2];
+      int rtIdx = columns[3];
+      int precursorNormalisedIdx = columns[4];
+      int strippedSequenceIdx = columns[5];
+      int[] proteinColumns = Arrays.copyOfRange(columns, 6, 10);
+
+      // Only the parsed entries are kept, not the rows. Each part of the file keeps the first protein columns of every sequence.
+      chunks = reader.scan(nThreads, () -> new SimpleEntry<>(new ArrayList<>(), new HashMap<>()), (acc, row) -> {
+        acc.getKey().add(new IonEntry(
+            row.getString(runIdx),
+            new Peptide(row.getString(modifiedSequenceIdx)),
+            Byte.parseByte(row.getString(precursorChargeIdx)),
+            row.getFloat(rtIdx),
+            row.getFloat(precursorNormalisedIdx)
+        ));
+        String strippedSequence = row.getString(strippedSequenceIdx);
+        if (!acc.getValue().containsKey(strippedSequence)) {
+          acc.getValue().put(strippedSequence, row.getStrings(proteinColumns));
+        }
+      });
     }
 
-    forkJoinPool = new ForkJoinPool(nThreads);
-    Map<String, String[]> sequenceProteinMap = forkJoinPool.submit(() ->
-        diann.parallelStream()
-            .skip(1)
-            .collect(Collectors.groupingBy(
-                l -> l[strippedSequenceIdx],
-                HashMap::new,
-                Collectors.mapping(l -> new String[]{
-                    l[proteinGroupIdx],
-                      l[proteinIdsIdx],
-                      l[proteinNamesIdx],
-                      l[genesIdx]},
-                    Collectors.collectingAndThen(Collectors.toList(), list -> list.get(0)))))
-    ).get();
-    forkJoinPool.shutdown();
+    Map<String, String[]> sequenceProteinMap = new HashMap<>();
+    for (Map.Entry<List<IonEntry>, Map<String, String[]>> chunk : chunks) {
+      for (IonEntry ionEntry : chunk.getKey()) {
+        IonEntry tt = diannTable.get(ionEntry.run, ionEntry.ion);
+        if (tt == null || tt.intensity < ionEntry.intensity) {
+          diannTable.put(ionEntry.run, ionEntry.ion, ionEntry);
+        }
+      }
+      chunk.getValue().forEach(sequenceProteinMap::putIfAbsent);
+    }
 
     return sequenceProteinMap;
   }
@@ -1021,27 +992,15 @@ public class PlexDiaHelper {
         }
 
         if (Math.abs(modMass) > 0 && !done) {
-          Set<Float> massSet = massSiteUnimodTable.rowKeySet().stream()
-              .filter(mass -> Math.abs(modMass - mass) < threshold)
-              .filter(mass -> massSiteUnimodTable.contains(mass, aa))
-              .collect(Collectors.toSet());
-
-          if (massSet.isEmpty()) {
+          int unimodId = unimodIndex.closestId(modMass, aa, threshold);
+          if (unimodId < 0) {
             if (i == 0) {
               sb.append("[").append(modMass).append("]");
             } else {
               sb.append("[").append(modMass + AAMasses[aa - 'A']).append("]");
             }
           } else {
-            float gap = Float.MAX_VALUE;
-            Float selectedKey = null;
-            for (Float v : massSet) {
-              if (Math.abs(modMass - v) < gap) {
-                gap = Math.abs(modMass - v);
-                selectedKey = v;
-              }
-            }
-            sb.append("(").append("UniMod:").append(massSiteUnimodTable.get(selectedKey, aa)).append(")");
+            sb.append("(").append("UniMod:").append(unimodId).append(")");
           }
         }
       }
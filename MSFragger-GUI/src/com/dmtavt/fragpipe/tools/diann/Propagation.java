@@ -20,17 +20,21 @@ package com.dmtavt.fragpipe.tools.diann;
 import static com.dmtavt.fragpipe.cmd.ToolingUtils.UNIMOD_OBO;
 import static com.dmtavt.fragpipe.cmd.ToolingUtils.getUnimodOboPath;
 
+import com.dmtavt.fragpipe.util.ArrowTableReader;
+import com.dmtavt.fragpipe.util.ArrowTableWriter;
+import com.dmtavt.fragpipe.util.ArrowTableWriter.Block;
+import com.dmtavt.fragpipe.util.TsvReader;
 import com.dmtavt.fragpipe.util.UnimodOboReader;
 import com.dmtavt.fragpipe.util.UnimodOboReader.Precursor;
 import com.google.common.collect.Table;
 import com.google.common.collect.TreeBasedTable;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,115 +43,148 @@ import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
 
 public class Propagation {
 
   private static final Pattern pattern = Pattern.compile("([ncA-Z]+):([\\d.-]+)");
 
   private final UnimodOboReader unimodOboReader;
+  private final int nThreads;
 
 
   public static void main(String[] args) {
+    int exitCode;
+    try {
+      exitCode = run(args, System.out, System.err);
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      exitCode = 1;
+    }
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) throws Exception {
     long startTime = System.nanoTime();
 
     Path wd = Paths.get(args[0].trim());
-    Path psmPath = null;
+    Path psmPath;
 
-    try {
-      List<Path> tt = Files.walk(wd).filter(Files::isRegularFile).filter(path -> path.getFileName().toString().equals("psm.tsv")).collect(Collectors.toList());
-      if (tt.isEmpty()) {
-        System.out.println("Could not find psm.tsv in " + wd);
-        System.exit(0);
-      } else if (tt.size() > 1) {
-        System.out.println("Found more than one psm.tsv in " + wd + " but the DIA workflow should only have one,");
-        System.exit(0);
-      } else {
-        psmPath = tt.get(0);
-      }
-
-      Propagation propagation = new Propagation();
-      propagation.propagate(psmPath, wd.resolve("diann-output"));
-    } catch (Exception ex) {
-      ex.printStackTrace();
-      System.exit(1);
+    List<Path> tt;
+    try (Stream<Path> files = Files.walk(wd)) {
+      tt = files.filter(Files::isRegularFile).filter(path -> path.getFileName().toString().equals("psm.tsv")).collect(Collectors.toList());
+    }
+    if (tt.isEmpty()) {
+      out.println("Could not find psm.tsv in " + wd);
+      return 0;
+    } else if (tt.size() > 1) {
+      out.println("Found more than one psm.tsv in " + wd + " but the DIA workflow should only have one,");
+      return 0;
+    } else {
+      psmPath = tt.get(0);
     }
 
-    System.out.printf("Done in %.2f seconds.\n", (System.nanoTime() - startTime) * 1e-9);
+    int nThreads = args.length > 1 ? Integer.parseInt(args[1].trim()) : Runtime.getRuntime().availableProcessors();
+    boolean arrow = args.length > 2 && args[2].trim().equalsIgnoreCase("arrow");
+    Propagation propagation = new Propagation(nThreads);
+    propagation.propagate(psmPath, wd.resolve("diann-output"), arrow);
+
+    out.printf("Done in %.2f seconds.\n", (System.nanoTime() - startTime) * 1e-9);
+    return 0;
   }
 
-  public Propagation() throws Exception {
+  public Propagation(int nThreads) throws Exception {
+    this.nThreads = Math.max(1, nThreads);
     Path unimodPath = getUnimodOboPath(UNIMOD_OBO);
     unimodOboReader = new UnimodOboReader(unimodPath);
   }
 
   public void propagate(Path psm_path, Path diann_directory) throws Exception {
+    propagate(psm_path, diann_directory, false);
+  }
+
+  /**
+   * @param arrow Edit report.arrow instead of report.tsv. report.pr_matrix.tsv is edited either way.
+   */
+  public void propagate(Path psm_path, Path diann_directory, boolean arrow) throws Exception {
     TreeBasedTable<Precursor, String, LocalizedPeptide> precursorModificationLocalizationTable = TreeBasedTable.create();
     Map<Precursor, String[]> precursorProteinGeneMap = new TreeMap<>();
 
-    int scanNameColumnIdx = -1;
-    int peptideColumnIdx = -1;
-    int assignedModificationsColumnIdx = -1;
-    int chargeColumnIdx = -1;
-    int proteinColumnIdx = -1;
-    int geneColumnIdx = -1;
-    int mappedProteinsColumnIdx = -1;
-    int mappedGenesColumnIdx = -1;
-    Map<String, Integer> modificationColumnIdxMap = new TreeMap<>();
-
-    String line;
-    BufferedReader reader = Files.newBufferedReader(psm_path);
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
-
-      String[] parts = line.split("\t");
-      if (line.startsWith("Spectrum\tSpectrum File\t")) {
-        for (int i = 0; i < parts.length; ++i) {
-          if (parts[i].trim().contentEquals("Spectrum")) {
+    try (TsvReader reader = new TsvReader(psm_path)) {
+      String[] header = reader.header();
+      int scanNameColumnIdx = -1;
+      int peptideColumnIdx = -1;
+      int assignedModificationsColumnIdx = -1;
+      int chargeColumnIdx = -1;
+      int proteinColumnIdx = -1;
+      int geneColumnIdx = -1;
+      int mappedProteinsColumnIdx = -1;
+      int mappedGenesColumnIdx = -1;
+      Map<String, Integer> modificationColumnIdxMap = new TreeMap<>();
+
+      if (header[0].equals("Spectrum") && header.length > 1 && header[1].equals("Spectrum File")) {
+        for (int i = 0; i < header.length; ++i) {
+          if (header[i].trim().contentEquals("Spectrum")) {
             scanNameColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Peptide")) {
+          } else if (header[i].trim().contentEquals("Peptide")) {
             peptideColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Assigned Modifications")) {
+          } else if (header[i].trim().contentEquals("Assigned Modifications")) {
             assignedModificationsColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Charge")) {
+          } else if (header[i].trim().contentEquals("Charge")) {
             chargeColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Protein")) {
+          } else if (header[i].trim().contentEquals("Protein")) {
             proteinColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Gene")) {
+          } else if (header[i].trim().contentEquals("Gene")) {
             geneColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Mapped Proteins")) {
+          } else if (header[i].trim().contentEquals("Mapped Proteins")) {
             mappedProteinsColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Mapped Genes")) {
+          } else if (header[i].trim().contentEquals("Mapped Genes")) {
             mappedGenesColumnIdx = i;
           } else {
-            Matcher matcher = pattern.matcher(parts[i].trim());
+            Matcher matcher = pattern.matcher(header[i].trim());
             if (matcher.matches()) {
-              modificationColumnIdxMap.put(parts[i].trim(), i);
+              modificationColumnIdxMap.put(header[i].trim(), i);
             }
           }
         }
-      } else {
-        if (scanNameColumnIdx < 0 ||
-            peptideColumnIdx < 0 ||
-            assignedModificationsColumnIdx < 0 ||
-            chargeColumnIdx < 0 ||
-            proteinColumnIdx < 0 ||
-            geneColumnIdx < 0 ||
-            mappedProteinsColumnIdx < 0 ||
-            mappedGenesColumnIdx < 0) {
-          System.err.println("Missing column in " + psm_path + ": " + line);
-          System.exit(1);
-        }
+      }
 
-        Precursor precursor = unimodOboReader.convertPrecursor(parts[peptideColumnIdx].trim(), parts[assignedModificationsColumnIdx].trim(), Integer.parseInt(parts[chargeColumnIdx]));
+      if (scanNameColumnIdx < 0 ||
+          peptideColumnIdx < 0 ||
+          assignedModificationsColumnIdx < 0 ||
+          chargeColumnIdx < 0 ||
+          proteinColumnIdx < 0 ||
+          geneColumnIdx < 0 ||
+          mappedProteinsColumnIdx < 0 ||
+          mappedGenesColumnIdx < 0) {
+        throw new IllegalStateException("Missing column in " + psm_path + ": " + String.join("\t", header));
+      }
+
+      final int scanNameIdx = scanNameColumnIdx;
+      final int peptideIdx = peptideColumnIdx;
+      final int assignedModificationsIdx = assignedModificationsColumnIdx;
+      final int chargeIdx = chargeColumnIdx;
+      final int proteinIdx = proteinColumnIdx;
+      final int geneIdx = geneColumnIdx;
+      final int mappedProteinsIdx = mappedProteinsColumnIdx;
+      final int mappedGenesIdx = mappedGenesColumnIdx;
+      reader.forEach(row -> {
+        Precursor precursor = unimodOboReader.convertPrecursor(row.getString(peptideIdx).trim(), row.getString(assignedModificationsIdx).trim(), row.getInt(chargeIdx));
 
         for (Map.Entry<String, Integer> e : modificationColumnIdxMap.entrySet()) {
-          if (parts[e.getValue()].trim().isEmpty()) {
+          if (row.isBlank(e.getValue())) {
             continue;
           }
-          LocalizedPeptide localizedPeptide1 = new LocalizedPeptide(parts[e.getValue()].trim(), parts[scanNameColumnIdx].trim(), 0.75f); // Use 0.75 to get the number of confidently localized sites
+          LocalizedPeptide localizedPeptide1 = new LocalizedPeptide(row.getString(e.getValue()).trim(), row.getString(scanNameIdx).trim(), 0.75f); // Use 0.75 to get the number of confidently localized sites
           LocalizedPeptide localizedPeptide2 = precursorModificationLocalizationTable.get(precursor, e.getKey());
           if (localizedPeptide2 == null || localizedPeptide2.compareTo(localizedPeptide1) < 0) {
             precursorModificationLocalizationTable.put(precursor, e.getKey(), localizedPeptide1);
@@ -155,22 +192,22 @@ public class Propagation {
         }
 
         Set<String> allMappedProteins = new TreeSet<>();
-        if (!parts[proteinColumnIdx].trim().isEmpty()) {
-          allMappedProteins.add(parts[proteinColumnIdx].trim());
+        if (!row.isBlank(proteinIdx)) {
+          allMappedProteins.add(row.getString(proteinIdx).trim());
         }
-        if (parts.length > mappedProteinsColumnIdx && !parts[mappedProteinsColumnIdx].trim().isEmpty()) {
-          for (String s : parts[mappedProteinsColumnIdx].trim().split(",")) {
+        if (!row.isBlank(mappedProteinsIdx)) {
+          for (String s : row.getString(mappedProteinsIdx).trim().split(",")) {
             allMappedProteins.add(s.trim());
           }
         }
         String allMappedProteinsStr = String.join(",", allMappedProteins);
 
         Set<String> allMappedGenes = new TreeSet<>();
-        if (!parts[geneColumnIdx].trim().isEmpty()) {
-          allMappedGenes.add(parts[geneColumnIdx].trim());
+        if (!row.isBlank(geneIdx)) {
+          allMappedGenes.add(row.getString(geneIdx).trim());
         }
-        if (parts.length > mappedGenesColumnIdx && !parts[mappedGenesColumnIdx].trim().isEmpty()) {
-          for (String s : parts[mappedGenesColumnIdx].trim().split(",")) {
+        if (!row.isBlank(mappedGenesIdx)) {
+          for (String s : row.getString(mappedGenesIdx).trim().split(",")) {
             allMappedGenes.add(s.trim());
           }
         }
@@ -180,14 +217,16 @@ public class Propagation {
         if (ss == null) {
           precursorProteinGeneMap.put(precursor, new String[]{allMappedProteinsStr, allMappedGenesStr});
         } else if (!ss[0].contentEquals(allMappedProteinsStr) || !ss[1].contentEquals(allMappedGenesStr)) {
-          System.err.println("Inconsistent protein or gene mapping for " + precursor + " in " + psm_path + ": " + ss[0] + " vs " + allMappedProteinsStr + ", " + ss[1] + " vs " + allMappedGenesStr);
-          System.exit(1);
+          throw new IllegalStateException("Inconsistent protein or gene mapping for " + precursor + " in " + psm_path + ": " + ss[0] + " vs " + allMappedProteinsStr + ", " + ss[1] + " vs " + allMappedGenesStr);
         }
-      }
+      });
     }
-    reader.close();
 
-    editReport(diann_directory.resolve("report.tsv"), precursorModificationLocalizationTable, precursorProteinGeneMap, 1);
+    if (arrow) {
+      editArrowReport(diann_directory.resolve("report.arrow"), precursorModificationLocalizationTable, precursorProteinGeneMap);
+    } else {
+      editReport(diann_directory.resolve("report.tsv"), precursorModificationLocalizationTable, precursorProteinGeneMap, 1);
+    }
     editReport(diann_directory.resolve("report.pr_matrix.tsv"), precursorModificationLocalizationTable, precursorProteinGeneMap, 2);
   }
 
@@ -203,104 +242,165 @@ public class Propagation {
     }
     Path p2 = p.getParent().resolve(s);
 
-    int strippedSequenceColumnIdx = -1;
-    int modifiedSequenceColumnIdx = -1;
-    int chargeColumnIdx = -1;
-
-    String line;
-    String[] columnArray = null;
-    BufferedWriter writer = Files.newBufferedWriter(p2);
-    BufferedReader reader = Files.newBufferedReader(p);
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
-
-      String[] parts = line.split("\t");
-      if (line.startsWith(firstLineMarker)) {
-        for (int i = 0; i < parts.length; ++i) {
-          if (parts[i].trim().contentEquals("Stripped.Sequence")) {
+    String[] modificationArray = precursorModificationLocalizationTable.columnKeySet().toArray(new String[0]);
+    try (TsvReader reader = new TsvReader(p); BufferedWriter writer = Files.newBufferedWriter(p2)) {
+      String[] header = reader.header();
+      int strippedSequenceColumnIdx = -1;
+      int modifiedSequenceColumnIdx = -1;
+      int chargeColumnIdx = -1;
+      if (String.join("\t", header).startsWith(firstLineMarker)) {
+        for (int i = 0; i < header.length; ++i) {
+          if (header[i].trim().contentEquals("Stripped.Sequence")) {
             strippedSequenceColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Modified.Sequence")) {
+          } else if (header[i].trim().contentEquals("Modified.Sequence")) {
             modifiedSequenceColumnIdx = i;
-          } else if (parts[i].trim().contentEquals("Precursor.Charge")) {
+          } else if (header[i].trim().contentEquals("Precursor.Charge")) {
             chargeColumnIdx = i;
           }
         }
+      }
 
-        columnArray = new String[parts.length];
-        System.arraycopy(parts, 0, columnArray, 0, parts.length);
-
-        writer.write(line);
-        writer.write("\tAll Mapped Proteins\tAll Mapped Genes");
-
-        if (!precursorModificationLocalizationTable.isEmpty()) {
-          String[] modificationArray = precursorModificationLocalizationTable.columnKeySet().toArray(new String[0]);
-          for (String modification : modificationArray) {
-            writer.write("\t");
-            writer.write(modification);
-            writer.write("\t");
-            writer.write(modification + " Best Localization");
-            writer.write("\t");
-            writer.write(modification + " Best Scan");
-          }
-        }
+      if (strippedSequenceColumnIdx < 0 || modifiedSequenceColumnIdx < 0 || chargeColumnIdx < 0) {
+        throw new IllegalStateException(String.format("Missing %s, %s, or %s in %s.", "Stripped.Sequence", "Modified.Sequence", "Charge", p));
+      }
 
-        writer.write("\n");
-      } else {
-        if (strippedSequenceColumnIdx < 0 || modifiedSequenceColumnIdx < 0 || chargeColumnIdx < 0) {
-          System.err.printf("Missing %s, %s, or %s in %s.", "Stripped.Sequence", "Modified.Sequence", "Charge", p);
-          System.exit(1);
-        }
+      writer.write(String.join("\t", header));
+      writer.write("\tAll Mapped Proteins\tAll Mapped Genes");
+      for (String modification : modificationArray) {
+        writer.write("\t");
+        writer.write(modification);
+        writer.write("\t");
+        writer.write(modification + " Best Localization");
+        writer.write("\t");
+        writer.write(modification + " Best Scan");
+      }
+      writer.write("\n");
 
+      final int strippedSequenceIdx = strippedSequenceColumnIdx;
+      final int modifiedSequenceIdx = modifiedSequenceColumnIdx;
+      final int chargeIdx = chargeColumnIdx;
+      // Rows are edited in parallel blocks, written in the original order.
+      reader.scanOrdered(nThreads, StringBuilder::new, (sb, row) -> {
         // Make sure that all rows have the same number of columns.
-        Arrays.fill(columnArray, "");
-        System.arraycopy(line.split("\t"), 0, columnArray, 0, parts.length);
-        writer.write(String.join("\t", columnArray));
+        for (int i = 0; i < header.length; ++i) {
+          if (i > 0) {
+            sb.append("\t");
+          }
+          sb.append(row.getString(i));
+        }
 
-        Precursor precursor = new Precursor(parts[modifiedSequenceColumnIdx], parts[strippedSequenceColumnIdx].length(), Integer.parseInt(parts[chargeColumnIdx]), unimodOboReader.unimodMassMap);
+        Precursor precursor = new Precursor(row.getString(modifiedSequenceIdx), row.getString(strippedSequenceIdx).length(), row.getInt(chargeIdx), unimodOboReader.unimodMassMap);
 
         String[] ss = precursorProteinGeneMap.get(precursor);
         if (ss == null) {
-          writer.write("\t\t");
+          sb.append("\t\t");
         } else {
-          writer.write("\t");
-          writer.write(ss[0]);
-          writer.write("\t");
-          writer.write(ss[1]);
+          sb.append("\t");
+          sb.append(ss[0]);
+          sb.append("\t");
+          sb.append(ss[1]);
         }
 
-        if (!precursorModificationLocalizationTable.isEmpty()) {
-          String[] modificationArray = precursorModificationLocalizationTable.columnKeySet().toArray(new String[0]);
+        if (modificationArray.length > 0) {
           Map<String, LocalizedPeptide> tt = precursorModificationLocalizationTable.row(precursor);
           if (tt.isEmpty()) {
             for (int i = 0; i < modificationArray.length; ++i) {
-              writer.write("\t\t\t");
+              sb.append("\t\t\t");
             }
           } else {
             for (String modification : modificationArray) {
-              writer.write("\t");
+              sb.append("\t");
               LocalizedPeptide localizedPeptide = tt.get(modification);
               if (localizedPeptide == null) {
-                writer.write("\t\t");
+                sb.append("\t\t");
               } else {
-                writer.write(localizedPeptide.localizedPeptide);
-                writer.write("\t");
-                writer.write(String.valueOf(localizedPeptide.getBestLocalization()));
-                writer.write("\t");
-                writer.write(localizedPeptide.scanName);
+                sb.append(localizedPeptide.localizedPeptide);
+                sb.append("\t");
+                sb.append(String.valueOf(localizedPeptide.getBestLocalization()));
+                sb.append("\t");
+                sb.append(localizedPeptide.scanName);
               }
             }
           }
         }
 
-        writer.write("\n");
-      }
+        sb.append("\n");
+      }, writer::append);
     }
 
-    reader.close();
-    writer.close();
+    Files.move(p2, p, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Same as {@link #editReport} for a report in Arrow format. The columns of the report are moved
+   * to the new file as they are, only the added columns are built.
+   */
+  private void editArrowReport(Path p, Table<Precursor, String, LocalizedPeptide> precursorModificationLocalizationTable, Map<Precursor, String[]> precursorProteinGeneMap) throws Exception {
+    Path p2 = p.getParent().resolve("report2.arrow");
+
+    String[] modificationArray = precursorModificationLocalizationTable.columnKeySet().toArray(new String[0]);
+    try (BufferAllocator allocator = new RootAllocator(); ArrowTableReader reader = new ArrowTableReader(p, allocator)) {
+      String[] header = reader.header();
+      int strippedSequenceIdx = -1;
+      int modifiedSequenceIdx = -1;
+      int chargeIdx = -1;
+      if (header.length > 1 && header[0].equals("File.Name") && header[1].equals("Run")) {
+        strippedSequenceIdx = reader.column("Stripped.Sequence");
+        modifiedSequenceIdx = reader.column("Modified.Sequence");
+        chargeIdx = reader.column("Precursor.Charge");
+      }
+
+      if (strippedSequenceIdx < 0 || modifiedSequenceIdx < 0 || chargeIdx < 0) {
+        throw new IllegalStateException(String.format("Missing %s, %s, or %s in %s.", "Stripped.Sequence", "Modified.Sequence", "Charge", p));
+      }
+
+      List<Field> fields = new ArrayList<>(reader.schema().getFields());
+      fields.add(ArrowTableWriter.utf8("All Mapped Proteins"));
+      fields.add(ArrowTableWriter.utf8("All Mapped Genes"));
+      for (String modification : modificationArray) {
+        fields.add(ArrowTableWriter.utf8(modification));
+        fields.add(ArrowTableWriter.float64(modification + " Best Localization"));
+        fields.add(ArrowTableWriter.utf8(modification + " Best Scan"));
+      }
+
+      final int strippedSequenceColumn = strippedSequenceIdx;
+      final int modifiedSequenceColumn = modifiedSequenceIdx;
+      final int chargeColumn = chargeIdx;
+      try (ArrowTableWriter writer = new ArrowTableWriter(p2, new Schema(fields), allocator)) {
+        // Record batches are edited in parallel and written in the original order.
+        reader.scanBatches(nThreads, batch -> {
+          Block block = writer.newBlock();
+          ArrowTableReader.Row row = batch.row();
+          for (int r = 0; r < batch.rowCount(); ++r) {
+            row.at(r);
+            Precursor precursor = new Precursor(row.getString(modifiedSequenceColumn), row.getString(strippedSequenceColumn).length(), row.getInt(chargeColumn), unimodOboReader.unimodMassMap);
+            int column = header.length;
+
+            String[] ss = precursorProteinGeneMap.get(precursor);
+            if (ss != null) {
+              block.setString(column, r, ss[0]);
+              block.setString(column + 1, r, ss[1]);
+            }
+            column += 2;
+
+            Map<String, LocalizedPeptide> tt = precursorModificationLocalizationTable.row(precursor);
+            for (String modification : modificationArray) {
+              LocalizedPeptide localizedPeptide = tt.get(modification);
+              if (localizedPeptide != null) {
+                block.setString(column, r, localizedPeptide.localizedPeptide);
+                block.setDouble(column + 1, r, Double.parseDouble(String.valueOf(localizedPeptide.getBestLocalization())));
+                block.setString(column + 2, r, localizedPeptide.scanName);
+              }
+              column += 3;
+            }
+          }
+          for (int i = 0; i < header.length; ++i) {
+            block.transfer(i, batch.vector(i));
+          }
+          return block;
+        }, writer::write);
+      }
+    }
 
     Files.move(p2, p, StandardCopyOption.REPLACE_EXISTING);
   }
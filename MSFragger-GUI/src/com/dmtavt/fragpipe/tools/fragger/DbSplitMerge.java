@@ -0,0 +1,1039 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.fragger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines the pepXML and PIN files of the slices of a split database search into the files a
+ * search of the whole database would have produced. Hits of a spectrum are re-ranked by the expect
+ * value from the combined score histograms, and the protein lists of peptides found in several
+ * slices are united.
+ * <p>
+ * The slices are read side by side, one spectrum at a time, instead of loading them whole. Files
+ * are handled as ISO-8859-1 so that every byte is written back unchanged.
+ */
+public class DbSplitMerge {
+
+  private static final Pattern QUERY_INDEX = Pattern.compile("^<spectrum_query .+? index=\"(.+?)\" ");
+  private static final Pattern HIT_FIRST_LINE = Pattern.compile("(?<=hit_rank=\")(\\d+)(?=\" )|(?<=protein=\")(.+?)(?=\" )");
+  private static final Pattern MASSDIFF_SCORES = Pattern.compile("<search_hit .*? massdiff=\"(.+?)\".*(?s:.*?)\n"
+      + "<search_score name=\"hyperscore\" value=\"(.+?)\"/>\n"
+      + "<search_score name=\"nextscore\" value=\"(.+?)\"/>\n");
+  private static final Pattern UPDATE_HIT = Pattern.compile("\\A(.+hit_rank=\")(?:.+?)(\"(?s:.+?))\n"
+      + "<search_score name=\"hyperscore\" value=\"(?:.+?)\"/>\n"
+      + "<search_score name=\"nextscore\" value=\"(?:.+?)\"/>\n"
+      + "<search_score name=\"expect\" value=\"(?:.+?)\"/>\n"
+      + "((?s:.+))\\z");
+  private static final Pattern SH_PEPTIDE = Pattern.compile(" peptide=\"(.+?)\"");
+  private static final Pattern SH_PROTEIN_DESCR = Pattern.compile("protein_descr=\"(.*?)\"");
+  private static final Pattern SH_PROTEIN = Pattern.compile("protein=\"(.+?)\"");
+  private static final Pattern SH_PREV_AA = Pattern.compile("peptide_prev_aa=\"(.+?)\"");
+  private static final Pattern SH_NEXT_AA = Pattern.compile("peptide_next_aa=\"(.+?)\"");
+  private static final Pattern SH_NUM_TOL_TERM = Pattern.compile("num_tol_term=\"(.+?)\"");
+  private static final Pattern SH_ALT_PROTEINS = Pattern.compile("<alternative_protein.*(?:\n<alternative_protein.*)*");
+  private static final Pattern SH_NUM_TOT_PROTEINS = Pattern.compile("num_tot_proteins=\"(.+?)\"");
+  private static final Pattern HEADER_VALUES = Pattern.compile("(?:date|summary_xml)=\"(.+?)\"");
+  private static final Pattern QUERY_SPECTRUM = Pattern.compile("<spectrum_query .*assumed_charge=\"(\\d+?)\" .*spectrum=\"(.+?)\" .*index=\"(\\d+?)\"");
+  private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+  private static final int PROGRESS_EVERY = 1 << 14;
+
+  private final Path tempDir;
+  private final List<Path> partDirs = new ArrayList<>();
+  private final String ext;
+  private final int topN;
+  private final double maxExpect;
+  private final String fastaName;
+  private final String fastaPath;
+
+  /**
+   * @param tempDir Directory with the combined score histograms and expect functions, the results
+   *     of slice {@code i} are in its subdirectory {@code i}.
+   * @param fasta The whole database, as given in the params file.
+   */
+  public DbSplitMerge(Path tempDir, int numParts, String ext, int topN, double maxExpect, String fasta) {
+    this.tempDir = tempDir;
+    for (int i = 0; i < numParts; ++i) {
+      partDirs.add(tempDir.resolve(Integer.toString(i)));
+    }
+    this.ext = ext;
+    this.topN = topN;
+    this.maxExpect = maxExpect;
+    this.fastaName = latin1(Paths.get(fasta).getFileName().toString());
+    this.fastaPath = latin1(Paths.get(fasta).toString());
+  }
+
+  /**
+   * Writes the combined pepXML file(s) of one LC-MS file next to it.
+   */
+  public void writePepxml(Path infile, PrintStream out) throws IOException {
+    final List<List<Path>> ranks = pepxmls(infile);
+    final Map<String, List<Prot>> pepToProt = pepToProt(ranks);
+    final List<double[]> expect = expectFunctions(infile);
+    final String stem = stem(infile);
+    if (ranks.size() == 1 && ranks.get(0).get(0).getFileName().toString().equals(stem + "." + ext)) {
+      writePepxml(sibling(infile, stem + "." + ext), ranks.get(0), expect, pepToProt, out);
+    } else {
+      for (int rank = 1; rank <= ranks.size(); ++rank) {
+        writePepxml(sibling(infile, stem + "_rank" + rank + "." + ext), ranks.get(rank - 1), expect, pepToProt, out);
+      }
+    }
+  }
+
+  /**
+   * Per rank, the pepXML files of all the slices.
+   */
+  private List<List<Path>> pepxmls(Path infile) {
+    final String stem = stem(infile);
+    final List<Path> noRank = new ArrayList<>();
+    for (Path dir : partDirs) {
+      noRank.add(dir.resolve(stem + "." + ext));
+    }
+    if (allExist(noRank)) {
+      return Collections.singletonList(noRank);
+    }
+    final List<List<Path>> ranks = new ArrayList<>();
+    for (int rank = 1; ; ++rank) {
+      final List<Path> parts = new ArrayList<>();
+      for (Path dir : partDirs) {
+        parts.add(dir.resolve(stem + "_rank" + rank + "." + ext));
+      }
+      if (!allExist(parts)) {
+        return ranks;
+      }
+      ranks.add(parts);
+    }
+  }
+
+  private static boolean allExist(List<Path> paths) {
+    final long n = paths.stream().filter(Files::exists).count();
+    if (n != 0 && n != paths.size()) {
+      throw new IllegalStateException("Only some of the slices have results: " + paths);
+    }
+    return n == paths.size();
+  }
+
+  private static Map<String, List<Prot>> pepToProt(List<List<Path>> ranks) throws IOException {
+    final Map<String, Set<Prot>> sets = new HashMap<>();
+    for (List<Path> parts : ranks) {
+      for (Path part : parts) {
+        try (LineReader reader = new LineReader(part)) {
+          final StringBuilder hit = new StringBuilder();
+          boolean inHit = false;
+          for (String line; (line = reader.next()) != null; ) {
+            if (!inHit && line.startsWith("<search_hit")) {
+              inHit = true;
+              hit.setLength(0);
+              hit.append(line);
+            } else if (inHit) {
+              hit.append('\n');
+              if (line.startsWith("</search_hit>")) {
+                hit.append("</search_hit>");
+                final String sh = hit.toString();
+                sets.computeIfAbsent(peptide(sh), k -> new TreeSet<>()).addAll(prots(sh));
+                inHit = false;
+              } else {
+                hit.append(line);
+              }
+            }
+          }
+        }
+      }
+    }
+    final Map<String, List<Prot>> pepToProt = new HashMap<>(sets.size() * 2);
+    sets.forEach((k, v) -> pepToProt.put(k, new ArrayList<>(v)));
+    return pepToProt;
+  }
+
+  /**
+   * One row per spectrum: a0, a1 and the lower limit of {@code expect = 10^(a0 + a1 * hyperscore)}.
+   */
+  private List<double[]> expectFunctions(Path infile) throws IOException {
+    final List<double[]> rows = new ArrayList<>();
+    for (String line : Files.readAllLines(tempDir.resolve(stem(infile) + "_expectscore.tsv"), StandardCharsets.ISO_8859_1)) {
+      final String s = line.trim();
+      if (s.isEmpty() || s.startsWith("#")) {
+        continue;
+      }
+      final String[] values = s.split("\\s+");
+      rows.add(new double[]{Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2])});
+    }
+    return rows;
+  }
+
+  private static double expect(double[] f, double hyperscore) {
+    return Math.max(StrictMath.pow(10, f[0] + f[1] * hyperscore), f[2]);
+  }
+
+  private void writePepxml(Path outfile, List<Path> parts, List<double[]> expect,
+      Map<String, List<Prot>> pepToProt, PrintStream out) throws IOException {
+    String header = null;
+    for (Path part : parts) {
+      final String h = headerTemplate(part);
+      if (header != null && !header.equals(h)) {
+        throw new IllegalStateException("pepXML headers of the slices differ: " + parts);
+      }
+      header = h;
+    }
+    final String outStem = stem(outfile);
+    final List<QueryReader> readers = new ArrayList<>();
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(outfile), StandardCharsets.ISO_8859_1), 1 << 20)) {
+      for (Path part : parts) {
+        readers.add(new QueryReader(part));
+      }
+      w.write(fillHeader(header, latin1(LocalDateTime.now().format(DATE)), latin1(outfile.toString())));
+      w.write('\n');
+      final SpectrumQuery[] queries = new SpectrumQuery[parts.size()];
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < expect.size(); ++i) {
+        for (int j = 0; j < queries.length; ++j) {
+          queries[j] = readers.get(j).next();
+        }
+        sb.setLength(0);
+        mergeSpectrum(expect.get(i), queries, pepToProt, sb);
+        w.append(sb);
+        if (i % PROGRESS_EVERY == 0) {
+          out.println("Writing: " + outStem + "\tspectrum: " + i);
+        }
+      }
+      w.write("</msms_run_summary>\n</msms_pipeline_analysis>\n");
+    } finally {
+      for (QueryReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Everything up to the end of the search summary, with the values of {@code date} and
+   * {@code summary_xml} replaced by {@code \0} and the full path of the database.
+   */
+  private String headerTemplate(Path pepxml) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    try (LineReader reader = new LineReader(pepxml)) {
+      for (String line; (line = reader.next()) != null; ) {
+        if (line.startsWith("</search_summary>") && sb.length() > 0) {
+          sb.append("</search_summary>");
+          final Matcher m = HEADER_VALUES.matcher(sb);
+          final StringBuffer replaced = new StringBuffer();
+          while (m.find()) {
+            m.appendReplacement(replaced, "");
+            replaced.append(sb, m.start(), m.start(1)).append('\0').append('"');
+          }
+          m.appendTail(replaced);
+          return replaced.toString().replace('"' + fastaName + '"', '"' + fastaPath + '"');
+        }
+        sb.append(line).append('\n');
+      }
+    }
+    throw new IllegalStateException("No search summary in " + pepxml);
+  }
+
+  private static String fillHeader(String template, String date, String outfile) {
+    final String[] parts = template.split("\0", -1);
+    if (parts.length != 3) {
+      throw new IllegalStateException("Expected a date and summary_xml in the pepXML header, found " + (parts.length - 1) + " values");
+    }
+    return parts[0] + date + parts[1] + outfile + parts[2];
+  }
+
+  private static final class Hit {
+
+    final int part;
+    final String xml;
+    double massdiff;
+    double hyperscore;
+    double nextscore;
+    double expect;
+
+    Hit(int part, String xml) {
+      this.part = part;
+      this.xml = xml;
+    }
+  }
+
+  /**
+   * Appends the combined spectrum query, or nothing if no hit is good enough.
+   */
+  void mergeSpectrum(double[] expectFunction, SpectrumQuery[] queries, Map<String, List<Prot>> pepToProt, StringBuilder out) {
+    final Map<String, Hit> unique = new LinkedHashMap<>();
+    boolean any = false;
+    for (int part = 0; part < queries.length; ++part) {
+      if (queries[part] == null) {
+        continue;
+      }
+      any = true;
+      for (String xml : queries[part].hits()) {
+        final int eol = xml.indexOf('\n');
+        final String firstLine = eol < 0 ? xml : xml.substring(0, eol);
+        unique.putIfAbsent(HIT_FIRST_LINE.matcher(firstLine).replaceAll("{}"), new Hit(part, xml));
+      }
+    }
+    if (!any) {
+      return;
+    }
+
+    final List<Hit> hits = new ArrayList<>(unique.values());
+    for (Hit hit : hits) {
+      final Matcher m = MASSDIFF_SCORES.matcher(hit.xml);
+      if (!m.find()) {
+        throw new IllegalStateException("Could not find the scores of search hit:\n" + hit.xml);
+      }
+      hit.massdiff = Double.parseDouble(m.group(1));
+      hit.hyperscore = Double.parseDouble(m.group(2));
+      hit.nextscore = Double.parseDouble(m.group(3));
+      hit.expect = expect(expectFunction, hit.hyperscore);
+    }
+    hits.sort(Comparator.<Hit>comparingDouble(h -> h.expect)
+        .thenComparingDouble(h -> 1 / h.hyperscore)
+        .thenComparingDouble(h -> Math.abs(h.massdiff)));
+    int n = 0;
+    while (n < hits.size() && n < topN && hits.get(n).expect <= maxExpect) {
+      ++n;
+    }
+    if (n == 0) {
+      return;
+    }
+    final List<Hit> kept = hits.subList(0, n);
+    double minNextscore = kept.get(0).nextscore;
+    for (Hit hit : kept) {
+      minNextscore = Math.min(minNextscore, hit.nextscore);
+    }
+
+    out.append(queries[kept.get(0).part].head).append("\n<search_result>\n");
+    for (int i = 0; i < n; ++i) {
+      final Hit hit = kept.get(i);
+      final double nextscore = i + 1 < n ? kept.get(i + 1).hyperscore : minNextscore;
+      final String xml = updateHit(hit.xml, i + 1, hit.hyperscore, nextscore, hit.expect);
+      out.append(replaceProtList(xml, pepToProt.get(peptide(xml))));
+    }
+    out.append("</search_result>\n</spectrum_query>\n");
+  }
+
+  private static String updateHit(String xml, int rank, double hyperscore, double nextscore, double expect) {
+    final Matcher m = UPDATE_HIT.matcher(xml);
+    if (!m.find()) {
+      return xml;
+    }
+    return m.group(1) + rank + m.group(2) + "\n"
+        + "<search_score name=\"hyperscore\" value=\"" + fixed3(hyperscore) + "\"/>\n"
+        + "<search_score name=\"nextscore\" value=\"" + fixed3(nextscore) + "\"/>\n"
+        + "<search_score name=\"expect\" value=\"" + scientific3(expect) + "\"/>\n"
+        + m.group(3) + "\n";
+  }
+
+  static final class Prot implements Comparable<Prot> {
+
+    final String[] fields;
+
+    Prot(String descr, String protein, String prevAa, String nextAa, String numTolTerm) {
+      fields = new String[]{descr, protein, prevAa, nextAa, numTolTerm};
+    }
+
+    @Override
+    public int compareTo(Prot o) {
+      for (int i = 0; i < fields.length; ++i) {
+        final int c = fields[i].compareTo(o.fields[i]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Prot && Arrays.equals(fields, ((Prot) o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(fields);
+    }
+  }
+
+  private static String peptide(String xml) {
+    final List<String> peptides = findAll(SH_PEPTIDE, xml);
+    if (peptides.size() != 1) {
+      throw new IllegalStateException("Expected one peptide in search hit:\n" + xml);
+    }
+    return peptides.get(0);
+  }
+
+  static List<Prot> prots(String xml) {
+    final List<String> descr = findAll(SH_PROTEIN_DESCR, xml);
+    final List<String> protein = findAll(SH_PROTEIN, xml);
+    final List<String> prevAa = findAll(SH_PREV_AA, xml);
+    final List<String> nextAa = findAll(SH_NEXT_AA, xml);
+    final List<String> numTolTerm = findAll(SH_NUM_TOL_TERM, xml);
+    final int n = descr.size();
+    if (protein.size() != n || prevAa.size() != n || nextAa.size() != n || numTolTerm.size() != n) {
+      throw new IllegalStateException("Inconsistent protein attributes in search hit:\n" + xml);
+    }
+    final List<Prot> prots = new ArrayList<>(n);
+    for (int i = 0; i < n; ++i) {
+      prots.add(new Prot(descr.get(i), protein.get(i), prevAa.get(i), nextAa.get(i), numTolTerm.get(i)));
+    }
+    return prots;
+  }
+
+  private static List<String> findAll(Pattern p, String s) {
+    final List<String> found = new ArrayList<>();
+    final Matcher m = p.matcher(s);
+    while (m.find()) {
+      found.add(m.group(1));
+    }
+    return found;
+  }
+
+  /**
+   * Makes the search hit list all the proteins the peptide was found in by any of the slices.
+   */
+  static String replaceProtList(String xml, List<Prot> prots) {
+    final int original = prots(xml).size();
+    if (prots.size() == original) {
+      return xml;
+    }
+    if (prots.size() < original) {
+      throw new IllegalStateException("Fewer proteins than in the search hit:\n" + xml);
+    }
+    final Prot first = prots.get(0);
+    xml = replaceFirst(SH_PROTEIN_DESCR, xml, "protein_descr=\"" + first.fields[0] + "\"");
+    xml = replaceFirst(SH_PROTEIN, xml, "protein=\"" + first.fields[1] + "\"");
+    xml = replaceFirst(SH_PREV_AA, xml, "peptide_prev_aa=\"" + first.fields[2] + "\"");
+    xml = replaceFirst(SH_NEXT_AA, xml, "peptide_next_aa=\"" + first.fields[3] + "\"");
+    xml = replaceFirst(SH_NUM_TOL_TERM, xml, "num_tol_term=\"" + first.fields[4] + "\"");
+    final StringBuilder alt = new StringBuilder();
+    for (Prot prot : prots.subList(1, prots.size())) {
+      if (alt.length() > 0) {
+        alt.append('\n');
+      }
+      alt.append("<alternative_protein protein_descr=\"").append(prot.fields[0])
+          .append("\" protein=\"").append(prot.fields[1])
+          .append("\" peptide_prev_aa=\"").append(prot.fields[2])
+          .append("\" peptide_next_aa=\"").append(prot.fields[3])
+          .append("\" num_tol_term=\"").append(prot.fields[4]).append("\"/>");
+    }
+    xml = SH_ALT_PROTEINS.matcher(xml).replaceAll("");
+    xml = SH_NUM_TOT_PROTEINS.matcher(xml).replaceAll("num_tot_proteins=\"" + prots.size() + "\"");
+    final int eol = xml.indexOf('\n');
+    return xml.substring(0, eol) + "\n" + alt + "\n" + xml.substring(eol + 1);
+  }
+
+  private static String replaceFirst(Pattern p, String s, String replacement) {
+    return p.matcher(s).replaceFirst(Matcher.quoteReplacement(replacement));
+  }
+
+  /**
+   * Writes the combined PIN file of one LC-MS file next to it, if all the slices wrote one.
+   */
+  public void writePin(Path infile) throws IOException {
+    final String stem = stem(infile);
+    final List<Path> pins = new ArrayList<>();
+    for (Path dir : partDirs) {
+      pins.add(dir.resolve(stem + ".pin"));
+    }
+    if (!pins.stream().allMatch(Files::exists)) {
+      return;
+    }
+    final String[] header;
+    try (LineReader reader = new LineReader(pins.get(0))) {
+      header = splitTabs(reader.nextRow());
+    }
+    final PinColumns columns = new PinColumns(Arrays.asList(header));
+    final Map<String, Integer> specToIndex = specToIndex(pepxmls(infile));
+    final List<double[]> expect = columns.log10Evalue < 0 ? null : expectFunctions(infile);
+
+    // first pass: the proteins of every peptide, and whether the slices can be merged as they are
+    final Map<String, Set<String>> pepAltProt = new HashMap<>();
+    boolean sorted = true;
+    for (Path pin : pins) {
+      try (PinReader reader = new PinReader(pin, specToIndex)) {
+        for (PinGroup g; (g = reader.next()) != null; ) {
+          for (String[] row : g.rows) {
+            final Set<String> prots = pepAltProt.computeIfAbsent(row[columns.peptide], k -> new LinkedHashSet<>());
+            for (int i = columns.proteins; i < row.length; ++i) {
+              if (!row[i].isEmpty()) {
+                prots.add(row[i]);
+              }
+            }
+          }
+        }
+        sorted &= reader.isSorted;
+      }
+    }
+
+    final Path outfile = sibling(infile, stem + ".pin");
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(outfile), StandardCharsets.ISO_8859_1), 1 << 20)) {
+      w.write(String.join("\t", header));
+      w.write('\n');
+      if (sorted) {
+        mergeSortedPins(pins, specToIndex, columns, expect, pepAltProt, w);
+      } else {
+        mergePinsInMemory(pins, specToIndex, columns, expect, pepAltProt, w);
+      }
+    }
+  }
+
+  private static final class PinColumns {
+
+    final int proteins;
+    final int peptide;
+    final int rank;
+    final int hyperscore;
+    final int log10Evalue;
+    final int deltaHyperscore;
+    final int absPpm;
+
+    PinColumns(List<String> header) {
+      proteins = required(header, "Proteins");
+      peptide = required(header, "Peptide");
+      rank = required(header, "rank");
+      hyperscore = required(header, "hyperscore");
+      log10Evalue = header.indexOf("log10_evalue");
+      deltaHyperscore = header.indexOf("delta_hyperscore");
+      absPpm = header.indexOf("abs_ppm");
+    }
+
+    private static int required(List<String> header, String column) {
+      final int i = header.indexOf(column);
+      if (i < 0) {
+        throw new IllegalStateException("PIN file has no column " + column);
+      }
+      return i;
+    }
+  }
+
+  private static Map<String, Integer> specToIndex(List<List<Path>> ranks) throws IOException {
+    final Map<String, Integer> map = new HashMap<>();
+    for (List<Path> parts : ranks) {
+      for (Path part : parts) {
+        try (LineReader reader = new LineReader(part)) {
+          for (String line; (line = reader.next()) != null; ) {
+            if (!line.contains("<spectrum_query ")) {
+              continue;
+            }
+            final Matcher m = QUERY_SPECTRUM.matcher(line);
+            while (m.find()) {
+              final String spectrum = m.group(2);
+              map.put(spectrum.substring(0, spectrum.lastIndexOf('.')), Integer.parseInt(m.group(3)));
+            }
+          }
+        }
+      }
+    }
+    return map;
+  }
+
+  private static final class PinGroup {
+
+    final String key;
+    final int index;
+    final List<String[]> rows = new ArrayList<>();
+
+    PinGroup(String key, int index) {
+      this.key = key;
+      this.index = index;
+    }
+  }
+
+  /**
+   * Reads the rows of a PIN file grouped by spectrum. Notes whether the spectra come in the order
+   * of their pepXML index, each in one piece.
+   */
+  private static final class PinReader implements Closeable {
+
+    private final LineReader reader;
+    private final Map<String, Integer> specToIndex;
+    private final int specId;
+    private String[] pending;
+    boolean isSorted = true;
+    private int lastIndex = Integer.MIN_VALUE;
+
+    PinReader(Path pin, Map<String, Integer> specToIndex) throws IOException {
+      this.reader = new LineReader(pin);
+      this.specToIndex = specToIndex;
+      final String[] header = splitTabs(reader.nextRow());
+      this.specId = Arrays.asList(header).indexOf("SpecId");
+      if (specId < 0) {
+        throw new IllegalStateException("PIN file has no column SpecId: " + pin);
+      }
+      pending = nextRow();
+    }
+
+    private String[] nextRow() throws IOException {
+      for (String line; (line = reader.nextRow()) != null; ) {
+        if (!line.isEmpty()) {
+          return splitTabs(line);
+        }
+      }
+      return null;
+    }
+
+    private String key(String[] row) {
+      final String id = row[specId];
+      final int dot = id.lastIndexOf('.');
+      return dot < 0 ? id : id.substring(0, dot);
+    }
+
+    PinGroup next() throws IOException {
+      if (pending == null) {
+        return null;
+      }
+      final String key = key(pending);
+      final Integer index = specToIndex.get(key);
+      if (index == null) {
+        throw new IllegalStateException("Spectrum " + key + " from the PIN file is not in the pepXML files");
+      }
+      final PinGroup g = new PinGroup(key, index);
+      while (pending != null && key(pending).equals(key)) {
+        g.rows.add(pending);
+        pending = nextRow();
+      }
+      if (index <= lastIndex) {
+        isSorted = false;
+      }
+      lastIndex = index;
+      return g;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private void mergeSortedPins(List<Path> pins, Map<String, Integer> specToIndex, PinColumns columns,
+      List<double[]> expect, Map<String, Set<String>> pepAltProt, Writer w) throws IOException {
+    final List<PinReader> readers = new ArrayList<>();
+    try {
+      final PinGroup[] heads = new PinGroup[pins.size()];
+      for (int i = 0; i < pins.size(); ++i) {
+        readers.add(new PinReader(pins.get(i), specToIndex));
+        heads[i] = readers.get(i).next();
+      }
+      while (true) {
+        int min = Integer.MAX_VALUE;
+        for (PinGroup head : heads) {
+          if (head != null) {
+            min = Math.min(min, head.index);
+          }
+        }
+        if (min == Integer.MAX_VALUE) {
+          break;
+        }
+        final List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < heads.length; ++i) {
+          if (heads[i] != null && heads[i].index == min) {
+            rows.addAll(heads[i].rows);
+            heads[i] = readers.get(i).next();
+          }
+        }
+        writeSpectrumRows(min, rows, columns, expect, pepAltProt, w);
+      }
+    } finally {
+      for (PinReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private void mergePinsInMemory(List<Path> pins, Map<String, Integer> specToIndex, PinColumns columns,
+      List<double[]> expect, Map<String, Set<String>> pepAltProt, Writer w) throws IOException {
+    final Map<String, PinGroup> groups = new LinkedHashMap<>();
+    for (Path pin : pins) {
+      try (PinReader reader = new PinReader(pin, specToIndex)) {
+        for (PinGroup g; (g = reader.next()) != null; ) {
+          final PinGroup group = groups.putIfAbsent(g.key, g);
+          if (group != null) {
+            group.rows.addAll(g.rows);
+          }
+        }
+      }
+    }
+    final List<PinGroup> sorted = new ArrayList<>(groups.values());
+    sorted.sort(Comparator.comparingInt(g -> g.index));
+    for (PinGroup g : sorted) {
+      writeSpectrumRows(g.index, g.rows, columns, expect, pepAltProt, w);
+    }
+  }
+
+  private static final class PinHit {
+
+    final double hyperscore;
+    final double negAbsPpm;
+    String[] row;
+
+    PinHit(double hyperscore, double negAbsPpm, String[] row) {
+      this.hyperscore = hyperscore;
+      this.negAbsPpm = negAbsPpm;
+      this.row = row;
+    }
+  }
+
+  private static final Comparator<PinHit> PIN_HIT_ORDER = Comparator.<PinHit>comparingDouble(h -> h.hyperscore)
+      .thenComparingDouble(h -> h.negAbsPpm)
+      .thenComparing((a, b) -> {
+        for (int i = 0; i < Math.min(a.row.length, b.row.length); ++i) {
+          final int c = a.row[i].compareTo(b.row[i]);
+          if (c != 0) {
+            return c;
+          }
+        }
+        return Integer.compare(a.row.length, b.row.length);
+      });
+
+  /**
+   * Ranks the rows of one spectrum by hyperscore and writes the top ones.
+   */
+  private void writeSpectrumRows(int index, List<String[]> rows, PinColumns columns,
+      List<double[]> expect, Map<String, Set<String>> pepAltProt, Writer w) throws IOException {
+    final List<PinHit> hits = new ArrayList<>(rows.size());
+    for (String[] row : rows) {
+      hits.add(new PinHit(Double.parseDouble(row[columns.hyperscore]),
+          columns.absPpm < 0 ? 0 : -Double.parseDouble(row[columns.absPpm]), row));
+    }
+    hits.sort(PIN_HIT_ORDER.reversed());
+    if (columns.deltaHyperscore >= 0) {
+      for (int i = 0; i + 1 < hits.size(); ++i) {
+        hits.get(i).row[columns.deltaHyperscore] = pyRepr(hits.get(i).hyperscore - hits.get(i + 1).hyperscore);
+      }
+    }
+    for (int i = 0; i < hits.size(); ++i) {
+      final String[] row = hits.get(i).row;
+      final String rank = Integer.toString(i + 1);
+      if (columns.log10Evalue >= 0) {
+        row[columns.log10Evalue] = pyRepr(StrictMath.log10(expect(expect.get(index - 1), hits.get(i).hyperscore)));
+      }
+      row[columns.rank] = rank;
+      final int underscore = row[0].lastIndexOf('_');
+      row[0] = (underscore < 0 ? row[0] : row[0].substring(0, underscore)) + "_" + rank;
+    }
+    for (int i = 0; i < hits.size() && i < topN; ++i) {
+      String[] row = hits.get(i).row;
+      final Set<String> alt = pepAltProt.get(row[columns.peptide]);
+      final Set<String> present = new LinkedHashSet<>(Arrays.asList(row).subList(columns.proteins, row.length));
+      present.remove("");
+      if (present.size() != alt.size()) {
+        final List<String> prots = new ArrayList<>(new TreeSet<>(alt));
+        row = Arrays.copyOf(row, columns.proteins + prots.size());
+        for (int j = 0; j < prots.size(); ++j) {
+          row[columns.proteins + j] = prots.get(j);
+        }
+      }
+      w.write(String.join("\t", row));
+      w.write('\n');
+    }
+  }
+
+  /**
+   * Same text as Python's {@code str()} of a float.
+   */
+  static String pyRepr(double d) {
+    if (Double.isNaN(d)) {
+      return "nan";
+    }
+    if (Double.isInfinite(d)) {
+      return d > 0 ? "inf" : "-inf";
+    }
+    if (d == 0) {
+      return (1 / d < 0) ? "-0.0" : "0.0";
+    }
+    // Double.toString() does not always give the shortest digits that read back as the same value
+    final BigDecimal exact = new BigDecimal(Math.abs(d));
+    BigDecimal bd = exact;
+    for (int precision = 1; precision <= 17; ++precision) {
+      bd = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+      if (bd.doubleValue() == Math.abs(d)) {
+        break;
+      }
+    }
+    bd = bd.stripTrailingZeros();
+    final String digits = bd.unscaledValue().toString();
+    final int exp = digits.length() - 1 - bd.scale(); // exponent in scientific notation
+    final StringBuilder sb = new StringBuilder(d < 0 ? "-" : "");
+    if (exp < -4 || exp >= 16) {
+      sb.append(digits.charAt(0));
+      if (digits.length() > 1) {
+        sb.append('.').append(digits, 1, digits.length());
+      }
+      sb.append(exp < 0 ? "e-" : "e+");
+      final int e = Math.abs(exp);
+      if (e < 10) {
+        sb.append('0');
+      }
+      sb.append(e);
+    } else if (exp < 0) {
+      sb.append("0.");
+      for (int i = -1; i > exp; --i) {
+        sb.append('0');
+      }
+      sb.append(digits);
+    } else if (digits.length() > exp + 1) {
+      sb.append(digits, 0, exp + 1).append('.').append(digits, exp + 1, digits.length());
+    } else {
+      sb.append(digits);
+      for (int i = digits.length(); i <= exp; ++i) {
+        sb.append('0');
+      }
+      sb.append(".0");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Same as Python's {@code '%.3f'}, rounding the exact binary value half to even.
+   */
+  static String fixed3(double d) {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      return pyRepr(d);
+    }
+    final String s = new BigDecimal(d).setScale(3, RoundingMode.HALF_EVEN).toPlainString();
+    return d < 0 || (d == 0 && 1 / d < 0) ? (s.startsWith("-") ? s : "-" + s) : s;
+  }
+
+  /**
+   * Same as Python's {@code '%.3e'}, rounding the exact binary value half to even.
+   */
+  static String scientific3(double d) {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      return pyRepr(d);
+    }
+    final String sign = d < 0 || (d == 0 && 1 / d < 0) ? "-" : "";
+    String digits = "0000";
+    int exp = 0;
+    if (d != 0) {
+      final BigDecimal bd = new BigDecimal(Math.abs(d)).round(new MathContext(4, RoundingMode.HALF_EVEN));
+      digits = bd.unscaledValue().toString();
+      exp = digits.length() - 1 - bd.scale();
+      while (digits.length() < 4) {
+        digits += "0";
+      }
+      digits = digits.substring(0, 4);
+    }
+    return sign + digits.charAt(0) + "." + digits.substring(1) + (exp < 0 ? "e-" : "e+")
+        + (Math.abs(exp) < 10 ? "0" : "") + Math.abs(exp);
+  }
+
+  private static String[] splitTabs(String line) {
+    return line.split("\t", -1);
+  }
+
+  static String stem(Path p) {
+    final String name = p.getFileName().toString();
+    final int dot = name.lastIndexOf('.');
+    return dot <= 0 ? name : name.substring(0, dot);
+  }
+
+  static Path sibling(Path p, String name) {
+    final Path parent = p.getParent();
+    return parent == null ? Paths.get(name) : parent.resolve(name);
+  }
+
+  /**
+   * The UTF-8 bytes of the string as ISO-8859-1 characters, the way file contents are handled here.
+   */
+  private static String latin1(String s) {
+    return new String(s.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * A {@code <spectrum_query>} element: its first line and its search hits.
+   */
+  static final class SpectrumQuery {
+
+    final int index;
+    final String head;
+    final List<String> lines;
+
+    SpectrumQuery(int index, List<String> lines) {
+      this.index = index;
+      this.head = lines.get(0);
+      this.lines = lines;
+    }
+
+    List<String> hits() {
+      final List<String> hits = new ArrayList<>();
+      StringBuilder hit = null;
+      for (String line : lines.subList(1, lines.size())) {
+        if (hit == null) {
+          if (line.startsWith("<search_hit")) {
+            hit = new StringBuilder(line);
+          }
+        } else if (line.startsWith("</search_hit>")) {
+          hits.add(hit.append("\n</search_hit>").toString());
+          hit = null;
+        } else {
+          hit.append('\n').append(line);
+        }
+      }
+      return hits;
+    }
+  }
+
+  /**
+   * Gives the spectrum queries of a pepXML file by their index, starting at 1: null for the
+   * indices the file has no query for.
+   */
+  static final class QueryReader implements Closeable {
+
+    private final LineReader reader;
+    private int expected = 0;
+    private SpectrumQuery pending;
+
+    QueryReader(Path pepxml) throws IOException {
+      reader = new LineReader(pepxml);
+      pending = read();
+    }
+
+    SpectrumQuery next() throws IOException {
+      ++expected;
+      if (pending == null || pending.index != expected) {
+        return null;
+      }
+      final SpectrumQuery q = pending;
+      pending = read();
+      return q;
+    }
+
+    private SpectrumQuery read() throws IOException {
+      for (String line; (line = reader.next()) != null; ) {
+        if (!line.startsWith("<spectrum_query ")) {
+          continue;
+        }
+        final Matcher m = QUERY_INDEX.matcher(line);
+        if (!m.find()) {
+          continue;
+        }
+        final int index = Integer.parseInt(m.group(1));
+        final List<String> lines = new ArrayList<>();
+        lines.add(line);
+        for (String l; (l = reader.next()) != null; ) {
+          if (l.startsWith("</spectrum_query>")) {
+            return new SpectrumQuery(index, lines);
+          }
+          lines.add(l);
+        }
+        return null;
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * Lines of a file split at {@code \n} only, as ISO-8859-1.
+   */
+  static final class LineReader implements Closeable {
+
+    private final InputStream is;
+    private byte[] buf = new byte[1 << 16];
+    private int pos = 0;
+    private int end = 0;
+    private boolean eof = false;
+
+    LineReader(Path path) throws IOException {
+      is = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+    }
+
+    /**
+     * @return The next line without the {@code \n}, null at the end of the file.
+     */
+    String next() throws IOException {
+      int scan = pos;
+      while (true) {
+        for (; scan < end; ++scan) {
+          if (buf[scan] == '\n') {
+            final String line = new String(buf, pos, scan - pos, StandardCharsets.ISO_8859_1);
+            pos = scan + 1;
+            return line;
+          }
+        }
+        if (eof) {
+          if (pos == end) {
+            return null;
+          }
+          final String line = new String(buf, pos, end - pos, StandardCharsets.ISO_8859_1);
+          pos = end;
+          return line;
+        }
+        if (pos > 0) {
+          System.arraycopy(buf, pos, buf, 0, end - pos);
+          end -= pos;
+          scan -= pos;
+          pos = 0;
+        }
+        if (end == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        final int n = is.read(buf, end, buf.length - end);
+        if (n < 0) {
+          eof = true;
+        } else {
+          end += n;
+        }
+      }
+    }
+
+    /**
+     * Like {@link #next()}, without a trailing {@code \r}.
+     */
+    String nextRow() throws IOException {
+      final String line = next();
+      return line != null && line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    public void close() throws IOException {
+      is.close();
+    }
+  }
+}
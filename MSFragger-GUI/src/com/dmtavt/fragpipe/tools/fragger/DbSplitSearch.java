@@ -0,0 +1,560 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.fragger;
+
+import com.github.chhh.utils.FastaIndex;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Searches a database too large for one MSFragger process: the FASTA is split into slices that are
+ * searched one by one, or several at once when the memory allows, and the results are merged into
+ * what a single search would have written.
+ * <p>
+ * Usage: {@code DbSplitSearch <num_slices> <ram_gb> <java> <msfragger_jar> <params> <lcms files...>},
+ * run in the directory where the results are expected. Only uses the JDK, so that the FragPipe jar
+ * alone is enough on the classpath. It is meant to be started with a heap of {@link #HEAP_GB}, the
+ * MSFragger processes get {@code ram_gb} between them.
+ */
+public class DbSplitSearch {
+
+  public static final String TEMP_DIR = "split_peptide_index_tempdir";
+  /** Heap of this process, enough to split the FASTA and merge the results. */
+  public static final int HEAP_GB = 2;
+  /** Slices are not run in parallel if that would leave fewer threads than this to each. */
+  private static final int MIN_THREADS_PER_SLICE = 4;
+  /** Head room on top of the peak memory of the first slice when fitting the others into the budget. */
+  private static final double PEAK_MEMORY_MARGIN = 1.25;
+
+  private static final Pattern DATABASE_NAME = Pattern.compile("^database_name\\s*=\\s*(.+?)(?:\\s*#.+)?$", Pattern.MULTILINE);
+  private static final Pattern OUTPUT_FILE_EXTENSION = Pattern.compile("^output_file_extension *= *(\\S+)", Pattern.MULTILINE);
+  private static final Pattern OUTPUT_REPORT_TOPN = Pattern.compile("^output_report_topN *= *(\\d+)", Pattern.MULTILINE);
+  private static final Pattern OUTPUT_MAX_EXPECT = Pattern.compile("^output_max_expect *= *(\\S+)", Pattern.MULTILINE);
+  private static final Pattern CALIBRATE_MASS = Pattern.compile("^calibrate_mass *= *([012])\\b", Pattern.MULTILINE);
+  private static final Pattern NUM_THREADS = Pattern.compile("^num_threads\\s*=\\s*\\d+", Pattern.MULTILINE);
+  private static final Pattern NUM_THREADS_VALUE = Pattern.compile("^num_threads\\s*=\\s*(\\d+)", Pattern.MULTILINE);
+  private static final Pattern VM_HWM = Pattern.compile("^VmHWM:\\s*(\\d+)\\s*kB", Pattern.MULTILINE);
+  private static final Set<Process> RUNNING = ConcurrentHashMap.newKeySet();
+
+  private final PrintStream out = System.out;
+  private final int numParts;
+  private final int ramGb;
+  private final String java;
+  private final Path fraggerJar;
+  private final String paramsName;
+  private final String paramsTxt;
+  private final List<Path> infiles = new ArrayList<>();
+  private final Path tempDir = Paths.get(TEMP_DIR);
+  private final List<Path> partDirs = new ArrayList<>();
+  private final Path fasta;
+  private final int calibrateMass;
+  private final int threads;
+  private final DbSplitMerge merge;
+
+  public static void main(String[] args) {
+    if (args.length < 6) {
+      System.out.println("Usage: " + DbSplitSearch.class.getCanonicalName()
+          + " <num_slices> <ram_gb> <java> <msfragger_jar> <params> <lcms files...>");
+      System.exit(1);
+    }
+    try {
+      new DbSplitSearch(args).run();
+    } catch (Throwable e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private DbSplitSearch(String[] args) throws IOException {
+    numParts = Integer.parseInt(args[0]);
+    ramGb = Integer.parseInt(args[1]);
+    java = args[2];
+    fraggerJar = Paths.get(args[3]).toAbsolutePath().normalize();
+    final Path params = Paths.get(args[4]);
+    paramsName = params.getFileName().toString();
+    for (String f : Arrays.asList(args).subList(5, args.length)) {
+      infiles.add(Paths.get(f).toAbsolutePath());
+    }
+    for (int i = 0; i < numParts; ++i) {
+      partDirs.add(tempDir.resolve(Integer.toString(i)));
+    }
+
+    paramsTxt = new String(Files.readAllBytes(params), StandardCharsets.UTF_8);
+    final Matcher ext = OUTPUT_FILE_EXTENSION.matcher(paramsTxt);
+    final Matcher topN = OUTPUT_REPORT_TOPN.matcher(paramsTxt);
+    final Matcher maxExpect = OUTPUT_MAX_EXPECT.matcher(paramsTxt);
+    final Matcher calibrate = CALIBRATE_MASS.matcher(paramsTxt);
+    if (!topN.find() || !calibrate.find()) {
+      throw new IllegalStateException("output_report_topN and calibrate_mass must be set in " + params);
+    }
+    calibrateMass = Integer.parseInt(calibrate.group(1));
+    final Matcher numThreads = NUM_THREADS_VALUE.matcher(paramsTxt);
+    final int t = numThreads.find() ? Integer.parseInt(numThreads.group(1)) : 0;
+    threads = t > 0 ? t : Runtime.getRuntime().availableProcessors();
+
+    final Matcher db = DATABASE_NAME.matcher(paramsTxt);
+    if (!db.find()) {
+      throw new IllegalStateException("database_name must be set in " + params);
+    }
+    fasta = Paths.get(db.group(1));
+    if (db.find()) {
+      throw new IllegalStateException("database_name is set more than once in " + params);
+    }
+    merge = new DbSplitMerge(tempDir, numParts, ext.find() ? ext.group(1) : "pepXML", Integer.parseInt(topN.group(1)),
+        maxExpect.find() ? Double.parseDouble(maxExpect.group(1)) : 50.0, db.group(1));
+  }
+
+  private void run() throws Exception {
+    setUpDirectories();
+    List<Path> inputs = infiles;
+    String txt = paramsTxt;
+    if (calibrateMass == 1 || calibrateMass == 2) {
+      Files.copy(fasta, tempDir.resolve(fasta.getFileName()));
+      txt = calibrate();
+      inputs = calibratedInputs();
+    }
+    runSlices(inputs, txt);
+
+    writeCombinedScoresHistograms();
+    final List<String> generateExpect = fragger(ramGb);
+    generateExpect.add("--generate_expect_functions");
+    for (Path f : infiles) {
+      generateExpect.add(DbSplitMerge.stem(f) + "_scores_histogram.tsv");
+    }
+    out.println(generateExpect);
+    check(execute(generateExpect, tempDir, null), generateExpect);
+
+    combineResults();
+    try {
+      deleteRecursively(tempDir);
+    } catch (IOException e) {
+      out.println(e);
+    }
+  }
+
+  private List<String> fragger(int ram) {
+    return new ArrayList<>(Arrays.asList(java, "-jar", "-Dfile.encoding=UTF-8", "-Xmx" + ram + "G", fraggerJar.toString()));
+  }
+
+  private void setUpDirectories() throws IOException {
+    if (Files.exists(tempDir)) {
+      deleteRecursively(tempDir);
+      out.println("deleted existing temporary directory “" + tempDir.toAbsolutePath().normalize() + "”");
+    }
+    for (Path dir : partDirs) {
+      Files.createDirectories(dir);
+    }
+    splitFasta(fasta, partDirs.stream().map(d -> d.resolve(fasta.getFileName())).toArray(Path[]::new));
+  }
+
+  /**
+   * Copies the FASTA entries into {@code parts.length} files of nearly the same number of entries,
+   * the first ones getting one more if they can't all be equal.
+   */
+  static void splitFasta(Path fasta, Path[] parts) throws IOException {
+    // entry offsets come from the FASTA index, usually already made when the database was selected
+    final FastaIndex index = FastaIndex.get(fasta);
+    final long entries = index.entries();
+    if (entries < parts.length) {
+      throw new IllegalStateException("Cannot split " + entries + " FASTA entries into " + parts.length + " slices");
+    }
+
+    try (FileChannel in = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      long from = 0;
+      for (int i = 0; i < parts.length; ++i) {
+        final long firstEntry = (i + 1) * (entries / parts.length) + Math.min(i + 1, entries % parts.length);
+        final long to = i + 1 == parts.length ? in.size() : index.offset(firstEntry);
+        try (FileChannel out = FileChannel.open(parts[i], StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          for (long pos = from; pos < to; ) {
+            final long n = in.transferTo(pos, to - pos, out);
+            if (n <= 0) {
+              throw new IOException("FASTA file changed while splitting: " + fasta);
+            }
+            pos += n;
+          }
+        }
+        from = to;
+      }
+    }
+  }
+
+  /**
+   * Searches all the spectra against the whole database once with {@code --split1} to calibrate them.
+   *
+   * @return The params to search the slices with.
+   */
+  private String calibrate() throws IOException, InterruptedException {
+    final Path calibrateParams = tempDir.resolve(paramsName);
+    Files.write(calibrateParams, setDatabase(paramsTxt, fasta.getFileName().toString()).getBytes(StandardCharsets.UTF_8));
+    final List<String> cmd = fragger(ramGb);
+    cmd.add(calibrateParams.toAbsolutePath().toString());
+    cmd.add("--split1");
+    for (Path f : infiles) {
+      cmd.add(f.toString());
+    }
+    out.println(cmd);
+    final StringBuilder log = new StringBuilder();
+    check(execute(cmd, tempDir, line -> {
+      log.append(line).append('\n');
+      out.println(line);
+    }), cmd);
+
+    String txt = paramsTxt;
+    if (calibrateMass == 2) {
+      final String output = log.toString();
+      final List<String> precursorTol = findAll("New precursor_true_tolerance = (.+) PPM", output);
+      final List<String> fragmentTol = findAll("New fragment_mass_tolerance = (.+) PPM", output);
+      if (fragmentTol.size() != 1) {
+        throw new IllegalStateException("MSFragger did not report the new fragment_mass_tolerance");
+      }
+      if (precursorTol.size() == 1) {
+        txt = replace(txt, "^precursor_true_tolerance\\s*=\\s*[0-9.]+", "precursor_true_tolerance = " + precursorTol.get(0));
+        txt = replace(txt, "^precursor_true_units\\s*=\\s*[01]", "precursor_true_units = 1");
+      }
+      txt = replace(txt, "^fragment_mass_tolerance\\s*=\\s*[0-9.]+", "fragment_mass_tolerance = " + fragmentTol.get(0));
+      txt = replace(txt, "^fragment_mass_units\\s*=\\s*[01]", "fragment_mass_units = 1");
+      txt = replaceIfReported(txt, output, "use_topN_peaks", "use_topN_peaks", "[0-9]+");
+      txt = replaceIfReported(txt, output, "minimum_ratio", "minimum_ratio", "[0-9.]+");
+      txt = replaceIfReported(txt, output, "intensity_transform", "intensity_transform", "[0-9]");
+      txt = replaceIfReported(txt, output, "remove_precursor_peaks", "remove_precursor_peak", "[0-9]");
+    }
+    final Matcher m = Pattern.compile("^check_spectral_files\\s*=\\s*[0-9]", Pattern.MULTILINE).matcher(txt);
+    return m.find() ? m.replaceAll("check_spectral_files = 0") : txt + "\ncheck_spectral_files = 0";
+  }
+
+  private static String replaceIfReported(String txt, String output, String reportedAs, String param, String valuePattern) {
+    final List<String> reported = findAll("New " + reportedAs + " = (.+)", output);
+    if (reported.size() != 1) {
+      return txt;
+    }
+    return replace(txt, "^" + param + "\\s*=\\s*" + valuePattern, param + " = " + reported.get(0));
+  }
+
+  /**
+   * Moves the calibrated spectra next to the calibration params, or copies the input file if
+   * MSFragger didn't write one.
+   */
+  private List<Path> calibratedInputs() throws IOException {
+    final List<Path> inputs = new ArrayList<>();
+    for (Path f : infiles) {
+      final String calibrated = DbSplitMerge.stem(f) + ".mzBIN_calibrated";
+      final Path dest;
+      if (Files.exists(DbSplitMerge.sibling(f, calibrated))) {
+        dest = tempDir.resolve(calibrated);
+        Files.move(DbSplitMerge.sibling(f, calibrated), dest, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        dest = tempDir.resolve(f.getFileName());
+        copyRecursively(f, dest);
+      }
+      inputs.add(dest.toAbsolutePath().normalize());
+    }
+    return inputs;
+  }
+
+  /**
+   * The first slice runs alone, with the whole memory budget. What it actually used decides how
+   * many of the others can run together, each with an equal share of the memory and threads.
+   */
+  private void runSlices(List<Path> inputs, String txt) throws Exception {
+    writeParams(0, txt, 0);
+    final AtomicLong peakKb = new AtomicLong(-1);
+    runSlice(0, inputs, ramGb, false, peakKb);
+
+    final int remaining = numParts - 1;
+    int concurrent = 1;
+    if (remaining > 1 && peakKb.get() > 0) {
+      final int peakGb = (int) Math.ceil(peakKb.get() * PEAK_MEMORY_MARGIN / (1 << 20));
+      concurrent = Math.max(1, Math.min(remaining, Math.min(ramGb / Math.max(1, peakGb), threads / MIN_THREADS_PER_SLICE)));
+      out.printf("DB split 1 used at most %.1f GB of memory, running %d slices at a time%n", peakKb.get() / (double) (1 << 20), concurrent);
+    }
+    final int ram = ramGb / concurrent;
+    for (int i = 1; i < numParts; ++i) {
+      writeParams(i, txt, concurrent > 1 ? threads / concurrent : 0);
+    }
+    if (concurrent == 1) {
+      for (int i = 1; i < numParts; ++i) {
+        runSlice(i, inputs, ram, false, null);
+      }
+      return;
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(concurrent);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 1; i < numParts; ++i) {
+        final int slice = i;
+        futures.add(exec.submit(() -> {
+          runSlice(slice, inputs, ram, true, null);
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        try {
+          f.get();
+        } catch (ExecutionException e) {
+          exec.shutdownNow();
+          RUNNING.forEach(Process::destroyForcibly);
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private void writeParams(int slice, String txt, int numThreads) throws IOException {
+    String params = setDatabase(txt, fasta.getFileName().toString());
+    if (numThreads > 0) {
+      final Matcher m = NUM_THREADS.matcher(params);
+      params = m.find() ? m.replaceAll("num_threads = " + numThreads) : params + "\nnum_threads = " + numThreads;
+    }
+    Files.write(partDirs.get(slice).resolve(paramsName), params.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void runSlice(int slice, List<Path> inputs, int ram, boolean prefixOutput, AtomicLong peakKb) throws IOException, InterruptedException {
+    final List<String> cmd = fragger(ram);
+    cmd.add(paramsName);
+    for (Path f : inputs) {
+      cmd.add(f.toString());
+    }
+    cmd.add("--partial");
+    cmd.add(Integer.toString(slice));
+    final String name = "DB split " + (slice + 1) + " of " + numParts;
+    out.println("STARTED: " + name);
+    out.println(cmd);
+    final String prefix = "[" + (slice + 1) + "/" + numParts + "] ";
+    check(execute(cmd, partDirs.get(slice), prefixOutput ? line -> out.println(prefix + line) : null, peakKb), cmd);
+    out.println("DONE: " + name);
+  }
+
+  /**
+   * Sums the score histograms of the slices for each input file.
+   */
+  private void writeCombinedScoresHistograms() throws IOException {
+    for (Path f : infiles) {
+      final String fn = DbSplitMerge.stem(f) + "_scores_histogram.tsv";
+      final List<long[]> sum = new ArrayList<>();
+      for (Path dir : partDirs) {
+        final List<String> lines = Files.readAllLines(dir.resolve(fn), StandardCharsets.ISO_8859_1);
+        int row = 0;
+        for (String line : lines) {
+          if (line.trim().isEmpty()) {
+            continue;
+          }
+          final String[] values = line.split("\t");
+          if (row == sum.size()) {
+            sum.add(new long[values.length]);
+          }
+          final long[] s = sum.get(row++);
+          if (s.length != values.length) {
+            throw new IllegalStateException("Score histograms of the slices differ in shape: " + fn);
+          }
+          for (int i = 0; i < values.length; ++i) {
+            s[i] += Long.parseLong(values[i].trim());
+          }
+        }
+        if (row != sum.size()) {
+          throw new IllegalStateException("Score histograms of the slices differ in shape: " + fn);
+        }
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (long[] row : sum) {
+        for (int i = 0; i < row.length; ++i) {
+          sb.append(i == 0 ? "" : "\t").append(row[i]);
+        }
+        sb.append('\n');
+      }
+      Files.write(tempDir.resolve(fn), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  private void combineResults() throws Exception {
+    final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(infiles.size(), Runtime.getRuntime().availableProcessors())));
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (Path f : infiles) {
+        futures.add(exec.submit(() -> {
+          merge.writePepxml(f, out);
+          return null;
+        }));
+      }
+      for (Path f : infiles) {
+        futures.add(exec.submit(() -> {
+          merge.writePin(f);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private static String setDatabase(String params, String fastaName) {
+    return DATABASE_NAME.matcher(params).replaceAll(Matcher.quoteReplacement("database_name = " + fastaName));
+  }
+
+  private static String replace(String txt, String regex, String replacement) {
+    return Pattern.compile(regex, Pattern.MULTILINE).matcher(txt).replaceAll(Matcher.quoteReplacement(replacement));
+  }
+
+  private static List<String> findAll(String regex, String s) {
+    final List<String> found = new ArrayList<>();
+    final Matcher m = Pattern.compile(regex).matcher(s);
+    while (m.find()) {
+      found.add(m.group(1));
+    }
+    return found;
+  }
+
+  private interface LineConsumer {
+
+    void accept(String line);
+  }
+
+  private static int execute(List<String> cmd, Path dir, LineConsumer lines) throws IOException, InterruptedException {
+    return execute(cmd, dir, lines, null);
+  }
+
+  /**
+   * Runs a command, passing its output through if {@code lines} is null.
+   *
+   * @param peakKb If not null, receives the peak resident memory of the process, where the OS
+   *     tells it.
+   */
+  private static int execute(List<String> cmd, Path dir, LineConsumer lines, AtomicLong peakKb) throws IOException, InterruptedException {
+    final ProcessBuilder pb = new ProcessBuilder(cmd).directory(dir.toFile()).redirectErrorStream(true);
+    if (lines == null) {
+      pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+    }
+    final Process p = pb.start();
+    RUNNING.add(p);
+    try {
+      Thread memory = null;
+      if (peakKb != null) {
+        memory = new Thread(() -> {
+          final Path status = Paths.get("/proc", Long.toString(p.pid()), "status");
+          while (p.isAlive()) {
+            try {
+              final Matcher m = VM_HWM.matcher(new String(Files.readAllBytes(status), StandardCharsets.ISO_8859_1));
+              if (m.find()) {
+                peakKb.accumulateAndGet(Long.parseLong(m.group(1)), Math::max);
+              }
+              Thread.sleep(500);
+            } catch (IOException | InterruptedException e) {
+              return;
+            }
+          }
+        });
+        memory.setDaemon(true);
+        memory.start();
+      }
+      if (lines != null) {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+          for (String line; (line = r.readLine()) != null; ) {
+            lines.accept(line);
+          }
+        }
+      }
+      final int exitCode = p.waitFor();
+      if (memory != null) {
+        memory.interrupt();
+        memory.join();
+      }
+      return exitCode;
+    } finally {
+      RUNNING.remove(p);
+      if (p.isAlive()) {
+        p.destroyForcibly();
+      }
+    }
+  }
+
+  private static void check(int exitCode, List<String> cmd) {
+    if (exitCode != 0) {
+      throw new IllegalStateException("Exit code " + exitCode + " from " + cmd);
+    }
+  }
+
+  private static void copyRecursively(Path src, Path dest) throws IOException {
+    if (!Files.isDirectory(src)) {
+      Files.copy(src, dest);
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(src)) {
+      for (Path p : (Iterable<Path>) paths::iterator) {
+        final Path target = dest.resolve(src.relativize(p).toString());
+        if (Files.isDirectory(p)) {
+          Files.createDirectories(target);
+        } else {
+          Files.copy(p, target);
+        }
+      }
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        Files.delete(d);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
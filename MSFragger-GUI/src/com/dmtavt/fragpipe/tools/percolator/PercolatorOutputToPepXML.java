@@ -33,6 +33,10 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,21 +59,121 @@ public class PercolatorOutputToPepXML {
                 "DDA",
                 0,
                 "");
-        } else if (Files.exists(Paths.get(args[0].replace(".pin", "_edited.pin")))){
-            percolatorToPepXML(Paths.get(args[0].replace(".pin", "_edited.pin")), args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]), args[7].trim());
-        } else {
-            percolatorToPepXML(Paths.get(args[0]), args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]), args[7].trim());
+            return;
+        }
+        final int exitCode = run(args, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
         }
     }
 
-    private static String getSpectrum(final String line) {
-        String spectrum = null;
-        for (final String e : line.split("\\s"))
-            if (e.startsWith("spectrum=")) {
-                spectrum = e.substring("spectrum=\"".length(), e.length() - 1);
-                break;
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+     */
+    public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+        Path pin = Paths.get(args[0]);
+        final String fnPin = pin.getFileName().toString();
+        if (fnPin.endsWith(".pin")) {
+            final Path edited = pin.resolveSibling(fnPin.substring(0, fnPin.length() - ".pin".length()) + "_edited.pin");
+            if (Files.exists(edited)) {
+                pin = edited;
             }
-        return spectrum.substring(0, spectrum.lastIndexOf("."));
+        }
+        final int nThreads = args.length > 8 ? Integer.parseInt(args[8].trim()) : Runtime.getRuntime().availableProcessors();
+        percolatorToPepXML(pin, args[1], Paths.get(args[2]), Paths.get(args[3]), Paths.get(args[4]), args[5], Double.parseDouble(args[6]), args[7].trim(), nThreads);
+        return 0;
+    }
+
+    /**
+     * @return Start and end scan of the spectrum_query, see {@link SpectrumRankTable#spectrumKey(String, int)}.
+     */
+    private static long getSpectrum(final String line) {
+        final String spectrum = attribute(line, "spectrum");
+        if (spectrum == null) {
+            throw new IllegalStateException("No spectrum attribute in: " + line);
+        }
+        return SpectrumRankTable.spectrumKey(spectrum, spectrum.lastIndexOf('.'));
+    }
+
+    /**
+     * Value of an XML attribute, scanning the line instead of splitting it into tokens.
+     *
+     * @return Null if the line has no such attribute.
+     */
+    static String attribute(final String line, final String name) {
+        int from = 0;
+        while (true) {
+            final int i = line.indexOf(name, from);
+            if (i < 0) {
+                return null;
+            }
+            final int valueStart = i + name.length() + 2;
+            if ((i == 0 || Character.isWhitespace(line.charAt(i - 1)))
+                && line.startsWith("=\"", i + name.length())) {
+                final int valueEnd = line.indexOf('"', valueStart);
+                return valueEnd < 0 ? null : line.substring(valueStart, valueEnd);
+            }
+            from = i + 1;
+        }
+    }
+
+    private static double doubleAttribute(final String line, final String name) {
+        final String value = attribute(line, name);
+        return value == null ? Double.NaN : Double.parseDouble(value);
+    }
+
+    /**
+     * Picks only the needed columns out of tab delimited lines, without creating strings for the
+     * others.
+     */
+    static final class Columns {
+
+        private final int[] sorted;
+        private final int[] order;
+        private final String[] values;
+
+        /**
+         * @param indices Column indices in any order, negative ones are not read and come out as null.
+         */
+        Columns(final int... indices) {
+            final Integer[] o = new Integer[indices.length];
+            for (int k = 0; k < o.length; ++k) {
+                o[k] = k;
+            }
+            Arrays.sort(o, (a, b) -> Integer.compare(indices[a], indices[b]));
+            order = new int[o.length];
+            sorted = new int[o.length];
+            for (int k = 0; k < o.length; ++k) {
+                order[k] = o[k];
+                sorted[k] = indices[o[k]];
+            }
+            values = new String[indices.length];
+        }
+
+        /**
+         * @return Values in the order the indices were given. The array is reused between calls.
+         */
+        String[] split(final String line) {
+            int col = 0;
+            int start = 0;
+            for (int k = 0; k < sorted.length; ++k) {
+                final int want = sorted[k];
+                if (want < 0) {
+                    values[order[k]] = null;
+                    continue;
+                }
+                while (col < want) {
+                    start = line.indexOf('\t', start) + 1;
+                    if (start == 0) {
+                        throw new IllegalStateException("Missing column " + want + " in line: " + line);
+                    }
+                    ++col;
+                }
+                final int end = line.indexOf('\t', start);
+                values[order[k]] = line.substring(start, end < 0 ? line.length() : end);
+            }
+            return values;
+        }
     }
 
     private static String paddingZeros(final String line) {
@@ -95,20 +199,14 @@ public class PercolatorOutputToPepXML {
         }
     }
 
-    private static class Spectrum_rank {
-        final String spectrum;
-        final int rank;
-
-        Spectrum_rank(String spectrum, int rank) {
-            this.spectrum = spectrum;
-            this.rank = rank;
-        }
+    private static long get_spectrum(final String s) {
+        return SpectrumRankTable.spectrumKey(s, s.lastIndexOf('.'));
     }
 
-    private static Spectrum_rank get_spectrum_rank(final String s){
-        final String charge_rank = s.substring(s.lastIndexOf("."));
-        final int rank = Integer.parseInt(charge_rank.split("_")[1]);
-        return new Spectrum_rank(s.substring(0, s.lastIndexOf(".")), rank);
+    private static int get_rank(final String s) {
+        final int from = s.indexOf('_', s.lastIndexOf('.')) + 1;
+        final int to = s.indexOf('_', from);
+        return Integer.parseInt(s, from, to < 0 ? s.length() : to, 10);
     }
 
     private static int get_max_rank(final String basename, final boolean is_DIA) {
@@ -125,13 +223,9 @@ public class PercolatorOutputToPepXML {
                     return Integer.parseInt(matcher.group(1));
             }
         } catch (IOException e) {
-            System.err.println("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
-            System.exit(1);
-            return -1;
+            throw new IllegalStateException("Cannot find output_report_topN parameter from " + path.toAbsolutePath(), e);
         }
-        System.err.println("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
-        System.exit(1);
-        return -1;
+        throw new IllegalStateException("Cannot find output_report_topN parameter from " + path.toAbsolutePath());
     }
 
     private static StringBuilder handle_search_hit(final List<String> searchHit, final NttNmc nttNmc, final PepScore pepScore, final int oldRank, final int newRank) {
@@ -145,12 +239,9 @@ public class PercolatorOutputToPepXML {
         int isomassd = 0;
         final Iterator<String> iterator = searchHit.iterator();
         final String search_hit_line = iterator.next();
-        for (final String e : search_hit_line.split("\\s")) { // fixme: the code assumes that all attributes are in one line, which makes it not robust
-            if (e.startsWith("massdiff="))
-                massdiff = Double.parseDouble(e.substring("massdiff=\"".length(), e.length() - 1));
-            if (e.startsWith("calc_neutral_pep_mass="))
-                calc_neutral_pep_mass = Double.parseDouble(e.substring("calc_neutral_pep_mass=\"".length(), e.length() - 1));
-        }
+        // fixme: the code assumes that all attributes are in one line, which makes it not robust
+        massdiff = doubleAttribute(search_hit_line, "massdiff");
+        calc_neutral_pep_mass = doubleAttribute(search_hit_line, "calc_neutral_pep_mass");
         double gap = Double.MAX_VALUE;
         for (int isotope = -6; isotope < 7; ++isotope) {
             if (Math.abs(massdiff - isotope * 1.0033548378) < gap) {
@@ -193,21 +284,21 @@ public class PercolatorOutputToPepXML {
         return sb;
     }
 
-    private static String handle_spectrum_query(final List<String> sq, final Map<String, NttNmc[]> pinSpectrumRankNttNmc, final Map<String, PepScore[]> pinSpectrumRankPepScore, final boolean is_DIA, final int DIA_rank) {
+    private static String handle_spectrum_query(final List<String> sq, final SpectrumRankTable pinSpectrumRankNttNmc, final SpectrumRankTable pinSpectrumRankPepScore, final boolean is_DIA, final int DIA_rank) {
         final List<List<String>> search_hits = new ArrayList<>();
         final StringBuilder sb = new StringBuilder();
-        String spectrum;
+        long spectrum;
         final Iterator<String> iterator = sq.iterator();
         for (String line; iterator.hasNext(); ) {
             line = iterator.next().trim();
             spectrum = getSpectrum(line);
 
-            final PepScore[] pepScoreArray = pinSpectrumRankPepScore.get(spectrum);
+            final PepScore[] pepScoreArray = PepScore.of(pinSpectrumRankPepScore, spectrum);
             if (pepScoreArray == null) {
                 return "";
             }
 
-            final NttNmc[] nttNmcArray = pinSpectrumRankNttNmc.get(spectrum);
+            final NttNmc[] nttNmcArray = NttNmc.of(pinSpectrumRankNttNmc, spectrum);
             if (nttNmcArray == null) {
                 return "";
             }
@@ -259,6 +350,14 @@ public class PercolatorOutputToPepXML {
     }
 
     public static void percolatorToPepXML(final Path pin, final String basename, final Path percolatorTargetPsms, final Path percolatorDecoyPsms, final Path outBasename, final String DIA_DDA, final double minProb, String lcmsPath) {
+        percolatorToPepXML(pin, basename, percolatorTargetPsms, percolatorDecoyPsms, outBasename, DIA_DDA, minProb, lcmsPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param nThreads At most this many ranks of a DIA search are converted at the same time, it
+     * should be the number of threads the step was granted.
+     */
+    public static void percolatorToPepXML(final Path pin, final String basename, final Path percolatorTargetPsms, final Path percolatorDecoyPsms, final Path outBasename, final String DIA_DDA, final double minProb, String lcmsPath, final int nThreads) {
         // Check if the LCMS files exist. Replace the non-existing ones with the existing ones if possible.
         if (!Files.exists(Paths.get(lcmsPath))) { // Try to find the alternative file.
             boolean notOk = true;
@@ -288,8 +387,7 @@ public class PercolatorOutputToPepXML {
                 }
             }
             if (notOk) {
-                System.err.printf(lcmsPath + " does not exist.");
-                System.exit(1);
+                throw new IllegalStateException(lcmsPath + " does not exist.");
             }
         }
 
@@ -297,15 +395,13 @@ public class PercolatorOutputToPepXML {
         final boolean is_DIA = DIA_DDA.equals("DIA");
         final int max_rank = get_max_rank(basename, is_DIA);
         if (max_rank < 1) {
-            System.err.println("Cannot find output_report_topN parameter from " + basename + "'s pepXML file.");
-            System.exit(1);
+            throw new IllegalStateException("Cannot find output_report_topN parameter from " + basename + "'s pepXML file.");
         }
 
-        final Map<String, NttNmc[]> pinSpectrumRankNttNmc = new HashMap<>();
-        final Map<String, PepScore[]> pinSpectrumRankPepScore = new HashMap<>();
+        final SpectrumRankTable pinSpectrumRankNttNmc = new SpectrumRankTable(max_rank, NttNmc.COLUMNS);
+        final SpectrumRankTable pinSpectrumRankPepScore = new SpectrumRankTable(max_rank, PepScore.COLUMNS);
 
-        try {
-            BufferedReader brtsv = Files.newBufferedReader(pin);
+        try (BufferedReader brtsv = Files.newBufferedReader(pin)) {
             final String pin_header = brtsv.readLine();
             if (pin_header == null) {
                 throw new NullPointerException("Could not read the first line of " + pin.toAbsolutePath() + ".");
@@ -328,24 +424,25 @@ public class PercolatorOutputToPepXML {
             }
             String line;
 
+            final Columns columns = new Columns(indexOf_SpecId, indexOf_ntt, indexOf_nmc, indexOf_spectralSimilarity, indexOf_predRT, indexOf_predRT == -1 ? -1 : indexOf_expRT);
+
             while ((line = brtsv.readLine()) != null) {
-                final String[] split = line.split("\t");
-                final String raw_SpecId = split[indexOf_SpecId];
-                final Spectrum_rank spectrum_rank = get_spectrum_rank(raw_SpecId);
-                final String specId = spectrum_rank.spectrum;
-                final int rank = spectrum_rank.rank;
-                final int ntt = Integer.parseInt(split[indexOf_ntt]);
-                final int nmc = Integer.parseInt(split[indexOf_nmc]);
+                final String[] split = columns.split(line);
+                final String raw_SpecId = split[0];
+                final long specId = get_spectrum(raw_SpecId);
+                final int rank = get_rank(raw_SpecId);
+                final int ntt = Integer.parseInt(split[1]);
+                final int nmc = Integer.parseInt(split[2]);
                 float spectralSimilarity = Float.NaN;
                 if (indexOf_spectralSimilarity != -1) {
-                    spectralSimilarity = Float.parseFloat(split[indexOf_spectralSimilarity]);
+                    spectralSimilarity = Float.parseFloat(split[3]);
                 }
                 float RTscore = Float.NaN;
                 if (indexOf_predRT != -1) {
-                    RTscore = Math.abs(Float.parseFloat(split[indexOf_predRT]) -
-                            Float.parseFloat(split[indexOf_expRT]));
+                    RTscore = Math.abs(Float.parseFloat(split[4]) -
+                            Float.parseFloat(split[5]));
                 }
-                pinSpectrumRankNttNmc.computeIfAbsent(specId, e -> new NttNmc[max_rank])[rank - 1] = new NttNmc(ntt, nmc, spectralSimilarity, RTscore);
+                pinSpectrumRankNttNmc.put(specId, rank, ntt, nmc, spectralSimilarity, RTscore);
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -359,15 +456,15 @@ public class PercolatorOutputToPepXML {
                 final int indexOfPEP = colnames.indexOf("posterior_error_prob");
                 final int indexOfScore = colnames.indexOf("score");
                 String line;
+                final Columns columns = new Columns(indexOfPSMId, indexOfPEP, indexOfScore);
                 while ((line = brtsv.readLine()) != null) {
-                    final String[] split = line.split("\t");
-                    final String raw_psmid = split[indexOfPSMId];
-                    final Spectrum_rank spectrum_rank = get_spectrum_rank(raw_psmid);
-                    final String specId = spectrum_rank.spectrum;
-                    final int rank = spectrum_rank.rank;
+                    final String[] split = columns.split(line);
+                    final String raw_psmid = split[0];
+                    final long specId = get_spectrum(raw_psmid);
+                    final int rank = get_rank(raw_psmid);
                     double pep;
                     try {
-                        pep = Double.parseDouble(split[indexOfPEP]);
+                        pep = Double.parseDouble(split[1]);
                     } catch (NumberFormatException e) {
                         pep = 1.0;
                     }
@@ -378,96 +475,120 @@ public class PercolatorOutputToPepXML {
 
                     double score;
                     try {
-                        score = Double.parseDouble(split[indexOfScore]);
+                        score = Double.parseDouble(split[2]);
                     } catch (NumberFormatException e) {
                         score = 0.0;
                     }
 
-                    pinSpectrumRankPepScore.computeIfAbsent(specId, e -> new PepScore[max_rank])[rank - 1] = new PepScore(pep, score);
+                    pinSpectrumRankPepScore.put(specId, rank, pep, score);
                 }
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
         }
 
-        for (int rank = 1; rank <= (is_DIA ? max_rank : 1); ++rank) {
-            final Path output_rank = is_DIA ? Paths.get(outBasename + "_rank" + rank + ".pep.xml") :
-                    Paths.get(outBasename + ".pep.xml");
-            final Path pepxml_rank = is_DIA ? Paths.get(basename + "_rank" + rank + ".pepXML") :
-                    Paths.get(basename + ".pepXML");
-
-            try (final BufferedReader brpepxml = Files.newBufferedReader(pepxml_rank);
-                 final BufferedWriter out = Files.newBufferedWriter(output_rank)) {
-                String line;
-                while ((line = brpepxml.readLine()) != null) {
-                    if (line.trim().startsWith("<msms_run_summary")) {
-                        Matcher matcher1 = pattern1.matcher(line);
-                        if (matcher1.find()) {
-                            line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + StringUtils.upToLastDot(lcmsPath) + "\""));
-
-                            Matcher matcher2 = pattern2.matcher(line);
-                            if (matcher2.find()) {
-                                line = matcher2.replaceFirst("raw_data_type=\"" + StringUtils.afterLastDot(lcmsPath) + "\"");
+        // ranks of DIA searches are in separate pepXML files, they are converted concurrently
+        final int nRanks = is_DIA ? max_rank : 1;
+        final String lcms = lcmsPath;
+        final ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(nRanks, nThreads)));
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int r = 1; r <= nRanks; ++r) {
+                final int rank = r;
+                futures.add(exec.submit(() -> {
+                    final Path output_rank = is_DIA ? Paths.get(outBasename + "_rank" + rank + ".pep.xml") :
+                            Paths.get(outBasename + ".pep.xml");
+                    final Path pepxml_rank = is_DIA ? Paths.get(basename + "_rank" + rank + ".pepXML") :
+                            Paths.get(basename + ".pepXML");
+
+                    try (final BufferedReader brpepxml = Files.newBufferedReader(pepxml_rank);
+                         final BufferedWriter out = Files.newBufferedWriter(output_rank)) {
+                        String line;
+                        while ((line = brpepxml.readLine()) != null) {
+                            if (line.trim().startsWith("<msms_run_summary")) {
+                                Matcher matcher1 = pattern1.matcher(line);
+                                if (matcher1.find()) {
+                                    line = matcher1.replaceFirst(Matcher.quoteReplacement("base_name=\"" + StringUtils.upToLastDot(lcms) + "\""));
+
+                                    Matcher matcher2 = pattern2.matcher(line);
+                                    if (matcher2.find()) {
+                                        line = matcher2.replaceFirst("raw_data_type=\"" + StringUtils.afterLastDot(lcms) + "\"");
+                                    }
+
+                                    Matcher matcher3 = pattern3.matcher(line);
+                                    if (matcher3.find()) {
+                                        line = matcher3.replaceFirst("raw_data=\"" + StringUtils.afterLastDot(lcms) + "\"");
+                                    }
+                                } else {
+                                    throw new IllegalStateException("Could not find the base_name from " + pepxml_rank);
+                                }
                             }
 
-                            Matcher matcher3 = pattern3.matcher(line);
-                            if (matcher3.find()) {
-                                line = matcher3.replaceFirst("raw_data=\"" + StringUtils.afterLastDot(lcmsPath) + "\"");
+                            out.write(line + "\n");
+
+                            if (line.trim().startsWith("<msms_pipeline_analysis ")) {
+                                final String now = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").format(LocalDateTime.now());
+                                final String tmp = String.format(Locale.ROOT,
+                                        "<analysis_summary analysis=\"Percolator\" time=\"%s\">\n" +
+                                        "<peptideprophet_summary min_prob=\"%.2f\">\n" +
+                                        "<inputfile name=\"%s\"/>\n" +
+                                        "</peptideprophet_summary>\n" +
+                                        "</analysis_summary>\n" +
+                                        "<analysis_summary analysis=\"database_refresh\" time=\"%s\"/>\n" +
+                                        "<analysis_summary analysis=\"interact\" time=\"%s\">\n" +
+                                        "<interact_summary filename=\"%s\" directory=\"\">\n" +
+                                        "<inputfile name=\"%s\"/>\n" +
+                                        "</interact_summary>\n" +
+                                        "</analysis_summary>\n" +
+                                        "<dataset_derivation generation_no=\"0\"/>\n",
+                                        now, minProb, pepxml_rank.toAbsolutePath(), now, now, output_rank.toAbsolutePath(), pepxml_rank.toAbsolutePath());
+                                out.write(tmp);
                             }
-                        } else {
-                            System.err.printf("Could not find the base_name from " + pepxml_rank);
-                            System.exit(1);
+                            if (line.trim().equals("</search_summary>"))
+                                break;
                         }
-                    }
 
-                    out.write(line + "\n");
-
-                    if (line.trim().startsWith("<msms_pipeline_analysis ")) {
-                        final String now = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").format(LocalDateTime.now());
-                        final String tmp = String.format(
-                                "<analysis_summary analysis=\"Percolator\" time=\"%s\">\n" +
-                                "<peptideprophet_summary min_prob=\"%.2f\">\n" +
-                                "<inputfile name=\"%s\"/>\n" +
-                                "</peptideprophet_summary>\n" +
-                                "</analysis_summary>\n" +
-                                "<analysis_summary analysis=\"database_refresh\" time=\"%s\"/>\n" +
-                                "<analysis_summary analysis=\"interact\" time=\"%s\">\n" +
-                                "<interact_summary filename=\"%s\" directory=\"\">\n" +
-                                "<inputfile name=\"%s\"/>\n" +
-                                "</interact_summary>\n" +
-                                "</analysis_summary>\n" +
-                                "<dataset_derivation generation_no=\"0\"/>\n",
-                                now, minProb, pepxml_rank.toAbsolutePath(), now, now, output_rank.toAbsolutePath(), pepxml_rank.toAbsolutePath());
-                        out.write(tmp);
-                    }
-                    if (line.trim().equals("</search_summary>"))
-                        break;
-                }
-
-                while ((line = brpepxml.readLine()) != null) {
-                    if (line.trim().startsWith("<spectrum_query")) {
-                        final List<String> sq = new ArrayList<>();
-                        sq.add(line);
                         while ((line = brpepxml.readLine()) != null) {
-                            sq.add(line);
-                            if (line.trim().equals("</spectrum_query>")) {
-                                out.write(handle_spectrum_query(sq, pinSpectrumRankNttNmc, pinSpectrumRankPepScore, is_DIA, rank));
-                                break;
+                            if (line.trim().startsWith("<spectrum_query")) {
+                                final List<String> sq = new ArrayList<>();
+                                sq.add(line);
+                                while ((line = brpepxml.readLine()) != null) {
+                                    sq.add(line);
+                                    if (line.trim().equals("</spectrum_query>")) {
+                                        out.write(handle_spectrum_query(sq, pinSpectrumRankNttNmc, pinSpectrumRankPepScore, is_DIA, rank));
+                                        break;
+                                    }
+                                }
                             }
                         }
+                        out.write("</msms_run_summary>\n" +
+                                "</msms_pipeline_analysis>");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                }
-                out.write("</msms_run_summary>\n" +
-                        "</msms_pipeline_analysis>");
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+                }));
             }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing pepXML", e);
+        } finally {
+            exec.shutdownNow();
         }
     }
 
 
     static class NttNmc {
 
+        static final int COLUMNS = 4;
+
         final int ntt;
         final int nmc;
         final float spectralSimilarity;
@@ -479,11 +600,30 @@ public class PercolatorOutputToPepXML {
             this.spectralSimilarity = spectralSimilarity;
             this.RTscore = RTscore;
         }
+
+        /**
+         * @return Values for all ranks of the spectrum, null if there are none.
+         */
+        static NttNmc[] of(final SpectrumRankTable table, final long spectrum) {
+            if (!table.contains(spectrum)) {
+                return null;
+            }
+            final NttNmc[] a = new NttNmc[table.ranks()];
+            for (int rank = 1; rank <= a.length; ++rank) {
+                final int slot = table.slot(spectrum, rank);
+                if (slot >= 0) {
+                    a[rank - 1] = new NttNmc((int) table.get(slot, 0), (int) table.get(slot, 1), (float) table.get(slot, 2), (float) table.get(slot, 3));
+                }
+            }
+            return a;
+        }
     }
 
 
     static class PepScore {
 
+        static final int COLUMNS = 2;
+
         final double pep;
         final double score;
 
@@ -491,5 +631,22 @@ public class PercolatorOutputToPepXML {
             this.pep = pep;
             this.score = score;
         }
+
+        /**
+         * @return Values for all ranks of the spectrum, null if there are none.
+         */
+        static PepScore[] of(final SpectrumRankTable table, final long spectrum) {
+            if (!table.contains(spectrum)) {
+                return null;
+            }
+            final PepScore[] a = new PepScore[table.ranks()];
+            for (int rank = 1; rank <= a.length; ++rank) {
+                final int slot = table.slot(spectrum, rank);
+                if (slot >= 0) {
+                    a[rank - 1] = new PepScore(table.get(slot, 0), table.get(slot, 1));
+                }
+            }
+            return a;
+        }
     }
 }
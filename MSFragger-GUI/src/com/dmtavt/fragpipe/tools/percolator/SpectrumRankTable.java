@@ -0,0 +1,170 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.percolator;
+
+import java.util.Arrays;
+
+/**
+ * Values for (spectrum, rank) pairs kept in primitive arrays. Spectra are identified by their
+ * start and end scan packed into a long (see {@link #spectrumKey(String, int)}), values are
+ * stored in a fixed number of double columns. This replaces maps keyed by spectrum strings with
+ * arrays of small objects, which took several times the memory of the data itself for large pin
+ * files.
+ */
+final class SpectrumRankTable {
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final int ranks;
+  private final int columns;
+
+  // open addressing hash table: spectrum key -> block number
+  private long[] keys;
+  private int[] blocks;
+  private int size;
+
+  // block b holds ranks for one spectrum: slot = b * ranks + (rank - 1)
+  private boolean[] present;
+  private double[] values; // slot * columns + column
+
+  SpectrumRankTable(int ranks, int columns) {
+    if (ranks < 1 || columns < 1) {
+      throw new IllegalArgumentException("Ranks and columns must be positive");
+    }
+    this.ranks = ranks;
+    this.columns = columns;
+    keys = new long[1024];
+    Arrays.fill(keys, EMPTY);
+    blocks = new int[keys.length];
+    present = new boolean[256 * ranks];
+    values = new double[present.length * columns];
+  }
+
+  int ranks() {
+    return ranks;
+  }
+
+  /**
+   * Start and end scan of a spectrum id like {@code basename.start.end}, which is how pepXML
+   * spectrum attributes and pin SpecIds look after the charge part was cut off.
+   *
+   * @param end Index where the spectrum id ends in the string.
+   */
+  static long spectrumKey(String s, int end) {
+    final int dotEnd = s.lastIndexOf('.', end - 1);
+    final int dotStart = dotEnd > 0 ? s.lastIndexOf('.', dotEnd - 1) : -1;
+    if (dotStart < 0) {
+      throw new IllegalStateException("Cannot parse start and end scan from: " + s);
+    }
+    try {
+      final int startScan = Integer.parseInt(s, dotStart + 1, dotEnd, 10);
+      final int endScan = Integer.parseInt(s, dotEnd + 1, end, 10);
+      return ((long) startScan << 32) | (endScan & 0xffffffffL);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Cannot parse start and end scan from: " + s, e);
+    }
+  }
+
+  /**
+   * Sets all columns of the (spectrum, rank) pair.
+   */
+  void put(long spectrum, int rank, double... vals) {
+    if (rank < 1 || rank > ranks) {
+      throw new IllegalArgumentException("Rank " + rank + " is out of range 1.." + ranks);
+    }
+    final int slot = block(spectrum, true) * ranks + rank - 1;
+    present[slot] = true;
+    System.arraycopy(vals, 0, values, slot * columns, columns);
+  }
+
+  /**
+   * @return True if any rank was stored for the spectrum.
+   */
+  boolean contains(long spectrum) {
+    return block(spectrum, false) >= 0;
+  }
+
+  /**
+   * @return Slot of the (spectrum, rank) pair to be used with {@link #get(int, int)}, or -1 if
+   * nothing was stored for it.
+   */
+  int slot(long spectrum, int rank) {
+    final int b = block(spectrum, false);
+    if (b < 0 || rank < 1 || rank > ranks) {
+      return -1;
+    }
+    final int slot = b * ranks + rank - 1;
+    return present[slot] ? slot : -1;
+  }
+
+  double get(int slot, int column) {
+    return values[slot * columns + column];
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int block(long key, boolean create) {
+    if (key == EMPTY) {
+      throw new IllegalArgumentException("Unsupported spectrum key");
+    }
+    int mask = keys.length - 1;
+    int i = mix(key) & mask;
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        return blocks[i];
+      }
+      i = (i + 1) & mask;
+    }
+    if (!create) {
+      return -1;
+    }
+    final int b = size++;
+    if ((b + 1) * ranks > present.length) {
+      present = Arrays.copyOf(present, present.length * 2);
+      values = Arrays.copyOf(values, present.length * columns);
+    }
+    keys[i] = key;
+    blocks[i] = b;
+    if (size * 2 > keys.length) {
+      rehash();
+    }
+    return b;
+  }
+
+  private void rehash() {
+    final long[] oldKeys = keys;
+    final int[] oldBlocks = blocks;
+    keys = new long[oldKeys.length * 2];
+    Arrays.fill(keys, EMPTY);
+    blocks = new int[keys.length];
+    final int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != EMPTY) {
+        int i = mix(oldKeys[j]) & mask;
+        while (keys[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        blocks[i] = oldBlocks[j];
+      }
+    }
+  }
+}
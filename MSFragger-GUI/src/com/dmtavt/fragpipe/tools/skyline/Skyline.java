@@ -28,6 +28,7 @@ import com.dmtavt.fragpipe.exceptions.UnexpectedException;
 import com.dmtavt.fragpipe.exceptions.ValidationException;
 import com.dmtavt.fragpipe.process.ProcessResult;
 import com.dmtavt.fragpipe.tools.skyline.WriteSkyMods.Mod;
+import com.dmtavt.fragpipe.util.WorkdirIndex;
 import com.github.chhh.utils.PathUtils;
 import com.github.chhh.utils.ProcessUtils;
 import java.io.BufferedReader;
@@ -44,7 +45,6 @@ import java.util.List;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.jooq.lambda.Seq;
@@ -116,7 +116,8 @@ public class Skyline {
 
       float probThreshold = 1.1f;
       TreeSet<Path> pepxmlFiles = new TreeSet<>();
-      List<Path> speclibFiles = Files.walk(wd).filter(p -> p.getFileName().toString().endsWith(".speclib")).collect(Collectors.toList());
+      final WorkdirIndex wdIndex = WorkdirIndex.scan(wd);
+      List<Path> speclibFiles = wdIndex.find(fn -> fn.endsWith(".speclib"));
 
       if (mode == 0 && speclibFiles.isEmpty()) {
         System.out.println("No speclib files found in " + wd + " but Skyline was set to use the speclib as input. Let Skyline build its own speclib.");
@@ -124,7 +125,7 @@ public class Skyline {
       }
 
       if (mode == 1) {
-        List<Path> logFiles = Files.walk(wd).filter(p -> p.getFileName().toString().contentEquals("filter.log")).collect(Collectors.toList());
+        List<Path> logFiles = wdIndex.find(fn -> fn.contentEquals("filter.log"));
 
         if (logFiles.isEmpty()) {
           throw new FileNotFoundException("No filter.log files found in " + wd);
@@ -150,8 +151,7 @@ public class Skyline {
           throw new RuntimeException("Could not find the probability threshold in the filter.log.");
         }
 
-        pepxmlFiles = Files.walk(wd).filter(p -> p.getFileName().toString().startsWith("interact-") && p.getFileName().toString().endsWith(".pep.xml")).collect(Collectors.toCollection(TreeSet::new));
-        pepxmlFiles.addAll(Files.walk(wd).filter(p -> p.getFileName().toString().contentEquals("interact.pep.xml")).collect(Collectors.toCollection(TreeSet::new)));
+        pepxmlFiles.addAll(wdIndex.find(fn -> (fn.startsWith("interact-") && fn.endsWith(".pep.xml")) || fn.contentEquals("interact.pep.xml")));
       }
 
       Path skylineOutputDir = wd.resolve("skyline-output");
@@ -254,7 +254,7 @@ public class Skyline {
       }
       writer.write("--import-search-exclude-library-sources ");
 
-      Files.walk(wd).filter(p -> p.getFileName().toString().contentEquals("protein.fas")).forEach(p -> {
+      wdIndex.find(fn -> fn.contentEquals("protein.fas")).forEach(p -> {
         try {
           writer.write("--import-fasta=" + p.toAbsolutePath() + " ");
         } catch (IOException ex) {
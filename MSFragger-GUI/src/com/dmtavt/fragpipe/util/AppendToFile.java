@@ -28,6 +28,16 @@ public class AppendToFile {
     }
 
     public static void main(String[] args) {
+        int exitCode = run(args, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
         try {
             /* Args:
              * - file to append to
@@ -35,9 +45,10 @@ public class AppendToFile {
              */
             appendMassesFileContents(args[0].trim(), args[1].trim());
         } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+            e.printStackTrace(err);
+            return 1;
         }
+        return 0;
     }
 
     /**
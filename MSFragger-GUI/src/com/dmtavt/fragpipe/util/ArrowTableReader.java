@@ -0,0 +1,476 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import org.apache.arrow.flatbuf.Buffer;
+import org.apache.arrow.flatbuf.FieldNode;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.FloatingPointVector;
+import org.apache.arrow.vector.TypeLayout;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.ipc.message.ArrowFieldNode;
+import org.apache.arrow.vector.ipc.message.MessageMetadataResult;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Reads tables from Arrow IPC files, like the ones written by {@link ArrowTableWriter}. Only the
+ * buffers of the selected columns are read from the file, the record batches are read by several
+ * threads at once. Columns must be flat (strings, numbers), dictionaries and compressed files are
+ * not supported.
+ */
+public class ArrowTableReader implements TableReader<ArrowTableReader.Row> {
+
+  private final Path path;
+  private final FileChannel channel;
+  private final BufferAllocator allocator;
+  private final boolean ownAllocator;
+  private final Schema schema;
+  private final String[] header;
+  private final List<ArrowBlock> blocks;
+  /** Index of the first buffer of every column in a record batch. */
+  private final int[] firstBuffer;
+  private final int[] bufferCount;
+  private boolean[] selected;
+
+  public ArrowTableReader(Path path) throws IOException {
+    this(path, null);
+  }
+
+  /**
+   * @param allocator Allocator for the read columns, one of its own if null. Columns can only be
+   * moved to an {@link ArrowTableWriter} with the same root allocator.
+   */
+  public ArrowTableReader(Path path, BufferAllocator allocator) throws IOException {
+    this.path = path;
+    this.ownAllocator = allocator == null;
+    this.allocator = allocator == null ? new RootAllocator() : allocator;
+    try {
+      try (ArrowFileReader reader = new ArrowFileReader(FileChannel.open(path, StandardOpenOption.READ), this.allocator)) {
+        schema = reader.getVectorSchemaRoot().getSchema();
+        if (!reader.getDictionaryBlocks().isEmpty()) {
+          throw new IOException("Dictionary encoded columns are not supported: " + path.toAbsolutePath());
+        }
+        blocks = new ArrayList<>(reader.getRecordBlocks());
+      }
+
+      List<Field> fields = schema.getFields();
+      header = new String[fields.size()];
+      firstBuffer = new int[fields.size()];
+      bufferCount = new int[fields.size()];
+      for (int i = 0; i < fields.size(); ++i) {
+        Field field = fields.get(i);
+        if (!field.getChildren().isEmpty() || field.getDictionary() != null) {
+          throw new IOException("Column " + field.getName() + " is not a flat column in " + path.toAbsolutePath());
+        }
+        header[i] = field.getName();
+        bufferCount[i] = TypeLayout.getTypeBufferCount(field.getType());
+        firstBuffer[i] = i == 0 ? 0 : firstBuffer[i - 1] + bufferCount[i - 1];
+      }
+      selected = new boolean[header.length];
+      Arrays.fill(selected, true);
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+    } catch (IOException | RuntimeException e) {
+      if (ownAllocator) {
+        this.allocator.close();
+      }
+      throw e;
+    }
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  public Schema schema() {
+    return schema;
+  }
+
+  @Override
+  public String[] header() {
+    return header.clone();
+  }
+
+  /**
+   * @return Index of the column with the given name, -1 if there is none.
+   */
+  public int column(String name) {
+    for (int i = 0; i < header.length; ++i) {
+      if (header[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return Indices of the named columns, in the same order.
+   * @throws IllegalStateException If any of the columns is missing.
+   */
+  public int[] columns(String... names) {
+    int[] columns = new int[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      columns[i] = column(names[i]);
+      if (columns[i] < 0) {
+        throw new IllegalStateException("Column " + names[i] + " is missing in " + path.toAbsolutePath());
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Only the given columns are read from the file, the others read as empty. All columns are read
+   * by default.
+   *
+   * @return This reader.
+   */
+  @Override
+  public ArrowTableReader select(int... columns) {
+    boolean[] selected = new boolean[header.length];
+    for (int column : columns) {
+      selected[column] = true;
+    }
+    this.selected = selected;
+    return this;
+  }
+
+  /**
+   * Reads the rows in order. The row given to the consumer is reused for the next row.
+   */
+  public void forEach(RowConsumer consumer) throws IOException {
+    for (ArrowBlock block : blocks) {
+      try (Batch batch = readBatch(block)) {
+        Row row = batch.row();
+        for (int i = 0; i < batch.rowCount(); ++i) {
+          consumer.accept(row.at(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Same as {@link TsvReader#scanOrdered}, every record batch of the file is one block.
+   */
+  @Override
+  public <A> void scanOrdered(int nThreads, Supplier<A> accumulator, BiConsumer<A, Row> onRow, BlockConsumer<A> onBlock) throws IOException, InterruptedException {
+    scanBatches(nThreads, batch -> {
+      A acc = accumulator.get();
+      Row row = batch.row();
+      for (int i = 0; i < batch.rowCount(); ++i) {
+        onRow.accept(acc, row.at(i));
+      }
+      return acc;
+    }, onBlock);
+  }
+
+  /**
+   * Reads up to {@code nThreads} record batches at the same time and gives the results of
+   * {@code onBatch} to {@code onBlock} in file order, on the calling thread. A batch is closed when
+   * {@code onBatch} returns, columns that should live longer have to be moved out of it.
+   */
+  public <A> void scanBatches(int nThreads, BatchFunction<A> onBatch, BlockConsumer<A> onBlock) throws IOException, InterruptedException {
+    if (nThreads <= 1) {
+      for (ArrowBlock block : blocks) {
+        try (Batch batch = readBatch(block)) {
+          onBlock.accept(onBatch.apply(batch));
+        }
+      }
+      return;
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+    try {
+      final Deque<Future<A>> pending = new ArrayDeque<>();
+      for (final ArrowBlock block : blocks) {
+        pending.add(executorService.submit(() -> {
+          try (Batch batch = readBatch(block)) {
+            return onBatch.apply(batch);
+          }
+        }));
+        if (pending.size() >= 2 * nThreads) {
+          onBlock.accept(pending.poll().get());
+        }
+      }
+      while (!pending.isEmpty()) {
+        onBlock.accept(pending.poll().get());
+      }
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static IOException rethrow(ExecutionException e) {
+    if (e.getCause() instanceof IOException) {
+      return (IOException) e.getCause();
+    } else if (e.getCause() instanceof RuntimeException) {
+      throw (RuntimeException) e.getCause();
+    } else if (e.getCause() instanceof Error) {
+      throw (Error) e.getCause();
+    }
+    return new IOException(e.getCause());
+  }
+
+  /**
+   * Reads the buffers of the selected columns of a record batch, each one with a read of its own.
+   */
+  private Batch readBatch(ArrowBlock block) throws IOException {
+    ByteBuffer metadata = ByteBuffer.allocate(block.getMetadataLength());
+    readFully(metadata, block.getOffset());
+    MessageMetadataResult message = MessageSerializer.readMessage(new ReadChannel(Channels.newChannel(new ByteArrayInputStream(metadata.array()))));
+    if (message == null || message.headerType() != MessageHeader.RecordBatch) {
+      throw new IOException("No record batch at offset " + block.getOffset() + " of " + path.toAbsolutePath());
+    }
+    RecordBatch recordBatch = (RecordBatch) message.getMessage().header(new RecordBatch());
+    if (recordBatch.compression() != null) {
+      throw new IOException("Compressed record batches are not supported: " + path.toAbsolutePath());
+    }
+    final long bodyStart = block.getOffset() + block.getMetadataLength();
+
+    final List<Field> fields = schema.getFields();
+    final FieldVector[] vectors = new FieldVector[fields.size()];
+    final List<ArrowBuf> buffers = new ArrayList<>();
+    try {
+      for (int i = 0; i < vectors.length; ++i) {
+        if (!selected[i]) {
+          continue;
+        }
+        buffers.clear();
+        for (int j = 0; j < bufferCount[i]; ++j) {
+          Buffer buffer = recordBatch.buffers(firstBuffer[i] + j);
+          ArrowBuf buf = allocator.buffer(buffer.length());
+          buffers.add(buf);
+          readFully(buf.nioBuffer(0, Math.toIntExact(buffer.length())), bodyStart + buffer.offset());
+          buf.writerIndex(buffer.length());
+        }
+        FieldNode node = recordBatch.nodes(i);
+        vectors[i] = fields.get(i).createVector(allocator);
+        vectors[i].loadFieldBuffers(new ArrowFieldNode(node.length(), node.nullCount()), buffers);
+        for (ArrowBuf buf : buffers) {
+          buf.close(); // the vector holds its own reference
+        }
+        buffers.clear();
+      }
+    } catch (IOException | RuntimeException e) {
+      for (ArrowBuf buf : buffers) {
+        buf.close();
+      }
+      for (FieldVector vector : vectors) {
+        if (vector != null) {
+          vector.close();
+        }
+      }
+      throw e;
+    }
+    return new Batch(Math.toIntExact(recordBatch.length()), vectors);
+  }
+
+  private void readFully(ByteBuffer bb, long position) throws IOException {
+    while (bb.hasRemaining()) {
+      int read = channel.read(bb, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + path.toAbsolutePath());
+      }
+      position += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      if (ownAllocator) {
+        allocator.close();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface RowConsumer {
+
+    void accept(Row row) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface BatchFunction<A> {
+
+    A apply(Batch batch) throws IOException;
+  }
+
+  /**
+   * The selected columns of one record batch.
+   */
+  public static final class Batch implements AutoCloseable {
+
+    private final int rowCount;
+    private final FieldVector[] vectors;
+
+    private Batch(int rowCount, FieldVector[] vectors) {
+      this.rowCount = rowCount;
+      this.vectors = vectors;
+    }
+
+    public int rowCount() {
+      return rowCount;
+    }
+
+    /**
+     * @return The column, null if it was not selected.
+     */
+    public FieldVector vector(int column) {
+      return vectors[column];
+    }
+
+    /**
+     * @return A row of this batch at index 0, which can be moved with {@link Row#at(int)}.
+     */
+    public Row row() {
+      return new Row(vectors);
+    }
+
+    @Override
+    public void close() {
+      for (FieldVector vector : vectors) {
+        if (vector != null) {
+          vector.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * One row of a record batch. Columns that were not selected and null values read as empty.
+   */
+  public static final class Row implements TableRow {
+
+    private final FieldVector[] vectors;
+    private int index;
+
+    private Row(FieldVector[] vectors) {
+      this.vectors = vectors;
+    }
+
+    /** @return This row, moved to the given index of the batch. */
+    public Row at(int index) {
+      this.index = index;
+      return this;
+    }
+
+    private FieldVector value(int i) {
+      if (i >= vectors.length || vectors[i] == null || vectors[i].isNull(index)) {
+        return null;
+      }
+      return vectors[i];
+    }
+
+    @Override
+    public int size() {
+      return vectors.length;
+    }
+
+    @Override
+    public String getString(int i) {
+      FieldVector v = value(i);
+      if (v == null) {
+        return "";
+      } else if (v instanceof VarCharVector) {
+        return new String(((VarCharVector) v).get(index), StandardCharsets.UTF_8);
+      }
+      return String.valueOf(v.getObject(index));
+    }
+
+    @Override
+    public boolean isBlank(int i) {
+      FieldVector v = value(i);
+      if (v == null) {
+        return true;
+      } else if (v instanceof VarCharVector) {
+        for (byte b : ((VarCharVector) v).get(index)) {
+          if (b > ' ') {
+            return false;
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public int getInt(int i) {
+      FieldVector v = value(i);
+      if (v instanceof BaseIntVector) {
+        return Math.toIntExact(((BaseIntVector) v).getValueAsLong(index));
+      }
+      return Integer.parseInt(getString(i).trim());
+    }
+
+    @Override
+    public float getFloat(int i) {
+      FieldVector v = value(i);
+      if (v instanceof FloatingPointVector) {
+        return (float) ((FloatingPointVector) v).getValueAsDouble(index);
+      } else if (v instanceof BaseIntVector) {
+        return ((BaseIntVector) v).getValueAsLong(index);
+      }
+      return Float.parseFloat(getString(i));
+    }
+
+    @Override
+    public double getDouble(int i) {
+      FieldVector v = value(i);
+      if (v instanceof FloatingPointVector) {
+        return ((FloatingPointVector) v).getValueAsDouble(index);
+      } else if (v instanceof BaseIntVector) {
+        return ((BaseIntVector) v).getValueAsLong(index);
+      }
+      return Double.parseDouble(getString(i));
+    }
+  }
+}
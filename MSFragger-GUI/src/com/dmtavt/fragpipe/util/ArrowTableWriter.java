@@ -0,0 +1,192 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Writes tables to Arrow IPC files. Rows are put into blocks, which can be filled by several
+ * threads at once. Every block is one record batch of the file, blocks are written in the order
+ * they are given to {@link #write(Block)}.
+ */
+public class ArrowTableWriter implements Closeable {
+
+  private final BufferAllocator allocator;
+  private final boolean ownAllocator;
+  private final Schema schema;
+  private final VectorSchemaRoot root;
+  private final ArrowFileWriter writer;
+
+  public ArrowTableWriter(Path path, Schema schema) throws IOException {
+    this(path, schema, null);
+  }
+
+  /**
+   * @param allocator Allocator for the blocks, one of its own if null.
+   */
+  public ArrowTableWriter(Path path, Schema schema, BufferAllocator allocator) throws IOException {
+    this.ownAllocator = allocator == null;
+    this.allocator = allocator == null ? new RootAllocator() : allocator;
+    this.schema = schema;
+    root = VectorSchemaRoot.create(schema, this.allocator);
+    try {
+      writer = new ArrowFileWriter(root, null, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+      writer.start();
+    } catch (IOException | RuntimeException e) {
+      root.close();
+      if (ownAllocator) {
+        this.allocator.close();
+      }
+      throw e;
+    }
+  }
+
+  public static Field utf8(String name) {
+    return Field.nullable(name, ArrowType.Utf8.INSTANCE);
+  }
+
+  public static Field int32(String name) {
+    return Field.nullable(name, new ArrowType.Int(32, true));
+  }
+
+  public static Field float64(String name) {
+    return Field.nullable(name, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE));
+  }
+
+  public Schema schema() {
+    return schema;
+  }
+
+  /**
+   * @return An empty block with the columns of this file.
+   */
+  public Block newBlock() {
+    VectorSchemaRoot blockRoot = VectorSchemaRoot.create(schema, allocator);
+    blockRoot.allocateNew();
+    return new Block(blockRoot);
+  }
+
+  /**
+   * Writes the block as the next record batch and closes it.
+   */
+  public void write(Block block) throws IOException {
+    try (Block b = block) {
+      b.root.setRowCount(b.rowCount);
+      try (ArrowRecordBatch recordBatch = new VectorUnloader(b.root).getRecordBatch()) {
+        new VectorLoader(root).load(recordBatch);
+      }
+      writer.writeBatch();
+    }
+  }
+
+  /**
+   * Writes the footer of the file and closes it.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      writer.end();
+    } finally {
+      try {
+        writer.close();
+        root.close();
+      } finally {
+        if (ownAllocator) {
+          allocator.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Rows of one record batch. Values not set are null.
+   */
+  public static final class Block implements AutoCloseable {
+
+    private final VectorSchemaRoot root;
+    private int rowCount;
+
+    private Block(VectorSchemaRoot root) {
+      this.root = root;
+    }
+
+    public int rowCount() {
+      return rowCount;
+    }
+
+    /**
+     * @return Index of the new row.
+     */
+    public int addRow() {
+      return rowCount++;
+    }
+
+    public void setString(int column, int row, String value) {
+      if (value != null) {
+        ((VarCharVector) root.getVector(column)).setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+      }
+      rowCount = Math.max(rowCount, row + 1);
+    }
+
+    public void setInt(int column, int row, int value) {
+      ((IntVector) root.getVector(column)).setSafe(row, value);
+      rowCount = Math.max(rowCount, row + 1);
+    }
+
+    public void setDouble(int column, int row, double value) {
+      ((Float8Vector) root.getVector(column)).setSafe(row, value);
+      rowCount = Math.max(rowCount, row + 1);
+    }
+
+    /**
+     * Moves the values of a column read by {@link ArrowTableReader} into this block without
+     * copying them. The reader has to use the same root allocator as the writer.
+     */
+    public void transfer(int column, FieldVector from) {
+      FieldVector to = root.getVector(column);
+      to.clear();
+      from.makeTransferPair(to).transfer();
+      rowCount = Math.max(rowCount, to.getValueCount());
+    }
+
+    @Override
+    public void close() {
+      root.close();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds LC-MS files in folders added by the user. Folders are listed in parallel, down to
+ * {@link #MAX_DEPTH} levels. Anything the predicate accepts is taken as is, so Bruker {@code .d}
+ * and Waters {@code .raw} directories are never descended into.
+ * <p>
+ * Directory listings are remembered together with the directory modification time, adding the
+ * same cohort again, or a folder next to it, only lists the directories that changed.
+ */
+public final class LcmsDiscovery {
+
+  private static final Logger log = LoggerFactory.getLogger(LcmsDiscovery.class);
+  public static final int MAX_DEPTH = 32;
+  /** Listings kept, the cache is dropped as a whole when it grows past this. */
+  private static final int MAX_LISTINGS = 200_000;
+  /** Listing directories is mostly waiting for the disk, more threads than cores help on network drives. */
+  private static final ForkJoinPool pool = new ForkJoinPool(Math.max(4, Math.min(16, 2 * Runtime.getRuntime().availableProcessors())));
+  private static final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+
+  private LcmsDiscovery() {
+  }
+
+  private static class Listing {
+
+    final long mtime;
+    /** Sorted by name. */
+    final List<Path> files;
+    /** Sorted by name. */
+    final List<Path> dirs;
+
+    Listing(long mtime, List<Path> files, List<Path> dirs) {
+      this.mtime = mtime;
+      this.files = files;
+      this.dirs = dirs;
+    }
+  }
+
+  /**
+   * @param roots Files and folders to search. A root accepted by the predicate is returned as is.
+   * @param accept Decides by the path alone, the same way for files and directories.
+   * @return Accepted paths, in the order of the roots, then sorted by name within each folder.
+   */
+  public static List<Path> find(Collection<Path> roots, Predicate<Path> accept) {
+    final List<Path> accepted = new ArrayList<>();
+    for (Path root : roots) {
+      final Path abs = root.toAbsolutePath();
+      if (accept.test(abs)) {
+        accepted.add(abs);
+      } else if (Files.isDirectory(abs)) {
+        accepted.addAll(pool.invoke(new Scan(abs, accept, 0)));
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * @return The paths that do not exist, checked in parallel.
+   */
+  public static Set<Path> missing(Collection<Path> paths) {
+    return pool.submit(() -> paths.parallelStream().filter(p -> !Files.exists(p)).collect(Collectors.toSet())).join();
+  }
+
+  private static class Scan extends RecursiveTask<List<Path>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final Predicate<Path> accept;
+    private final int depth;
+
+    Scan(Path dir, Predicate<Path> accept, int depth) {
+      this.dir = dir;
+      this.accept = accept;
+      this.depth = depth;
+    }
+
+    @Override
+    protected List<Path> compute() {
+      final Listing listing = list(dir);
+      final List<Path> accepted = new ArrayList<>();
+      for (Path f : listing.files) {
+        if (accept.test(f)) {
+          accepted.add(f);
+        }
+      }
+      // accepted directories stay in name order among the files
+      final List<Scan> subs = new ArrayList<>();
+      for (Path d : listing.dirs) {
+        if (accept.test(d)) {
+          accepted.add(d);
+        } else if (depth < MAX_DEPTH) {
+          subs.add(new Scan(d, accept, depth + 1));
+        } else {
+          log.warn("Not looking for LC-MS files deeper than {} levels: {}", MAX_DEPTH, d);
+        }
+      }
+      Collections.sort(accepted);
+      invokeAll(subs);
+      for (Scan sub : subs) {
+        accepted.addAll(sub.join());
+      }
+      return accepted;
+    }
+  }
+
+  private static Listing list(Path dir) {
+    final long mtime;
+    try {
+      mtime = Files.getLastModifiedTime(dir).toMillis();
+    } catch (IOException e) {
+      log.error("Error listing " + dir, e);
+      return new Listing(0, Collections.emptyList(), Collections.emptyList());
+    }
+    final Listing cached = listings.get(dir);
+    if (cached != null && cached.mtime == mtime) {
+      return cached;
+    }
+
+    final List<Path> files = new ArrayList<>();
+    final List<Path> dirs = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        boolean isDir;
+        try {
+          isDir = Files.readAttributes(p, BasicFileAttributes.class).isDirectory();
+        } catch (IOException e) {
+          isDir = false; // broken link, the name is still worth a look
+        }
+        (isDir ? dirs : files).add(p);
+      }
+    } catch (IOException e) {
+      log.error("Error listing " + dir, e);
+      return new Listing(mtime, Collections.emptyList(), Collections.emptyList());
+    }
+    Collections.sort(files);
+    Collections.sort(dirs);
+    final Listing listing = new Listing(mtime, files, dirs);
+    if (listings.size() >= MAX_LISTINGS) {
+      listings.clear();
+    }
+    listings.put(dir, listing);
+    return listing;
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import umich.ms.datatypes.scan.IScan;
+import umich.ms.datatypes.scan.props.ActivationInfo;
+import umich.ms.datatypes.scan.props.Instrument;
+import umich.ms.datatypes.scan.props.PrecursorInfo;
+import umich.ms.datatypes.spectrum.ISpectrum;
+
+/**
+ * Writes an mzML file one spectrum at a time, so the spectra of a run never have to be in memory
+ * together. Spectrum IDs use the Thermo nativeID format, same as the other mzML files FragPipe
+ * writes. The spectrum count is only known at the end, it is patched into a fixed-width
+ * placeholder when the writer is closed.
+ */
+class MzmlStreamWriter implements AutoCloseable {
+
+  private static final String NATIVE_ID = "controllerType=0 controllerNumber=1 scan=";
+  private static final int COUNT_WIDTH = 12;
+  /** Dissociation methods: accession, name, then the short names batmass and the vendors use. */
+  private static final String[][] DISSOCIATION_METHODS = {
+      {"MS:1002631", "electron-transfer/higher-energy collision dissociation", "ETHCD"},
+      {"MS:1002679", "electron-transfer/collision-induced dissociation", "ETCID"},
+      {"MS:1000422", "beam-type collision-induced dissociation", "HCD"},
+      {"MS:1000133", "collision-induced dissociation", "CID"},
+      {"MS:1000598", "electron transfer dissociation", "ETD"},
+      {"MS:1000250", "electron capture dissociation", "ECD"},
+      {"MS:1000599", "pulsed q dissociation", "PQD"},
+      {"MS:1000262", "infrared multiphoton dissociation", "IRMPD"},
+      {"MS:1003246", "ultraviolet photodissociation", "UVPD"},
+  };
+
+  private final Path path;
+  private final Writer out;
+  private final long countOffset;
+  private final Deflater deflater = new Deflater();
+  private ByteBuffer raw = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+  private byte[] compressed = new byte[1 << 16];
+  private int count = 0;
+
+  /**
+   * @param instrument Instrument of the source run, may be null if not known.
+   * @param processing Names of the processing steps, written as user params.
+   */
+  MzmlStreamWriter(Path path, String sourcePath, String runName, String software, String softwareVersion, Instrument instrument, String... processing) throws IOException {
+    this.path = path;
+    final Path source = path.getFileSystem().getPath(sourcePath).toAbsolutePath();
+    final String sourceName = source.getFileName().toString();
+    final String lower = sourceName.toLowerCase();
+    final String format;
+    if (lower.endsWith(".raw")) {
+      format = cv("MS:1000563", "Thermo RAW format", "");
+    } else if (lower.endsWith(".mzxml")) {
+      format = cv("MS:1000566", "ISB mzXML format", "");
+    } else {
+      format = cv("MS:1000584", "mzML format", "");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml http://psidev.info/files/ms/mzML/xsd/mzML1.1.0.xsd\" version=\"1.1.0\">\n");
+    sb.append("  <cvList count=\"2\">\n");
+    sb.append("    <cv id=\"MS\" fullName=\"Proteomics Standards Initiative Mass Spectrometry Ontology\" URI=\"https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo\"/>\n");
+    sb.append("    <cv id=\"UO\" fullName=\"Unit Ontology\" URI=\"https://raw.githubusercontent.com/bio-ontology-research-group/unit-ontology/master/unit.obo\"/>\n");
+    sb.append("  </cvList>\n");
+    sb.append("  <fileDescription>\n");
+    sb.append("    <fileContent>\n");
+    sb.append("      ").append(cv("MS:1000579", "MS1 spectrum", "")).append('\n');
+    sb.append("      ").append(cv("MS:1000580", "MSn spectrum", "")).append('\n');
+    sb.append("    </fileContent>\n");
+    sb.append("    <sourceFileList count=\"1\">\n");
+    sb.append("      <sourceFile id=\"RAW1\" name=\"").append(escape(sourceName)).append("\" location=\"").append(escape(source.getParent().toUri().toString())).append("\">\n");
+    sb.append("        ").append(cv("MS:1000768", "Thermo nativeID format", "")).append('\n');
+    sb.append("        ").append(format).append('\n');
+    sb.append("      </sourceFile>\n");
+    sb.append("    </sourceFileList>\n");
+    sb.append("  </fileDescription>\n");
+    sb.append("  <softwareList count=\"1\">\n");
+    sb.append("    <software id=\"").append(escape(software)).append("\" version=\"").append(escape(softwareVersion)).append("\">\n");
+    sb.append("      ").append(cv("MS:1000799", "custom unreleased software tool", software)).append('\n');
+    sb.append("    </software>\n");
+    sb.append("  </softwareList>\n");
+    sb.append("  <instrumentConfigurationList count=\"1\">\n");
+    sb.append("    <instrumentConfiguration id=\"IC1\">\n");
+    appendInstrument(sb, instrument);
+    sb.append("    </instrumentConfiguration>\n");
+    sb.append("  </instrumentConfigurationList>\n");
+    sb.append("  <dataProcessingList count=\"1\">\n");
+    sb.append("    <dataProcessing id=\"").append(escape(software)).append("_processing\">\n");
+    sb.append("      <processingMethod order=\"0\" softwareRef=\"").append(escape(software)).append("\">\n");
+    sb.append("        ").append(cv("MS:1000544", "Conversion to mzML", "")).append('\n');
+    for (String s : processing) {
+      sb.append("        ").append(userParam(s, "")).append('\n');
+    }
+    sb.append("      </processingMethod>\n");
+    sb.append("    </dataProcessing>\n");
+    sb.append("  </dataProcessingList>\n");
+    sb.append("  <run id=\"").append(escape(runName)).append("\" defaultInstrumentConfigurationRef=\"IC1\" defaultSourceFileRef=\"RAW1\">\n");
+    sb.append("    <spectrumList count=\"");
+    countOffset = sb.toString().getBytes(UTF_8).length;
+    sb.append(padCount(0)).append(" defaultDataProcessingRef=\"").append(escape(software)).append("_processing\">\n");
+
+    out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), UTF_8), 1 << 16);
+    out.write(sb.toString());
+  }
+
+  /**
+   * Appends a spectrum.
+   *
+   * @param scan Scan meta data: number, MS level, retention time and precursors.
+   * @param spectrum Peaks to write for the scan, may be null for an empty spectrum.
+   */
+  void write(IScan scan, ISpectrum spectrum) throws IOException {
+    final double[] mzs = spectrum == null || spectrum.getMZs() == null ? new double[0] : spectrum.getMZs();
+    final double[] intensities = spectrum == null || spectrum.getIntensities() == null ? new double[0] : spectrum.getIntensities();
+    final int msLevel = scan.getMsLevel();
+
+    out.write("      <spectrum index=\"" + count + "\" id=\"" + NATIVE_ID + scan.getNum() + "\" defaultArrayLength=\"" + mzs.length + "\">\n");
+    out.write("        " + (msLevel == 1 ? cv("MS:1000579", "MS1 spectrum", "") : cv("MS:1000580", "MSn spectrum", "")) + "\n");
+    out.write("        " + cv("MS:1000511", "ms level", String.valueOf(msLevel)) + "\n");
+    if (scan.isCentroided() != null) {
+      out.write("        " + (scan.isCentroided() ? cv("MS:1000127", "centroid spectrum", "") : cv("MS:1000128", "profile spectrum", "")) + "\n");
+    }
+    out.write("        <scanList count=\"1\">\n");
+    out.write("          " + cv("MS:1000795", "no combination", "") + "\n");
+    out.write("          <scan>\n");
+    if (scan.getRt() != null) {
+      out.write("            <cvParam cvRef=\"MS\" accession=\"MS:1000016\" name=\"scan start time\" value=\"" + scan.getRt() + "\" unitCvRef=\"UO\" unitAccession=\"UO:0000031\" unitName=\"minute\"/>\n");
+    }
+    out.write("          </scan>\n");
+    out.write("        </scanList>\n");
+
+    final List<PrecursorInfo> precursors = msLevel > 1 ? precursors(scan) : Collections.emptyList();
+    if (!precursors.isEmpty()) {
+      out.write("        <precursorList count=\"" + precursors.size() + "\">\n");
+      for (PrecursorInfo precursor : precursors) {
+        writePrecursor(precursor);
+      }
+      out.write("        </precursorList>\n");
+    }
+
+    out.write("        <binaryDataArrayList count=\"2\">\n");
+    writeArray(mzs, false, cv("MS:1000514", "m/z array", "", "MS:1000040", "m/z"));
+    writeArray(intensities, true, cv("MS:1000515", "intensity array", "", "MS:1000131", "number of detector counts"));
+    out.write("        </binaryDataArrayList>\n");
+    out.write("      </spectrum>\n");
+    ++count;
+  }
+
+  private static List<PrecursorInfo> precursors(IScan scan) {
+    if (scan.getPrecursors() != null && !scan.getPrecursors().isEmpty()) {
+      return scan.getPrecursors();
+    }
+    return scan.getPrecursor() == null ? Collections.emptyList() : Collections.singletonList(scan.getPrecursor());
+  }
+
+  private void writePrecursor(PrecursorInfo precursor) throws IOException {
+    if (precursor.getParentScanNum() != null) {
+      out.write("          <precursor spectrumRef=\"" + NATIVE_ID + precursor.getParentScanNum() + "\">\n");
+    } else {
+      out.write("          <precursor>\n");
+    }
+    final Double target = precursor.getMzTarget();
+    if (target != null) {
+      out.write("            <isolationWindow>\n");
+      out.write("              " + cv("MS:1000827", "isolation window target m/z", String.valueOf(target)) + "\n");
+      if (precursor.getMzRangeStart() != null && precursor.getMzRangeEnd() != null) {
+        out.write("              " + cv("MS:1000828", "isolation window lower offset", String.valueOf(target - precursor.getMzRangeStart())) + "\n");
+        out.write("              " + cv("MS:1000829", "isolation window upper offset", String.valueOf(precursor.getMzRangeEnd() - target)) + "\n");
+      }
+      out.write("            </isolationWindow>\n");
+    }
+    final Double selected = precursor.getMzTargetMono() != null ? precursor.getMzTargetMono() : target;
+    if (selected != null) {
+      out.write("            <selectedIonList count=\"1\">\n");
+      out.write("              <selectedIon>\n");
+      out.write("                " + cv("MS:1000744", "selected ion m/z", String.valueOf(selected)) + "\n");
+      if (precursor.getCharge() != null && precursor.getCharge() > 0) {
+        out.write("                " + cv("MS:1000041", "charge state", String.valueOf(precursor.getCharge())) + "\n");
+      }
+      if (precursor.getIntensity() != null) {
+        out.write("                " + cv("MS:1000042", "peak intensity", String.valueOf(precursor.getIntensity())) + "\n");
+      }
+      out.write("              </selectedIon>\n");
+      out.write("            </selectedIonList>\n");
+    }
+    out.write("            <activation>\n");
+    final ActivationInfo activation = precursor.getActivationInfo();
+    if (activation != null) {
+      final Double energy = activation.getActivationEnergyLo() != null ? activation.getActivationEnergyLo() : activation.getActivationEnergyHi();
+      if (energy != null) {
+        out.write("              <cvParam cvRef=\"MS\" accession=\"MS:1000045\" name=\"collision energy\" value=\"" + energy + "\" unitCvRef=\"UO\" unitAccession=\"UO:0000266\" unitName=\"electronvolt\"/>\n");
+      }
+      final String method = activation.getActivationMethod() == null ? "" : activation.getActivationMethod().trim();
+      final String[] term = dissociationMethod(method);
+      if (term != null) {
+        out.write("              " + cv(term[0], term[1], "") + "\n");
+      } else if (!method.isEmpty()) {
+        out.write("              " + userParam("dissociation method", method) + "\n");
+      }
+    }
+    out.write("            </activation>\n");
+    out.write("          </precursor>\n");
+  }
+
+  /**
+   * Finds the CV term of a dissociation method.
+   *
+   * @param method Short name (e.g. HCD), CV name or accession of the method.
+   * @return Accession and name of the term, null if the method is not known.
+   */
+  static String[] dissociationMethod(String method) {
+    if (method == null) {
+      return null;
+    }
+    for (String[] term : DISSOCIATION_METHODS) {
+      for (String s : term) {
+        if (s.equalsIgnoreCase(method.trim())) {
+          return new String[]{term[0], term[1]};
+        }
+      }
+    }
+    return null;
+  }
+
+  int count() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.write("    </spectrumList>\n");
+      out.write("  </run>\n");
+      out.write("</mzML>\n");
+    } finally {
+      out.close();
+      deflater.end();
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(padCount(count).getBytes(UTF_8)), countOffset);
+    }
+  }
+
+  private void writeArray(double[] values, boolean asFloat, String arrayType) throws IOException {
+    final int bytes = values.length * (asFloat ? 4 : 8);
+    if (raw.capacity() < bytes) {
+      raw = ByteBuffer.allocate(Math.max(bytes, 2 * raw.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    raw.clear();
+    for (double v : values) {
+      if (asFloat) {
+        raw.putFloat((float) v);
+      } else {
+        raw.putDouble(v);
+      }
+    }
+
+    deflater.reset();
+    deflater.setInput(raw.array(), 0, bytes);
+    deflater.finish();
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == compressed.length) {
+        byte[] tt = new byte[2 * compressed.length];
+        System.arraycopy(compressed, 0, tt, 0, length);
+        compressed = tt;
+      }
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+    final String encoded = Base64.getEncoder().encodeToString(length == compressed.length ? compressed : Arrays.copyOf(compressed, length));
+
+    out.write("          <binaryDataArray encodedLength=\"" + encoded.length() + "\">\n");
+    out.write("            " + (asFloat ? cv("MS:1000521", "32-bit float", "") : cv("MS:1000523", "64-bit float", "")) + "\n");
+    out.write("            " + cv("MS:1000574", "zlib compression", "") + "\n");
+    out.write("            " + arrayType + "\n");
+    out.write("            <binary>");
+    out.write(encoded);
+    out.write("</binary>\n");
+    out.write("          </binaryDataArray>\n");
+  }
+
+  private static String padCount(int count) {
+    StringBuilder sb = new StringBuilder().append(count).append('"');
+    while (sb.length() < COUNT_WIDTH) {
+      sb.append(' ');
+    }
+    return sb.toString();
+  }
+
+  private static String cv(String accession, String name, String value) {
+    return "<cvParam cvRef=\"MS\" accession=\"" + accession + "\" name=\"" + name + "\" value=\"" + escape(value) + "\"/>";
+  }
+
+  private static String cv(String accession, String name, String value, String unitAccession, String unitName) {
+    return "<cvParam cvRef=\"MS\" accession=\"" + accession + "\" name=\"" + name + "\" value=\"" + escape(value) + "\" unitCvRef=\"MS\" unitAccession=\"" + unitAccession + "\" unitName=\"" + unitName + "\"/>";
+  }
+
+  private static void appendInstrument(StringBuilder sb, Instrument instrument) {
+    final String model = instrument == null || instrument.getModel() == null ? "" : instrument.getModel();
+    sb.append("      ").append(cv("MS:1000031", "instrument model", model)).append('\n');
+    if (instrument == null) {
+      return;
+    }
+    if (instrument.getManufacturer() != null) {
+      sb.append("      ").append(userParam("instrument manufacturer", instrument.getManufacturer())).append('\n');
+    }
+    if (instrument.getSerialNumber() != null) {
+      sb.append("      ").append(cv("MS:1000529", "instrument serial number", instrument.getSerialNumber())).append('\n');
+    }
+    final String[][] components = {{"source", instrument.getIonisation()}, {"analyzer", instrument.getAnalyzer()}, {"detector", instrument.getDetector()}};
+    int n = 0;
+    for (String[] c : components) {
+      n += c[1] == null ? 0 : 1;
+    }
+    if (n == 0) {
+      return;
+    }
+    sb.append("      <componentList count=\"").append(n).append("\">\n");
+    int order = 1;
+    for (String[] c : components) {
+      if (c[1] != null) {
+        sb.append("        <").append(c[0]).append(" order=\"").append(order++).append("\">\n");
+        sb.append("          ").append(userParam(c[0], c[1])).append('\n');
+        sb.append("        </").append(c[0]).append(">\n");
+      }
+    }
+    sb.append("      </componentList>\n");
+  }
+
+  private static String userParam(String name, String value) {
+    return "<userParam name=\"" + escape(name) + "\" value=\"" + escape(value) + "\"/>";
+  }
+
+  private static String escape(String s) {
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+  }
+}
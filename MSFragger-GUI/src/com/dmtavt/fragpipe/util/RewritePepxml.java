@@ -22,6 +22,7 @@ import static com.github.chhh.utils.StringUtils.upToLastDot;
 import com.github.chhh.utils.StringUtils;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -40,6 +41,16 @@ public class RewritePepxml {
   private static final Logger log = LoggerFactory.getLogger(RewritePepxml.class);
 
   public static void main(String[] args) throws IOException {
+    int exitCode = run(args, System.out, System.err);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
     // Check if the LCMS files exist. Replace the non-existing ones with the existing ones if possible.
     for (int i = 0; i < args.length; ++i) {
       if (!Files.exists(Paths.get(args[i]))) { // Try to find the alternative file.
@@ -70,25 +81,30 @@ public class RewritePepxml {
           }
         }
         if (notOk) {
-          System.err.printf("Not all given paths exist: %s\n", args[i]);
-          System.exit(1);
+          err.printf("Not all given paths exist: %s\n", args[i]);
+          return 1;
         }
       }
     }
 
     Path pepxml = Paths.get(args[0]);
     final String[] replacements = Arrays.copyOfRange(args, 1, args.length);
-    System.out.printf("Fixing pepxml: %s\n", pepxml);
-    rewriteRawPath(pepxml, true, replacements);
+    out.printf("Fixing pepxml: %s\n", pepxml);
+    rewriteRawPath(out, pepxml, true, replacements);
+    return 0;
   }
 
   public static Path rewriteRawPath(Path origPepxml, boolean replaceOriginal, String... replacement) throws IOException {
+    return rewriteRawPath(System.out, origPepxml, replaceOriginal, replacement);
+  }
+
+  private static Path rewriteRawPath(PrintStream out, Path origPepxml, boolean replaceOriginal, String... replacement) throws IOException {
     log.debug("Rewriting pepxml: {}", origPepxml);
     Path dir = origPepxml.getParent();
     Path fn = origPepxml.getFileName();
     Path rewritten = Files.createTempFile(dir, fn.toString(), ".temp-rewrite");
     log.debug("Temp file chosen to rewrite pepxml: {}", rewritten);
-    System.out.printf("Writing output to: %s\n", rewritten.toString());
+    out.printf("Writing output to: %s\n", rewritten.toString());
 
     // look for:
     // <msms_run_summary base_name="D:\data\20171007_LUMOS_f01"aw_data_type="mzML" raw_data="mzML">
@@ -149,8 +165,7 @@ public class RewritePepxml {
               }
 
               if (correctRaw == null) {
-                System.err.printf("Didn't find correct mapping for raw file path in pepxml: %s\n", origPath);
-                System.exit(1);
+                throw new IllegalStateException("Didn't find correct mapping for raw file path in pepxml: " + origPath);
               }
 
               if (originalMsmsRunSummary.contains("This pepXML was from calibrated spectra.")) {
@@ -159,8 +174,7 @@ public class RewritePepxml {
                 rewrite = String.format("<msms_run_summary base_name=\"%s\" raw_data_type=\"%s\" raw_data=\"%s\">", upToLastDot(correctRaw), StringUtils.afterLastDot(correctRaw), StringUtils.afterLastDot(correctRaw));
               }
             } else {
-              System.err.printf("There are no replacements for %s", origPepxml.toAbsolutePath());
-              System.exit(1);
+              throw new IllegalStateException("There are no replacements for " + origPepxml.toAbsolutePath());
             }
             log.debug("Rewritten tag: {}", rewrite);
             buf.write(rewrite.getBytes(StandardCharsets.UTF_8));
@@ -193,12 +207,12 @@ public class RewritePepxml {
 
     String m2 = String.format("Deleting file: %s", origPepxml);
     log.debug(m2);
-    System.out.println(m2);
+    out.println(m2);
     Files.deleteIfExists(origPepxml);
 
     String m3 = String.format("Moving rewritten file to original location: [%s] -> [%s]", rewritten, origPepxml);
     log.debug(m3);
-    System.out.println(m3);
+    out.println(m3);
     Files.move(rewritten, origPepxml);
 
     log.debug("Done rewriting, modified file: {}", origPepxml);
@@ -76,12 +76,11 @@ public class SDRFtable {
     }
 
     // init Unimod DB for mod matching
-    public static ArrayList<String> unimodList;
+    public static UnimodIndex unimodIndex;
     static {
         try {
             Path unimodPath = getUnimodOboPath(UNIMOD_OBO);
-            UnimodOboReader unimodOboReader = new UnimodOboReader(unimodPath);
-            unimodList = unimodOboReader.unimodDB;
+            unimodIndex = UnimodIndex.get(unimodPath);
         } catch (Exception ex) {
             ex.printStackTrace();
             System.exit(1);
@@ -182,13 +181,11 @@ public class SDRFtable {
      */
     public static String matchUnimod(double mass, ArrayList<String> sitesWithTermini) {
         ArrayList<String> matches = new ArrayList<>();
-        for (String unimodEntry : unimodList) {
-            String[] splits = unimodEntry.split(";");
-            float unimodMass = Float.parseFloat(splits[0]); // 0 = mass
-            if (Math.abs(mass - unimodMass) < 0.0001) {
+        unimodIndex.forEachInRange(mass - 0.0001, mass + 0.0001, term -> {
+            if (Math.abs(mass - unimodIndex.mass(term)) < 0.0001) {
                 // check if site definitions match
                 boolean allSitesMatched = true;
-                String unimodSites = splits[3];                   // 3 = site list
+                String unimodSites = unimodIndex.sites(term);
                 for (String site : sitesWithTermini) {
                     // harmonize terminal sites to the unimod definitions
                     if (site.equals("N-term")) {
@@ -202,10 +199,10 @@ public class SDRFtable {
                     }
                 }
                 if (allSitesMatched) {
-                    matches.add(splits[2]);                 // 2 = name
+                    matches.add(unimodIndex.name(term));
                 }
             }
-        }
+        });
         if (matches.size() == 1) {
             return matches.get(0);
         } else {
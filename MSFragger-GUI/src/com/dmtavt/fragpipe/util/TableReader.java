@@ -0,0 +1,64 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * A table read row by row, from a tab separated file or an Arrow file.
+ *
+ * @param <R> Type of the rows.
+ */
+public interface TableReader<R extends TableRow> extends Closeable {
+
+  /**
+   * @return A {@link ArrowTableReader} for files ending with .arrow, a {@link TsvReader} otherwise.
+   */
+  static TableReader<? extends TableRow> open(Path path) throws IOException {
+    if (path.getFileName().toString().toLowerCase().endsWith(".arrow")) {
+      return new ArrowTableReader(path);
+    }
+    return new TsvReader(path);
+  }
+
+  String[] header();
+
+  /**
+   * Only the given columns have to be read, the others may read as empty.
+   *
+   * @return This reader.
+   */
+  TableReader<R> select(int... columns);
+
+  /**
+   * Reads the rows in blocks and processes up to {@code nThreads} blocks at the same time. Every
+   * block gets its own accumulator, the accumulators are given to {@code onBlock} in file order, on
+   * the calling thread.
+   */
+  <A> void scanOrdered(int nThreads, Supplier<A> accumulator, BiConsumer<A, R> onRow, BlockConsumer<A> onBlock) throws IOException, InterruptedException;
+
+  @FunctionalInterface
+  interface BlockConsumer<A> {
+
+    void accept(A block) throws IOException;
+  }
+}
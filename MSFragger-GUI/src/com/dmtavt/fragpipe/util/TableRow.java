@@ -0,0 +1,39 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+/**
+ * One row of a table read by {@link TsvReader} or {@link ArrowTableReader}, fields are addressed
+ * by column index. Missing and empty fields read as empty strings, numbers are parsed the same way
+ * as {@link Integer#parseInt(String)} and {@link Float#parseFloat(String)} would.
+ */
+public interface TableRow {
+
+  int size();
+
+  String getString(int i);
+
+  /** True if the field is empty or only has whitespace. */
+  boolean isBlank(int i);
+
+  int getInt(int i);
+
+  float getFloat(int i);
+
+  double getDouble(int i);
+}
@@ -0,0 +1,609 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads large tab separated files (DIA-NN reports, spectral libraries, psm.tsv) without splitting
+ * lines into strings. Lines are read as bytes in chunks, only the fields that are asked for are
+ * decoded. The first non-empty line is the header, empty lines are skipped. Lines of only tabs or
+ * spaces are rows with blank fields.
+ * <p>
+ * The file can also be scanned by several threads at once, each one reading a part of the file.
+ */
+public class TsvReader implements TableReader<TsvReader.Row> {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+  /** Parts of the file smaller than this are not worth a thread of their own. */
+  private static final long MIN_CHUNK_SIZE = 8L << 20;
+  private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+  private static final double[] DOUBLE_POW10 = new double[23];
+
+  static {
+    DOUBLE_POW10[0] = 1;
+    for (int i = 1; i < DOUBLE_POW10.length; ++i) {
+      DOUBLE_POW10[i] = DOUBLE_POW10[i - 1] * 10;
+    }
+  }
+
+  private final Path path;
+  private final FileChannel channel;
+  private final String[] header;
+  private final long dataStart;
+  private final long size;
+  private int lastField = Integer.MAX_VALUE;
+
+  public TsvReader(Path path) throws IOException {
+    this.path = path;
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      size = channel.size();
+      Chunk chunk = new Chunk(0, size);
+      Row row = new Row(Integer.MAX_VALUE);
+      if (!chunk.next(row)) {
+        throw new IOException("No header in " + path.toAbsolutePath());
+      }
+      header = new String[row.size()];
+      for (int i = 0; i < header.length; ++i) {
+        header[i] = row.getString(i);
+      }
+      dataStart = chunk.offset();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  @Override
+  public String[] header() {
+    return header.clone();
+  }
+
+  /**
+   * @return Index of the column with the given name, -1 if there is none.
+   */
+  public int column(String name) {
+    for (int i = 0; i < header.length; ++i) {
+      if (header[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return Indices of the named columns, in the same order.
+   * @throws IllegalStateException If any of the columns is missing.
+   */
+  public int[] columns(String... names) {
+    int[] columns = new int[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      columns[i] = column(names[i]);
+      if (columns[i] < 0) {
+        throw new IllegalStateException("Column " + names[i] + " is missing in " + path.toAbsolutePath());
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Rows are only split into fields up to the last of the given columns, the rest of every line is
+   * skipped. Fields after it read as empty. Every line is still read to its end, so this only saves
+   * the splitting of the columns after the last one that is needed.
+   *
+   * @return This reader.
+   */
+  @Override
+  public TsvReader select(int... columns) {
+    int last = 0;
+    for (int column : columns) {
+      last = Math.max(last, column);
+    }
+    lastField = last;
+    return this;
+  }
+
+  /**
+   * Reads the rows in order. The row given to the consumer is reused for the next line.
+   */
+  public void forEach(RowConsumer consumer) throws IOException {
+    Chunk chunk = new Chunk(dataStart, size);
+    Row row = new Row(lastField);
+    while (chunk.next(row)) {
+      consumer.accept(row);
+    }
+  }
+
+  /**
+   * Reads the first {@code maxRows} rows in order, see {@link #forEach(RowConsumer)}.
+   */
+  public void forEach(int maxRows, RowConsumer consumer) throws IOException {
+    Chunk chunk = new Chunk(dataStart, size);
+    Row row = new Row(lastField);
+    for (int n = 0; n < maxRows && chunk.next(row); ++n) {
+      consumer.accept(row);
+    }
+  }
+
+  /**
+   * Splits the rows into up to {@code nThreads} parts of the file which are read at the same time.
+   * Every part gets its own accumulator, the rows of a part are given to it in order.
+   *
+   * @return The accumulators, in the order of the parts in the file.
+   */
+  public <A> List<A> scan(int nThreads, Supplier<A> accumulator, BiConsumer<A, Row> onRow) throws IOException, InterruptedException {
+    final long[] bounds = chunkBounds((int) Math.max(1, Math.min(nThreads, (size - dataStart) / MIN_CHUNK_SIZE)));
+    final List<A> results = new ArrayList<>(bounds.length - 1);
+    if (bounds.length == 2) {
+      A acc = accumulator.get();
+      forEach(row -> onRow.accept(acc, row));
+      results.add(acc);
+      return results;
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(bounds.length - 1);
+    try {
+      List<Future<A>> futures = new ArrayList<>(bounds.length - 1);
+      for (int i = 0; i < bounds.length - 1; ++i) {
+        final Chunk chunk = new Chunk(bounds[i], bounds[i + 1]);
+        futures.add(executorService.submit(() -> {
+          A acc = accumulator.get();
+          Row row = new Row(lastField);
+          while (chunk.next(row)) {
+            onRow.accept(acc, row);
+          }
+          return acc;
+        }));
+      }
+      for (Future<A> future : futures) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    } finally {
+      executorService.shutdownNow();
+    }
+    return results;
+  }
+
+  /**
+   * Reads the rows in blocks of about a megabyte and processes up to
+   * {@code nThreads} blocks at the same time. Every block gets its own accumulator, the accumulators
+   * are given to {@code onBlock} in file order, on the calling thread. Only a few blocks per thread
+   * are held in memory, no matter the size of the file.
+   */
+  @Override
+  public <A> void scanOrdered(int nThreads, Supplier<A> accumulator, BiConsumer<A, Row> onRow, BlockConsumer<A> onBlock) throws IOException, InterruptedException {
+    if (nThreads <= 1) {
+      A acc = accumulator.get();
+      forEach(row -> onRow.accept(acc, row));
+      onBlock.accept(acc);
+      return;
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+    try {
+      final Deque<Future<A>> pending = new ArrayDeque<>();
+      final Chunk chunk = new Chunk(dataStart, size);
+      byte[] block;
+      while ((block = chunk.nextBlock()) != null) {
+        final Chunk blockChunk = new Chunk(block);
+        pending.add(executorService.submit(() -> {
+          A acc = accumulator.get();
+          Row row = new Row(lastField);
+          while (blockChunk.next(row)) {
+            onRow.accept(acc, row);
+          }
+          return acc;
+        }));
+        if (pending.size() >= 2 * nThreads) {
+          onBlock.accept(pending.poll().get());
+        }
+      }
+      while (!pending.isEmpty()) {
+        onBlock.accept(pending.poll().get());
+      }
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static IOException rethrow(ExecutionException e) {
+    if (e.getCause() instanceof IOException) {
+      return (IOException) e.getCause();
+    } else if (e.getCause() instanceof RuntimeException) {
+      throw (RuntimeException) e.getCause();
+    } else if (e.getCause() instanceof Error) {
+      throw (Error) e.getCause();
+    }
+    return new IOException(e.getCause());
+  }
+
+  /**
+   * Offsets splitting the rows into parts of about the same size, each one starting at a line start.
+   */
+  private long[] chunkBounds(int n) throws IOException {
+    long[] bounds = new long[n + 1];
+    bounds[0] = dataStart;
+    bounds[n] = size;
+    ByteBuffer bb = ByteBuffer.allocate(1 << 16);
+    for (int i = 1; i < n; ++i) {
+      long pos = Math.max(bounds[i - 1], dataStart + (size - dataStart) * i / n - 1);
+      bounds[i] = size;
+      search:
+      while (pos < size) {
+        bb.clear();
+        int read = channel.read(bb, pos);
+        if (read <= 0) {
+          break;
+        }
+        for (int j = 0; j < read; ++j) {
+          if (bb.get(j) == '\n') {
+            bounds[i] = pos + j + 1;
+            break search;
+          }
+        }
+        pos += read;
+      }
+    }
+    return bounds;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @FunctionalInterface
+  public interface RowConsumer {
+
+    void accept(Row row) throws IOException;
+  }
+
+  /**
+   * Lines between two offsets of the file.
+   */
+  private final class Chunk {
+
+    private long pos;
+    private final long end;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int from = 0;
+    private int to = 0;
+
+    Chunk(long start, long end) {
+      this.pos = start;
+      this.end = end;
+    }
+
+    /** Lines of a block already read by {@link #nextBlock()}. */
+    Chunk(byte[] block) {
+      this.pos = 0;
+      this.end = 0;
+      this.buf = block;
+      this.to = block.length;
+    }
+
+    /** File offset of the first byte not consumed yet. */
+    long offset() {
+      return pos - (to - from);
+    }
+
+    boolean next(Row row) throws IOException {
+      while (true) {
+        int nl = -1;
+        for (int i = from; i < to; ++i) {
+          if (buf[i] == '\n') {
+            nl = i;
+            break;
+          }
+        }
+        if (nl < 0 && fill()) {
+          continue;
+        }
+        if (nl < 0 && from == to) {
+          return false;
+        }
+        int lineEnd = nl < 0 ? to : nl;
+        int lineStart = from;
+        from = nl < 0 ? to : nl + 1;
+        if (row.set(buf, lineStart, lineEnd)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return Whole lines up to about the buffer size, null at the end.
+     */
+    byte[] nextBlock() throws IOException {
+      while (true) {
+        if (to - from < buf.length / 2 && fill()) {
+          continue;
+        }
+        int blockEnd = to;
+        if (pos < end) {
+          while (blockEnd > from && buf[blockEnd - 1] != '\n') {
+            --blockEnd;
+          }
+          if (blockEnd == from) { // a line longer than the buffer
+            fill();
+            continue;
+          }
+        }
+        if (blockEnd == from) {
+          return null;
+        }
+        byte[] block = Arrays.copyOfRange(buf, from, blockEnd);
+        from = blockEnd;
+        return block;
+      }
+    }
+
+    /** Reads more of the file into the buffer, false if at the end. */
+    private boolean fill() throws IOException {
+      if (pos >= end) {
+        return false;
+      }
+      if (from > 0) {
+        System.arraycopy(buf, from, buf, 0, to - from);
+        to -= from;
+        from = 0;
+      }
+      if (to == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+      int read = channel.read(ByteBuffer.wrap(buf, to, (int) Math.min(buf.length - to, end - pos)), pos);
+      if (read <= 0) {
+        pos = end;
+        return false;
+      }
+      pos += read;
+      to += read;
+      return true;
+    }
+  }
+
+  /**
+   * One line of the file. Fields are only decoded when asked for, fields missing at the end of a
+   * short line read as empty.
+   */
+  public static final class Row implements TableRow {
+
+    private byte[] buf;
+    private int start;
+    private int end;
+    private int[] tabs = new int[64];
+    private int nFields;
+    private final int lastField;
+    // number being parsed by decimal()
+    private long mantissa;
+    private int scale;
+    private boolean negative;
+
+    private Row(int lastField) {
+      this.lastField = lastField;
+    }
+
+    /** @return False if the line is empty. */
+    private boolean set(byte[] buf, int start, int end) {
+      if (end > start && buf[end - 1] == '\r') {
+        --end;
+      }
+      if (end == start) {
+        return false;
+      }
+
+      this.buf = buf;
+      this.start = start;
+      nFields = 0;
+      for (int i = start; i < end; ++i) {
+        if (buf[i] == '\t') {
+          if (nFields == lastField) {
+            // the rest of the line is not needed
+            end = i;
+            break;
+          }
+          if (nFields == tabs.length) {
+            tabs = Arrays.copyOf(tabs, tabs.length * 2);
+          }
+          tabs[nFields++] = i;
+        }
+      }
+      this.end = end;
+      ++nFields;
+      return true;
+    }
+
+    @Override
+    public int size() {
+      return nFields;
+    }
+
+    private int fieldStart(int i) {
+      return i == 0 ? start : tabs[i - 1] + 1;
+    }
+
+    private int fieldEnd(int i) {
+      return i == nFields - 1 ? end : tabs[i];
+    }
+
+    /** The whole line, without the line break. */
+    public String line() {
+      return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getString(int i) {
+      if (i >= nFields) {
+        return "";
+      }
+      return new String(buf, fieldStart(i), fieldEnd(i) - fieldStart(i), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Fields of the given columns.
+     */
+    public String[] getStrings(int[] columns) {
+      String[] strings = new String[columns.length];
+      for (int i = 0; i < columns.length; ++i) {
+        strings[i] = getString(columns[i]);
+      }
+      return strings;
+    }
+
+    @Override
+    public boolean isBlank(int i) {
+      if (i >= nFields) {
+        return true;
+      }
+      for (int j = fieldStart(i); j < fieldEnd(i); ++j) {
+        if (buf[j] > ' ') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int getInt(int i) {
+      if (i < nFields) {
+        int s = fieldStart(i);
+        int e = fieldEnd(i);
+        while (s < e && buf[s] <= ' ') {
+          ++s;
+        }
+        while (e > s && buf[e - 1] <= ' ') {
+          --e;
+        }
+        boolean negative = s < e && buf[s] == '-';
+        if (s < e && (buf[s] == '-' || buf[s] == '+')) {
+          ++s;
+        }
+        if (s < e && e - s <= 9) {
+          int v = 0;
+          for (; s < e; ++s) {
+            int d = buf[s] - '0';
+            if (d < 0 || d > 9) {
+              break;
+            }
+            v = v * 10 + d;
+          }
+          if (s == e) {
+            return negative ? -v : v;
+          }
+        }
+      }
+      return Integer.parseInt(getString(i).trim()); // unusual numbers and errors
+    }
+
+    /**
+     * Same as {@link Float#parseFloat(String)}. Plain decimals with up to 7 digits are converted
+     * directly, a single division of exactly representable numbers is rounded correctly.
+     */
+    @Override
+    public float getFloat(int i) {
+      if (i < nFields) {
+        if (decimal(i, 1L << 24, FLOAT_POW10.length - 1)) {
+          float v = mantissa / FLOAT_POW10[scale];
+          return negative ? -v : v;
+        }
+      }
+      return Float.parseFloat(getString(i));
+    }
+
+    /**
+     * Same as {@link Double#parseDouble(String)}, see {@link #getFloat(int)}.
+     */
+    @Override
+    public double getDouble(int i) {
+      if (i < nFields) {
+        if (decimal(i, 1L << 53, DOUBLE_POW10.length - 1)) {
+          double v = mantissa / DOUBLE_POW10[scale];
+          return negative ? -v : v;
+        }
+      }
+      return Double.parseDouble(getString(i));
+    }
+
+    /**
+     * Parses a plain decimal number into {@link #mantissa}, {@link #scale} and {@link #negative}.
+     *
+     * @return False if the field is not a plain decimal or the number is out of the given range.
+     */
+    private boolean decimal(int i, long maxMantissa, int maxScale) {
+      int s = fieldStart(i);
+      int e = fieldEnd(i);
+      while (s < e && buf[s] <= ' ') {
+        ++s;
+      }
+      while (e > s && buf[e - 1] <= ' ') {
+        --e;
+      }
+      negative = s < e && buf[s] == '-';
+      if (s < e && (buf[s] == '-' || buf[s] == '+')) {
+        ++s;
+      }
+      mantissa = 0;
+      scale = -1;
+      int digits = 0;
+      for (; s < e; ++s) {
+        byte b = buf[s];
+        if (b == '.' && scale < 0) {
+          scale = 0;
+        } else if (b >= '0' && b <= '9') {
+          mantissa = mantissa * 10 + (b - '0');
+          ++digits;
+          if (scale >= 0) {
+            ++scale;
+          }
+          if (mantissa > maxMantissa) {
+            return false;
+          }
+        } else {
+          return false;
+        }
+      }
+      scale = Math.max(scale, 0);
+      return digits > 0 && scale <= maxScale;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Converts a tab separated file (a DIA-NN report) to an Arrow IPC file with the same columns.
+ * Columns whose first rows are all integers or all numbers are written as 32 bit integers or
+ * doubles, the others as strings. Empty fields are null. If a later row does not fit the type of
+ * its column, the file is written again with that column as strings.
+ */
+public class TsvToArrow {
+
+  private static final int SAMPLE_ROWS = 10000;
+  private static final Pattern INTEGER = Pattern.compile("[-+]?\\d{1,9}");
+  private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?|[-+]?(NaN|nan|Infinity|inf)");
+
+  private enum Type {INT, DOUBLE, STRING}
+
+  public static void main(String[] args) {
+    int exitCode;
+    try {
+      exitCode = run(args, System.out, System.err);
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      exitCode = 1;
+    }
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+   * Arguments: the tsv file, the Arrow file, and optionally the number of threads.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) throws Exception {
+    long startTime = System.nanoTime();
+    int nThreads = args.length > 2 ? Integer.parseInt(args[2].trim()) : Runtime.getRuntime().availableProcessors();
+    convert(Paths.get(args[0].trim()), Paths.get(args[1].trim()), nThreads);
+    out.printf("Done in %.2f seconds.\n", (System.nanoTime() - startTime) * 1e-9);
+    return 0;
+  }
+
+  public static void convert(Path tsv, Path arrow, int nThreads) throws IOException, InterruptedException {
+    try (TsvReader reader = new TsvReader(tsv)) {
+      final String[] header = reader.header();
+      final Type[] types = sampleTypes(reader, header.length);
+      while (true) {
+        Set<Integer> mismatched = write(reader, arrow, header, types, nThreads);
+        if (mismatched.isEmpty()) {
+          return;
+        }
+        for (int column : mismatched) {
+          types[column] = Type.STRING;
+        }
+      }
+    }
+  }
+
+  private static Type[] sampleTypes(TsvReader reader, int n) throws IOException {
+    final Type[] types = new Type[n];
+    final boolean[] seen = new boolean[n];
+    reader.forEach(SAMPLE_ROWS, row -> {
+      for (int i = 0; i < n; ++i) {
+        if (types[i] == Type.STRING || row.isBlank(i)) {
+          continue;
+        }
+        String s = row.getString(i).trim();
+        if (types[i] == null && INTEGER.matcher(s).matches()) {
+          types[i] = Type.INT;
+        } else if ((types[i] == null || types[i] == Type.INT) && !INTEGER.matcher(s).matches() && NUMBER.matcher(s).matches()) {
+          types[i] = Type.DOUBLE;
+        } else if (!NUMBER.matcher(s).matches()) {
+          types[i] = Type.STRING;
+        }
+        seen[i] = true;
+      }
+    });
+    for (int i = 0; i < n; ++i) {
+      if (!seen[i]) {
+        types[i] = Type.STRING;
+      }
+    }
+    return types;
+  }
+
+  /**
+   * @return Columns with values that did not fit their type, these values were written as null.
+   */
+  private static Set<Integer> write(TsvReader reader, Path arrow, String[] header, Type[] types, int nThreads) throws IOException, InterruptedException {
+    List<Field> fields = new ArrayList<>(header.length);
+    for (int i = 0; i < header.length; ++i) {
+      if (types[i] == Type.INT) {
+        fields.add(ArrowTableWriter.int32(header[i]));
+      } else if (types[i] == Type.DOUBLE) {
+        fields.add(ArrowTableWriter.float64(header[i]));
+      } else {
+        fields.add(ArrowTableWriter.utf8(header[i]));
+      }
+    }
+
+    final Set<Integer> mismatched = ConcurrentHashMap.newKeySet();
+    try (ArrowTableWriter writer = new ArrowTableWriter(arrow, new Schema(fields))) {
+      reader.scanOrdered(nThreads, writer::newBlock, (block, row) -> {
+        int r = block.addRow();
+        for (int i = 0; i < types.length; ++i) {
+          if (types[i] == Type.STRING) {
+            String s = row.getString(i);
+            if (!s.isEmpty()) {
+              block.setString(i, r, s);
+            }
+          } else if (!row.isBlank(i)) {
+            try {
+              if (types[i] == Type.INT) {
+                block.setInt(i, r, row.getInt(i));
+              } else {
+                block.setDouble(i, r, row.getDouble(i));
+              }
+            } catch (NumberFormatException e) {
+              mismatched.add(i);
+            }
+          }
+        }
+      }, writer::write);
+    }
+    return mismatched;
+  }
+}
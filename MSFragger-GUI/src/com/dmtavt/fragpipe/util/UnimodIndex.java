@@ -0,0 +1,388 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.dmtavt.fragpipe.util.UnimodOboReader.OboTerm;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact in-memory form of unimod.obo. Parsing the OBO text takes a noticeable fraction of a
+ * second, so the parsed terms are kept in a binary cache file in the temp directory, which helper
+ * JVMs map instead of parsing again, and the index is shared by everyone in a JVM through
+ * {@link #get(Path)}.
+ */
+public final class UnimodIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(UnimodIndex.class);
+
+  private static final int MAGIC = 0x554e4d49; // "UNMI"
+  private static final int VERSION = 1;
+
+  private static final Pattern idPattern = Pattern.compile("id:\\s+UNIMOD:(\\d+)");
+  private static final Pattern massPattern = Pattern.compile("xref:\\s+delta_mono_mass\\s+\"([\\d.+-]+)\"");
+  private static final Pattern sitePattern = Pattern.compile("xref:\\s+spec_\\d+_site\\s+\"(\\S+)\"");
+
+  private static final Map<Path, UnimodIndex> instances = new ConcurrentHashMap<>();
+
+  // terms in the order of the OBO file
+  private final int[] ids;
+  private final float[] masses;
+  private final String[] names;
+  private final String[] sites;
+
+  // term indices sorted by mass, NaN masses last
+  private final float[] sortedMasses;
+  private final int[] sortedTerms;
+
+  // per site: distinct masses in ascending order and the lowest unimod ID with that mass and site
+  private final Map<Character, float[]> siteMasses = new HashMap<>();
+  private final Map<Character, int[]> siteIds = new HashMap<>();
+
+  private final Map<String, Float> massMap;
+
+  UnimodIndex(int[] ids, float[] masses, String[] names, String[] sites) {
+    this.ids = ids;
+    this.masses = masses;
+    this.names = names;
+    this.sites = sites;
+
+    final int n = ids.length;
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Float.compare(masses[a], masses[b]));
+    sortedMasses = new float[n];
+    sortedTerms = new int[n];
+    for (int i = 0; i < n; ++i) {
+      sortedTerms[i] = order[i];
+      sortedMasses[i] = masses[order[i]];
+    }
+
+    Map<Character, List<Integer>> siteTerms = new HashMap<>();
+    for (int t : sortedTerms) {
+      for (int j = 0; j < sites[t].length(); ++j) {
+        siteTerms.computeIfAbsent(sites[t].charAt(j), k -> new ArrayList<>()).add(t);
+      }
+    }
+    for (Map.Entry<Character, List<Integer>> e : siteTerms.entrySet()) {
+      List<Integer> terms = e.getValue();
+      float[] mm = new float[terms.size()];
+      int[] ii = new int[terms.size()];
+      int k = -1;
+      for (int t : terms) {
+        if (k >= 0 && Float.compare(mm[k], masses[t]) == 0) {
+          ii[k] = Math.min(ii[k], ids[t]);
+        } else {
+          ++k;
+          mm[k] = masses[t];
+          ii[k] = ids[t];
+        }
+      }
+      siteMasses.put(e.getKey(), Arrays.copyOf(mm, k + 1));
+      siteIds.put(e.getKey(), Arrays.copyOf(ii, k + 1));
+    }
+
+    Map<String, Float> mm = new HashMap<>(n * 2);
+    for (int i = 0; i < n; ++i) {
+      mm.put("unimod:" + ids[i], masses[i]);
+    }
+    massMap = Collections.unmodifiableMap(mm);
+  }
+
+  /**
+   * The index of the given OBO file, shared JVM-wide. The first call in a JVM loads it from the
+   * binary cache, or parses the OBO file and writes the cache if there is no up-to-date one.
+   */
+  public static UnimodIndex get(Path oboPath) throws IOException {
+    final Path key = oboPath.toAbsolutePath().normalize();
+    UnimodIndex index = instances.get(key);
+    if (index == null) {
+      synchronized (instances) {
+        index = instances.get(key);
+        if (index == null) {
+          index = load(key, cachePath(key));
+          instances.put(key, index);
+        }
+      }
+    }
+    return index;
+  }
+
+  static Path cachePath(Path oboPath) {
+    return Paths.get(System.getProperty("java.io.tmpdir"), String.format("fragpipe-unimod-%08x.bin", oboPath.toString().hashCode()));
+  }
+
+  static UnimodIndex load(Path oboPath, Path cachePath) throws IOException {
+    final long size = Files.size(oboPath);
+    final long modified = Files.getLastModifiedTime(oboPath).toMillis();
+    if (Files.exists(cachePath)) {
+      try {
+        UnimodIndex index = readCache(cachePath, oboPath, size, modified);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException | RuntimeException e) {
+        log.debug("Could not read Unimod cache {}: {}", cachePath, e.toString());
+      }
+    }
+
+    UnimodIndex index = parse(oboPath);
+    try {
+      writeCache(index, cachePath, oboPath, size, modified);
+    } catch (IOException e) {
+      log.debug("Could not write Unimod cache {}: {}", cachePath, e.toString());
+    }
+    return index;
+  }
+
+  public static UnimodIndex parse(Path oboPath) throws IOException {
+    List<OboTerm> terms = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(oboPath, UTF_8)) {
+      String line;
+      OboTerm term = null;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (line.startsWith("[Term]")) {
+          term = new OboTerm();
+          terms.add(term);
+        } else if (line.startsWith("id:")) {
+          Matcher matcher = idPattern.matcher(line);
+          if (matcher.matches()) {
+            term.id = Integer.parseInt(matcher.group(1));
+          } else {
+            throw new RuntimeException("Unexpected id format: " + line);
+          }
+        } else if (term != null && term.id != Integer.MIN_VALUE && line.startsWith("xref: delta_mono_mass")) {
+          Matcher matcher = massPattern.matcher(line);
+          if (matcher.matches()) {
+            term.mass = Float.parseFloat(matcher.group(1));
+          } else {
+            throw new RuntimeException("Unexpected xref: delta_mono_mass format: " + line);
+          }
+        } else if (term != null && term.id != Integer.MIN_VALUE && line.startsWith("name: ")) {
+          term.name = line.split(": ")[1];
+        } else if (term != null && term.id != Integer.MIN_VALUE) {
+          Matcher matcher = sitePattern.matcher(line);
+          if (matcher.matches()) {
+            String tt = matcher.group(1);
+            if (tt.contentEquals("N-term")) {
+              term.sites.add('n');
+            } else if (tt.contentEquals("C-term")) {
+              term.sites.add('c');
+            } else {
+              term.sites.add(tt.charAt(0));
+            }
+          }
+        }
+      }
+    }
+
+    final int n = terms.size();
+    int[] ids = new int[n];
+    float[] masses = new float[n];
+    String[] names = new String[n];
+    String[] sites = new String[n];
+    for (int i = 0; i < n; ++i) {
+      OboTerm term = terms.get(i);
+      ids[i] = term.id;
+      masses[i] = term.mass;
+      names[i] = term.name;
+      StringBuilder sb = new StringBuilder(term.sites.size());
+      new TreeSet<>(term.sites).forEach(sb::append);
+      sites[i] = sb.toString();
+    }
+    return new UnimodIndex(ids, masses, names, sites);
+  }
+
+  private static UnimodIndex readCache(Path cachePath, Path oboPath, long size, long modified) throws IOException {
+    try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != size || buf.getLong() != modified || !oboPath.toString().equals(getString(buf))) {
+        return null;
+      }
+      final int n = buf.getInt();
+      int[] ids = new int[n];
+      float[] masses = new float[n];
+      String[] names = new String[n];
+      String[] sites = new String[n];
+      for (int i = 0; i < n; ++i) {
+        ids[i] = buf.getInt();
+        masses[i] = buf.getFloat();
+        names[i] = getString(buf);
+        sites[i] = getString(buf);
+      }
+      if (buf.hasRemaining()) {
+        return null;
+      }
+      return new UnimodIndex(ids, masses, names, sites);
+    } catch (BufferUnderflowException e) {
+      return null;
+    }
+  }
+
+  private static void writeCache(UnimodIndex index, Path cachePath, Path oboPath, long size, long modified) throws IOException {
+    Path tmp = Files.createTempFile(cachePath.getParent(), cachePath.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream os = Files.newOutputStream(tmp); DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(size);
+        out.writeLong(modified);
+        putString(out, oboPath.toString());
+        out.writeInt(index.size());
+        for (int i = 0; i < index.size(); ++i) {
+          out.writeInt(index.ids[i]);
+          out.writeFloat(index.masses[i]);
+          putString(out, index.names[i]);
+          putString(out, index.sites[i]);
+        }
+      }
+      try {
+        Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static String getString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void putString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * @return Number of terms.
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  public int id(int term) {
+    return ids[term];
+  }
+
+  public float mass(int term) {
+    return masses[term];
+  }
+
+  public String name(int term) {
+    return names[term];
+  }
+
+  /**
+   * @return Allowed sites of the term, one character each, 'n' and 'c' for the termini.
+   */
+  public String sites(int term) {
+    return sites[term];
+  }
+
+  /**
+   * @return Unmodifiable map from "unimod:ID" to the mass of the term.
+   */
+  public Map<String, Float> massMap() {
+    return massMap;
+  }
+
+  /**
+   * Visits the terms with mass in [from, to], in ascending mass order.
+   */
+  public void forEachInRange(double from, double to, IntConsumer termConsumer) {
+    for (int i = lowerBound(sortedMasses, (float) from); i < sortedMasses.length && sortedMasses[i] <= to; ++i) {
+      if (sortedMasses[i] >= from) {
+        termConsumer.accept(sortedTerms[i]);
+      }
+    }
+  }
+
+  /**
+   * @return The lowest unimod ID of the mods allowed on the site whose mass is the closest to the
+   * given one and differs from it by less than the tolerance, or -1 if there is none.
+   */
+  public int closestId(float mass, char site, double tolerance) {
+    final float[] mm = siteMasses.get(site);
+    if (mm == null) {
+      return -1;
+    }
+    final int[] ii = siteIds.get(site);
+    float gap = Float.MAX_VALUE;
+    int id = -1;
+    for (int i = lowerBound(mm, (float) (mass - 2 * tolerance)); i < mm.length && mm[i] <= mass + 2 * tolerance; ++i) {
+      final float d = Math.abs(mass - mm[i]);
+      if (d < tolerance && d < gap) {
+        gap = d;
+        id = ii[i];
+      }
+    }
+    return id;
+  }
+
+  private static int lowerBound(float[] a, float key) {
+    int lo = 0;
+    int hi = a.length;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (a[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
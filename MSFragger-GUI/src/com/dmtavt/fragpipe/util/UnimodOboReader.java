@@ -20,11 +20,8 @@ package com.dmtavt.fragpipe.util;
 import static com.dmtavt.fragpipe.util.Utils.AAMasses;
 
 import com.google.common.collect.TreeBasedTable;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -34,91 +31,35 @@ import java.util.regex.Pattern;
 
 public class UnimodOboReader {
 
-  private static final Pattern pattern1 = Pattern.compile("id:\\s+UNIMOD:(\\d+)");
-  private static final Pattern pattern2 = Pattern.compile("xref:\\s+delta_mono_mass\\s+\"([\\d.+-]+)\"");
-  private static final Pattern pattern3 = Pattern.compile("xref:\\s+spec_\\d+_site\\s+\"(\\S+)\"");
   private static final Pattern pattern4 = Pattern.compile("([A-Z])(\\(([^()]+)\\))?");
   private static final Pattern pattern5 = Pattern.compile("^\\(([^()]+)\\)");
   private static final Pattern varModPattern = Pattern.compile("([\\d]+)([A-Z])\\(([\\d.-]+)\\)");
   private static final Pattern nTermModPattern = Pattern.compile("N-term\\(([\\d.-]+)\\)");
   private static final Pattern cTermModPattern = Pattern.compile("C-term\\(([\\d.-]+)\\)");
 
+  public final UnimodIndex index;
   public final Map<String, Float> unimodMassMap;                        // unimod ID (as "unimod: ##"), mass
   public final TreeBasedTable<Float, Character, Integer> massSiteUnimodTable;    // mass, allowed site, unimod ID number
   public final ArrayList<String> unimodDB;                              // mod info string ("mass;ID;name;sites")
 
   public UnimodOboReader(Path path) throws Exception {
-    unimodMassMap = new HashMap<>();
+    index = UnimodIndex.get(path);
+    unimodMassMap = index.massMap();
     massSiteUnimodTable = TreeBasedTable.create();
-    unimodDB = new ArrayList<>();
-
-    BufferedReader reader = new BufferedReader(new FileReader(path.toFile()));
-    String line;
-    OboTerm term = null;
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
-      if (line.startsWith("[Term]")) {
-        if (term != null) {
-          unimodMassMap.put("unimod:" + term.id, term.mass);
-          for (char site : term.sites) {
-            Integer tt = massSiteUnimodTable.get(term.mass, site);
-            if (tt == null || tt > term.id) {
-              massSiteUnimodTable.put(term.mass, site, term.id);
-            }
-          }
-          StringBuilder siteBuilder = new StringBuilder();
-          term.sites.forEach(siteBuilder::append);
-          unimodDB.add(String.format("%s;%s;%s;%s", term.mass, term.id, term.name, siteBuilder));
-        }
-        term = new OboTerm();
-      } else if (line.startsWith("id:")) {
-        Matcher matcher = pattern1.matcher(line);
-        if (matcher.matches()) {
-          term.id = Integer.parseInt(matcher.group(1));
-        } else {
-          throw new RuntimeException("Unexpected id format: " + line);
-        }
-      } else if (term != null && term.id != Integer.MIN_VALUE && line.startsWith("xref: delta_mono_mass")) {
-        Matcher matcher = pattern2.matcher(line);
-        if (matcher.matches()) {
-          term.mass = Float.parseFloat(matcher.group(1));
-        } else {
-          throw new RuntimeException("Unexpected xref: delta_mono_mass format: " + line);
-        }
-      } else if (term != null && term.id != Integer.MIN_VALUE && line.startsWith("name: ")) {
-        term.name = line.split(": ")[1];
-      } else if (term != null && term.id != Integer.MIN_VALUE) {
-        Matcher matcher = pattern3.matcher(line);
-        if (matcher.matches()) {
-          String tt = matcher.group(1);
-          if (tt.contentEquals("N-term")) {
-            term.sites.add('n');
-          } else if (tt.contentEquals("C-term")) {
-            term.sites.add('c');
-          } else {
-            term.sites.add(tt.charAt(0));
-          }
+    unimodDB = new ArrayList<>(index.size());
+
+    for (int i = 0; i < index.size(); ++i) {
+      final float mass = index.mass(i);
+      final int id = index.id(i);
+      final String sites = index.sites(i);
+      for (int j = 0; j < sites.length(); ++j) {
+        Integer tt = massSiteUnimodTable.get(mass, sites.charAt(j));
+        if (tt == null || tt > id) {
+          massSiteUnimodTable.put(mass, sites.charAt(j), id);
         }
       }
+      unimodDB.add(String.format("%s;%s;%s;%s", mass, id, index.name(i), sites));
     }
-
-    if (term != null) {
-      unimodMassMap.put("unimod:" + term.id, term.mass);
-      for (char site : term.sites) {
-        Integer tt = massSiteUnimodTable.get(term.mass, site);
-        if (tt == null || tt > term.id) {
-          massSiteUnimodTable.put(term.mass, site, term.id);
-        }
-      }
-      StringBuilder siteBuilder = new StringBuilder();
-      term.sites.forEach(siteBuilder::append);
-      unimodDB.add(String.format("%s;%s;%s;%s", term.mass, term.id, term.name, siteBuilder));
-    }
-
-    reader.close();
   }
 
   public Precursor convertPrecursor(String peptide, String assignedModifications, int charge) {
@@ -143,16 +84,7 @@ public class UnimodOboReader {
   }
 
   public String convertModifications(float mass, char site) {
-    float gap = Float.MAX_VALUE;
-    int unimodId = -1;
-    for (Map.Entry<Float, Map<Character, Integer>> e1 : massSiteUnimodTable.rowMap().subMap(mass - 0.001f, mass + 0.001f).entrySet()) {
-      Integer tt = e1.getValue().get(site);
-      if (tt != null && Math.abs(e1.getKey() - mass) < gap) {
-        gap = Math.abs(e1.getKey() - mass);
-        unimodId = tt;
-      }
-    }
-
+    int unimodId = index.closestId(mass, site, 0.001f);
     if (unimodId > 0) {
       return "UniMod:" + unimodId;
     } else {
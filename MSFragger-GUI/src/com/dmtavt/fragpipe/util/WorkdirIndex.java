@@ -0,0 +1,365 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory listing of the files under a directory, so that looking for the outputs of earlier
+ * steps does not walk the whole results tree every time. The tree is scanned once, after that
+ * only directories known to have changed are listed again.
+ * <p>
+ * The index of the work directory of a run, {@link #of(Path)}, finds changed directories with a
+ * {@link WatchService}. Before answering, a marker file is created in the root and the index waits
+ * for its event, by then the events of everything written earlier have arrived too. If the
+ * platform only has a polling watch service, or events were lost, the tree is scanned again. A
+ * one-time index from {@link #scan(Path)} is not watched, it only lists again the directories
+ * passed to {@link #markChanged(Path)}.
+ */
+public class WorkdirIndex implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(WorkdirIndex.class);
+  private static final String FENCE = ".fragpipe-index-sync";
+  private static final long FENCE_TIMEOUT_MS = 2000;
+
+  private static WorkdirIndex current; // guarded by WorkdirIndex.class
+
+  private final Path root;
+  private final boolean isLive;
+  /** Directory to the state of the files in it, see {@link #state(BasicFileAttributes)}. */
+  private final Map<Path, Map<String, String>> dirs = new HashMap<>();
+  private final Set<Path> dirty = new HashSet<>();
+  private final Map<WatchKey, Path> keys = new HashMap<>();
+  private WatchService watcher;
+  private boolean rescanAll = true;
+
+  private WorkdirIndex(Path root, boolean isLive) {
+    this.root = root.toAbsolutePath().normalize();
+    this.isLive = isLive;
+    if (isLive) {
+      try {
+        watcher = FileSystems.getDefault().newWatchService();
+        if (watcher.getClass().getSimpleName().startsWith("Polling")) {
+          // would only see changes seconds later, listing everything is the safer option
+          watcher.close();
+          watcher = null;
+        }
+      } catch (IOException | UnsupportedOperationException e) {
+        log.debug("No watch service for {}: {}", this.root, e.getMessage());
+        watcher = null;
+      }
+    }
+  }
+
+  /**
+   * The index of the work directory of a run, kept up to date while the run writes to it. Only the
+   * most recently requested work directory is indexed, switching to another closes the old index.
+   */
+  public static synchronized WorkdirIndex of(Path wd) {
+    final Path root = wd.toAbsolutePath().normalize();
+    if (current == null || !current.root.equals(root)) {
+      if (current != null) {
+        current.close();
+      }
+      current = new WorkdirIndex(root, true);
+    }
+    return current;
+  }
+
+  /**
+   * Lists the directory tree once, for a short-lived look-up of several kinds of files.
+   */
+  public static WorkdirIndex scan(Path dir) {
+    return new WorkdirIndex(dir, false);
+  }
+
+  /**
+   * Files under the root whose name matches, in path order.
+   */
+  public synchronized List<Path> find(Predicate<String> fileName) {
+    refresh();
+    final List<Path> found = new ArrayList<>();
+    for (Map.Entry<Path, Map<String, String>> e : dirs.entrySet()) {
+      for (String name : e.getValue().keySet()) {
+        if (fileName.test(name)) {
+          found.add(e.getKey().resolve(name));
+        }
+      }
+    }
+    Collections.sort(found);
+    return found;
+  }
+
+  /**
+   * Files whose path relative to the root matches the glob, e.g. {@code "**}{@code /psm.tsv"}.
+   */
+  public synchronized List<Path> glob(String glob) {
+    final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    final List<Path> found = new ArrayList<>();
+    for (Path p : find(name -> true)) {
+      if (matcher.matches(root.relativize(p))) {
+        found.add(p);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * All files under the root, by their path relative to it, with their size and modification time.
+   */
+  public synchronized Map<String, String> snapshot() {
+    refresh();
+    final Map<String, String> snapshot = new HashMap<>();
+    for (Map.Entry<Path, Map<String, String>> e : dirs.entrySet()) {
+      final String prefix = e.getKey().equals(root) ? "" : root.relativize(e.getKey()) + e.getKey().getFileSystem().getSeparator();
+      for (Map.Entry<String, String> f : e.getValue().entrySet()) {
+        snapshot.put(prefix + f.getKey(), f.getValue());
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Lists the directory (or the directory of the file) again at the next query, e.g. for outputs
+   * declared by a step that just finished.
+   */
+  public synchronized void markChanged(Path path) {
+    path = path.toAbsolutePath().normalize();
+    if (path.startsWith(root)) {
+      dirty.add(Files.isDirectory(path) || path.equals(root) ? path : path.getParent());
+    }
+  }
+
+  /**
+   * Size and modification time, the state in which a file is compared to an earlier one.
+   */
+  public static String state(BasicFileAttributes attrs) {
+    return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException ignored) {
+        // nothing to do
+      }
+      watcher = null;
+    }
+    keys.clear();
+  }
+
+  private void refresh() {
+    if (isLive && (watcher == null || !sync())) {
+      rescanAll = true;
+    }
+    if (rescanAll) {
+      keys.keySet().forEach(WatchKey::cancel);
+      keys.clear();
+      dirs.clear();
+      dirty.clear();
+      rescanAll = false;
+      if (Files.isDirectory(root)) {
+        scanTree(root);
+      } else if (isLive) {
+        rescanAll = true; // not created yet
+      }
+      return;
+    }
+    final List<Path> toList = new ArrayList<>(dirty);
+    dirty.clear();
+    Collections.sort(toList); // parents first, their listing may already cover the children
+    for (Path dir : toList) {
+      if (dirs.containsKey(dir) || dir.equals(root)) {
+        listAgain(dir);
+      }
+    }
+  }
+
+  /**
+   * Waits for the event of a marker file, collecting the directories with events on the way.
+   *
+   * @return False if the events can't be trusted and everything has to be listed again.
+   */
+  private boolean sync() {
+    if (rescanAll) {
+      return true; // about to list everything anyway
+    }
+    final Path fence = root.resolve(FENCE);
+    boolean isSeen = false;
+    try {
+      Files.deleteIfExists(fence);
+      Files.createFile(fence);
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FENCE_TIMEOUT_MS);
+      WatchKey key;
+      while (true) {
+        if (isSeen) {
+          key = watcher.poll();
+        } else {
+          final long left = deadline - System.nanoTime();
+          key = left > 0 ? watcher.poll(left, TimeUnit.NANOSECONDS) : null;
+        }
+        if (key == null) {
+          break;
+        }
+        final Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            rescanAll = true;
+          } else if (root.equals(dir) && FENCE.equals(event.context().toString())) {
+            isSeen |= event.kind() == ENTRY_CREATE;
+          } else if (dir != null) {
+            dirty.add(dir);
+          }
+        }
+        if (!key.reset() && dir != null) {
+          keys.remove(key);
+          dirty.add(dir); // gone, listing it again drops it
+        }
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      log.debug("Could not sync the index of {}: {}", root, e.toString());
+    } finally {
+      try {
+        Files.deleteIfExists(fence);
+      } catch (IOException ignored) {
+        // removed with the next sync
+      }
+    }
+    return isSeen && !rescanAll;
+  }
+
+  private void scanTree(Path dir) {
+    watch(dir);
+    final Map<String, String> files = new HashMap<>();
+    final List<Path> subdirs = new ArrayList<>();
+    list(dir, files, subdirs);
+    dirs.put(dir, files);
+    for (Path subdir : subdirs) {
+      scanTree(subdir);
+    }
+  }
+
+  private void listAgain(Path dir) {
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+      removeTree(dir);
+      return;
+    }
+    final Map<String, String> files = new HashMap<>();
+    final List<Path> subdirs = new ArrayList<>();
+    list(dir, files, subdirs);
+    dirs.put(dir, files);
+    final Set<Path> present = new HashSet<>(subdirs);
+    for (Path known : new ArrayList<>(dirs.keySet())) {
+      if (dir.equals(known.getParent()) && !present.contains(known)) {
+        removeTree(known);
+      }
+    }
+    for (Path subdir : subdirs) {
+      if (!dirs.containsKey(subdir)) {
+        scanTree(subdir);
+      }
+    }
+  }
+
+  /**
+   * Same files as {@link Files#walk}: symbolic links to files are followed, to directories not.
+   */
+  private void list(Path dir, Map<String, String> files, List<Path> subdirs) {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path p : stream) {
+        final String name = p.getFileName().toString();
+        if (isLive && dir.equals(root) && name.equals(FENCE)) {
+          continue;
+        }
+        try {
+          BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attrs.isDirectory()) {
+            subdirs.add(p);
+            continue;
+          }
+          if (attrs.isSymbolicLink()) {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+          }
+          if (attrs.isRegularFile()) {
+            files.put(name, state(attrs));
+          }
+        } catch (IOException e) {
+          // deleted while listing
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Could not list {}: {}", dir, e.getMessage());
+    }
+  }
+
+  private void watch(Path dir) {
+    if (watcher == null) {
+      return;
+    }
+    try {
+      keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+    } catch (IOException e) {
+      // e.g. out of inotify watches, fall back to listing everything
+      log.warn("Could not watch {} for changes, the whole work directory will be listed at every query: {}", dir, e.getMessage());
+      close();
+    }
+  }
+
+  private void removeTree(Path dir) {
+    dirs.keySet().removeIf(p -> p.startsWith(dir));
+    for (Iterator<Map.Entry<WatchKey, Path>> it = keys.entrySet().iterator(); it.hasNext(); ) {
+      final Map.Entry<WatchKey, Path> e = it.next();
+      if (e.getValue().startsWith(dir)) {
+        e.getKey().cancel();
+        it.remove();
+      }
+    }
+  }
+}
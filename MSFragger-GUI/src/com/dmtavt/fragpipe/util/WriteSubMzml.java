@@ -18,23 +18,20 @@
 package com.dmtavt.fragpipe.util;
 
 import com.github.chhh.utils.StringUtils;
-import java.io.BufferedReader;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import umich.ms.datatypes.LCMSDataSubset;
-import umich.ms.datatypes.lcmsrun.MsSoftware;
 import umich.ms.datatypes.scan.IScan;
+import umich.ms.datatypes.lcmsrun.LCMSRunInfo;
 import umich.ms.datatypes.scan.StorageStrategy;
 import umich.ms.datatypes.scan.props.Instrument;
 import umich.ms.datatypes.scan.props.PrecursorInfo;
@@ -43,9 +40,6 @@ import umich.ms.fileio.filetypes.AbstractLCMSDataSource;
 import umich.ms.fileio.filetypes.mzbin.MZBINFile;
 import umich.ms.fileio.filetypes.mzbin.MZBINFile.MZBINSpectrum;
 import umich.ms.fileio.filetypes.mzml.MZMLFile;
-import umich.ms.fileio.filetypes.mzml.MZMLWriter;
-import umich.ms.fileio.filetypes.mzml.MZMLWriter.ProcessingMethod;
-import umich.ms.fileio.filetypes.mzml.jaxb.ProcessingMethodType;
 import umich.ms.fileio.filetypes.mzxml.MZXMLFile;
 import umich.ms.fileio.filetypes.thermo.ThermoRawFile;
 
@@ -85,19 +79,22 @@ public class WriteSubMzml {
       System.exit(1);
     }
 
-    Set<Integer> scanNumsToExclude = readPsm(psmPath, runName, probabilityThreshold);
+    BitSet scanNumsToExclude = readPsm(psmPath, runName, probabilityThreshold);
 
-    System.out.println("Found " + scanNumsToExclude.size() + " scans to exclude.");
+    System.out.println("Found " + scanNumsToExclude.cardinality() + " scans to exclude.");
 
-    List<IScan> iScans =  removeScans(lcmsPathStr, mzBINPath.toFile(), scanNumsToExclude);
-
-    writeMzML(lcmsPathStr, runName, outputPath.toAbsolutePath().toString(), iScans);
+    writeScans(lcmsPathStr, mzBINPath.toFile(), runName, outputPath.toAbsolutePath(), scanNumsToExclude);
   }
 
-  private static List<IScan> removeScans(String lcmsPathStr, File mzBINFile, Set<Integer> scanNumsToExclude) throws Exception {
+  /**
+   * Copies the kept scans to the output one at a time: the run is loaded without spectra, and each
+   * spectrum is read from the source (or taken from the mzBIN file if it was calibrated) only when
+   * its scan is written, and dropped right after.
+   */
+  private static void writeScans(String lcmsPathStr, File mzBINFile, String runName, Path outputPath, BitSet scanNumsToExclude) throws Exception {
     File f = new File(lcmsPathStr);
     ScanCollectionDefault scanCollectionDefault = new ScanCollectionDefault();
-    scanCollectionDefault.setDefaultStorageStrategy(StorageStrategy.STRONG);
+    scanCollectionDefault.setDefaultStorageStrategy(StorageStrategy.WEAK);
     scanCollectionDefault.isAutoloadSpectra(true);
     AbstractLCMSDataSource<?> source;
     if (f.getName().toLowerCase().endsWith(".mzml")) {
@@ -113,118 +110,85 @@ public class WriteSubMzml {
     source.setNumThreadsForParsing(1);
     source.setExcludeEmptyScans(false);
     scanCollectionDefault.setDataSource(source);
-    scanCollectionDefault.loadData(LCMSDataSubset.WHOLE_RUN);
-    Map<Integer, IScan> originalScans = scanCollectionDefault.getMapNum2scan();
-    source.close();
-
-    MZBINFile mzbinFile = new MZBINFile(1, mzBINFile, true);
-    Map<Integer, MZBINSpectrum> calibratedScans = new TreeMap<>();
-    for (MZBINSpectrum t : mzbinFile.specs) {
-      calibratedScans.put(t.scanNum, t);
+    scanCollectionDefault.loadData(LCMSDataSubset.STRUCTURE_ONLY);
+
+    LCMSRunInfo runInfo = source.parseRunInfo();
+    Instrument instrument = null;
+    if (runInfo != null && runInfo.getInstruments() != null) {
+      instrument = runInfo.getDefaultInstrumentID() == null ? null : runInfo.getInstruments().get(runInfo.getDefaultInstrumentID());
+      if (instrument == null && !runInfo.getInstruments().isEmpty()) {
+        instrument = runInfo.getInstruments().values().iterator().next();
+      }
     }
 
-    List<IScan> newScans = new ArrayList<>();
+    // calibrated spectra sorted by scan number, each one is released once written
+    List<MZBINSpectrum> calibratedScans = new ArrayList<>(new MZBINFile(1, mzBINFile, true).specs);
+    calibratedScans.sort(Comparator.comparingInt(t -> t.scanNum));
+    int[] calibratedScanNums = new int[calibratedScans.size()];
+    for (int i = 0; i < calibratedScanNums.length; ++i) {
+      calibratedScanNums[i] = calibratedScans.get(i).scanNum;
+    }
 
     int uncalibratedScans = 0;
-
-    for (Map.Entry<Integer, IScan> e : originalScans.entrySet()) {
-      IScan scan = e.getValue();
-      if (scan.getMsLevel() == 1) {
-        if (calibratedScans.containsKey(scan.getNum())) {
-          updateScanFields(scan, calibratedScans.get(scan.getNum()));
-        } else {
-          ++uncalibratedScans;
-        }
-        newScans.add(scan);
-      } else if (scan.getMsLevel() == 2) {
-        if (!scanNumsToExclude.contains(scan.getNum())) {
-          if (calibratedScans.containsKey(scan.getNum())) {
-            updateScanFields(scan, calibratedScans.get(scan.getNum()));
+    try (MzmlStreamWriter writer = new MzmlStreamWriter(outputPath, lcmsPathStr, runName, "FragPipe", com.dmtavt.fragpipe.Version.version(), instrument, "FragPipe pre-processing", "filter out identified scans")) {
+      for (IScan scan : scanCollectionDefault.getMapNum2scan().values()) {
+        final int msLevel = scan.getMsLevel();
+        if (msLevel == 1 || (msLevel == 2 && !scanNumsToExclude.get(scan.getNum()))) {
+          final int idx = Arrays.binarySearch(calibratedScanNums, scan.getNum());
+          if (idx >= 0 && calibratedScans.get(idx) != null) {
+            writer.write(scan, calibratedScans.get(idx).toIScan().fetchSpectrum());
+            calibratedScans.set(idx, null);
           } else {
             ++uncalibratedScans;
+            writer.write(scan, scan.fetchSpectrum());
           }
-          newScans.add(scan);
-        }
-      } else if (scan.getMsLevel() == 3) {
-        boolean ok = true;
-        for (PrecursorInfo pi : scan.getPrecursors()) {
-          if (scanNumsToExclude.contains(pi.getParentScanNum())) {
-            ok = false;
-            break;
+        } else if (msLevel == 3) {
+          boolean ok = true;
+          for (PrecursorInfo pi : scan.getPrecursors()) {
+            if (pi.getParentScanNum() != null && scanNumsToExclude.get(pi.getParentScanNum())) {
+              ok = false;
+              break;
+            }
+          }
+          if (ok) {
+            writer.write(scan, scan.fetchSpectrum());
           }
-        }
-        if (ok) {
-          newScans.add(scan);
         }
       }
+      System.out.println("Wrote " + writer.count() + " scans to " + outputPath + ".");
+    } finally {
+      scanCollectionDefault.reset();
+      source.close();
     }
 
     if (uncalibratedScans > 0) {
       System.out.println("There are " + uncalibratedScans + " scans could not be found from " + mzBINFile.getAbsolutePath() + ". Those scans will not be mass calibrated.");
     }
-
-    return newScans;
   }
 
-  private static void updateScanFields(IScan scan, MZBINSpectrum calibratedScan) throws Exception {
-    scan.setSpectrum(calibratedScan.toIScan().fetchSpectrum(), true);
-  }
-
-  private static Set<Integer> readPsm(Path psmPath, String runName, float probabilityThreshold) throws Exception {
-    Set<Integer> scanNumsToExclude = new HashSet<>();
-    BufferedReader reader = new BufferedReader(Files.newBufferedReader(psmPath));
-    String line;
-    int scanNameIdx = -1;
-    int probabilityThresholdIdx = -1;
-    while ((line = reader.readLine()) != null) {
-      String[] split = line.split("\t");
-      if (line.startsWith("Spectrum\tSpectrum File")) {
-        for (int i = 0; i < split.length; i++) {
-          if (split[i].equals("Spectrum")) {
-            scanNameIdx = i;
-          }
-          if (split[i].equals("PeptideProphet Probability") || split[i].equals("Probability")) {
-            probabilityThresholdIdx = i;
-          }
-        }
-        continue;
-      }
-
+  private static BitSet readPsm(Path psmPath, String runName, float probabilityThreshold) throws Exception {
+    BitSet scanNumsToExclude = new BitSet();
+    try (TsvReader reader = new TsvReader(psmPath)) {
+      int scanNameIdx = reader.column("Spectrum");
+      int probabilityThresholdIdx = Math.max(reader.column("PeptideProphet Probability"), reader.column("Probability"));
       if (scanNameIdx < 0 || probabilityThresholdIdx < 0) {
         System.err.println("Failed to find scan name or probability threshold in " + psmPath.toAbsolutePath());
         System.exit(1);
       }
 
-      Matcher matcher = pattern.matcher(split[scanNameIdx].trim());
-      if (matcher.find()) {
-        if (matcher.group(1).equals(runName) && Float.parseFloat(split[probabilityThresholdIdx]) > probabilityThreshold) {
-          scanNumsToExclude.add(Integer.parseInt(matcher.group(2)));
+      reader.forEach(row -> {
+        Matcher matcher = pattern.matcher(row.getString(scanNameIdx).trim());
+        if (matcher.find()) {
+          if (matcher.group(1).equals(runName) && row.getFloat(probabilityThresholdIdx) > probabilityThreshold) {
+            scanNumsToExclude.set(Integer.parseInt(matcher.group(2)));
+          }
+        } else {
+          System.err.println("Failed to parse scan name " + row.getString(scanNameIdx).trim());
+          System.exit(1);
         }
-      } else {
-        System.err.println("Failed to parse scan name " + split[scanNameIdx].trim());
-        System.exit(1);
-      }
+      });
     }
-    reader.close();
 
     return scanNumsToExclude;
   }
-
-  private static void writeMzML(String sourceFilePath, String runName, String outputPath, List<IScan> iScanList) throws Exception {
-    List<MsSoftware> softwareList = new ArrayList<>(1);
-    softwareList.add(new MsSoftware("FragPipe", com.dmtavt.fragpipe.Version.version()));
-
-    ProcessingMethod processingMethod = new ProcessingMethod(0, "FragPipe");
-    processingMethod.addParams("FragPipe pre-processing", "");
-    processingMethod.addParams("filter out identified scans", "");
-
-    List<ProcessingMethodType> processingMethodTypeList = new ArrayList<>(1);
-    processingMethodTypeList.add(processingMethod.processingMethodType);
-
-    Map<String, Instrument> instrumentMap = new HashMap<>();
-    instrumentMap.put("unknown", new Instrument());
-
-    MZMLWriter mzmlWriter = new MZMLWriter(softwareList, "FragPipe", processingMethodTypeList, 1, true);
-    mzmlWriter.writeMzML(sourceFilePath, runName, "MS:1000768", iScanList.toArray(new IScan[0]), outputPath, null, instrumentMap); // Pretend that the scans are from Thermo. Make it consistent with the scan ID format.
-  }
 }
@@ -0,0 +1,510 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.chhh.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.chhh.utils.PrefixCounter.Mode;
+import com.github.chhh.utils.PrefixCounter.Node;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Statistics of a FASTA file gathered in one streaming pass and kept in a sidecar file
+ * ({@code <fasta>.fpindex}, or in the temp directory if the FASTA directory is not writable), so
+ * that databases of many GB are read once, not each time they are looked at. The sidecar is
+ * invalidated by the size, modification time and a checksum of the head and tail of the FASTA.
+ * <p>
+ * Holds the number of entries, the counts of the prefixes of the first '|' separated header
+ * field (from which decoy counts and the decoy tag are inferred, see {@link PrefixCounter}), a
+ * histogram of sequence lengths and the offsets of every {@link #STRIDE}th entry.
+ * <p>
+ * Depends on nothing but the JDK, as it is also used by helper processes that only have the
+ * FragPipe jar on the classpath.
+ */
+public final class FastaIndex {
+
+  public static final String EXT = ".fpindex";
+  /** Offsets are kept for every this many entries. */
+  public static final int STRIDE = 256;
+  /** Same depth as used for inferring decoy tags. */
+  public static final int PREFIX_DEPTH = 16;
+  /** The prefix counter is pruned when it grows bigger than this while reading, the counts become approximate. */
+  private static final long MAX_PREFIX_NODES = 1 << 20;
+  /**
+   * Prefixes seen once are dropped from bigger counters once the file has been read, they are
+   * mostly unique protein IDs. The counts of the prefixes that are kept stay exact.
+   */
+  private static final long EXACT_PREFIX_NODES = 1 << 16;
+  private static final int MAGIC = 0x46504958; // "FPIX"
+  private static final int VERSION = 2;
+  private static final int CHECKSUM_BYTES = 1 << 16;
+  private static final int MAX_HEADER = 4096;
+
+  private static final Map<Path, FastaIndex> instances = new ConcurrentHashMap<>();
+
+  private final Path fasta;
+  private final long fileSize;
+  private final long modified;
+  private final long checksum;
+  private final long entries;
+  private final long residues;
+  private final long maxLength;
+  private final long[] lengthHistogram;
+  private final long[] offsets;
+  private final PrefixCounter prefixes;
+  private final long prunedBelow;
+  /** Counts of the tags that can't be looked up in the prefix counter, by tag. */
+  private final Map<String, Long> scannedDecoys = new ConcurrentHashMap<>();
+
+  private FastaIndex(Path fasta, long fileSize, long modified, long checksum, long entries, long residues, long maxLength, long[] lengthHistogram, long[] offsets, PrefixCounter prefixes, long prunedBelow) {
+    this.fasta = fasta;
+    this.fileSize = fileSize;
+    this.modified = modified;
+    this.checksum = checksum;
+    this.entries = entries;
+    this.residues = residues;
+    this.maxLength = maxLength;
+    this.lengthHistogram = lengthHistogram;
+    this.offsets = offsets;
+    this.prefixes = prefixes;
+    this.prunedBelow = prunedBelow;
+  }
+
+  /**
+   * The index of a FASTA file: from memory or the sidecar file if they are up to date, otherwise
+   * the file is read and a new sidecar written.
+   */
+  public static FastaIndex get(Path fasta) throws IOException {
+    FastaIndex index = cached(fasta);
+    if (index == null) {
+      index = build(fasta);
+      save(index);
+      instances.put(index.fasta, index);
+    }
+    return index;
+  }
+
+  /**
+   * @return The index if it is in memory or in an up to date sidecar file, null otherwise.
+   * Never reads the whole FASTA file.
+   */
+  public static FastaIndex cached(Path fasta) throws IOException {
+    final Path key = fasta.toAbsolutePath().normalize();
+    final long size = Files.size(key);
+    final long modified = Files.getLastModifiedTime(key).toMillis();
+    FastaIndex index = instances.get(key);
+    if (index != null && index.fileSize == size && index.modified == modified) {
+      return index;
+    }
+    final long checksum = checksum(key, size);
+    for (Path sidecar : sidecars(key)) {
+      if (!Files.isRegularFile(sidecar)) {
+        continue;
+      }
+      try {
+        index = load(key, sidecar);
+        if (index != null && index.fileSize == size && index.modified == modified && index.checksum == checksum) {
+          instances.put(key, index);
+          return index;
+        }
+      } catch (IOException | RuntimeException ignored) {
+        // rebuilt by the caller
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the whole FASTA file. Does not touch the sidecar file.
+   */
+  public static FastaIndex build(Path fasta) throws IOException {
+    if (Files.isDirectory(fasta)) {
+      throw new IOException("Must be an ordinary file, not a directory");
+    }
+    final Path path = fasta.toAbsolutePath().normalize();
+    final long size = Files.size(path);
+    final long modified = Files.getLastModifiedTime(path).toMillis();
+
+    final PrefixCounter prefixes = new PrefixCounter(Mode.FWD, PREFIX_DEPTH);
+    long prunedBelow = 0;
+    final long[] histogram = new long[64];
+    long[] offsets = new long[1024];
+    long entries = 0;
+    long residues = 0;
+    long maxLength = 0;
+    long length = -1; // of the current entry's sequence, -1 before the first entry
+
+    final byte[] header = new byte[MAX_HEADER];
+    int headerLen = 0;
+    boolean inHeader = false;
+    boolean lineStart = true;
+    long pos = 0;
+    final byte[] buf = new byte[1 << 20];
+    try (InputStream is = Files.newInputStream(path)) {
+      for (int n; (n = is.read(buf)) > 0; pos += n) {
+        for (int i = 0; i < n; ++i) {
+          final byte b = buf[i];
+          if (inHeader) {
+            if (b == '\n') {
+              inHeader = false;
+              addHeader(prefixes, header, headerLen);
+              if (prefixes.size() > MAX_PREFIX_NODES) {
+                prunedBelow = Math.max(2 * prunedBelow, Math.max(2, entries / 100000));
+                prefixes.prune(prunedBelow);
+              }
+            } else if (headerLen < MAX_HEADER) {
+              header[headerLen++] = b;
+            }
+          } else if (lineStart && b == '>') {
+            if (length >= 0) {
+              residues += length;
+              maxLength = Math.max(maxLength, length);
+              histogram[64 - Long.numberOfLeadingZeros(length)]++;
+            }
+            if (entries % STRIDE == 0) {
+              final int k = (int) (entries / STRIDE);
+              if (k == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * k);
+              }
+              offsets[k] = pos + i;
+            }
+            entries++;
+            length = 0;
+            inHeader = true;
+            headerLen = 0;
+          } else if (b > ' ' && length >= 0) {
+            length++;
+          }
+          lineStart = b == '\n';
+        }
+      }
+    }
+    if (inHeader) {
+      addHeader(prefixes, header, headerLen);
+    }
+    if (length >= 0) {
+      residues += length;
+      maxLength = Math.max(maxLength, length);
+      histogram[64 - Long.numberOfLeadingZeros(length)]++;
+    }
+    if (prefixes.size() > EXACT_PREFIX_NODES) {
+      // only drops what was seen once, the remaining counts are as exact as they were
+      prefixes.prune(Math.max(2, prunedBelow));
+    }
+
+    offsets = Arrays.copyOf(offsets, (int) ((entries + STRIDE - 1) / STRIDE));
+    return new FastaIndex(path, size, modified, checksum(path, size), entries, residues, maxLength, histogram, offsets, prefixes, prunedBelow);
+  }
+
+  private static void addHeader(PrefixCounter prefixes, byte[] header, int len) {
+    int end = 0;
+    while (end < len && header[end] != '|') {
+      end++;
+    }
+    prefixes.add(new String(header, 0, end, UTF_8).trim());
+  }
+
+  /**
+   * @return Number of entries (header lines).
+   */
+  public long entries() {
+    return entries;
+  }
+
+  /**
+   * @return Number of entries whose header starts with the tag. Tags that are not in the prefix
+   * counts (see {@link #needsScan(String)}) are counted by reading the FASTA file once. Otherwise
+   * taken from the prefix counts: prefixes seen only once in a big file are not kept and count as
+   * 0, and counts are lower bounds if {@link #isExact(String)} is false.
+   */
+  public long decoys(String tag) throws IOException {
+    if (tag == null || tag.isEmpty()) {
+      return entries;
+    }
+    if (needsScan(tag)) {
+      Long cnt = scannedDecoys.get(tag);
+      if (cnt == null) {
+        cnt = scan(tag);
+        scannedDecoys.put(tag, cnt);
+      }
+      return cnt;
+    }
+    Node n = prefixes.find(tag);
+    return n == null ? 0 : n.getHits();
+  }
+
+  /**
+   * @return True if {@link #decoys(String)} has to read the FASTA file for this tag: it is longer
+   * than the prefixes that are counted, or spans more than the first header field, and it has not
+   * been counted yet.
+   */
+  public boolean needsScan(String tag) {
+    return tag != null && (tag.length() > PREFIX_DEPTH || tag.indexOf('|') >= 0) && !scannedDecoys.containsKey(tag);
+  }
+
+  private long scan(String tag) throws IOException {
+    final byte[] header = new byte[MAX_HEADER];
+    int headerLen = 0;
+    boolean inHeader = false;
+    boolean lineStart = true;
+    long cnt = 0;
+    final byte[] buf = new byte[1 << 20];
+    try (InputStream is = Files.newInputStream(fasta)) {
+      for (int n; (n = is.read(buf)) > 0; ) {
+        for (int i = 0; i < n; ++i) {
+          final byte b = buf[i];
+          if (inHeader) {
+            if (b == '\n') {
+              inHeader = false;
+              cnt += new String(header, 0, headerLen, UTF_8).startsWith(tag) ? 1 : 0;
+            } else if (headerLen < MAX_HEADER) {
+              header[headerLen++] = b;
+            }
+          } else if (lineStart && b == '>') {
+            inHeader = true;
+            headerLen = 0;
+          }
+          lineStart = b == '\n';
+        }
+      }
+    }
+    if (inHeader) {
+      cnt += new String(header, 0, headerLen, UTF_8).startsWith(tag) ? 1 : 0;
+    }
+    return cnt;
+  }
+
+  /**
+   * @return Counts of the prefixes of the first header field.
+   */
+  public PrefixCounter prefixes() {
+    return prefixes;
+  }
+
+  /**
+   * @return False if the prefix counts had to be pruned while reading a huge file.
+   */
+  public boolean isExact() {
+    return prunedBelow == 0;
+  }
+
+  /**
+   * @return False if {@link #decoys(String)} gives a lower bound for this tag.
+   */
+  public boolean isExact(String tag) {
+    return isExact() || tag == null || tag.isEmpty() || tag.length() > PREFIX_DEPTH || tag.indexOf('|') >= 0;
+  }
+
+  public long residues() {
+    return residues;
+  }
+
+  public long maxLength() {
+    return maxLength;
+  }
+
+  /**
+   * @return Number of sequences by length: element {@code i} counts lengths in
+   * [2<sup>i-1</sup>, 2<sup>i</sup>), element 0 counts empty sequences.
+   */
+  public long[] lengthHistogram() {
+    return lengthHistogram.clone();
+  }
+
+  /**
+   * @return Position in the FASTA file where the header of the given entry (0 based) starts.
+   */
+  public long offset(long entry) throws IOException {
+    if (entry < 0 || entry >= entries) {
+      throw new IndexOutOfBoundsException("Entry " + entry + " of " + entries);
+    }
+    long pos = offsets[(int) (entry / STRIDE)];
+    long skip = entry % STRIDE;
+    if (skip == 0) {
+      return pos;
+    }
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+      byte prev = 0;
+      for (long p = pos; ch.read(buf, p) > 0; ) {
+        buf.flip();
+        while (buf.hasRemaining()) {
+          final byte b = buf.get();
+          if (b == '>' && prev == '\n' && --skip == 0) {
+            return p + buf.position() - 1;
+          }
+          prev = b;
+        }
+        p += buf.limit();
+        buf.clear();
+      }
+    }
+    throw new IOException("FASTA file changed while reading: " + fasta);
+  }
+
+  /**
+   * @return The header line of the given entry, without the '>'.
+   */
+  public String header(long entry) throws IOException {
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(MAX_HEADER);
+      ch.read(buf, offset(entry) + 1);
+      buf.flip();
+      int end = 0;
+      while (end < buf.limit() && buf.get(end) != '\n' && buf.get(end) != '\r') {
+        end++;
+      }
+      return new String(buf.array(), 0, end, UTF_8);
+    }
+  }
+
+  static List<Path> sidecars(Path fasta) {
+    List<Path> paths = new ArrayList<>(2);
+    paths.add(fasta.resolveSibling(fasta.getFileName() + EXT));
+    paths.add(Paths.get(System.getProperty("java.io.tmpdir"), String.format("fragpipe-fasta-%08x%s", fasta.toString().hashCode(), EXT)));
+    return paths;
+  }
+
+  private static long checksum(Path fasta, long size) throws IOException {
+    final CRC32 crc = new CRC32();
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(CHECKSUM_BYTES);
+      ch.read(buf, 0);
+      buf.flip();
+      crc.update(buf);
+      if (size > CHECKSUM_BYTES) {
+        buf.clear();
+        ch.read(buf, Math.max(CHECKSUM_BYTES, size - CHECKSUM_BYTES));
+        buf.flip();
+        crc.update(buf);
+      }
+    }
+    return crc.getValue();
+  }
+
+  private static void save(FastaIndex index) {
+    for (Path sidecar : sidecars(index.fasta)) {
+      try {
+        write(index, sidecar);
+        // the other location may hold an outdated copy
+        for (Path other : sidecars(index.fasta)) {
+          if (!other.equals(sidecar)) {
+            Files.deleteIfExists(other);
+          }
+        }
+        return;
+      } catch (IOException ignored) {
+        // try the next location, the index is only an optimization
+      }
+    }
+  }
+
+  private static void write(FastaIndex index, Path sidecar) throws IOException {
+    final Path tmp = Files.createTempFile(sidecar.getParent(), sidecar.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(index.fileSize);
+        out.writeLong(index.modified);
+        out.writeLong(index.checksum);
+        out.writeLong(index.entries);
+        out.writeLong(index.residues);
+        out.writeLong(index.maxLength);
+        out.writeLong(index.prunedBelow);
+        out.writeInt(index.lengthHistogram.length);
+        for (long v : index.lengthHistogram) {
+          out.writeLong(v);
+        }
+        out.writeInt(index.offsets.length);
+        for (long v : index.offsets) {
+          out.writeLong(v);
+        }
+        // parents come before children, so that they can be restored in order
+        final List<Node> nodes = new ArrayList<>();
+        index.prefixes.iterPrefixCounts(PREFIX_DEPTH, (node, mode) -> nodes.add(node));
+        out.writeInt(nodes.size());
+        final StringBuilder sb = new StringBuilder();
+        for (Node node : nodes) {
+          sb.setLength(0);
+          for (Node cur = node; cur.parent != null; cur = cur.parent) {
+            sb.append(cur.ch);
+          }
+          out.writeUTF(sb.reverse().toString());
+          out.writeLong(node.getHits());
+          out.writeLong(node.getTerminals());
+        }
+      }
+      try {
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  static FastaIndex load(Path fasta, Path sidecar) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      final long size = in.readLong();
+      final long modified = in.readLong();
+      final long checksum = in.readLong();
+      final long entries = in.readLong();
+      final long residues = in.readLong();
+      final long maxLength = in.readLong();
+      final long prunedBelow = in.readLong();
+      final long[] histogram = new long[in.readInt()];
+      for (int i = 0; i < histogram.length; ++i) {
+        histogram[i] = in.readLong();
+      }
+      final long[] offsets = new long[in.readInt()];
+      for (int i = 0; i < offsets.length; ++i) {
+        offsets[i] = in.readLong();
+      }
+      final PrefixCounter prefixes = new PrefixCounter(Mode.FWD, PREFIX_DEPTH);
+      final int nodes = in.readInt();
+      for (int i = 0; i < nodes; ++i) {
+        prefixes.put(in.readUTF(), in.readLong(), in.readLong());
+      }
+      return new FastaIndex(fasta, size, modified, checksum, entries, residues, maxLength, histogram, offsets, prefixes, prunedBelow);
+    }
+  }
+}
@@ -97,7 +97,12 @@ public class FastaUtils {
 
   public static class InferFastaPrefixesAndSuffixes {
 
+    private static final int maxDepth = 16;
+    private static final double pctMin = 0.3;
+    private static final double pctMax = 0.7;
+
     private List<List<String>> ordered;
+    private FastaIndex index;
     private List<List<Tuple2<String, Double>>> prefixesByCol;
     private List<List<Tuple2<String, Double>>> suffixesByCol;
 
@@ -105,6 +110,13 @@ public class FastaUtils {
       this.ordered = ordered;
     }
 
+    /**
+     * Only looks at the prefixes of the 1st column, which were counted by the index.
+     */
+    public InferFastaPrefixesAndSuffixes(FastaIndex index) {
+      this.index = index;
+    }
+
     public List<List<Tuple2<String, Double>>> getPrefixesByCol() {
       return prefixesByCol;
     }
@@ -116,11 +128,14 @@ public class FastaUtils {
     public InferFastaPrefixesAndSuffixes invoke() {
       prefixesByCol = new ArrayList<>();
       suffixesByCol = new ArrayList<>();
+      if (index != null) {
+        prefixesByCol.add(findPrefixes(index.prefixes(), index.entries()));
+        return this;
+      }
 
       for (int descCol = 0; descCol < ordered.size(); descCol++) {
 
         List<String> descriptorCol = ordered.get(descCol);
-        final int maxDepth = 16;
         PrefixCounter cntFwd = new PrefixCounter(Mode.FWD, maxDepth);
         PrefixCounter cntRev = new PrefixCounter(Mode.REV, maxDepth);
 
@@ -132,39 +147,7 @@ public class FastaUtils {
         final long total = descriptorCol.size();
         final StringBuilder sb = new StringBuilder();
 
-        final double pctMin = 0.3;
-        final double pctMax = 0.7;
-
-        { // prefixes
-          final List<Tuple2<String, Double>> result = new ArrayList<>();
-          Proc2<Node, Mode> action = (n, mode) -> {
-
-            Node cur = n;
-            if (cur.getTerminals() > 0)
-              return; // no prefix or a suffix can be a whole protein id
-            double pct = cur.getHits() / (double) total;
-            if (pct < pctMin || pct > pctMax) {
-              return;
-            }
-            sb.setLength(0);
-            while (cur != null) {
-              if (cur.parent != null) {
-                sb.append(cur.ch);
-              }
-              cur = cur.parent;
-            }
-
-            if (sb.length() < 2) {
-              return; // no prefixes smaller than 2 characters
-            }
-
-            StringBuilder sbPrint = sb
-                .reverse();// mode == PrefixCounter.Mode.REV ? sb.reverse() : sb;
-            result.add(new Tuple2<>(sbPrint.toString(), pct));
-          };
-          cntFwd.iterPrefixCounts(maxDepth, action);
-          prefixesByCol.add(cleanUpDecoyTagCandidates(result));
-        }
+        prefixesByCol.add(findPrefixes(cntFwd, total));
 
         { // suffixes
           final List<Tuple2<String, Double>> result = new ArrayList<>();
@@ -202,6 +185,38 @@ public class FastaUtils {
       return this;
     }
 
+    private List<Tuple2<String, Double>> findPrefixes(PrefixCounter cntFwd, long total) {
+      final StringBuilder sb = new StringBuilder();
+      final List<Tuple2<String, Double>> result = new ArrayList<>();
+      Proc2<Node, Mode> action = (n, mode) -> {
+
+        Node cur = n;
+        if (cur.getTerminals() > 0)
+          return; // no prefix or a suffix can be a whole protein id
+        double pct = cur.getHits() / (double) total;
+        if (pct < pctMin || pct > pctMax) {
+          return;
+        }
+        sb.setLength(0);
+        while (cur != null) {
+          if (cur.parent != null) {
+            sb.append(cur.ch);
+          }
+          cur = cur.parent;
+        }
+
+        if (sb.length() < 2) {
+          return; // no prefixes smaller than 2 characters
+        }
+
+        StringBuilder sbPrint = sb
+            .reverse();// mode == PrefixCounter.Mode.REV ? sb.reverse() : sb;
+        result.add(new Tuple2<>(sbPrint.toString(), pct));
+      };
+      cntFwd.iterPrefixCounts(maxDepth, action);
+      return cleanUpDecoyTagCandidates(result);
+    }
+
     private List<Tuple2<String, Double>> cleanUpDecoyTagCandidates(
         List<Tuple2<String, Double>> candidates) {
       List<Tuple2<String, Double>> result = new ArrayList<>();
@@ -262,11 +277,21 @@ public class FastaUtils {
 
     private boolean isError = false;
     private final Path p;
+    private final FastaIndex index;
     private String selectedPrefix;
     private Component comp;
 
     public FastaDecoyPrefixSearchResult(Path p, Component comp) {
+      this(p, null, comp);
+    }
+
+    /**
+     * @param index If not null, the prefixes counted by the index are used instead of reading the
+     * whole file.
+     */
+    public FastaDecoyPrefixSearchResult(Path p, FastaIndex index, Component comp) {
       this.p = p;
+      this.index = index;
       this.comp = comp;
     }
 
@@ -279,20 +304,20 @@ public class FastaUtils {
     }
 
     public FastaDecoyPrefixSearchResult invoke() {
-      FastaContent fastaContent;
-      try {
-        fastaContent = readFasta(p);
-      } catch (IOException e) {
-        SwingUtils.showErrorDialogWithStacktrace(e, comp);
-        isError = true;
-        return this;
+      InferFastaPrefixesAndSuffixes inferFastaPrefixesAndSuffixes;
+      if (index != null) {
+        inferFastaPrefixesAndSuffixes = new InferFastaPrefixesAndSuffixes(index).invoke();
+      } else {
+        FastaContent fastaContent;
+        try {
+          fastaContent = readFasta(p);
+        } catch (IOException e) {
+          SwingUtils.showErrorDialogWithStacktrace(e, comp);
+          isError = true;
+          return this;
+        }
+        inferFastaPrefixesAndSuffixes = new InferFastaPrefixesAndSuffixes(fastaContent.ordered).invoke();
       }
-
-      List<String> descriptors = fastaContent.descriptors;
-      List<List<String>> ordered = fastaContent.ordered;
-
-      InferFastaPrefixesAndSuffixes inferFastaPrefixesAndSuffixes = new InferFastaPrefixesAndSuffixes(
-          ordered).invoke();
       List<List<Tuple2<String, Double>>> prefixesByCol = inferFastaPrefixesAndSuffixes
           .getPrefixesByCol();
       List<List<Tuple2<String, Double>>> suffixesByCol = inferFastaPrefixesAndSuffixes
@@ -17,6 +17,7 @@
 package com.github.chhh.utils;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
@@ -29,6 +30,16 @@ import java.nio.file.StandardCopyOption;
  */
 public class FileCopy {
     public static void main(String[] args) throws IOException {
+        int exitCode = run(args, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
         if (args.length != 2) {
             throw new IllegalArgumentException("Input must be exactly 2 arguments: origin and destination");
         }
@@ -39,18 +50,19 @@ public class FileCopy {
             origin = Paths.get(args[0]);
             destination = Paths.get(args[1]);
         } catch (InvalidPathException e) {
-            System.err.println("Given paths are not valid: " + e.getMessage());
-            System.exit(1);
+            err.println("Given paths are not valid: " + e.getMessage());
+            return 1;
         }
         if (!Files.exists(origin)) {
-            System.err.println("Origin file does not exist: " + origin.toString());
-            System.exit(1);
+            err.println("Origin file does not exist: " + origin.toString());
+            return 1;
         }
         if (!Files.exists(destination.getParent())) {
-            System.err.println("Destination directory does not exist: " + destination.getParent());
-            System.exit(1);
+            err.println("Destination directory does not exist: " + destination.getParent());
+            return 1;
         }
 
         Files.copy(origin, destination, StandardCopyOption.REPLACE_EXISTING);
+        return 0;
     }
 }
@@ -17,6 +17,7 @@
 package com.github.chhh.utils;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -34,12 +35,20 @@ public class FileDelete {
     // `java -cp fragpipe.jar com.github.chhh.utils.FileDelete`
 
     public static void main(String[] args) throws IOException {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
         if (args.length != 1)
             throw new IllegalArgumentException("Must provide exactly one argument - the file or directory to delete.");
         Path path = Paths.get(args[0]);
         if (!Files.exists(path))
-            return;
+            return 0;
         deleteFileOrFolder(path);
+        return 0;
     }
 
     public static void deleteFileOrFolder(final Path path) throws IOException {
@@ -17,6 +17,7 @@
 package com.github.chhh.utils;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -37,6 +38,16 @@ public class FileMove {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
+        int exitCode = run(args, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
         if (args.length != 2 && args.length != 3) {
             throw new IllegalArgumentException("Input must be either 2 arguments: origin and destination "
                 + "or optionally prepended with --no-err ot suppress file existence checks.");
@@ -51,10 +62,10 @@ public class FileMove {
 
         if (!Files.exists(origin)) {
             if (noErrors) {
-                System.exit(0);
+                return 0;
             } else {
-                System.err.printf("File does not exist: %s", origin);
-                System.exit(1);
+                err.printf("File does not exist: %s", origin);
+                return 1;
             }
         }
 
@@ -64,9 +75,10 @@ public class FileMove {
             else
                 Files.move(origin, destination, StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+            e.printStackTrace(err);
+            return 1;
         }
+        return 0;
     }
 
 
@@ -0,0 +1,213 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.chhh.utils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Usage: <code>java -cp path-to-jar com.github.chhh.utils.FileOps [--no-err] op path-from [path-to] [op path-from [path-to]]...</code>
+ * <br/>
+ * Does many copy/move/delete operations in one go, instead of one {@link FileCopy},
+ * {@link FileMove} or {@link FileDelete} invocation per file. Operations are independent of each
+ * other and are run concurrently. Every failed operation is reported, the exit code is non-zero
+ * if any of them failed. With {@code --no-err} missing origin files are skipped silently.
+ */
+public class FileOps {
+    public static final String NO_ERR = FileMove.NO_ERR;
+    private static final int MAX_THREADS = 8;
+
+    public enum Op {
+        /** Copy to the destination path. */
+        COPY,
+        /** Move (or rename) to the destination path. */
+        MOVE,
+        /** Delete the file or directory, no destination. */
+        DELETE;
+
+        public String arg() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public boolean hasDestination() {
+            return this != DELETE;
+        }
+    }
+
+    public static class Entry {
+        public final Op op;
+        public final Path from;
+        public final Path to;
+
+        public Entry(Op op, Path from, Path to) {
+            if (op.hasDestination() != (to != null)) {
+                throw new IllegalArgumentException("Destination must be given for " + op.arg() + " and only for it");
+            }
+            this.op = op;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return Command line arguments for this entry.
+         */
+        public List<String> toArgs() {
+            List<String> args = new ArrayList<>(3);
+            args.add(op.arg());
+            args.add(from.toString());
+            if (to != null) {
+                args.add(to.toString());
+            }
+            return args;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", toArgs());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int exitCode = run(args, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Same as {@link #main(String[])}, but returns the exit code instead of exiting.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
+        boolean noErrors = args.length > 0 && NO_ERR.equals(args[0]);
+        List<Entry> entries = parse(args, noErrors ? 1 : 0);
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        final int nThreads = Math.max(1, Math.min(entries.size(), Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())));
+        ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<String>> results = new ArrayList<>(entries.size());
+            for (Entry e : entries) {
+                results.add(exec.submit(() -> execute(e, noErrors)));
+            }
+            int failed = 0;
+            for (Future<String> result : results) {
+                String error;
+                try {
+                    error = result.get();
+                } catch (ExecutionException e) {
+                    error = e.getCause().toString();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    err.println("Interrupted");
+                    return 1;
+                }
+                if (error != null) {
+                    err.println(error);
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                err.printf("%d of %d file operations failed\n", failed, entries.size());
+                return 1;
+            }
+            return 0;
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static List<Entry> parse(String[] args, int from) {
+        List<Entry> entries = new ArrayList<>();
+        int i = from;
+        while (i < args.length) {
+            final Op op;
+            try {
+                op = Op.valueOf(args[i].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown file operation: " + args[i]);
+            }
+            final int needed = op.hasDestination() ? 2 : 1;
+            if (i + needed >= args.length) {
+                throw new IllegalArgumentException("Not enough arguments for: " + args[i]);
+            }
+            Path origin = Paths.get(args[i + 1]);
+            Path destination = op.hasDestination() ? Paths.get(args[i + 2]) : null;
+            entries.add(new Entry(op, origin, destination));
+            i += needed + 1;
+        }
+        return entries;
+    }
+
+    /**
+     * @return Null on success, error message otherwise.
+     */
+    private static String execute(Entry e, boolean noErrors) throws IOException {
+        if (!Files.exists(e.from)) {
+            if (noErrors || e.op == Op.DELETE) {
+                return null;
+            }
+            return String.format("File does not exist: %s", e.from);
+        }
+        switch (e.op) {
+            case COPY:
+                if (e.to.getParent() != null && !Files.exists(e.to.getParent())) {
+                    return "Destination directory does not exist: " + e.to.getParent();
+                }
+                Files.copy(e.from, e.to, StandardCopyOption.REPLACE_EXISTING);
+                break;
+            case MOVE:
+                if (Files.isDirectory(e.from)) {
+                    FileUtils.moveDirectory(e.from.toFile(), e.to.toFile());
+                } else {
+                    move(e.from, e.to);
+                }
+                break;
+            case DELETE:
+                FileDelete.deleteFileOrFolder(e.from);
+                break;
+            default:
+                throw new IllegalStateException("Unknown enum value: " + e.op);
+        }
+        return null;
+    }
+
+    /**
+     * A rename within the same file system is atomic, otherwise the file is copied over.
+     */
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.chhh.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps everything appended to it in a temporary file. Appending only queues the text, a
+ * background thread does the writing, so callers never wait for the disk.
+ */
+public class LogSpool {
+
+  private static final Logger log = LoggerFactory.getLogger(LogSpool.class);
+  private static final Object RESET = new Object();
+
+  private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+  private Thread writer; // guarded by this
+  private Path file; // only touched by the writer thread
+  private BufferedWriter out; // only touched by the writer thread
+
+  public void append(String s) {
+    if (s != null && !s.isEmpty()) {
+      submit(s);
+    }
+  }
+
+  /**
+   * Drops everything appended so far.
+   */
+  public void reset() {
+    submit(RESET);
+  }
+
+  /**
+   * @return Everything appended since creation or the last {@link #reset()}. Waits for the queued
+   * text to be written first.
+   */
+  public String read() throws InterruptedException {
+    awaitWritten();
+    if (file == null) {
+      return "";
+    }
+    try {
+      return new String(Files.readAllBytes(file), UTF_8);
+    } catch (IOException e) {
+      log.error("Could not read the log back from " + file, e);
+      return "";
+    }
+  }
+
+  /**
+   * Reads everything appended since creation or the last {@link #reset()} line by line, without
+   * holding all of it in memory. Waits for the queued text to be written first.
+   */
+  public void forEachLine(LineConsumer consumer) throws InterruptedException, IOException {
+    awaitWritten();
+    if (file == null) {
+      return;
+    }
+    try (BufferedReader r = Files.newBufferedReader(file, UTF_8)) {
+      String line;
+      while ((line = r.readLine()) != null) {
+        consumer.accept(line);
+      }
+    }
+  }
+
+  public interface LineConsumer {
+
+    void accept(String line) throws IOException;
+  }
+
+  private void awaitWritten() throws InterruptedException {
+    final CountDownLatch written = new CountDownLatch(1);
+    submit(written);
+    written.await();
+  }
+
+  private synchronized void submit(Object o) {
+    queue.add(o);
+    if (writer == null) {
+      writer = new Thread(this::drain, "Log spool writer");
+      writer.setDaemon(true);
+      writer.start();
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      try {
+        Object o = queue.take();
+        if (o instanceof String) {
+          write((String) o);
+        } else if (o == RESET) {
+          truncate();
+        } else {
+          if (out != null) {
+            out.flush();
+          }
+          ((CountDownLatch) o).countDown();
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        log.error("Error writing log to " + file, e);
+        closeQuietly();
+      }
+    }
+  }
+
+  private void write(String s) throws IOException {
+    if (out == null) {
+      if (file == null) {
+        file = Files.createTempFile("fragpipe-log-", ".txt");
+        file.toFile().deleteOnExit();
+      }
+      out = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.APPEND);
+    }
+    out.write(s);
+  }
+
+  private void truncate() throws IOException {
+    closeQuietly();
+    if (file != null) {
+      Files.write(file, new byte[0]);
+    }
+  }
+
+  private void closeQuietly() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        log.debug("Error closing log spool: {}", e.getMessage());
+      }
+      out = null;
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.github.chhh.utils;
 
 import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -33,6 +34,7 @@ public class PrefixCounter {
     protected Node root;
     public final Mode mode;
     public final int maxDepth;
+    private long size = 1;
     
     public PrefixCounter(Mode mode, int maxDepth) {
         this.mode = mode;
@@ -62,6 +64,7 @@ public class PrefixCounter {
             if (child == null) {
                 child = new Node(this, ch, this.depth + 1);
                 map.put(child.ch, child);
+                size++;
             }
             return child;
         }
@@ -97,6 +100,67 @@ public class PrefixCounter {
     public Mode getMode() {
         return mode;
     }
+
+    /**
+     * @return Number of nodes, including the root.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param csq In the order the characters were added, i.e. reversed for {@link Mode#REV}.
+     * @return The node for the given prefix, or null if it was never seen or was pruned.
+     */
+    public Node find(CharSequence csq) {
+        Node n = root;
+        for (int i = 0; i < csq.length() && n != null; i++) {
+            n = n.map.get(csq.charAt(i));
+        }
+        return n;
+    }
+
+    /**
+     * Sets the counts of a prefix, creating the nodes on its path. Used to restore a counter
+     * from saved counts.
+     */
+    public void put(CharSequence csq, long hits, long terminals) {
+        Node n = root;
+        for (int i = 0; i < csq.length(); i++) {
+            n = n.getChild(csq.charAt(i));
+        }
+        n.hits = hits;
+        n.terminals = terminals;
+    }
+
+    /**
+     * Drops the subtrees of nodes seen less than {@code minHits} times, to keep the memory
+     * bounded for huge corpora. Counts of prefixes added again later restart from zero.
+     */
+    public void prune(long minHits) {
+        final ArrayDeque<Node> deque = new ArrayDeque<>();
+        deque.add(root);
+        while (!deque.isEmpty()) {
+            Node head = deque.removeFirst();
+            for (Iterator<Node> it = head.map.values().iterator(); it.hasNext(); ) {
+                Node child = it.next();
+                if (child.hits < minHits) {
+                    it.remove();
+                    size -= count(child);
+                } else {
+                    deque.addLast(child);
+                }
+            }
+        }
+    }
+
+    private static long count(Node n) {
+        long cnt = 1;
+        for (Node child : n.map.values()) {
+            cnt += count(child);
+        }
+        return cnt;
+    }
     
     public void add(CharSequence csq) {
         switch (mode) {
@@ -108,9 +172,9 @@ public class PrefixCounter {
                 if (len == 0)
                     n.terminals++;
                 while (++pos < len) {
-                    Node nn = n.getChild(csq.charAt(pos));
-                    if (nn.depth > maxDepth)
+                    if (n.depth >= maxDepth)
                         return;
+                    Node nn = n.getChild(csq.charAt(pos));
                     nn.hits++;
                     if (pos == len - 1)
                         nn.terminals++;
@@ -125,9 +189,9 @@ public class PrefixCounter {
                 Node n = root;
                 n.hits++;
                 while (--pos >= 0) {
-                    Node nn = n.getChild(csq.charAt(pos));
-                    if (nn.depth > maxDepth)
+                    if (n.depth >= maxDepth)
                         return;
+                    Node nn = n.getChild(csq.charAt(pos));
                     nn.hits++;
                     n = nn;
                     if (pos == 0)
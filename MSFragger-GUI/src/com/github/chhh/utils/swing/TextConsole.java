@@ -16,11 +16,17 @@
  */
 package com.github.chhh.utils.swing;
 
+import com.github.chhh.utils.LogSpool;
 import java.awt.Color;
 import java.awt.Font;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.SimpleAttributeSet;
@@ -29,6 +35,9 @@ import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
 
 /**
+ * Console that understands ANSI color codes. Appending can be done from any thread, the text is
+ * passed to the document on the EDT in batches and only the last {@link #getMaxLines()} lines are
+ * kept there. Everything appended is also spooled to a temporary file, see {@link #getLogText()}.
  *
  * @author dmitriya
  */
@@ -54,8 +63,14 @@ public class TextConsole extends JTextPane implements Appendable {
     static final Color cReset = Color.getHSBColor(0.000f, 0.000f, 0.000f);
     static Color colorCurrent = cReset;
 
+    public static final int DEFAULT_MAX_LINES = 20000;
+
     private final Object lock = new Object();
     private ReentrantLock reentrantLock = new ReentrantLock(true);
+    private final LogSpool spool = new LogSpool();
+    private final List<Chunk> pending = new ArrayList<>(); // guarded by lock
+    private boolean flushScheduled = false; // guarded by lock
+    private volatile int maxLines = DEFAULT_MAX_LINES;
     
     protected String remaining = "";
     private boolean forceWordWrapInsteadOfScroll;
@@ -84,6 +99,52 @@ public class TextConsole extends JTextPane implements Appendable {
         forceWordWrapInsteadOfScroll = preferWordWrap;
     }
 
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * @param maxLines How many of the last lines to keep on screen. Doesn't affect {@link #getLogText()}.
+     */
+    public void setMaxLines(int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("maxLines must be positive");
+        }
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * @return Everything appended since the last {@link #setText(String)}, including the lines that
+     * are no longer shown. Line separators are the system ones, same as for {@link #getText()}.
+     */
+    public String getLogText() {
+        try {
+            final String text = spool.read();
+            return "\n".equals(System.lineSeparator()) ? text : text.replace("\n", System.lineSeparator());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+    }
+
+    /**
+     * Writes the same text as {@link #getLogText()} line by line, without reading it all into memory.
+     * Progress lines that were overwritten by a carriage return are left out.
+     */
+    public void writeLog(Writer w) throws IOException {
+        try {
+            spool.forEachLine(line -> {
+                if (line.length() > 1 && line.endsWith("\u200B")) {
+                    return;
+                }
+                w.write(line);
+                w.write(System.lineSeparator());
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Returns the text contained in this <code>TextComponent</code> in terms of the content type of
      * this editor.  If an exception is thrown while attempting to retrieve the text,
@@ -103,7 +164,14 @@ public class TextConsole extends JTextPane implements Appendable {
     @Override
     public void setText(String t) {
         synchronized (lock) {
-            super.setText(t);
+            pending.clear(); // nothing queued before matters anymore
+            remaining = "";
+            spool.reset();
+            enqueue(null, null);
+            if (t != null && !t.isEmpty()) {
+                spool.append(t);
+                enqueue(null, t);
+            }
         }
     }
 
@@ -147,12 +215,8 @@ public class TextConsole extends JTextPane implements Appendable {
     public Appendable append(char c) {
         synchronized (lock) {
             //append(Character.toString(c));
-            StyledDocument doc = getStyledDocument();
-            try {
-                doc.insertString(doc.getLength(), String.valueOf(c), null);
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-            }
+            spool.append(String.valueOf(c));
+            enqueue(null, String.valueOf(c));
         }
         return this;
     }
@@ -166,17 +230,104 @@ public class TextConsole extends JTextPane implements Appendable {
             StyleContext sc = StyleContext.getDefaultStyleContext();
             AttributeSet aset = sc
                 .addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, c);
-            int len = getDocument().getLength(); // same value as getText().length();
-            setCaretPosition(len);  // place caret at the end (with no selection)
-            setCharacterAttributes(aset, false);
             /**
              In JTextPane, only "\n" is recognized as a newline, so replace "\r\n" with "\n"
              see {@link javax.swing.text.DefaultEditorKit} for information on newlines
              “But while the document is in memory, the "\n" character is used to define a newline, regardless of how the newline is defined when the document is on disk.”
              JTextPane doesn't print "\r", so replace it with "\n"
              */
-            replaceSelection(s.replace("\r\n", "\n")
-                .replace("\r", "\u200B\n")); // there is no selection, so inserts at caret
+            final String text = s.replace("\r\n", "\n").replace("\r", "\u200B\n");
+            spool.append(text);
+            enqueue(aset, text);
+        }
+    }
+
+    /**
+     * Queues text for the document, consecutive pieces of the same color are merged. Null text
+     * clears the document.
+     */
+    private void enqueue(AttributeSet aset, String text) {
+        if (text != null && text.isEmpty()) {
+            return;
+        }
+        final Chunk last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (text != null && last != null && last.text != null && Objects.equals(last.aset, aset)) {
+            last.text.append(text);
+        } else {
+            pending.add(new Chunk(aset, text));
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Moves everything queued so far to the document. Runs on the EDT; whatever gets appended while
+     * the EDT is busy ends up in a single batch.
+     */
+    private void flush() {
+        final List<Chunk> chunks;
+        synchronized (lock) {
+            chunks = new ArrayList<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+
+        // lines that would be trimmed right after insertion are not inserted at all
+        boolean clear = false;
+        int from = 0;
+        int lines = 0;
+        for (int i = chunks.size() - 1; i >= 0; --i) {
+            final Chunk chunk = chunks.get(i);
+            if (chunk.text == null) {
+                clear = true;
+                from = i + 1;
+                break;
+            }
+            lines += countNewlines(chunk.text);
+            if (lines >= maxLines) {
+                clear = true;
+                from = i;
+                break;
+            }
+        }
+
+        StyledDocument doc = getStyledDocument();
+        try {
+            if (clear) {
+                doc.remove(0, doc.getLength());
+            }
+            for (int i = from; i < chunks.size(); ++i) {
+                doc.insertString(doc.getLength(), chunks.get(i).text.toString(), chunks.get(i).aset);
+            }
+            final int excess = doc.getDefaultRootElement().getElementCount() - maxLines;
+            if (excess > 0) {
+                doc.remove(0, doc.getDefaultRootElement().getElement(excess - 1).getEndOffset());
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        setCaretPosition(doc.getLength());
+    }
+
+    private static int countNewlines(CharSequence s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) == '\n') {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private static class Chunk {
+        final AttributeSet aset;
+        final StringBuilder text;
+
+        Chunk(AttributeSet aset, String text) {
+            this.aset = aset;
+            this.text = text == null ? null : new StringBuilder(text);
         }
     }
     
@@ -0,0 +1,79 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.assertEquals;
+
+import com.dmtavt.fragpipe.api.InputLcmsFile;
+import com.dmtavt.fragpipe.api.LcmsFileGroup;
+import com.github.chhh.utils.UsageTrigger;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CmdPhilosopherFilterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void firstExperimentIsFilteredAloneThenTheRestSideBySide() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    Map<LcmsFileGroup, Path> groups = new LinkedHashMap<>();
+    InputLcmsFile first = null;
+    for (String name : new String[]{"exp1", "exp2", "exp3"}) {
+      InputLcmsFile f = new InputLcmsFile(wd.resolve(name + ".mzML"), name, null, "DDA") {
+        @Override
+        public String getGroup() {
+          return name;
+        }
+      };
+      if (name.equals("exp2")) {
+        first = f;
+      }
+      groups.put(new LcmsFileGroup(name, Collections.singletonList(f)), wd.resolve("combined.prot.xml"));
+    }
+
+    CmdPhilosopherFilter cmd = new CmdPhilosopherFilter(true, wd);
+    cmd.configure(null, 12, 8, new UsageTrigger("philosopher", "Philosopher"), "rev_", "--sequential --prot 0.01", false, groups, first);
+    List<ProcessBuilderInfo> pbis = cmd.pbis;
+    assertEquals(3, pbis.size());
+
+    ProcessBuilderInfo pbi = pbis.get(0);
+    assertEquals(wd.resolve("exp2").toFile(), pbi.pb.directory());
+    assertEquals(ProcessBuilderInfo.GROUP_SEQUENTIAL, pbi.parallelGroup);
+    assertEquals(8, pbi.threads);
+    assertEquals("8", pbi.pb.environment().get("GOMAXPROCS"));
+    assertEquals("12GiB", pbi.pb.environment().get("GOMEMLIMIT"));
+
+    for (ProcessBuilderInfo other : pbis.subList(1, 3)) {
+      assertEquals(CmdPhilosopherFilter.NAME, other.parallelGroup);
+      assertEquals(4, other.threads);
+      assertEquals(6, other.ramGb);
+      assertEquals("4", other.pb.environment().get("GOMAXPROCS"));
+      assertEquals("6GiB", other.pb.environment().get("GOMEMLIMIT"));
+      List<String> command = other.pb.command();
+      assertEquals(wd.resolve("exp2").toAbsolutePath().toString(), command.get(command.indexOf("--probin") + 1));
+    }
+  }
+}
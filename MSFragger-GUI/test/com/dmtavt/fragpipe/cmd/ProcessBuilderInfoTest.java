@@ -0,0 +1,50 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessBuilderInfoTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void warningsFilteredLineByLineWhileStreaming() throws Exception {
+    assumeTrue(Files.isExecutable(Paths.get("/bin/sh")));
+    Path wd = tmp.getRoot().toPath();
+    // the warning arrives in two pieces, the filter must still see it as one line
+    ProcessBuilder pb = new ProcessBuilder("/bin/sh", "-c",
+        "printf 'first\\nWARNING: cannot open ' >&2; sleep 0.2; printf 'data file a.mzML\\nlast\\n' >&2");
+    pb.directory(wd.toFile());
+    ProcessBuilderInfo pbi = new PbiBuilder().setPb(pb).setName("PeptideProphet").setFnStdErr("err.txt").create();
+
+    ProcessBuilderInfo.toRunnable(pbi, wd, null, null, false).run();
+
+    assertEquals("first\nlast\n", new String(Files.readAllBytes(wd.resolve("err.txt")), StandardCharsets.UTF_8));
+  }
+}
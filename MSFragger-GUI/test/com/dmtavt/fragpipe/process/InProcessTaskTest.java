@@ -0,0 +1,98 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.dmtavt.fragpipe.cmd.ToolingUtils;
+import com.dmtavt.fragpipe.tools.diann.Propagation;
+import com.dmtavt.fragpipe.tools.percolator.PercolatorOutputToPepXML;
+import com.github.chhh.utils.FileMove;
+import com.github.chhh.utils.FileOps;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InProcessTaskTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void moveFileInProcess() throws Exception {
+    Path src = tmp.newFolder("src").toPath();
+    Path dest = tmp.newFolder("dest").toPath();
+    Path file = Files.write(src.resolve("a.txt"), "a".getBytes());
+
+    List<ProcessBuilder> pbs = ToolingUtils.pbsMoveFiles(Paths.get("fragpipe.jar"), dest, false, Collections.singletonList(file));
+    assertEquals(1, pbs.size());
+    InProcessTask task = InProcessTask.of(pbs.get(0));
+    assertNotNull(task);
+    assertEquals(FileOps.class.getCanonicalName(), task.mainClass);
+
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    assertEquals(0, task.run(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err)));
+    assertFalse(Files.exists(file));
+    assertTrue(Files.exists(dest.resolve("a.txt")));
+
+    // the file is gone now, without --no-err that's an error
+    assertEquals(1, task.run(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err)));
+    assertTrue(err.size() > 0);
+  }
+
+  @Test
+  public void interruptedRunIsReported() throws Exception {
+    Path file = Files.write(tmp.newFile("a.txt").toPath(), "a".getBytes());
+    InProcessTask task = InProcessTask.of(ToolingUtils.pbsDeleteFiles(Paths.get("fragpipe.jar"), Collections.singletonList(file)).get(0));
+    assertNotNull(task);
+
+    Thread.currentThread().interrupt();
+    try {
+      task.run(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+      fail("Interruption was not reported");
+    } catch (InterruptedException ignored) {
+      // expected, the flag is cleared by the exception
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void memoryHeavyHelpersAreForked() {
+    assertNull(InProcessTask.of(new ProcessBuilder("java", "-cp", "fragpipe.jar", Propagation.class.getCanonicalName(), "wd", "1")));
+    assertNull(InProcessTask.of(new ProcessBuilder("java", "-cp", "fragpipe.jar", PercolatorOutputToPepXML.class.getCanonicalName(), "a.pin")));
+  }
+
+  @Test
+  public void jvmOptionsAndUnknownClassesAreForked() {
+    assertNull(InProcessTask.of(new ProcessBuilder("java", "-Xmx4G", "-cp", "fragpipe.jar", FileMove.class.getCanonicalName(), "a", "b")));
+    assertNull(InProcessTask.of(new ProcessBuilder("java", "-cp", "fragpipe.jar", "some.other.Main", "a")));
+  }
+}
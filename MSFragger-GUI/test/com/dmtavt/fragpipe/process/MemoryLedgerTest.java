@@ -0,0 +1,73 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class MemoryLedgerTest {
+
+  @Test
+  public void heapsStayWithinBudget() {
+    MemoryLedger ledger = new MemoryLedger(32);
+    assertEquals(20, ledger.reserve(0, 20, true));
+    assertEquals(-1, ledger.reserve(0, 16, false)); // can't be reduced, has to wait
+    assertEquals(-1, ledger.reserve(14, 16, false)); // least it needs doesn't fit
+    assertEquals(12, ledger.reserve(8, 16, false)); // started with what is left
+    assertEquals(32, ledger.used());
+    ledger.release(20);
+    assertEquals(4, ledger.reserve(2, 4, false));
+    assertEquals(16, ledger.used());
+  }
+
+  @Test
+  public void aloneGetsUpToBudget() {
+    MemoryLedger ledger = new MemoryLedger(8);
+    assertEquals(8, ledger.reserve(0, Integer.MAX_VALUE, true));
+    ledger.reset();
+    assertEquals(0, ledger.used());
+  }
+
+  @Test
+  public void noBudgetNoAccounting() {
+    MemoryLedger ledger = new MemoryLedger(0);
+    assertEquals(0, ledger.reserve(4, 16, false));
+    assertEquals(0, ledger.reserve(4, 16, false));
+  }
+
+  @Test
+  public void heapOptionIsReplaced() {
+    ProcessBuilder pb = new ProcessBuilder(Arrays.asList("java", "-Dx=1", "-Xmx64G", "-cp", "a.jar", "Main", "-Xmx2G"));
+    assertTrue(MemoryLedger.setHeap(pb, 12));
+    assertEquals(Arrays.asList("java", "-Dx=1", "-Xmx12G", "-cp", "a.jar", "Main", "-Xmx2G"), pb.command());
+    assertFalse(MemoryLedger.setHeap(new ProcessBuilder("philosopher", "filter"), 12));
+  }
+
+  @Test
+  public void undeclaredJavaHeap() {
+    assertEquals(64, MemoryLedger.heapGb(Arrays.asList("java", "-Xmx64G", "-jar", "a.jar")));
+    assertEquals(2, MemoryLedger.heapGb(Arrays.asList("/opt/jre/bin/java", "-Xmx1536m", "-jar", "a.jar")));
+    assertEquals(1, MemoryLedger.heapGb(Arrays.asList("C:\\jre\\bin\\java.exe", "-Xmx512M", "-cp", "a.jar", "Main")));
+    assertEquals(MemoryLedger.DEFAULT_HEAP_GB, MemoryLedger.heapGb(Arrays.asList("java", "-cp", "a.jar", "Main")));
+    assertEquals(0, MemoryLedger.heapGb(Arrays.asList("philosopher", "filter")));
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class ProcessResultTest {
+
+  @Test
+  public void pumpOutputReadsUntilProcessEnds() throws Exception {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder pb = new ProcessBuilder(java, "-version");
+    StringBuilder out = new StringBuilder();
+    StringBuilder err = new StringBuilder();
+    try (ProcessResult pr = new ProcessResult(new PbiBuilder().setPb(pb).setName("java").create())) {
+      Process p = pr.start();
+      pr.pumpOutput(bytes -> out.append(new String(bytes, StandardCharsets.UTF_8)),
+          bytes -> err.append(new String(bytes, StandardCharsets.UTF_8)));
+      assertEquals(0, p.onExit().get().exitValue());
+      pr.awaitOutput();
+    }
+    assertTrue(err.toString() + out, (err.toString() + out).contains("version"));
+  }
+}
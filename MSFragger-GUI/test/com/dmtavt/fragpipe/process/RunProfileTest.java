@@ -0,0 +1,146 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RunProfileTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static ProcessBuilderInfo pbi(String name, String lane) {
+    ProcessBuilder pb = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-version");
+    return new PbiBuilder().setPb(pb).setName(name).setParallelGroup("group").setThreads(2).setLane(lane).create();
+  }
+
+  @Test
+  public void profileWrittenAtTheEnd() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    ProcessBuilderInfo run = pbi("MSFragger", "a.mzML");
+    ProcessBuilderInfo skipped = pbi("IonQuant", null);
+    ProcessBuilderInfo notStarted = pbi("Philosopher", null);
+
+    RunProfile.begin(wd);
+    RunProfile.owner(run, "Search");
+    RunProfile.owner(skipped, "Quant");
+    RunProfile.owner(notStarted, "Report");
+    RunProfile.ready(run);
+    Thread.sleep(20);
+    RunProfile.scheduled(run, 2, 4);
+    Process p = run.pb.start();
+    RunProfile.started(run, p);
+    int exitCode = p.waitFor();
+    RunProfile.exited(run, exitCode);
+    RunProfile.exited(run, 1); // only the first exit counts
+    RunProfile.skipped(skipped);
+    RunProfile.end();
+    RunProfile.exited(notStarted, 0); // nothing to record into any more
+
+    JsonObject json = JsonParser.parseString(new String(Files.readAllBytes(wd.resolve(RunProfile.FN_JSON)), StandardCharsets.UTF_8)).getAsJsonObject();
+    JsonArray steps = json.getAsJsonArray("steps");
+    assertEquals(3, steps.size());
+    JsonObject s = steps.get(0).getAsJsonObject();
+    assertEquals("MSFragger", s.get("name").getAsString());
+    assertEquals("Search", s.get("tool").getAsString());
+    assertEquals("a.mzML", s.get("file").getAsString());
+    assertEquals("done", s.get("status").getAsString());
+    assertEquals(0, s.get("exitCode").getAsInt());
+    assertEquals(2, s.get("threads").getAsInt());
+    assertEquals(4, s.get("ramGb").getAsInt());
+    assertTrue(s.get("queueWaitSec").getAsDouble() > 0);
+    assertTrue(s.get("endMs").getAsLong() >= s.get("startMs").getAsLong());
+    assertEquals("skipped", steps.get(1).getAsJsonObject().get("status").getAsString());
+    assertEquals("not started", steps.get(2).getAsJsonObject().get("status").getAsString());
+
+    List<String> csv = Files.readAllLines(wd.resolve(RunProfile.FN_CSV), StandardCharsets.UTF_8);
+    assertEquals(4, csv.size());
+    assertTrue(csv.get(1).startsWith("MSFragger,Search,a.mzML,group,done,0,2,4,"));
+
+    JsonArray events = JsonParser.parseString(new String(Files.readAllBytes(wd.resolve(RunProfile.FN_TRACE)), StandardCharsets.UTF_8))
+        .getAsJsonObject().getAsJsonArray("traceEvents");
+    long spans = 0;
+    for (int i = 0; i < events.size(); ++i) {
+      if (events.get(i).getAsJsonObject().get("ph").getAsString().equals("X")) {
+        assertEquals("MSFragger", events.get(i).getAsJsonObject().get("name").getAsString());
+        ++spans;
+      }
+    }
+    assertEquals(1, spans);
+  }
+
+  @Test
+  public void inProcessCpuCountsWorkerThreads() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    ProcessBuilderInfo alone = pbi("RewritePepxml", null);
+    ProcessBuilderInfo first = pbi("FileCopy", null);
+    ProcessBuilderInfo second = pbi("FileMove", null);
+
+    RunProfile.begin(wd);
+    RunProfile.startedInProcess(alone);
+    Thread worker = new Thread(() -> {
+      long until = System.nanoTime() + 300_000_000L;
+      double x = 0;
+      while (System.nanoTime() < until) {
+        x += Math.sqrt(x + 1);
+      }
+      assertTrue(x > 0);
+    });
+    worker.start();
+    worker.join();
+    RunProfile.exited(alone, 0);
+    RunProfile.startedInProcess(first);
+    RunProfile.startedInProcess(second);
+    RunProfile.exited(first, 0);
+    RunProfile.exited(second, 0);
+    RunProfile.end();
+
+    JsonArray steps = JsonParser.parseString(new String(Files.readAllBytes(wd.resolve(RunProfile.FN_JSON)), StandardCharsets.UTF_8))
+        .getAsJsonObject().getAsJsonArray("steps");
+    JsonObject s = steps.get(0).getAsJsonObject();
+    assertTrue(s.get("inProcess").getAsBoolean());
+    assertTrue(s.get("cpuSec").getAsDouble() > 0.1);
+    assertFalse(s.get("cpuShared").getAsBoolean());
+    assertTrue(steps.get(1).getAsJsonObject().get("cpuShared").getAsBoolean());
+    assertTrue(steps.get(2).getAsJsonObject().get("cpuShared").getAsBoolean());
+  }
+
+  @Test
+  public void nothingWrittenWithoutRun() throws Exception {
+    RunProfile.end();
+    RunProfile.ready(pbi("MSFragger", null));
+    RunProfile.end();
+    assertFalse(Files.exists(tmp.getRoot().toPath().resolve(RunProfile.FN_JSON)));
+  }
+}
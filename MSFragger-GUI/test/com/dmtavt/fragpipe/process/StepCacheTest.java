@@ -0,0 +1,155 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StepCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static ProcessBuilderInfo pbi(Path wd, String... cmd) {
+    return lanePbi(wd, null, cmd);
+  }
+
+  private static ProcessBuilderInfo lanePbi(Path wd, String lane, String... cmd) {
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.directory(wd.toFile());
+    return new PbiBuilder().setPb(pb).setName("Tool").setLane(lane).create();
+  }
+
+  @Test
+  public void finishedStepIsDoneWhileOutputsAreUnchanged() throws Exception {
+    Path wd = tmp.newFolder("wd").toPath();
+    Path params = wd.resolve("tool.params");
+    Files.write(params, "a = 1\n".getBytes());
+
+    StepCache cache = StepCache.load(wd);
+    String fingerprint = cache.fingerprint(pbi(wd, "tool", params.toString()));
+    assertFalse(cache.isDone(fingerprint));
+    StepCache.Running running = cache.start(pbi(wd, "tool", params.toString()));
+    Files.write(wd.resolve("out.tsv"), "result\n".getBytes());
+    cache.finish(running, fingerprint, true);
+
+    StepCache reloaded = StepCache.load(wd);
+    assertEquals(fingerprint, reloaded.fingerprint(pbi(wd, "tool", params.toString())));
+    assertTrue(reloaded.isDone(fingerprint));
+
+    Files.write(wd.resolve("out.tsv"), "changed result\n".getBytes());
+    assertFalse(StepCache.load(wd).isDone(fingerprint));
+  }
+
+  @Test
+  public void fingerprintFollowsArgumentsAndInputContent() throws Exception {
+    Path wd = tmp.newFolder("wd").toPath();
+    Path params = wd.resolve("tool.params");
+    Files.write(params, "a = 1\n".getBytes());
+    StepCache cache = StepCache.load(wd);
+
+    String fingerprint = cache.fingerprint(pbi(wd, "tool", "--params=" + params));
+    assertNotEquals(fingerprint, cache.fingerprint(pbi(wd, "tool", "--params=" + params, "--fast")));
+    Files.write(params, "a = 1\n".getBytes());
+    assertEquals(fingerprint, cache.fingerprint(pbi(wd, "tool", "--params=" + params)));
+    Files.write(params, "a = 2\n".getBytes());
+    assertNotEquals(fingerprint, cache.fingerprint(pbi(wd, "tool", "--params=" + params)));
+  }
+
+  @Test
+  public void filesDeletedByLaterStepsAreNoLongerRequired() throws Exception {
+    Path wd = tmp.newFolder("wd").toPath();
+    StepCache cache = StepCache.load(wd);
+
+    String first = cache.fingerprint(pbi(wd, "tool", "first"));
+    StepCache.Running running = cache.start(pbi(wd, "tool", "first"));
+    Files.write(wd.resolve("temp.txt"), "temp\n".getBytes());
+    Files.write(wd.resolve("kept.txt"), "kept\n".getBytes());
+    cache.finish(running, first, true);
+
+    String cleanup = cache.fingerprint(pbi(wd, "tool", "cleanup"));
+    running = cache.start(pbi(wd, "tool", "cleanup"));
+    Files.delete(wd.resolve("temp.txt"));
+    cache.finish(running, cleanup, true);
+
+    StepCache reloaded = StepCache.load(wd);
+    assertTrue(reloaded.isDone(first));
+    assertTrue(reloaded.isDone(cleanup));
+    Files.delete(wd.resolve("kept.txt"));
+    assertFalse(reloaded.isDone(first));
+  }
+
+  @Test
+  public void concurrentProcessesOnlyGetFilesOfTheirLane() throws Exception {
+    Path wd = tmp.newFolder("wd").toPath();
+    StepCache cache = StepCache.load(wd);
+
+    String laneA = cache.fingerprint(lanePbi(wd, "run_a", "tool", "run_a"));
+    String laneB = cache.fingerprint(lanePbi(wd, "run_b", "tool", "run_b"));
+    String noLane = cache.fingerprint(pbi(wd, "tool", "all"));
+    StepCache.Running a = cache.start(lanePbi(wd, "run_a", "tool", "run_a"));
+    StepCache.Running b = cache.start(lanePbi(wd, "run_b", "tool", "run_b"));
+    StepCache.Running all = cache.start(pbi(wd, "tool", "all"));
+    Files.write(wd.resolve("run_a.tsv"), "a\n".getBytes());
+    Files.write(wd.resolve("run_b.tsv"), "b\n".getBytes());
+    Files.write(wd.resolve("all.tsv"), "all\n".getBytes());
+    cache.finish(a, laneA, true);
+    cache.finish(b, laneB, true);
+    assertTrue("written once no process is running", StepCache.load(wd).isEmpty());
+    cache.finish(all, noLane, true);
+
+    StepCache reloaded = StepCache.load(wd);
+    assertTrue(reloaded.isDone(laneA));
+    assertTrue(reloaded.isDone(laneB));
+    assertFalse(reloaded.isDone(noLane));
+    Files.delete(wd.resolve("all.tsv"));
+    assertTrue("all.tsv is not an output of the lanes", StepCache.load(wd).isDone(laneA));
+    Files.delete(wd.resolve("run_b.tsv"));
+    assertTrue(StepCache.load(wd).isDone(laneA));
+    assertFalse(StepCache.load(wd).isDone(laneB));
+  }
+
+  @Test
+  public void concurrentProcessWithoutFilesOfItsLaneIsNotCached() throws Exception {
+    Path wd = tmp.newFolder("wd").toPath();
+    StepCache cache = StepCache.load(wd);
+
+    String other = cache.fingerprint(lanePbi(wd, "run_a", "tool", "run_a"));
+    String full = cache.fingerprint(lanePbi(wd, "/data/run_b.mzML", "tool", "run_b"));
+    StepCache.Running a = cache.start(lanePbi(wd, "run_a", "tool", "run_a"));
+    StepCache.Running b = cache.start(lanePbi(wd, "/data/run_b.mzML", "tool", "run_b"));
+    Files.write(wd.resolve("run_a.tsv"), "a\n".getBytes());
+    Files.write(wd.resolve("run_b_Q1.mzML"), "b\n".getBytes());
+    cache.finish(a, other, true);
+    cache.finish(b, full, true);
+
+    StepCache reloaded = StepCache.load(wd);
+    assertTrue(reloaded.isDone(other));
+    assertFalse("run again rather than trusting an empty output list", reloaded.isDone(full));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.dmtavt.fragpipe.cmd.CmdMsfragger;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StepResultsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void parametersReportedInOutput() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    StepResults.beginRun(wd);
+    StepResults.OutputScanner scanner = StepResults.start(wd, CmdMsfragger.NAME);
+    scanner.accept("Calibrating...\nNew fragment_mass_tol");
+    scanner.accept("erance = 12.5 PPM\r\nNew use_topN_peaks = 150\r");
+    scanner.accept("New fragment_mass_tolerance = 20 PPM\nNew minimum_ratio = 0.01");
+    scanner.finish();
+    StepResults.exit(wd, CmdMsfragger.NAME, 0);
+    StepResults.start(wd, "PeptideProphet").accept("New use_topN_peaks = 1\n");
+
+    StepResults results = StepResults.read(wd);
+    assertEquals(12.5f, results.paramFloat(CmdMsfragger.NAME, "fragment_mass_tolerance", "PPM"), 0);
+    assertNull(results.paramFloat(CmdMsfragger.NAME, "fragment_mass_tolerance", "Da"));
+    assertEquals(Integer.valueOf(150), results.paramInt(CmdMsfragger.NAME, "use_topN_peaks"));
+    assertEquals(0.01f, results.paramFloat(CmdMsfragger.NAME, "minimum_ratio", null), 0);
+    assertNull(results.paramInt(CmdMsfragger.NAME, "max_fragment_charge"));
+    assertNull(results.param("PeptideProphet", "use_topN_peaks"));
+    assertEquals(Integer.valueOf(0), results.exitCode(CmdMsfragger.NAME));
+  }
+
+  @Test
+  public void stepsThatRunAgainReplaceTheirResults() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    StepResults.beginRun(wd);
+    StepResults.start(wd, CmdMsfragger.NAME).accept("New use_topN_peaks = 150\n");
+    StepResults.start(wd, CmdMsfragger.NAME).accept("New use_topN_peaks = 100\n");
+
+    // skipped in the next run, results are kept
+    StepResults.beginRun(wd);
+    StepResults.start(wd, "PeptideProphet");
+    assertEquals(Integer.valueOf(150), StepResults.read(wd).paramInt(CmdMsfragger.NAME, "use_topN_peaks"));
+
+    StepResults.beginRun(wd);
+    StepResults.start(wd, CmdMsfragger.NAME).accept("nothing optimized\n");
+    assertNull(StepResults.read(wd).paramInt(CmdMsfragger.NAME, "use_topN_peaks"));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dmtavt.fragpipe.cmd.PbiBuilder;
+import com.dmtavt.fragpipe.cmd.ProcessBuilderInfo;
+import com.dmtavt.fragpipe.internal.DefEdge;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.jgrapht.Graph;
+import org.junit.Test;
+
+public class TaskGraphTest {
+
+  private static RunnableDescription rd(String name, String group) {
+    return new RunnableDescription(new ProcessDescription.Builder().setName(name).create(), () -> {}, group, null);
+  }
+
+  private static RunnableDescription rd(String name, String group, String lane) {
+    ProcessBuilderInfo pbi = new PbiBuilder().setName(name).setParallelGroup(group).setLane(lane).create();
+    return new RunnableDescription(new ProcessDescription.Builder().setName(name).create(), () -> {}, group, pbi);
+  }
+
+  @Test
+  public void stages() {
+    RunnableDescription a = rd("a", null);
+    RunnableDescription b1 = rd("b1", "b");
+    RunnableDescription b2 = rd("b2", "b");
+    RunnableDescription c = rd("c", ProcessBuilderInfo.GROUP_SEQUENTIAL);
+    RunnableDescription d = rd("d", ProcessBuilderInfo.GROUP_SEQUENTIAL);
+    List<List<RunnableDescription>> stages = TaskGraph.stages(Arrays.asList(a, b1, b2, c, d));
+    assertEquals(Arrays.asList(
+        Collections.singletonList(a), Arrays.asList(b1, b2),
+        Collections.singletonList(c), Collections.singletonList(d)), stages);
+  }
+
+  @Test
+  public void independentChainsJoinAtTheEnd() {
+    RunnableDescription start = rd("start", null);
+    RunnableDescription x1 = rd("x1", "x");
+    RunnableDescription x2 = rd("x2", "x");
+    RunnableDescription y = rd("y", null);
+    RunnableDescription last = rd("last", null);
+
+    Graph<RunnableDescription, DefEdge> g = TaskGraph.chain(Collections.singletonList(start));
+    Collection<RunnableDescription> exitsX = TaskGraph.addChain(g, Collections.singletonList(start), Arrays.asList(x1, x2));
+    Collection<RunnableDescription> exitsY = TaskGraph.addChain(g, Collections.singletonList(start), Collections.singletonList(y));
+    assertEquals(Arrays.asList(x1, x2), exitsX);
+    assertEquals(Collections.singletonList(y), exitsY);
+    assertTrue(g.containsEdge(start, x1));
+    assertTrue(g.containsEdge(start, x2));
+    assertTrue(g.containsEdge(start, y));
+    assertEquals(0, g.getAllEdges(x1, y).size() + g.getAllEdges(y, x1).size());
+
+    TaskGraph.addLast(g, last);
+    assertEquals(3, g.inDegreeOf(last));
+  }
+
+  @Test
+  public void lanesOnlyWaitForTheirOwnLane() {
+    RunnableDescription start = rd("start", null);
+    RunnableDescription runA = rd("run a", "run", "a");
+    RunnableDescription runB = rd("run b", "run", "b");
+    RunnableDescription runC = rd("run c", "run", "c");
+    RunnableDescription convA = rd("convert a", "convert", "a");
+    RunnableDescription convB = rd("convert b", "convert", "b");
+    RunnableDescription cleanup = rd("cleanup", null);
+
+    Graph<RunnableDescription, DefEdge> g = TaskGraph.chain(Collections.singletonList(start));
+    Collection<RunnableDescription> exits = TaskGraph.addChain(g, Collections.singletonList(start),
+        Arrays.asList(runA, runB, runC, convA, convB, cleanup));
+    assertTrue(g.containsEdge(start, runA));
+    assertTrue(g.containsEdge(runA, convA));
+    assertTrue(g.containsEdge(runB, convB));
+    assertEquals(1, g.inDegreeOf(convA));
+    assertEquals(1, g.inDegreeOf(convB));
+    // run c had nothing in its lane to follow it, cleanup still has to wait for it
+    assertTrue(g.containsEdge(runC, cleanup));
+    assertEquals(3, g.inDegreeOf(cleanup));
+    assertEquals(Collections.singletonList(cleanup), exits);
+  }
+
+  @Test
+  public void emptyChainPassesDependenciesThrough() {
+    RunnableDescription start = rd("start", null);
+    Graph<RunnableDescription, DefEdge> g = TaskGraph.chain(Collections.singletonList(start));
+    Collection<RunnableDescription> exits = TaskGraph.addChain(g, Collections.singletonList(start), Collections.emptyList());
+    assertEquals(Collections.singletonList(start), exits);
+  }
+}
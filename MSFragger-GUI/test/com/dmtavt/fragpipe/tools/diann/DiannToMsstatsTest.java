@@ -18,19 +18,30 @@
 package com.dmtavt.fragpipe.tools.diann;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import com.dmtavt.fragpipe.util.ArrowTableReader;
+import com.dmtavt.fragpipe.util.TsvToArrow;
 import java.io.BufferedReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class DiannToMsstatsTest {
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void test() throws Exception {
     Path diannPath = Paths.get(Objects.requireNonNull(PlexDiaHelperTest.class.getResource("/report.tsv")).toURI());
@@ -68,4 +79,60 @@ public class DiannToMsstatsTest {
     brActual.close();
     brExpected.close();
   }
+
+  @Test
+  public void arrowReport() throws Exception {
+    Path diannPath = Paths.get(Objects.requireNonNull(PlexDiaHelperTest.class.getResource("/report.tsv")).toURI());
+    Path dir = tmp.getRoot().toPath();
+    TsvToArrow.convert(diannPath, dir.resolve("report.arrow"), 2);
+
+    Map<String, String[]> t = new HashMap<>();
+    t.put("run1", new String[]{"a", "1"});
+    t.put("run2", new String[]{"b", "2"});
+
+    new DiannToMsstats(dir.resolve("report.arrow").toString(), dir.toString(), diannPath.getParent().resolve("psm.tsv").toAbsolutePath().toString(), 0.01f, 0.01f, 0.01f, 0.01f, t, 2, DiannToMsstats.FORMAT_ARROW);
+
+    List<String> expected = Files.readAllLines(diannPath.getParent().resolve("msstats_expected.csv"));
+    List<String[]> actual = new ArrayList<>();
+    try (ArrowTableReader reader = new ArrowTableReader(dir.resolve("msstats.arrow"))) {
+      assertEquals(expected.get(0), String.join(",", reader.header()));
+      reader.forEach(row -> {
+        String[] ss = new String[row.size()];
+        for (int i = 0; i < ss.length; ++i) {
+          ss[i] = row.getString(i);
+        }
+        actual.add(ss);
+      });
+    }
+
+    assertEquals(expected.size() - 1, actual.size());
+    for (int j = 0; j < actual.size(); ++j) {
+      String[] a = expected.get(j + 1).split(",");
+      String[] b = actual.get(j);
+      assertEquals(a.length, b.length);
+      for (int i = 0; i < a.length; ++i) {
+        if (i == 11) {
+          assertEquals(Float.parseFloat(a[i]), Float.parseFloat(b[i]), 0.1f);
+        } else {
+          assertEquals(a[i], b[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fragmentInfo() {
+    StringBuilder sb = new StringBuilder();
+    assertTrue(DiannToMsstats.appendFragment("y7-unknown^1/645.3689575", sb));
+    assertEquals("y7,1", sb.toString());
+    sb.setLength(0);
+    assertTrue(DiannToMsstats.appendFragment("b12-H2O^2/1200.5", sb));
+    assertEquals("b12-H2O,2", sb.toString());
+    assertFalse(DiannToMsstats.appendFragment("", sb));
+    assertFalse(DiannToMsstats.appendFragment("y7^/645.3", sb));
+    assertFalse(DiannToMsstats.appendFragment("y7^1/", sb));
+    assertFalse(DiannToMsstats.appendFragment("y7^1a/645.3", sb));
+    assertFalse(DiannToMsstats.appendFragment("y7+^1/645.3", sb));
+    assertFalse(DiannToMsstats.appendFragment("y7^1/645.3e2", sb));
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.fragger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DbSplitMergeTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void fastaIsSplitIntoEqualParts() throws Exception {
+    Path fasta = tmp.newFile("db.fasta").toPath();
+    String text = ">a\nAAA\n>b\nCCC\nCC>C\n>c\nDDD\n>d\nEEE\n>e\nFFF";
+    Files.write(fasta, text.getBytes(StandardCharsets.UTF_8));
+    Path[] parts = {tmp.getRoot().toPath().resolve("0.fasta"), tmp.getRoot().toPath().resolve("1.fasta"), tmp.getRoot().toPath().resolve("2.fasta")};
+    DbSplitSearch.splitFasta(fasta, parts);
+    assertEquals(">a\nAAA\n>b\nCCC\nCC>C\n", read(parts[0]));
+    assertEquals(">c\nDDD\n>d\nEEE\n", read(parts[1]));
+    assertEquals(">e\nFFF", read(parts[2]));
+  }
+
+  @Test
+  public void numbersAreFormattedLikePython() {
+    assertEquals("1e-05", DbSplitMerge.pyRepr(1e-05));
+    assertEquals("0.1", DbSplitMerge.pyRepr(0.1));
+    assertEquals("100.0", DbSplitMerge.pyRepr(100.0));
+    assertEquals("1e+16", DbSplitMerge.pyRepr(1e16));
+    assertEquals("-2.5", DbSplitMerge.pyRepr(-2.5));
+    assertEquals("0.0001", DbSplitMerge.pyRepr(0.0001));
+    assertEquals("1.2345e-07", DbSplitMerge.pyRepr(1.2345e-7));
+    assertEquals("123456789012345.6", DbSplitMerge.pyRepr(123456789012345.6));
+    assertEquals("0.30000000000000004", DbSplitMerge.pyRepr(0.1 + 0.2));
+    assertEquals("5e-324", DbSplitMerge.pyRepr(Double.MIN_VALUE));
+    assertEquals("1.7976931348623157e+308", DbSplitMerge.pyRepr(Double.MAX_VALUE));
+    assertEquals("-0.0", DbSplitMerge.pyRepr(-0.0));
+
+    assertEquals("2.001", DbSplitMerge.fixed3(2.0005));
+    assertEquals("0.062", DbSplitMerge.fixed3(0.0625));
+    assertEquals("-3.142", DbSplitMerge.fixed3(-3.14159));
+    assertEquals("13.296", DbSplitMerge.fixed3(13.2955));
+
+    assertEquals("2.272e+00", DbSplitMerge.scientific3(2.272479));
+    assertEquals("0.000e+00", DbSplitMerge.scientific3(0));
+    assertEquals("1.000e-300", DbSplitMerge.scientific3(1e-300));
+    assertEquals("1.000e-04", DbSplitMerge.scientific3(9.9996e-5));
+    assertEquals("1.235e+05", DbSplitMerge.scientific3(123456.0));
+  }
+
+  private static final String HEADER = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+      + "<msms_pipeline_analysis date=\"2020-01-0%dT00:00:00\" summary_xml=\"/x/%d/sample.pepXML\">\n"
+      + "<msms_run_summary base_name=\"sample\">\n"
+      + "<search_summary base_name=\"sample\">\n"
+      + "<search_database local_path=\"db.fasta\"/>\n"
+      + "</search_summary>\n";
+
+  private static String query(int index, String... hits) {
+    return "<spectrum_query start_scan=\"" + index + "\" assumed_charge=\"2\" spectrum=\"sample." + index + "." + index + ".2\" end_scan=\"" + index
+        + "\" index=\"" + index + "\" retention_time_sec=\"1.0\">\n"
+        + "<search_result>\n" + String.join("", hits) + "</search_result>\n</spectrum_query>\n";
+  }
+
+  private static String hit(String peptide, int rank, double hyperscore, String... proteins) {
+    StringBuilder sb = new StringBuilder("<search_hit peptide=\"" + peptide + "\" massdiff=\"0.001\" peptide_next_aa=\"R\" num_tol_term=\"2\" protein_descr=\"d\" num_tot_proteins=\""
+        + proteins.length + "\" hit_rank=\"" + rank + "\" protein=\"" + proteins[0] + "\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n");
+    for (int i = 1; i < proteins.length; ++i) {
+      sb.append("<alternative_protein protein_descr=\"d\" protein=\"").append(proteins[i]).append("\" peptide_prev_aa=\"K\" peptide_next_aa=\"R\" num_tol_term=\"2\"/>\n");
+    }
+    return sb + "<search_score name=\"hyperscore\" value=\"" + hyperscore + "\"/>\n"
+        + "<search_score name=\"nextscore\" value=\"1.0\"/>\n"
+        + "<search_score name=\"expect\" value=\"1.0e+00\"/>\n</search_hit>\n";
+  }
+
+  @Test
+  public void slicesAreMerged() throws Exception {
+    Path tempDir = tmp.newFolder("split").toPath();
+    Path[] parts = {Files.createDirectories(tempDir.resolve("0")), Files.createDirectories(tempDir.resolve("1"))};
+    Path infile = tmp.newFile("sample.mzML").toPath();
+    // expect = 10^(1 - 0.1 * hyperscore), at least 0.001
+    Files.write(tempDir.resolve("sample_expectscore.tsv"), "1\t-0.1\t0.001\n1\t-0.1\t0.001\n1\t-0.1\t0.001\n".getBytes(StandardCharsets.UTF_8));
+    String footer = "</msms_run_summary>\n</msms_pipeline_analysis>\n";
+    write(parts[0].resolve("sample.pepXML"), String.format(HEADER, 1, 0)
+        + query(1, hit("PEPA", 1, 20.0, "P1"), hit("PEPB", 2, 12.0, "P2"))
+        + query(3, hit("PEPC", 1, 5.0, "P3")) + footer);
+    write(parts[1].resolve("sample.pepXML"), String.format(HEADER, 2, 1)
+        + query(1, hit("PEPD", 1, 15.0, "P4"), hit("PEPA", 2, 10.0, "P5"))
+        + query(2, hit("PEPE", 1, 30.0, "P6")) + footer);
+    String pinHeader = "SpecId\tLabel\tScanNr\trank\tPeptide\thyperscore\tlog10_evalue\tdelta_hyperscore\tabs_ppm\tProteins\n";
+    write(parts[0].resolve("sample.pin"), pinHeader
+        + "sample.1.1.2_1\t1\t1\t1\tPEPA\t20.0\t0\t8.0\t1.0\tP1\n"
+        + "sample.1.1.2_2\t1\t1\t2\tPEPB\t12.0\t0\t0\t1.0\tP2\n"
+        + "sample.3.3.2_1\t1\t3\t1\tPEPC\t5.0\t0\t0\t1.0\tP3\n");
+    write(parts[1].resolve("sample.pin"), pinHeader
+        + "sample.2.2.2_1\t1\t2\t1\tPEPE\t30.0\t0\t0\t1.0\tP6\n"
+        + "sample.1.1.2_1\t1\t1\t1\tPEPD\t15.0\t0\t5.0\t1.0\tP4\n"
+        + "sample.1.1.2_2\t1\t1\t2\tPEPA\t10.0\t0\t0\t1.0\tP5\n");
+
+    DbSplitMerge merge = new DbSplitMerge(tempDir, 2, "pepXML", 2, 1.0, "db.fasta");
+    merge.writePepxml(infile, System.out);
+    merge.writePin(infile);
+
+    String pepxml = read(infile.resolveSibling("sample.pepXML"));
+    assertTrue(pepxml.contains("summary_xml=\"" + infile.resolveSibling("sample.pepXML") + "\""));
+    assertFalse(pepxml.contains("2020-01-0"));
+    assertTrue(pepxml.endsWith("</search_summary>\n" + query(1,
+        "<search_hit peptide=\"PEPA\" massdiff=\"0.001\" peptide_next_aa=\"R\" num_tol_term=\"2\" protein_descr=\"d\" num_tot_proteins=\"2\" hit_rank=\"1\" protein=\"P1\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n"
+            + "<alternative_protein protein_descr=\"d\" protein=\"P5\" peptide_prev_aa=\"K\" peptide_next_aa=\"R\" num_tol_term=\"2\"/>\n"
+            + "<search_score name=\"hyperscore\" value=\"20.000\"/>\n"
+            + "<search_score name=\"nextscore\" value=\"15.000\"/>\n"
+            + "<search_score name=\"expect\" value=\"1.000e-01\"/>\n</search_hit>\n"
+            + "<search_hit peptide=\"PEPD\" massdiff=\"0.001\" peptide_next_aa=\"R\" num_tol_term=\"2\" protein_descr=\"d\" num_tot_proteins=\"1\" hit_rank=\"2\" protein=\"P4\" peptide_prev_aa=\"K\" is_rejected=\"0\">\n"
+            + "<search_score name=\"hyperscore\" value=\"15.000\"/>\n"
+            + "<search_score name=\"nextscore\" value=\"1.000\"/>\n"
+            + "<search_score name=\"expect\" value=\"3.162e-01\"/>\n</search_hit>\n")
+        + query(2, hit("PEPE", 1, 30.0, "P6")
+            .replace("value=\"30.0\"", "value=\"30.000\"").replace("value=\"1.0\"", "value=\"1.000\"").replace("1.0e+00", "1.000e-02"))
+        + footer));
+
+    List<String> pin = Files.readAllLines(infile.resolveSibling("sample.pin"));
+    assertEquals(pinHeader.trim(), pin.get(0));
+    assertArrayEquals(new String[]{
+        "sample.1.1.2_1\t1\t1\t1\tPEPA\t20.0\t-1.0\t5.0\t1.0\tP1\tP5",
+        "sample.1.1.2_2\t1\t1\t2\tPEPD\t15.0\t-0.5\t3.0\t1.0\tP4",
+        "sample.2.2.2_1\t1\t2\t1\tPEPE\t30.0\t-2.0\t0\t1.0\tP6",
+        "sample.3.3.2_1\t1\t3\t1\tPEPC\t5.0\t0.5\t0\t1.0\tP3",
+    }, pin.subList(1, pin.size()).toArray(new String[0]));
+  }
+
+  private static void write(Path p, String s) throws Exception {
+    Files.write(p, s.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static String read(Path p) throws Exception {
+    return new String(Files.readAllBytes(p), StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.tools.percolator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PercolatorOutputToPepXMLTest {
+
+  @Test
+  public void attribute() {
+    String line = "<spectrum_query spectrum=\"run.00123.00123.2\" spectrumNativeID=\"scan=123\" start_scan=\"123\">";
+    assertEquals("run.00123.00123.2", PercolatorOutputToPepXML.attribute(line, "spectrum"));
+    assertEquals("scan=123", PercolatorOutputToPepXML.attribute(line, "spectrumNativeID"));
+    assertEquals("123", PercolatorOutputToPepXML.attribute(line, "start_scan"));
+    assertNull(PercolatorOutputToPepXML.attribute(line, "scan"));
+  }
+
+  @Test
+  public void columns() {
+    PercolatorOutputToPepXML.Columns columns = new PercolatorOutputToPepXML.Columns(3, 0, -1, 1);
+    assertArrayEquals(new String[]{"d", "a", null, "b"}, columns.split("a\tb\tc\td\te"));
+    assertArrayEquals(new String[]{"", "x", null, ""}, columns.split("x\t\t\t"));
+  }
+
+  @Test
+  public void spectrumRankTable() {
+    SpectrumRankTable t = new SpectrumRankTable(3, 2);
+    for (int scan = 1; scan <= 5000; scan++) {
+      String specId = "run.with.dots." + scan + "." + scan + ".2_1";
+      long key = SpectrumRankTable.spectrumKey(specId, specId.lastIndexOf('.'));
+      t.put(key, 1 + scan % 3, scan, -scan);
+    }
+    long key = SpectrumRankTable.spectrumKey("run.00043.00043", "run.00043.00043".length());
+    assertTrue(t.contains(key));
+    assertEquals(-1, t.slot(key, 1));
+    int slot = t.slot(key, 2);
+    assertEquals(43, t.get(slot, 0), 0);
+    assertEquals(-43, t.get(slot, 1), 0);
+    assertFalse(t.contains(SpectrumRankTable.spectrumKey("run.42.43", 9)));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LcmsDiscoveryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final Predicate<Path> LCMS = p -> {
+    String fn = p.getFileName().toString().toLowerCase();
+    return fn.endsWith(".mzml") || fn.endsWith(".raw") || fn.endsWith(".d");
+  };
+
+  @Test
+  public void find() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Files.createDirectories(root.resolve("b/sub"));
+    Files.createDirectories(root.resolve("a/run2.d/run2.d"));
+    Files.write(root.resolve("a/run2.d/analysis.tdf"), new byte[1]);
+    Files.write(root.resolve("a/run1.mzML"), new byte[1]);
+    Files.write(root.resolve("a/notes.txt"), new byte[1]);
+    Files.write(root.resolve("b/sub/run3.raw"), new byte[1]);
+    Files.write(root.resolve("b/run4.mzML"), new byte[1]);
+
+    // bundles are taken whole, not searched
+    assertEquals(Arrays.asList(root.resolve("a/run1.mzML"), root.resolve("a/run2.d"), root.resolve("b/run4.mzML"), root.resolve("b/sub/run3.raw")),
+        LcmsDiscovery.find(Collections.singletonList(root), LCMS));
+    assertEquals(Arrays.asList(root.resolve("a/run2.d"), root.resolve("b/run4.mzML")),
+        LcmsDiscovery.find(Arrays.asList(root.resolve("a/run2.d"), root.resolve("b/run4.mzML"), root.resolve("a/notes.txt")), LCMS));
+  }
+
+  @Test
+  public void seesChanges() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Files.createDirectories(root.resolve("a"));
+    Files.write(root.resolve("a/run1.mzML"), new byte[1]);
+    assertEquals(1, LcmsDiscovery.find(Collections.singletonList(root), LCMS).size());
+
+    Files.write(root.resolve("a/run2.mzML"), new byte[1]);
+    // make sure the folder time moves even on file systems with coarse timestamps
+    Files.setLastModifiedTime(root.resolve("a"), FileTime.fromMillis(Files.getLastModifiedTime(root.resolve("a")).toMillis() + 2000));
+    assertEquals(Arrays.asList(root.resolve("a/run1.mzML"), root.resolve("a/run2.mzML")),
+        LcmsDiscovery.find(Collections.singletonList(root), LCMS));
+  }
+
+  @Test
+  public void boundedDepth() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Path deep = root;
+    for (int i = 0; i <= LcmsDiscovery.MAX_DEPTH + 1; ++i) {
+      deep = deep.resolve("d" + i);
+    }
+    Files.createDirectories(deep);
+    Files.write(deep.resolve("lost.mzML"), new byte[1]);
+    Files.write(root.resolve("d0/found.mzML"), new byte[1]);
+    assertEquals(Collections.singletonList(root.resolve("d0/found.mzML")), LcmsDiscovery.find(Collections.singletonList(root), LCMS));
+  }
+
+  @Test
+  public void missing() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Files.write(root.resolve("run1.mzML"), new byte[1]);
+    assertTrue(LcmsDiscovery.missing(Collections.singletonList(root.resolve("run1.mzML"))).isEmpty());
+    assertEquals(Collections.singleton(root.resolve("run2.mzML")),
+        LcmsDiscovery.missing(Arrays.asList(root.resolve("run1.mzML"), root.resolve("run2.mzML"))));
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import umich.ms.datatypes.LCMSDataSubset;
+import umich.ms.datatypes.scan.IScan;
+import umich.ms.datatypes.scan.StorageStrategy;
+import umich.ms.datatypes.scan.props.ActivationInfo;
+import umich.ms.datatypes.scan.props.Instrument;
+import umich.ms.datatypes.scan.props.PrecursorInfo;
+import umich.ms.datatypes.scancollection.impl.ScanCollectionDefault;
+import umich.ms.datatypes.spectrum.ISpectrum;
+import umich.ms.fileio.filetypes.mzml.MZMLFile;
+
+public class MzmlStreamWriterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void writesSpectraIncrementally() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("run_sub.mzML");
+    double[] mzs = new double[5000];
+    double[] intensities = new double[mzs.length];
+    for (int i = 0; i < mzs.length; ++i) {
+      mzs[i] = 100 + i * 0.25;
+      intensities[i] = i % 97;
+    }
+
+    try (MzmlStreamWriter writer = new MzmlStreamWriter(path, tmp.getRoot() + "/run&1.raw", "run&1", "FragPipe", "1.0", null, "filter out identified scans")) {
+      writer.write(scan(7, 1, 1.5), spectrum(mzs, intensities));
+      writer.write(scan(9, 2, 1.6), null);
+      assertEquals(2, writer.count());
+    }
+
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(path.toFile());
+    Element spectrumList = (Element) doc.getElementsByTagName("spectrumList").item(0);
+    assertEquals("2", spectrumList.getAttribute("count"));
+    NodeList spectra = doc.getElementsByTagName("spectrum");
+    assertEquals(2, spectra.getLength());
+    Element first = (Element) spectra.item(0);
+    assertEquals("controllerType=0 controllerNumber=1 scan=7", first.getAttribute("id"));
+    assertEquals("5000", first.getAttribute("defaultArrayLength"));
+    assertEquals("run&1", ((Element) doc.getElementsByTagName("run").item(0)).getAttribute("id"));
+
+    NodeList binaries = first.getElementsByTagName("binary");
+    ByteBuffer mzBuffer = inflate(binaries.item(0).getTextContent());
+    ByteBuffer intensityBuffer = inflate(binaries.item(1).getTextContent());
+    for (int i = 0; i < mzs.length; ++i) {
+      assertEquals(mzs[i], mzBuffer.getDouble(), 0);
+      assertEquals((float) intensities[i], intensityBuffer.getFloat(), 0);
+    }
+    assertEquals("0", ((Element) spectra.item(1)).getAttribute("defaultArrayLength"));
+  }
+
+  @Test
+  public void writesEveryPrecursorAndTheRunMetadata() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("run_sub.mzML");
+    Instrument instrument = new Instrument();
+    instrument.setModel("Orbitrap Fusion Lumos");
+    instrument.setManufacturer("Thermo Scientific");
+
+    try (MzmlStreamWriter writer = new MzmlStreamWriter(path, tmp.getRoot() + "/run.raw", "run", "FragPipe", "1.0", instrument, "FragPipe pre-processing", "filter out identified scans")) {
+      writer.write(scan(12, 3, 2.5, precursor(10, 500.25, 2, "HCD", 35.0), precursor(10, 612.5, 2, "HCD", 35.0), precursor(10, 701.75, 3, "HCD", 35.0)), null);
+      writer.write(scan(13, 2, 2.6, precursor(11, 800.5, 2, "MyDissociation", null)), null);
+    }
+
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(path.toFile());
+    Element ms3 = (Element) doc.getElementsByTagName("spectrum").item(0);
+    assertEquals("3", ((Element) ms3.getElementsByTagName("precursorList").item(0)).getAttribute("count"));
+    NodeList precursors = ms3.getElementsByTagName("precursor");
+    assertEquals(3, precursors.getLength());
+    assertEquals("controllerType=0 controllerNumber=1 scan=10", ((Element) precursors.item(2)).getAttribute("spectrumRef"));
+    List<String> activation = cvParams((Element) ((Element) precursors.item(1)).getElementsByTagName("activation").item(0));
+    assertEquals(Arrays.asList("MS:1000045=35.0", "MS:1000422="), activation);
+
+    Element ms2 = (Element) doc.getElementsByTagName("spectrum").item(1);
+    Element userParam = (Element) ((Element) ms2.getElementsByTagName("activation").item(0)).getElementsByTagName("userParam").item(0);
+    assertEquals("MyDissociation", userParam.getAttribute("value"));
+
+    assertEquals(Arrays.asList("MS:1000031=Orbitrap Fusion Lumos"), cvParams((Element) doc.getElementsByTagName("instrumentConfiguration").item(0)));
+    NodeList processing = ((Element) doc.getElementsByTagName("processingMethod").item(0)).getElementsByTagName("userParam");
+    assertEquals(2, processing.getLength());
+    assertEquals("FragPipe pre-processing", ((Element) processing.item(0)).getAttribute("name"));
+    assertEquals("filter out identified scans", ((Element) processing.item(1)).getAttribute("name"));
+  }
+
+  @Test
+  public void dissociationMethods() {
+    assertArrayEquals(new String[]{"MS:1000422", "beam-type collision-induced dissociation"}, MzmlStreamWriter.dissociationMethod("hcd"));
+    assertArrayEquals(new String[]{"MS:1002631", "electron-transfer/higher-energy collision dissociation"}, MzmlStreamWriter.dissociationMethod("EThcD"));
+    assertArrayEquals(new String[]{"MS:1000133", "collision-induced dissociation"}, MzmlStreamWriter.dissociationMethod("MS:1000133"));
+    assertNull(MzmlStreamWriter.dissociationMethod("MyDissociation"));
+  }
+
+  @Test
+  public void readsBackThroughMzmlFile() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("run_sub.mzML");
+    List<IScan> scans = new ArrayList<>();
+    List<ISpectrum> spectra = new ArrayList<>();
+    scans.add(scan(1, 1, 0.5));
+    spectra.add(spectrum(new double[]{100.5, 200.25, 300.125}, new double[]{10, 20, 30}));
+    scans.add(scan(2, 2, 0.6, precursor(1, 200.25, 2, "CID", 30.0)));
+    spectra.add(spectrum(new double[]{150.75, 175.5}, new double[]{5, 7}));
+    scans.add(scan(3, 3, 0.7, precursor(2, 150.75, 1, "HCD", 55.0), precursor(2, 175.5, 1, "HCD", 55.0)));
+    spectra.add(spectrum(new double[]{126.127, 127.131}, new double[]{1000, 2000}));
+
+    try (MzmlStreamWriter writer = new MzmlStreamWriter(path, tmp.getRoot() + "/run.mzML", "run", "FragPipe", "1.0", null, "FragPipe pre-processing", "filter out identified scans")) {
+      for (int i = 0; i < scans.size(); ++i) {
+        writer.write(scans.get(i), spectra.get(i));
+      }
+    }
+
+    MZMLFile source = new MZMLFile(path.toString());
+    ScanCollectionDefault scanCollection = new ScanCollectionDefault();
+    scanCollection.setDefaultStorageStrategy(StorageStrategy.STRONG);
+    scanCollection.isAutoloadSpectra(true);
+    scanCollection.setDataSource(source);
+    try {
+      scanCollection.loadData(LCMSDataSubset.WHOLE_RUN);
+      List<IScan> read = new ArrayList<>(scanCollection.getMapNum2scan().values());
+      assertEquals(scans.size(), read.size());
+      for (int i = 0; i < scans.size(); ++i) {
+        IScan expected = scans.get(i);
+        IScan actual = read.get(i);
+        assertEquals(expected.getNum(), actual.getNum());
+        assertEquals(expected.getMsLevel(), actual.getMsLevel());
+        assertEquals(expected.getRt(), actual.getRt(), 1e-9);
+        if (expected.getMsLevel() > 1) {
+          assertEquals(expected.getPrecursors().size(), actual.getPrecursors().size());
+          for (int j = 0; j < expected.getPrecursors().size(); ++j) {
+            PrecursorInfo e = expected.getPrecursors().get(j);
+            PrecursorInfo a = actual.getPrecursors().get(j);
+            assertEquals(e.getParentScanNum(), a.getParentScanNum());
+            assertEquals(e.getMzTarget(), a.getMzTarget(), 1e-9);
+            assertEquals(e.getCharge(), a.getCharge());
+            assertNotNull(a.getActivationInfo());
+            assertArrayEquals(MzmlStreamWriter.dissociationMethod(e.getActivationInfo().getActivationMethod()), MzmlStreamWriter.dissociationMethod(a.getActivationInfo().getActivationMethod()));
+            assertEquals(e.getActivationInfo().getActivationEnergyLo(), a.getActivationInfo().getActivationEnergyLo(), 1e-9);
+          }
+        }
+        ISpectrum spectrum = actual.fetchSpectrum();
+        assertArrayEquals(spectra.get(i).getMZs(), spectrum.getMZs(), 1e-9);
+        assertArrayEquals(spectra.get(i).getIntensities(), spectrum.getIntensities(), 1e-3);
+      }
+    } finally {
+      scanCollection.reset();
+      source.close();
+    }
+  }
+
+  private static List<String> cvParams(Element parent) {
+    List<String> params = new ArrayList<>();
+    NodeList nodes = parent.getElementsByTagName("cvParam");
+    for (int i = 0; i < nodes.getLength(); ++i) {
+      Element e = (Element) nodes.item(i);
+      params.add(e.getAttribute("accession") + "=" + e.getAttribute("value"));
+    }
+    return params;
+  }
+
+  private static ByteBuffer inflate(String base64) throws Exception {
+    Inflater inflater = new Inflater();
+    inflater.setInput(Base64.getDecoder().decode(base64));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    while (!inflater.finished()) {
+      out.write(buf, 0, inflater.inflate(buf));
+    }
+    return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static IScan scan(int num, int msLevel, double rt, PrecursorInfo... precursors) {
+    Map<String, Object> values = new HashMap<>();
+    values.put("getNum", num);
+    values.put("getMsLevel", msLevel);
+    values.put("getRt", rt);
+    values.put("isCentroided", true);
+    values.put("getPrecursors", Arrays.asList(precursors));
+    values.put("getPrecursor", precursors.length == 0 ? null : precursors[0]);
+    return (IScan) Proxy.newProxyInstance(IScan.class.getClassLoader(), new Class<?>[]{IScan.class}, (proxy, method, args) -> values.get(method.getName()));
+  }
+
+  private static PrecursorInfo precursor(int parentScanNum, double mz, int charge, String method, Double energy) {
+    ActivationInfo activation = new ActivationInfo();
+    activation.setActivationMethod(method);
+    activation.setActivationEnergyLo(energy);
+    activation.setActivationEnergyHi(energy);
+    PrecursorInfo precursor = new PrecursorInfo();
+    precursor.setParentScanNum(parentScanNum);
+    precursor.setMzTarget(mz);
+    precursor.setCharge(charge);
+    precursor.setActivationInfo(activation);
+    return precursor;
+  }
+
+  private static ISpectrum spectrum(double[] mzs, double[] intensities) {
+    Map<String, Object> values = new HashMap<>();
+    values.put("getMZs", mzs);
+    values.put("getIntensities", intensities);
+    return (ISpectrum) Proxy.newProxyInstance(ISpectrum.class.getClassLoader(), new Class<?>[]{ISpectrum.class}, (proxy, method, args) -> values.get(method.getName()));
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TsvReaderTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void rows() throws Exception {
+    Path path = tmp.newFile("report.tsv").toPath();
+    Files.write(path, "\nRun\tCharge\tRT\tGenes\r\nrun1\t2\t12.5\tA;B\r\n\r\nrun2\t-3\t1e-3\n\nrun3\t 4 \t-0.25\t".getBytes());
+
+    List<String> rows = new ArrayList<>();
+    try (TsvReader reader = new TsvReader(path)) {
+      assertArrayEquals(new String[]{"Run", "Charge", "RT", "Genes"}, reader.header());
+      assertEquals(2, reader.column("RT"));
+      assertEquals(-1, reader.column("rt"));
+      int[] columns = reader.columns("Genes", "Run");
+      reader.forEach(row -> rows.add(String.join("|", row.getStrings(columns)) + "|" + row.getInt(1) + "|" + row.getFloat(2) + "|" + row.isBlank(3)));
+    }
+    assertEquals(3, rows.size());
+    assertEquals("A;B|run1|2|12.5|false", rows.get(0));
+    assertEquals("|run2|-3|0.001|true", rows.get(1));
+    assertEquals("|run3|4|-0.25|true", rows.get(2));
+  }
+
+  @Test
+  public void whitespaceLinesAreRows() throws Exception {
+    Path path = tmp.newFile("library.tsv").toPath();
+    Files.write(path, "A\tB\tC\tD\n\t\t\t\n\n \r\nx\t\t\t\n".getBytes());
+
+    List<String> rows = new ArrayList<>();
+    try (TsvReader reader = new TsvReader(path)) {
+      reader.forEach(row -> rows.add(row.size() + "|" + row.isBlank(0) + "|" + row.isBlank(3)));
+    }
+    assertEquals(3, rows.size());
+    assertEquals("4|true|true", rows.get(0));
+    assertEquals("1|true|true", rows.get(1));
+    assertEquals("4|false|true", rows.get(2));
+  }
+
+  @Test
+  public void selectedColumns() throws Exception {
+    Path path = tmp.newFile("wide.tsv").toPath();
+    Files.write(path, "A\tB\tC\tD\na1\tb1\tc1\td1\na2\tb2\n".getBytes());
+
+    List<String> rows = new ArrayList<>();
+    try (TsvReader reader = new TsvReader(path)) {
+      int[] columns = reader.columns("B", "A");
+      reader.select(columns).forEach(row -> rows.add(String.join("|", row.getStrings(columns)) + "|" + row.isBlank(3) + "|" + row.line()));
+    }
+    assertEquals(2, rows.size());
+    assertEquals("b1|a1|true|a1\tb1", rows.get(0));
+    assertEquals("b2|a2|true|a2\tb2", rows.get(1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missingColumn() throws Exception {
+    Path path = tmp.newFile("psm.tsv").toPath();
+    Files.write(path, "Spectrum\tPeptide\n".getBytes());
+    try (TsvReader reader = new TsvReader(path)) {
+      reader.columns("Peptide", "Probability");
+    }
+  }
+
+  @Test
+  public void numbersAreParsedLikeJava() throws Exception {
+    Random random = new Random(7);
+    List<String> numbers = new ArrayList<>();
+    for (int i = 0; i < 20000; ++i) {
+      int digits = 1 + random.nextInt(12);
+      StringBuilder sb = new StringBuilder(random.nextBoolean() ? "" : "-");
+      int dot = random.nextInt(digits + 1);
+      for (int j = 0; j < digits; ++j) {
+        if (j == dot) {
+          sb.append('.');
+        }
+        sb.append((char) ('0' + random.nextInt(10)));
+      }
+      numbers.add(sb.toString());
+    }
+    numbers.add("NaN");
+    numbers.add("1.5E10");
+    numbers.add("16777217");
+    numbers.add("0.00000000001");
+
+    Path path = tmp.newFile("numbers.tsv").toPath();
+    Files.write(path, ("Value\n" + String.join("\n", numbers)).getBytes());
+    List<float[]> floats = new ArrayList<>();
+    List<double[]> doubles = new ArrayList<>();
+    try (TsvReader reader = new TsvReader(path)) {
+      reader.forEach(row -> {
+        floats.add(new float[]{row.getFloat(0)});
+        doubles.add(new double[]{row.getDouble(0)});
+      });
+    }
+    for (int i = 0; i < numbers.size(); ++i) {
+      assertEquals(numbers.get(i), Float.floatToIntBits(Float.parseFloat(numbers.get(i))), Float.floatToIntBits(floats.get(i)[0]));
+      assertEquals(numbers.get(i), Double.doubleToLongBits(Double.parseDouble(numbers.get(i))), Double.doubleToLongBits(doubles.get(i)[0]));
+    }
+  }
+
+  @Test
+  public void orderedScanGivesBlocksInOrder() throws Exception {
+    Path path = tmp.newFile("blocks.tsv").toPath();
+    StringBuilder longField = new StringBuilder();
+    for (int i = 0; i < 300000; ++i) {
+      longField.append("LONGFIELD");
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      writer.write("Index\tText\n");
+      for (int i = 0; i < 100000; ++i) {
+        writer.write(i + "\t" + (i == 5000 ? longField : "text " + i) + "\n");
+      }
+    }
+
+    StringBuilder expected = new StringBuilder();
+    StringBuilder actual = new StringBuilder();
+    int[] blocks = new int[1];
+    try (TsvReader reader = new TsvReader(path)) {
+      reader.forEach(row -> expected.append(row.line()).append('\n'));
+      reader.scanOrdered(4, StringBuilder::new, (sb, row) -> sb.append(row.getInt(0)).append('\t').append(row.getString(1)).append('\n'), sb -> {
+        actual.append(sb);
+        ++blocks[0];
+      });
+    }
+    assertTrue(blocks[0] > 2);
+    assertEquals(expected.toString(), actual.toString());
+  }
+
+  @Test
+  public void parallelScanKeepsOrder() throws Exception {
+    Path path = tmp.newFile("large.tsv").toPath();
+    int n = 600000;
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      writer.write("Index\tValue\tPadding\n");
+      for (int i = 0; i < n; ++i) {
+        writer.write(String.format(Locale.ROOT, "%d\t%.3f\tsome padding to make the file larger\n", i, i * 0.5));
+      }
+    }
+    assertTrue(Files.size(path) > 16 << 20);
+
+    try (TsvReader reader = new TsvReader(path)) {
+      List<List<Integer>> parts = reader.scan(4, ArrayList::new, (list, row) -> list.add(row.getInt(0)));
+      assertTrue(parts.size() > 1);
+      int expected = 0;
+      for (List<Integer> part : parts) {
+        for (int index : part) {
+          assertEquals(expected++, index);
+        }
+      }
+      assertEquals(n, expected);
+    }
+  }
+}
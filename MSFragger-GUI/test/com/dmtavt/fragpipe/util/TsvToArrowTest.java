@@ -0,0 +1,119 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.arrow.vector.types.Types;
+import org.apache.arrow.vector.types.Types.MinorType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TsvToArrowTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void typedColumns() throws Exception {
+    Path tsv = tmp.newFile("report.tsv").toPath();
+    Files.write(tsv, "Run\tCharge\tQ.Value\tGenes\nrun1\t2\t0.001\tA;B\nrun2\t\t1e-3\t\nrun3\t3\t2\t C \n".getBytes());
+    Path arrow = tmp.getRoot().toPath().resolve("report.arrow");
+    TsvToArrow.convert(tsv, arrow, 1);
+
+    List<String> rows = new ArrayList<>();
+    try (ArrowTableReader reader = new ArrowTableReader(arrow)) {
+      assertArrayEquals(new String[]{"Run", "Charge", "Q.Value", "Genes"}, reader.header());
+      List<Field> fields = reader.schema().getFields();
+      assertEquals(MinorType.VARCHAR, minorType(fields.get(0)));
+      assertEquals(MinorType.INT, minorType(fields.get(1)));
+      assertEquals(MinorType.FLOAT8, minorType(fields.get(2)));
+      assertEquals(MinorType.VARCHAR, minorType(fields.get(3)));
+      reader.forEach(row -> rows.add(row.getString(0) + "|" + (row.isBlank(1) ? "-" : row.getInt(1)) + "|" + row.getFloat(2) + "|" + row.getString(3) + "|" + row.isBlank(3)));
+    }
+    assertEquals(3, rows.size());
+    assertEquals("run1|2|0.001|A;B|false", rows.get(0));
+    assertEquals("run2|-|0.001||true", rows.get(1));
+    assertEquals("run3|3|2.0| C |false", rows.get(2));
+  }
+
+  @Test
+  public void columnOfLaterRowsWithOtherTypeIsString() throws Exception {
+    Path tsv = tmp.newFile("report.tsv").toPath();
+    try (BufferedWriter writer = Files.newBufferedWriter(tsv)) {
+      writer.write("Run\tScore\n");
+      for (int i = 0; i < 20000; ++i) {
+        writer.write("run" + i + "\t" + i + "\n");
+      }
+      writer.write("last\tn/a\n");
+    }
+    Path arrow = tmp.getRoot().toPath().resolve("report.arrow");
+    TsvToArrow.convert(tsv, arrow, 4);
+
+    List<String> scores = new ArrayList<>();
+    try (ArrowTableReader reader = new ArrowTableReader(arrow)) {
+      assertEquals(MinorType.VARCHAR, minorType(reader.schema().getFields().get(1)));
+      reader.forEach(row -> scores.add(row.getString(1)));
+    }
+    assertEquals(20001, scores.size());
+    assertEquals("19999", scores.get(19999));
+    assertEquals("n/a", scores.get(20000));
+  }
+
+  @Test
+  public void onlySelectedColumnsAreRead() throws Exception {
+    Path tsv = tmp.newFile("report.tsv").toPath();
+    try (BufferedWriter writer = Files.newBufferedWriter(tsv)) {
+      writer.write("Run\tCharge\tQ.Value\tFragment.Quant.Raw\n");
+      for (int i = 0; i < 50000; ++i) {
+        writer.write("run" + (i % 7) + "\t" + (i % 4 + 1) + "\t" + (i * 1e-5) + "\t" + i + ";" + (i + 1) + ";\n");
+      }
+    }
+    Path arrow = tmp.getRoot().toPath().resolve("report.arrow");
+    TsvToArrow.convert(tsv, arrow, 4);
+
+    List<String> expected = new ArrayList<>();
+    try (TsvReader reader = new TsvReader(tsv)) {
+      reader.forEach(row -> expected.add(row.getInt(1) + "|" + row.getString(3)));
+    }
+    try (ArrowTableReader reader = new ArrowTableReader(arrow)) {
+      int[] columns = reader.columns("Charge", "Fragment.Quant.Raw");
+      reader.select(columns);
+      List<String> actual = new ArrayList<>();
+      reader.scanOrdered(4, ArrayList<String>::new, (rows, row) -> {
+        assertEquals("", row.getString(0));
+        assertTrue(row.isBlank(2));
+        rows.add(row.getInt(columns[0]) + "|" + row.getString(columns[1]));
+      }, actual::addAll);
+      assertEquals(expected, actual);
+    }
+  }
+
+  private static MinorType minorType(Field field) {
+    return Types.getMinorTypeForArrowType(field.getType());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static com.dmtavt.fragpipe.cmd.ToolingUtils.UNIMOD_OBO;
+import static com.dmtavt.fragpipe.cmd.ToolingUtils.getUnimodOboPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UnimodIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path unimodOboPath;
+
+  @Before
+  public void setUp() throws Exception {
+    unimodOboPath = getUnimodOboPath(UNIMOD_OBO);
+  }
+
+  @Test
+  public void cacheGivesTheSameIndex() throws Exception {
+    Path cache = tmp.getRoot().toPath().resolve("unimod.bin");
+    UnimodIndex parsed = UnimodIndex.load(unimodOboPath, cache);
+    assertTrue(Files.size(cache) > 0);
+    UnimodIndex cached = UnimodIndex.load(unimodOboPath, cache);
+    assertNotSame(parsed, cached);
+    assertEquals(1514, cached.size());
+    for (int i = 0; i < parsed.size(); ++i) {
+      assertEquals(parsed.id(i), cached.id(i));
+      assertEquals(Float.floatToIntBits(parsed.mass(i)), Float.floatToIntBits(cached.mass(i)));
+      assertEquals(parsed.name(i), cached.name(i));
+      assertEquals(parsed.sites(i), cached.sites(i));
+    }
+
+    Files.write(cache, new byte[]{1, 2, 3});
+    assertEquals(parsed.size(), UnimodIndex.load(unimodOboPath, cache).size());
+    assertEquals(parsed.size(), UnimodIndex.load(unimodOboPath, cache).size());
+
+    assertSame(UnimodIndex.get(unimodOboPath), UnimodIndex.get(unimodOboPath));
+  }
+
+  @Test
+  public void lookups() throws Exception {
+    UnimodIndex index = UnimodIndex.get(unimodOboPath);
+    assertEquals(21, index.closestId(79.9663f, 'S', 0.001));
+    assertEquals(35, index.closestId(15.9949f, 'M', 0.005));
+    assertEquals(1, index.closestId(42.0106f, 'n', 0.001));
+    assertEquals(-1, index.closestId(79.9663f, 'G', 0.001));
+    assertEquals(-1, index.closestId(79.9f, 'S', 0.001));
+    assertEquals(-1, index.closestId(79.9663f, '#', 0.001));
+
+    List<String> names = new ArrayList<>();
+    index.forEachInRange(79.9663, 79.9664, term -> names.add(index.name(term)));
+    assertTrue(names.contains("Phospho"));
+
+    UnimodOboReader reader = new UnimodOboReader(unimodOboPath);
+    assertEquals("UniMod:21", reader.convertModifications(79.966331f, 'T'));
+    assertEquals("1.5", reader.convertModifications(1.5f, 'T'));
+  }
+
+  @Test
+  public void closestIdMatchesFullScan() throws Exception {
+    UnimodOboReader reader = new UnimodOboReader(unimodOboPath);
+    UnimodIndex index = reader.index;
+    for (int i = 0; i < index.size(); ++i) {
+      for (float delta : new float[]{0, 0.0004f, -0.0021f}) {
+        float mass = index.mass(i) + delta;
+        for (char site : index.sites(i).toCharArray()) {
+          float gap = Float.MAX_VALUE;
+          int expected = -1;
+          for (Float m : reader.massSiteUnimodTable.rowKeySet()) {
+            Integer id = reader.massSiteUnimodTable.get(m, site);
+            if (id != null && Math.abs(mass - m) < Utils.threshold && Math.abs(mass - m) < gap) {
+              gap = Math.abs(mass - m);
+              expected = id;
+            }
+          }
+          assertEquals(expected, index.closestId(mass, site, Utils.threshold));
+        }
+      }
+    }
+  }
+}
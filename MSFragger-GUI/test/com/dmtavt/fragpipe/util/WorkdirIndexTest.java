@@ -0,0 +1,87 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.dmtavt.fragpipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkdirIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void scan() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    Files.createDirectories(wd.resolve("exp1"));
+    Files.createDirectories(wd.resolve("exp2/sub"));
+    Files.write(wd.resolve("exp1/interact-a.pep.xml"), new byte[1]);
+    Files.write(wd.resolve("exp2/sub/interact-b.pep.xml"), new byte[1]);
+    Files.write(wd.resolve("exp2/psm.tsv"), new byte[1]);
+    Files.write(wd.resolve("psm.tsv"), new byte[1]);
+
+    WorkdirIndex index = WorkdirIndex.scan(wd);
+    assertEquals(Arrays.asList(wd.resolve("exp1/interact-a.pep.xml"), wd.resolve("exp2/sub/interact-b.pep.xml")),
+        index.find(fn -> fn.startsWith("interact-") && fn.endsWith(".pep.xml")));
+    assertEquals(Collections.singletonList(wd.resolve("exp2/psm.tsv")), index.glob("*/psm.tsv"));
+    assertEquals(4, index.snapshot().size());
+
+    // not watched, only sees what it is told about
+    Files.write(wd.resolve("exp1/psm.tsv"), new byte[1]);
+    assertEquals(2, index.find("psm.tsv"::equals).size());
+    index.markChanged(wd.resolve("exp1/psm.tsv"));
+    assertEquals(3, index.find("psm.tsv"::equals).size());
+  }
+
+  @Test
+  public void followsChanges() throws Exception {
+    Path wd = tmp.getRoot().toPath();
+    Files.createDirectories(wd.resolve("exp1"));
+    Files.write(wd.resolve("exp1/psm.tsv"), new byte[1]);
+
+    WorkdirIndex index = WorkdirIndex.of(wd);
+    Map<String, String> before = index.snapshot();
+    assertEquals(Collections.singleton("exp1" + wd.getFileSystem().getSeparator() + "psm.tsv"), before.keySet());
+
+    Files.createDirectories(wd.resolve("exp2/sub"));
+    Files.write(wd.resolve("exp2/sub/psm.tsv"), new byte[1]);
+    Files.write(wd.resolve("exp1/psm.tsv"), new byte[10], StandardOpenOption.APPEND);
+    Map<String, String> after = index.snapshot();
+    assertEquals(2, after.size());
+    assertNotEquals(before.values().iterator().next(), after.get(before.keySet().iterator().next()));
+
+    FileUtils.deleteDirectory(wd.resolve("exp1").toFile());
+    assertEquals(Collections.singletonList(wd.resolve("exp2/sub/psm.tsv")), index.find("psm.tsv"::equals));
+    assertFalse(Files.exists(wd.resolve(".fragpipe-index-sync")));
+    assertTrue(index == WorkdirIndex.of(wd.resolve("exp2").resolve("..")));
+    index.close();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.chhh.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path write(int n) throws Exception {
+    Path path = tmp.newFile("db.fas").toPath();
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      for (int i = 0; i < n; ++i) {
+        writer.write((i % 3 == 0 ? ">rev_sp|P" : ">sp|P") + i + "|PROT_" + i + " description\r\n");
+        for (int j = 0; j <= i % 7; ++j) {
+          writer.write("ACDEFGHIKL\r\n");
+        }
+      }
+    }
+    return path;
+  }
+
+  @Test
+  public void statistics() throws Exception {
+    Path path = write(1000);
+    FastaIndex index = FastaIndex.build(path);
+    assertEquals(1000, index.entries());
+    assertEquals(334, index.decoys("rev_"));
+    assertEquals(666, index.decoys("sp"));
+    assertEquals(0, index.decoys("XXX_"));
+    assertTrue(index.needsScan("a_much_too_long_decoy_tag"));
+    assertEquals(0, index.decoys("a_much_too_long_decoy_tag"));
+    assertEquals(0, index.decoys("a_much_too_long_decoy_tag"));
+    assertEquals(1 + 4 + 34, index.decoys("rev_sp|P3")); // multiples of 3 in 3, 30..39 and 300..399
+    assertTrue(index.isExact());
+    assertEquals(70, index.maxLength());
+    long residues = 0;
+    for (int i = 0; i < 1000; ++i) {
+      residues += 10 * (1 + i % 7);
+    }
+    assertEquals(residues, index.residues());
+
+    String text = new String(Files.readAllBytes(path));
+    for (int i : new int[]{0, 1, 255, 256, 257, 999}) {
+      assertEquals((i % 3 == 0 ? "rev_sp|P" : "sp|P") + i + "|PROT_" + i + " description", index.header(i));
+      assertEquals(text.indexOf(">" + (i % 3 == 0 ? "rev_sp|P" : "sp|P") + i + "|"), index.offset(i));
+    }
+  }
+
+  @Test
+  public void countsStayExactWhenUniquePrefixesAreDropped() throws Exception {
+    Path path = tmp.newFile("ids.fas").toPath();
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      for (int i = 0; i < 30000; ++i) {
+        writer.write(String.format(">%sID%07d description%n", i % 3 == 0 ? "rev_" : "", i));
+        writer.write("ACDEFGHIKL\n");
+      }
+    }
+    FastaIndex index = FastaIndex.build(path);
+    assertNull(index.prefixes().find("rev_ID0000000")); // seen once, pruned
+    assertTrue(index.isExact());
+    assertTrue(index.isExact("rev_"));
+    assertEquals(10000, index.decoys("rev_"));
+    assertEquals(10000, index.decoys("rev_ID"));
+    assertEquals(30000, index.decoys(""));
+    assertEquals(1, index.decoys("rev_ID0000000 description"));
+  }
+
+  @Test
+  public void sidecar() throws Exception {
+    Path path = write(600);
+    assertNull(FastaIndex.cached(path));
+    FastaIndex built = FastaIndex.get(path);
+    assertTrue(Files.exists(path.resolveSibling(path.getFileName() + FastaIndex.EXT)));
+
+    FastaIndex loaded = FastaIndex.load(path.toAbsolutePath().normalize(), path.resolveSibling(path.getFileName() + FastaIndex.EXT));
+    assertNotNull(loaded);
+    assertNotSame(built, loaded);
+    assertEquals(built.entries(), loaded.entries());
+    assertEquals(built.decoys("rev_"), loaded.decoys("rev_"));
+    assertEquals(built.residues(), loaded.residues());
+    assertEquals(built.maxLength(), loaded.maxLength());
+    assertArrayEquals(built.lengthHistogram(), loaded.lengthHistogram());
+    assertEquals(built.prefixes().size(), loaded.prefixes().size());
+    assertEquals(built.header(599), loaded.header(599));
+  }
+
+  @Test
+  public void staleSidecarIsRebuilt() throws Exception {
+    Path path = write(10);
+    assertEquals(10, FastaIndex.get(path).entries());
+    FileTime modified = Files.getLastModifiedTime(path);
+    Files.write(path, ">rev_x\nAAA\n".getBytes(), StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(path, FileTime.fromMillis(modified.toMillis() + 1000));
+    assertNull(FastaIndex.cached(path));
+    FastaIndex index = FastaIndex.get(path);
+    assertEquals(11, index.entries());
+    assertEquals(5, index.decoys("rev_"));
+  }
+}
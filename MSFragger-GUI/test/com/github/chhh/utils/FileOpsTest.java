@@ -0,0 +1,87 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.chhh.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileOpsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private int run(ByteArrayOutputStream err, String... args) throws Exception {
+    return FileOps.run(args, new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+  }
+
+  @Test
+  public void manyOperationsInOneGo() throws Exception {
+    Path dir = tmp.newFolder().toPath();
+    Path a = Files.write(dir.resolve("a.txt"), "a".getBytes());
+    Path b = Files.write(dir.resolve("b.txt"), "b".getBytes());
+    Path c = Files.write(dir.resolve("c.txt"), "c".getBytes());
+    Path sub = Files.createDirectories(dir.resolve("sub"));
+    Files.write(sub.resolve("x.txt"), "x".getBytes());
+
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int exitCode = run(err,
+        "move", a.toString(), dir.resolve("a-moved.txt").toString(),
+        "copy", b.toString(), dir.resolve("b-copy.txt").toString(),
+        "delete", c.toString(),
+        "delete", sub.toString());
+    assertEquals(err.toString(), 0, exitCode);
+    assertFalse(Files.exists(a));
+    assertEquals("a", new String(Files.readAllBytes(dir.resolve("a-moved.txt"))));
+    assertTrue(Files.exists(b));
+    assertTrue(Files.exists(dir.resolve("b-copy.txt")));
+    assertFalse(Files.exists(c));
+    assertFalse(Files.exists(sub));
+  }
+
+  @Test
+  public void failuresAreReportedPerEntry() throws Exception {
+    Path dir = tmp.newFolder().toPath();
+    Path a = Files.write(dir.resolve("a.txt"), "a".getBytes());
+    Path missing1 = dir.resolve("missing1.txt");
+    Path missing2 = dir.resolve("missing2.txt");
+
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int exitCode = run(err,
+        "move", missing1.toString(), dir.resolve("1.txt").toString(),
+        "move", a.toString(), dir.resolve("2.txt").toString(),
+        "move", missing2.toString(), dir.resolve("3.txt").toString());
+    assertEquals(1, exitCode);
+    assertTrue(err.toString().contains(missing1.toString()));
+    assertTrue(err.toString().contains(missing2.toString()));
+    assertTrue("entries that can be done are still done", Files.exists(dir.resolve("2.txt")));
+
+    err.reset();
+    exitCode = run(err, FileOps.NO_ERR, "move", missing1.toString(), dir.resolve("1.txt").toString());
+    assertEquals(0, exitCode);
+    assertEquals(0, err.size());
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of FragPipe.
+ *
+ * FragPipe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FragPipe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FragPipe. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.chhh.utils.swing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class TextConsoleTest {
+
+  @Test
+  public void keepsLastLinesOnScreenAndAllInLog() throws Exception {
+    TextConsole console = new TextConsole(false);
+    console.setMaxLines(100);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      String line = "line " + i + "\n";
+      console.append(i % 2 == 0 ? Color.BLACK : Color.RED, line);
+      expected.append(line);
+    }
+    console.append(Color.BLACK, "progress 1%\rprogress 2%\r\n");
+    expected.append("progress 1%\u200B\nprogress 2%\n");
+    EventQueue.invokeAndWait(() -> {});
+
+    String shown = console.getDocument().getText(0, console.getDocument().getLength());
+    assertTrue(console.getDocument().getDefaultRootElement().getElementCount() <= 100);
+    assertTrue(shown.endsWith("line 4999\nprogress 1%\u200B\nprogress 2%\n"));
+    assertEquals(expected.toString().replace("\n", System.lineSeparator()), console.getLogText());
+
+    console.setText("");
+    console.append(Color.BLACK, "after clear\n");
+    EventQueue.invokeAndWait(() -> {});
+    assertEquals("after clear\n", console.getDocument().getText(0, console.getDocument().getLength()));
+    assertEquals("after clear" + System.lineSeparator(), console.getLogText());
+  }
+
+  @Test
+  public void writtenLogLeavesOutOverwrittenProgress() throws Exception {
+    TextConsole console = new TextConsole(false);
+    console.append(Color.BLACK, "start\nprogress 1%\rprogress 2%\r\ndone\n");
+    StringWriter w = new StringWriter();
+    console.writeLog(w);
+    String sep = System.lineSeparator();
+    assertEquals("start" + sep + "progress 2%" + sep + "done" + sep, w.toString());
+  }
+}